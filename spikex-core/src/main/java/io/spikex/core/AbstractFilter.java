@@ -18,10 +18,16 @@
 package io.spikex.core;
 
 import com.eaio.uuid.UUID;
+import static io.spikex.core.helper.Events.DSTYPE_COUNTER;
+import static io.spikex.core.helper.Events.EVENT_FIELD_ACK_ADDRESS;
+import static io.spikex.core.helper.Events.EVENT_FIELD_ACK_STATUS;
 import static io.spikex.core.helper.Events.EVENT_FIELD_CHAIN;
 import static io.spikex.core.helper.Events.EVENT_FIELD_ID;
+import io.spikex.core.helper.Events;
 import io.spikex.core.helper.Variables;
 import io.spikex.core.util.HostOs;
+import java.util.ArrayList;
+import java.util.List;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.eventbus.Message;
 import org.vertx.java.core.json.JsonObject;
@@ -39,13 +45,25 @@ public abstract class AbstractFilter extends AbstractVerticle {
     private String m_srcAddr;
     private String m_destAddr;
     private String m_chainName;
+    private boolean m_ackEvents;
+
+    // Rejected events (eg. full queues)
+    private boolean m_rejected;
+    private long m_rejectedCount;
+    private long m_rejectedSinceWarn;
+    private long m_lastRejectWarn;
 
     public static final String CONF_KEY_SOURCE_ADDRESS = "source-address";
     public static final String CONF_KEY_DEST_ADDRESS = "dest-address";
     public static final String CONF_KEY_CHAIN_NAME = "chain-name";
+    public static final String CONF_KEY_ACK_EVENTS = "ack-events";
 
     public static final String MSG_FIELD_FILTER_CHAIN = "filter-chain";
 
+    public static final String METRIC_REJECTED = "filter.rejected";
+
+    private static final long REJECT_WARN_INTERVAL = 10000L; // ms
+
     public AbstractFilter() {
         m_id = new UUID().toString();
         m_name = getClass().getSimpleName();
@@ -75,6 +93,16 @@ public abstract class AbstractFilter extends AbstractVerticle {
         return m_destAddr;
     }
 
+    /**
+     * Returns true if this is the terminal filter of an at-least-once chain
+     * ("ack-events").
+     *
+     * @return true if handled events are acknowledged
+     */
+    public final boolean isAckEvents() {
+        return m_ackEvents;
+    }
+
     @Override
     public void startVerticle() {
 
@@ -83,6 +111,9 @@ public abstract class AbstractFilter extends AbstractVerticle {
         m_destAddr = config().getString(CONF_KEY_DEST_ADDRESS);
         m_chainName = config().getString(CONF_KEY_CHAIN_NAME);
 
+        // Acknowledge handled events (terminal filter of at-least-once chain)
+        m_ackEvents = config().getBoolean(CONF_KEY_ACK_EVENTS, false);
+
         // Setup an input handler if source address has been defined
         if (m_srcAddr != null && m_srcAddr.length() > 0) {
             registerHandler();
@@ -126,6 +157,17 @@ public abstract class AbstractFilter extends AbstractVerticle {
         // Do nothing by default...
     }
 
+    /**
+     * Receive event from previous in chain. Override this to intercept events
+     * before they are passed to handleEvent (eg. to coalesce them). The
+     * default implementation calls handleEvent directly.
+     *
+     * @param event the event received from the previous filter
+     */
+    protected void receiveEvent(final JsonObject event) {
+        handleEvent(event);
+    }
+
     /**
      * Emit event to next in chain
      *
@@ -161,6 +203,74 @@ public abstract class AbstractFilter extends AbstractVerticle {
         }
     }
 
+    /**
+     * Override this to return true if the filter acknowledges the events
+     * itself once they have actually been delivered (eg. an output that sends
+     * events asynchronously). The acknowledgements are then left in the
+     * received events. By default events are acknowledged as soon as
+     * receiveEvent returns.
+     *
+     * @return true if acknowledgements are delayed by the filter
+     */
+    protected boolean isAckDelayed() {
+        return false;
+    }
+
+    /**
+     * Acknowledge events to the filters that originally created them.
+     *
+     * @param acks the acknowledgements returned by
+     * {@link Events#removeAcknowledgements}
+     * @param success true if the events were handled successfully
+     */
+    protected void acknowledgeEvents(
+            final List<JsonObject> acks,
+            final boolean success) {
+
+        for (JsonObject ack : acks) {
+            String ackAddr = (String) ack.removeField(EVENT_FIELD_ACK_ADDRESS);
+            ack.putBoolean(EVENT_FIELD_ACK_STATUS, success);
+            eventBus().send(ackAddr, ack);
+        }
+    }
+
+    /**
+     * Rejects the event that is being received (eg. the filter queues are
+     * full). The rejected event is acknowledged negatively so that the sender
+     * can deliver it again. Rejections are counted in the filter.rejected
+     * metric and logged at most once every ten seconds. Must be called from
+     * the event loop of the filter.
+     *
+     * @param event the rejected event
+     * @param reason the reason for rejection (logged)
+     */
+    protected final void rejectEvent(
+            final JsonObject event,
+            final String reason) {
+
+        m_rejected = true;
+        m_rejectedCount++;
+        m_rejectedSinceWarn++;
+
+        // Acknowledgements still carried by the event (not terminal filter)
+        List<JsonObject> acks = Events.removeAcknowledgements(event, new ArrayList());
+        if (!acks.isEmpty()) {
+            acknowledgeEvents(acks, false);
+        }
+
+        String chainName = (m_chainName != null ? m_chainName : "-");
+        publishMetric(METRIC_REJECTED, chainName + "." + getName(),
+                m_rejectedCount, DSTYPE_COUNTER);
+
+        long now = System.currentTimeMillis();
+        if (now - m_lastRejectWarn >= REJECT_WARN_INTERVAL) {
+            logger().warn("{}:{} rejected {} event(s): {}", m_chainName,
+                    getName(), m_rejectedSinceWarn, reason);
+            m_rejectedSinceWarn = 0L;
+            m_lastRejectWarn = now;
+        }
+    }
+
     /**
      * Override this to customize the registration of the message handler. The
      * default implementation registers a JVM local handler.
@@ -172,12 +282,22 @@ public abstract class AbstractFilter extends AbstractVerticle {
 
             @Override
             public void handle(final Message<JsonObject> event) {
+                List<JsonObject> acks = null;
+                if (m_ackEvents && !isAckDelayed()) {
+                    acks = Events.removeAcknowledgements(event.body(), new ArrayList());
+                }
                 // Never fall outside of the event handler
+                boolean success = false;
                 try {
-                    handleEvent(event.body());
+                    m_rejected = false;
+                    receiveEvent(event.body());
+                    success = !m_rejected;
                 } catch (Exception e) {
                     logger().error("Failed to handle event: {}", event.body(), e);
                 }
+                if (acks != null) {
+                    acknowledgeEvents(acks, success);
+                }
             }
 
         });
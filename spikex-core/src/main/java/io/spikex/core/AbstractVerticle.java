@@ -25,6 +25,7 @@ import com.hazelcast.core.HazelcastInstance;
 import io.spikex.core.helper.Variables;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Map;
 import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -96,6 +97,8 @@ public abstract class AbstractVerticle extends Verticle {
     public static final String SHARED_SENSORS_KEY = "io.spikex.sensors";
 
     private static final String EVENT_LOGGER = "io.spikex.events";
+    private static final String METRIC_INSTANCE_SEPARATOR = "#";
+    private static final String METRIC_DSTYPE_SUFFIX = ".dstype";
 
     private final Logger m_logger = LoggerFactory.getLogger(getClass());
     private final Logger m_evnLogger = LoggerFactory.getLogger(EVENT_LOGGER);
@@ -298,6 +301,43 @@ public abstract class AbstractVerticle extends Verticle {
         return m_interval;
     }
 
+    /**
+     * Publishes a metric value to the node-wide shared metrics map. The
+     * metrics are picked up by the Metrics input filter.
+     *
+     * @param name the metric name (eg. coalesce.evictions)
+     * @param instance the metric instance (eg. the chain name)
+     * @param value the metric value
+     * @param dstype the datasource type (GAUGE, COUNTER, etc..)
+     */
+    protected final void publishMetric(
+            final String name,
+            final String instance,
+            final Object value,
+            final String dstype) {
+
+        String key = name + METRIC_INSTANCE_SEPARATOR + instance;
+        Map<String, Object> metrics = vertx.sharedData().getMap(SHARED_METRICS_KEY);
+        metrics.put(key, value); // Actual value
+        metrics.put(key + METRIC_DSTYPE_SUFFIX, dstype); // Datasource type
+    }
+
+    /**
+     * Removes a metric value from the node-wide shared metrics map.
+     *
+     * @param name the metric name (eg. coalesce.evictions)
+     * @param instance the metric instance (eg. the chain name)
+     */
+    protected final void removeMetric(
+            final String name,
+            final String instance) {
+
+        String key = name + METRIC_INSTANCE_SEPARATOR + instance;
+        Map<String, Object> metrics = vertx.sharedData().getMap(SHARED_METRICS_KEY);
+        metrics.remove(key);
+        metrics.remove(key + METRIC_DSTYPE_SUFFIX);
+    }
+
     /**
      * Start verticle.
      */
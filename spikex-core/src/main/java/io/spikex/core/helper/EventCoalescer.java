@@ -0,0 +1,199 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.core.helper;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import static io.spikex.core.helper.Events.EVENT_FIELD_BATCH_EVENTS;
+import io.spikex.core.util.LastValueMap;
+import java.util.ArrayList;
+import java.util.List;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Keeps only the most recent event per key. A replaced event passes its
+ * acknowledgements (at-least-once delivery) to the event that replaced it. The key of an event is resolved
+ * from a template, such as <code>%{@dsname}.%{@instance}</code>.
+ * <p>
+ * Example configuration:
+ * <pre>
+ *  "coalesce": {
+ *      "key": "%{@dsname}.%{@instance}",
+ *      "max-size": 10000,
+ *      "flush-interval": 5000
+ *  }
+ * </pre>
+ * <p>
+ * Not thread-safe.
+ *
+ * @author cli
+ */
+public final class EventCoalescer {
+
+    private final String m_keyTemplate;
+    private final long m_flushInterval;
+    private final Variables m_variables;
+    private final LastValueMap<JsonObject> m_events;
+
+    private long m_receivedCount;
+    private long m_flushedCount;
+    private long m_evictedCount;
+
+    public static final String CONF_KEY_KEY = "key";
+    public static final String CONF_KEY_MAX_SIZE = "max-size";
+    public static final String CONF_KEY_FLUSH_INTERVAL = "flush-interval";
+
+    //
+    // Configuration defaults
+    //
+    public static final String DEF_KEY = "%{@dsname}.%{@instance}";
+    public static final int DEF_MAX_SIZE = 10000;
+    public static final long DEF_FLUSH_INTERVAL = 5000L; // ms
+
+    //
+    // Metric names
+    //
+    public static final String METRIC_RECEIVED = "coalesce.events.received";
+    public static final String METRIC_FLUSHED = "coalesce.events.flushed";
+    public static final String METRIC_EVICTED = "coalesce.events.evicted";
+    public static final String METRIC_RATIO = "coalesce.ratio";
+
+    private EventCoalescer(
+            final String keyTemplate,
+            final int maxSize,
+            final long flushInterval,
+            final Variables variables) {
+
+        m_keyTemplate = keyTemplate;
+        m_flushInterval = flushInterval;
+        m_variables = variables;
+        m_events = new LastValueMap(maxSize);
+    }
+
+    public long getFlushInterval() {
+        return m_flushInterval;
+    }
+
+    public int size() {
+        return m_events.size();
+    }
+
+    public long getReceivedCount() {
+        return m_receivedCount;
+    }
+
+    public long getFlushedCount() {
+        return m_flushedCount;
+    }
+
+    public long getEvictedCount() {
+        return m_evictedCount;
+    }
+
+    /**
+     * Returns the share of received events that were coalesced away (0.0 -
+     * 1.0).
+     *
+     * @return the coalescing ratio
+     */
+    public double getCoalescingRatio() {
+        long received = m_receivedCount;
+        long passed = m_flushedCount + m_evictedCount;
+        return (received > 0L ? 1.0d - ((double) passed / (double) received) : 0.0d);
+    }
+
+    /**
+     * Adds the event (or all events of a batch) replacing any older event with
+     * the same key. If the coalescer is full, events are evicted to make room.
+     *
+     * @param event the event or batch event to add
+     * @param evicted the list where to add the evicted events
+     * @return the number of evicted events
+     */
+    public int add(
+            final JsonObject event,
+            final List<JsonObject> evicted) {
+
+        int count = 0;
+        JsonArray batch = event.getArray(EVENT_FIELD_BATCH_EVENTS);
+        if (batch != null) {
+            for (int i = 0; i < batch.size(); i++) {
+                count += addEvent((JsonObject) batch.get(i), evicted);
+            }
+        } else {
+            count = addEvent(event, evicted);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the latest event of every key and clears the coalescer.
+     *
+     * @return the coalesced events
+     */
+    public JsonArray flush() {
+
+        List<JsonObject> events = new ArrayList(m_events.size());
+        m_flushedCount += m_events.drainTo(events);
+
+        JsonArray batch = new JsonArray();
+        for (JsonObject event : events) {
+            batch.addObject(event);
+        }
+        return batch;
+    }
+
+    public static EventCoalescer create(
+            final JsonObject config,
+            final Variables variables) {
+
+        String key = config.getString(CONF_KEY_KEY, DEF_KEY);
+        int maxSize = config.getInteger(CONF_KEY_MAX_SIZE, DEF_MAX_SIZE);
+        long interval = config.getLong(CONF_KEY_FLUSH_INTERVAL, DEF_FLUSH_INTERVAL);
+        //
+        // Sanity check
+        //
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(key), "Please specify a coalesce key");
+        Preconditions.checkArgument(maxSize > 0, "Coalesce max-size must be greater than zero");
+        Preconditions.checkArgument(interval > 0L, "Coalesce flush-interval must be greater than zero");
+
+        return new EventCoalescer(key, maxSize, interval, variables);
+    }
+
+    private int addEvent(
+            final JsonObject event,
+            final List<JsonObject> evicted) {
+
+        m_receivedCount++;
+        String key = String.valueOf(m_variables.translate(event, m_keyTemplate));
+        LastValueMap<JsonObject> events = m_events;
+
+        int count = 0;
+        if (events.isFull() && !events.containsKey(key)) {
+            evicted.add(events.evict(key));
+            m_evictedCount++;
+            count++;
+        }
+        JsonObject replaced = events.put(key, event);
+        if (replaced != null) {
+            Events.carryAcknowledgements(replaced, event);
+        }
+        return count;
+    }
+}
@@ -23,6 +23,7 @@ import io.spikex.core.AbstractFilter;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
@@ -152,6 +153,28 @@ public final class Events {
      */
     public static final String EVENT_FIELD_BATCH_SIZE = "@batch-size";
 
+    /**
+     * The address where the event should be acknowledged to when it has been
+     * handled by the terminal filter (at-least-once delivery)
+     */
+    public static final String EVENT_FIELD_ACK_ADDRESS = "@ack-address";
+
+    /**
+     * The acknowledgement identifier of the event (at-least-once delivery)
+     */
+    public static final String EVENT_FIELD_ACK_ID = "@ack-id";
+
+    /**
+     * The acknowledgement status - true if the event was handled successfully
+     */
+    public static final String EVENT_FIELD_ACK_STATUS = "@ack-status";
+
+    /**
+     * The acknowledgements of the events that have been merged into or
+     * replaced by this event (objects with an address and an identifier)
+     */
+    public static final String EVENT_FIELD_ACKS = "@acks";
+
     //
     // Supported event types
     //
@@ -387,6 +410,27 @@ public final class Events {
             final AbstractFilter filter,
             final List<String> events) {
 
+        Preconditions.checkNotNull(events);
+
+        JsonArray jsonEvents = new JsonArray();
+        for (String event : events) {
+            jsonEvents.addObject(new JsonObject(event));
+        }
+        return createBatchEvent(filter, jsonEvents);
+    }
+
+    /**
+     * Creates a new batch event based on the given filter.
+     *
+     * @param filter the filter that created the event
+     * @param events the events to add to the batch
+     * <p>
+     * @return the new batch event
+     */
+    public static JsonObject createBatchEvent(
+            final AbstractFilter filter,
+            final JsonArray events) {
+
         Preconditions.checkNotNull(filter);
         Preconditions.checkNotNull(events);
 
@@ -398,16 +442,88 @@ public final class Events {
         batch.putString(EVENT_FIELD_TYPE, EVENT_TYPE_BATCH);
         batch.putString(EVENT_FIELD_CHAIN, filter.getChainName());
         batch.putString(EVENT_FIELD_PRIORITY, EVENT_PRIORITY_NORMAL); // Default
+        batch.putArray(EVENT_FIELD_BATCH_EVENTS, events);
+        batch.putNumber(EVENT_FIELD_BATCH_SIZE, events.size());
+        return batch;
+    }
 
-        JsonArray jsonEvents = new JsonArray();
-        for (String event : events) {
-            jsonEvents.addObject(new JsonObject(event));
+    /**
+     * Removes the acknowledgement addresses and identifiers from the event
+     * (and from every event of a batch) so that they are not passed to
+     * outputs.
+     *
+     * @param event the event to strip
+     * @param acks the list where the removed acknowledgements are added to
+     * <p>
+     * @return the list of acknowledgements
+     */
+    public static List<JsonObject> removeAcknowledgements(
+            final JsonObject event,
+            final List<JsonObject> acks) {
+
+        Object ackAddr = event.removeField(EVENT_FIELD_ACK_ADDRESS);
+        Object ackId = event.removeField(EVENT_FIELD_ACK_ID);
+        if (ackAddr != null) {
+            JsonObject ack = new JsonObject();
+            ack.putString(EVENT_FIELD_ACK_ADDRESS, String.valueOf(ackAddr));
+            ack.putString(EVENT_FIELD_ACK_ID, String.valueOf(ackId));
+            acks.add(ack);
         }
 
-        batch.putString(EVENT_FIELD_TYPE, EVENT_TYPE_BATCH);
-        batch.putArray(EVENT_FIELD_BATCH_EVENTS, jsonEvents);
-        batch.putNumber(EVENT_FIELD_BATCH_SIZE, events.size());
-        return batch;
+        // Merged or replaced events
+        JsonArray carriedAcks = event.getArray(EVENT_FIELD_ACKS);
+        if (carriedAcks != null) {
+            event.removeField(EVENT_FIELD_ACKS);
+            for (int i = 0; i < carriedAcks.size(); i++) {
+                Object ack = carriedAcks.get(i);
+                if (ack instanceof JsonObject) {
+                    acks.add((JsonObject) ack);
+                }
+            }
+        }
+
+        JsonArray batch = event.getArray(EVENT_FIELD_BATCH_EVENTS);
+        if (batch != null) {
+            for (int i = 0; i < batch.size(); i++) {
+                Object batchEvent = batch.get(i);
+                if (batchEvent instanceof JsonObject) {
+                    removeAcknowledgements((JsonObject) batchEvent, acks);
+                }
+            }
+        }
+        return acks;
+    }
+
+    /**
+     * Moves the acknowledgements of an event that is merged into or replaced
+     * by another event to the other event. Use this when an event is not
+     * passed on as such, so that the acknowledgements still reach the
+     * terminal filter.
+     *
+     * @param from the event that is merged or replaced
+     * @param to the event that is passed on
+     */
+    public static void carryAcknowledgements(
+            final JsonObject from,
+            final JsonObject to) {
+
+        if (from != to
+                && (from.containsField(EVENT_FIELD_ACK_ADDRESS)
+                || from.containsField(EVENT_FIELD_ACKS)
+                || from.containsField(EVENT_FIELD_BATCH_EVENTS))) {
+
+            List<JsonObject> acks = removeAcknowledgements(from, new ArrayList());
+            if (!acks.isEmpty()) {
+                JsonArray carried = to.getArray(EVENT_FIELD_ACKS);
+                if (carried == null) {
+                    carried = new JsonArray();
+                    to.putArray(EVENT_FIELD_ACKS, carried);
+                }
+                for (JsonObject ack : acks) {
+                    carried.addObject(ack);
+                }
+            }
+        }
     }
 
     /**
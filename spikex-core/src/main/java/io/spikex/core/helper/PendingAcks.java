@@ -0,0 +1,128 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.core.helper;
+
+import java.util.List;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Acknowledgements of an event (or batch) that is delivered asynchronously,
+ * possibly as several requests. Every request is registered with
+ * {@link #request()} and {@link #seal()} is called once all requests have
+ * been made. The completion handler is called once all requests have
+ * completed: successfully if every request succeeded, otherwise negatively.
+ * An event that resulted in no request at all (eg. it was dropped) is
+ * acknowledged negatively, so that the sender can deliver it again.
+ * <p>
+ * Not thread-safe. Meant to be used from the event loop of one verticle.
+ *
+ * @author cli
+ */
+public final class PendingAcks {
+
+    private final List<JsonObject> m_acks;
+    private final Handler<PendingAcks> m_handler;
+    private int m_requests;
+    private int m_outstanding;
+    private boolean m_failed;
+    private boolean m_sealed;
+    private boolean m_done;
+
+    /**
+     * Creates new pending acknowledgements.
+     *
+     * @param acks the acknowledgements (see
+     * {@link Events#removeAcknowledgements})
+     * @param handler the handler that is called once when the outcome is
+     * known
+     */
+    public PendingAcks(
+            final List<JsonObject> acks,
+            final Handler<PendingAcks> handler) {
+
+        m_acks = acks;
+        m_handler = handler;
+    }
+
+    public List<JsonObject> getAcks() {
+        return m_acks;
+    }
+
+    /**
+     * Returns true if all requests succeeded (at least one was made).
+     *
+     * @return true if the events were delivered
+     */
+    public boolean isSuccess() {
+        return (!m_failed && m_requests > 0);
+    }
+
+    public boolean isDone() {
+        return m_done;
+    }
+
+    /**
+     * Registers a new request.
+     *
+     * @return the handler to call with the outcome of the request (only the
+     * first call counts)
+     */
+    public Handler<Boolean> request() {
+        m_requests++;
+        m_outstanding++;
+        return new Handler<Boolean>() {
+
+            private boolean m_completed;
+
+            @Override
+            public void handle(final Boolean success) {
+                if (!m_completed) {
+                    m_completed = true;
+                    m_outstanding--;
+                    if (!success) {
+                        m_failed = true;
+                    }
+                    complete();
+                }
+            }
+        };
+    }
+
+    /**
+     * Marks the delivery as failed (eg. the output threw an exception).
+     */
+    public void fail() {
+        m_failed = true;
+    }
+
+    /**
+     * Tells that all requests have been registered.
+     */
+    public void seal() {
+        m_sealed = true;
+        complete();
+    }
+
+    private void complete() {
+        if (m_sealed && m_outstanding == 0 && !m_done) {
+            m_done = true;
+            m_handler.handle(this);
+        }
+    }
+}
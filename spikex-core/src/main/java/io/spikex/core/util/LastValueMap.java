@@ -0,0 +1,244 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.core.util;
+
+import com.google.common.base.Preconditions;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounded string keyed map that keeps only the latest value per key. Uses
+ * open addressing with linear probing over primitive hash and key arrays, so
+ * that updating an existing key does not allocate.
+ * <p>
+ * When the map is full, a new key can only be added after evicting an
+ * existing entry with {@link #evict(java.lang.String)}.
+ * <p>
+ * Not thread-safe.
+ *
+ * @param <V> the value type
+ * @author cli
+ */
+public final class LastValueMap<V> {
+
+    private final int m_maxSize;
+    private final int m_mask;
+    private final int[] m_hashes;
+    private final String[] m_keys;
+    private final Object[] m_values;
+    private int m_size;
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    public LastValueMap(final int maxSize) {
+
+        Preconditions.checkArgument(maxSize > 0, "maxSize must be greater than zero");
+
+        int capacity = Integer.highestOneBit(
+                Math.max(2, (int) Math.ceil(maxSize / LOAD_FACTOR)) - 1) << 1;
+
+        m_maxSize = maxSize;
+        m_mask = capacity - 1;
+        m_hashes = new int[capacity];
+        m_keys = new String[capacity];
+        m_values = new Object[capacity];
+        m_size = 0;
+    }
+
+    public int size() {
+        return m_size;
+    }
+
+    public int getMaxSize() {
+        return m_maxSize;
+    }
+
+    public boolean isEmpty() {
+        return (m_size == 0);
+    }
+
+    public boolean isFull() {
+        return (m_size >= m_maxSize);
+    }
+
+    public boolean containsKey(final String key) {
+        return (indexOf(key, hash(key)) >= 0);
+    }
+
+    public V get(final String key) {
+        int index = indexOf(key, hash(key));
+        return (index >= 0 ? (V) m_values[index] : null);
+    }
+
+    /**
+     * Stores the value of the given key replacing any previous value.
+     *
+     * @param key the key
+     * @param value the new value
+     * @return the replaced value or null if the key was not in the map
+     * @throws IllegalStateException if the key is new and the map is full
+     */
+    public V put(
+            final String key,
+            final V value) {
+
+        Preconditions.checkNotNull(key, "key is null");
+        Preconditions.checkNotNull(value, "value is null");
+
+        int hash = hash(key);
+        int mask = m_mask;
+        int index = hash & mask;
+        String[] keys = m_keys;
+
+        while (keys[index] != null) {
+            if (m_hashes[index] == hash && keys[index].equals(key)) {
+                V prev = (V) m_values[index];
+                m_values[index] = value;
+                return prev;
+            }
+            index = (index + 1) & mask;
+        }
+
+        Preconditions.checkState(m_size < m_maxSize, "Map is full");
+        m_hashes[index] = hash;
+        keys[index] = key;
+        m_values[index] = value;
+        m_size++;
+        return null;
+    }
+
+    /**
+     * Removes the entry that is closest to the home slot of the given key.
+     * Used to make room for the key when the map is full.
+     *
+     * @param key the key that needs room
+     * @return the evicted value or null if the map is empty
+     */
+    public V evict(final String key) {
+
+        if (m_size == 0) {
+            return null;
+        }
+
+        int mask = m_mask;
+        int index = hash(key) & mask;
+        while (m_keys[index] == null) {
+            index = (index + 1) & mask;
+        }
+
+        V value = (V) m_values[index];
+        removeAt(index);
+        return value;
+    }
+
+    public V remove(final String key) {
+
+        int index = indexOf(key, hash(key));
+        if (index < 0) {
+            return null;
+        }
+
+        V value = (V) m_values[index];
+        removeAt(index);
+        return value;
+    }
+
+    /**
+     * Moves all values to the given list and clears the map.
+     *
+     * @param values the list where to add the values
+     * @return the number of values added
+     */
+    public int drainTo(final List<? super V> values) {
+
+        int count = m_size;
+        if (count > 0) {
+            Object[] vals = m_values;
+            for (int i = 0; i < vals.length; i++) {
+                if (vals[i] != null) {
+                    values.add((V) vals[i]);
+                }
+            }
+            clear();
+        }
+        return count;
+    }
+
+    public void clear() {
+        Arrays.fill(m_hashes, 0);
+        Arrays.fill(m_keys, null);
+        Arrays.fill(m_values, null);
+        m_size = 0;
+    }
+
+    private int indexOf(
+            final String key,
+            final int hash) {
+
+        int mask = m_mask;
+        int index = hash & mask;
+        String[] keys = m_keys;
+
+        while (keys[index] != null) {
+            if (m_hashes[index] == hash && keys[index].equals(key)) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void removeAt(final int index) {
+        //
+        // Backward shift deletion (keeps probe sequences intact)
+        //
+        int mask = m_mask;
+        int[] hashes = m_hashes;
+        String[] keys = m_keys;
+        Object[] values = m_values;
+
+        int free = index;
+        int next = index;
+        while (true) {
+            next = (next + 1) & mask;
+            if (keys[next] == null) {
+                break;
+            }
+            int home = hashes[next] & mask;
+            boolean stays = (free <= next)
+                    ? (free < home && home <= next)
+                    : (free < home || home <= next);
+            if (!stays) {
+                hashes[free] = hashes[next];
+                keys[free] = keys[next];
+                values[free] = values[next];
+                free = next;
+            }
+        }
+
+        hashes[free] = 0;
+        keys[free] = null;
+        values[free] = null;
+        m_size--;
+    }
+
+    private static int hash(final String key) {
+        int h = key.hashCode() * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,525 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.core.util;
+
+import com.google.common.base.Preconditions;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
+
+/**
+ * Splits a stream of bytes into lines. Data is fed to the framer in chunks
+ * (byte buffers or Vert.x buffers) and lines are framed at byte level by
+ * searching for the encoded delimiter. A partial line at the end of a chunk
+ * is carried over to the next chunk.
+ * <p>
+ * Lines that are fully contained in a chunk are passed to the handler as
+ * views of the chunk without copying. Lines are decoded only if the handler
+ * asks for the string value. Lines longer than the maximum line length are
+ * passed in parts, so that the carry-over buffer never grows over the
+ * maximum line length. Empty lines are ignored unless requested otherwise.
+ * <p>
+ * Fixed width charsets (UTF-16 and UTF-32) are supported by searching for
+ * the delimiter at code unit boundaries only.
+ * <p>
+ * Not thread-safe.
+ *
+ * @author cli
+ */
+public final class LineFramer {
+
+    private final byte[] m_delimiter; // Encoded delimiter
+    private final int m_alignment; // Code unit size of fixed width charsets
+    private final int m_maxLineLength; // bytes
+    private final boolean m_emitEmpty;
+    private final CharsetDecoder m_decoder;
+    private final Line m_line; // Reused line view
+
+    private ByteBuffer m_carry; // Partial line
+    private boolean m_carrySplit; // Carried line has already been split
+    private CharBuffer m_chars; // Reusable decode buffer
+    private long m_splitCount;
+
+    private static final int INITIAL_CARRY_SIZE = 256; // bytes
+
+    /**
+     * Creates a new line framer.
+     *
+     * @param charset the character set of the data
+     * @param delimiter the line delimiter (eg. "\n")
+     * @param maxLineLength the maximum line length in bytes
+     */
+    public LineFramer(
+            final Charset charset,
+            final String delimiter,
+            final int maxLineLength) {
+
+        this(charset, delimiter, maxLineLength, false);
+    }
+
+    /**
+     * Creates a new line framer.
+     *
+     * @param charset the character set of the data
+     * @param delimiter the line delimiter (eg. "\n")
+     * @param maxLineLength the maximum line length in bytes
+     * @param emitEmpty true if empty lines should be passed to the handler
+     */
+    public LineFramer(
+            final Charset charset,
+            final String delimiter,
+            final int maxLineLength,
+            final boolean emitEmpty) {
+
+        Preconditions.checkArgument(delimiter != null && delimiter.length() > 0,
+                "delimiter is null or empty");
+
+        m_delimiter = encodeDelimiter(charset, delimiter);
+        m_alignment = alignment(charset);
+        Preconditions.checkArgument(maxLineLength >= m_alignment,
+                "maxLineLength is too small");
+
+        m_maxLineLength = maxLineLength - (maxLineLength % m_alignment);
+        m_emitEmpty = emitEmpty;
+        m_decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        m_line = new Line(this);
+        m_carry = ByteBuffer.allocate(Math.min(INITIAL_CARRY_SIZE, m_maxLineLength));
+        m_chars = CharBuffer.allocate(INITIAL_CARRY_SIZE);
+    }
+
+    /**
+     * Returns the amount of bytes of the carried partial line.
+     *
+     * @return the amount of pending bytes
+     */
+    public int getPending() {
+        return m_carry.position();
+    }
+
+    /**
+     * Returns the amount of lines that have been split because they were
+     * longer than the maximum line length.
+     *
+     * @return the split count
+     */
+    public long getSplitCount() {
+        return m_splitCount;
+    }
+
+    public int getMaxLineLength() {
+        return m_maxLineLength;
+    }
+
+    /**
+     * Frames the given chunk. All remaining bytes of the chunk are consumed.
+     *
+     * @param chunk the Vert.x buffer
+     * @param handler the line handler
+     * @return the amount of lines passed to the handler
+     */
+    public int frame(
+            final Buffer chunk,
+            final Handler<Line> handler) {
+
+        return frame(chunk.getByteBuf().nioBuffer(), handler);
+    }
+
+    /**
+     * Frames the remaining bytes of the given chunk. The position of the
+     * chunk is moved to its limit.
+     *
+     * @param chunk the byte buffer
+     * @param handler the line handler
+     * @return the amount of lines passed to the handler
+     */
+    public int frame(
+            final ByteBuffer chunk,
+            final Handler<Line> handler) {
+
+        int pos = chunk.position();
+        int limit = chunk.limit();
+        int count = 0;
+        int delimLen = m_delimiter.length;
+
+        //
+        // Complete carried line first
+        //
+        int carryLen = m_carry.position();
+        if (carryLen > 0 || m_carrySplit) {
+            int next = straddle(chunk, pos, limit);
+            if (next >= 0) {
+                // Delimiter was split between chunks
+                m_carry.position(carryLen - (delimLen - (next - pos)));
+                count += emitCarry(m_emitEmpty, handler);
+                pos = next;
+            } else {
+                int skip = (m_alignment - (carryLen % m_alignment)) % m_alignment;
+                int end = indexOf(chunk, pos + skip, limit);
+                count += append(chunk, pos, (end >= 0 ? end : limit), handler);
+                if (end < 0) {
+                    chunk.position(limit);
+                    return count;
+                }
+                count += emitCarry(m_emitEmpty, handler);
+                pos = end + delimLen;
+            }
+        }
+
+        //
+        // Lines within chunk (no copying)
+        //
+        int end;
+        while ((end = indexOf(chunk, pos, limit)) >= 0) {
+            count += emitView(chunk, pos, end, limit, handler);
+            pos = end + delimLen;
+        }
+
+        // Partial line
+        count += append(chunk, pos, limit, handler);
+        chunk.position(limit);
+        return count;
+    }
+
+    /**
+     * Passes the carried partial line (if any) to the handler. Call this at
+     * the end of data.
+     *
+     * @param handler the line handler
+     * @return the amount of lines passed to the handler
+     */
+    public int flush(final Handler<Line> handler) {
+        return emitCarry(false, handler);
+    }
+
+    /**
+     * Discards the carried partial line.
+     */
+    public void reset() {
+        m_carry.clear();
+        m_carrySplit = false;
+    }
+
+    private int emitView(
+            final ByteBuffer chunk,
+            final int start,
+            final int end,
+            final int limit,
+            final Handler<Line> handler) {
+
+        int count = 0;
+        int from = start;
+        boolean split = false;
+        while (end - from > m_maxLineLength) {
+            count += emit(chunk, from, from + m_maxLineLength, limit, true, false, handler);
+            from += m_maxLineLength;
+            split = true;
+        }
+        if (split) {
+            m_splitCount++;
+        }
+        return count + emit(chunk, from, end, limit, split, m_emitEmpty, handler);
+    }
+
+    private int emitCarry(
+            final boolean emitEmpty,
+            final Handler<Line> handler) {
+
+        ByteBuffer carry = m_carry;
+        int count = emit(carry, 0, carry.position(), carry.capacity(),
+                m_carrySplit, (emitEmpty && !m_carrySplit), handler);
+        if (m_carrySplit) {
+            m_splitCount++;
+        }
+        reset();
+        return count;
+    }
+
+    private int emit(
+            final ByteBuffer buf,
+            final int start,
+            final int end,
+            final int limit,
+            final boolean split,
+            final boolean emitEmpty,
+            final Handler<Line> handler) {
+
+        int count = 0;
+        if (end > start || emitEmpty) {
+            Line line = m_line;
+            line.set(buf, start, end, limit, split);
+            handler.handle(line);
+            line.clear();
+            count = 1;
+        }
+        return count;
+    }
+
+    private int append(
+            final ByteBuffer chunk,
+            final int start,
+            final int end,
+            final Handler<Line> handler) {
+
+        int count = 0;
+        int from = start;
+        while (from < end) {
+            int len = Math.min(m_maxLineLength - m_carry.position(), end - from);
+            ensureCarry(m_carry.position() + len);
+            ByteBuffer carry = m_carry;
+            for (int i = 0; i < len; i++) {
+                carry.put(chunk.get(from + i));
+            }
+            from += len;
+            if (carry.position() == m_maxLineLength) {
+                // Line is longer than max line length - pass what we have
+                count += emit(carry, 0, carry.position(), carry.capacity(), true, false, handler);
+                carry.clear();
+                m_carrySplit = true;
+            }
+        }
+        return count;
+    }
+
+    private void ensureCarry(final int size) {
+        ByteBuffer carry = m_carry;
+        if (carry.capacity() < size) {
+            int capacity = carry.capacity();
+            while (capacity < size) {
+                capacity *= 2;
+            }
+            ByteBuffer buf = ByteBuffer.allocate(Math.min(capacity, m_maxLineLength));
+            carry.flip();
+            buf.put(carry);
+            m_carry = buf;
+        }
+    }
+
+    /**
+     * Returns the index after the delimiter if the delimiter starts at the end
+     * of the carried line and ends in the chunk. Otherwise returns -1.
+     */
+    private int straddle(
+            final ByteBuffer chunk,
+            final int pos,
+            final int limit) {
+
+        byte[] delim = m_delimiter;
+        ByteBuffer carry = m_carry;
+        int carryLen = carry.position();
+
+        for (int j = 1; j < delim.length; j++) {
+            // j bytes of delimiter in carry, the rest in chunk
+            int carryStart = carryLen - j;
+            int rest = delim.length - j;
+            if (carryStart < 0
+                    || (carryStart % m_alignment) != 0
+                    || rest > (limit - pos)) {
+                continue;
+            }
+            boolean match = true;
+            for (int k = 0; k < j && match; k++) {
+                match = (carry.get(carryStart + k) == delim[k]);
+            }
+            for (int k = 0; k < rest && match; k++) {
+                match = (chunk.get(pos + k) == delim[j + k]);
+            }
+            if (match) {
+                return pos + rest;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(
+            final ByteBuffer chunk,
+            final int from,
+            final int limit) {
+
+        byte[] delim = m_delimiter;
+        int delimLen = delim.length;
+        byte first = delim[0];
+        for (int i = from; i <= limit - delimLen; i += m_alignment) {
+            if (chunk.get(i) == first) {
+                int j = 1;
+                while (j < delimLen && chunk.get(i + j) == delim[j]) {
+                    j++;
+                }
+                if (j == delimLen) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private String decode(
+            final ByteBuffer buf,
+            final int start,
+            final int end,
+            final int limit) {
+
+        int pos = buf.position();
+        buf.limit(end);
+        buf.position(start);
+        CharBuffer chars = m_chars;
+        int maxChars = (int) ((end - start) * m_decoder.maxCharsPerByte()) + 1;
+        if (chars.capacity() < maxChars) {
+            chars = CharBuffer.allocate(maxChars);
+            m_chars = chars;
+        }
+        chars.clear();
+        m_decoder.reset();
+        m_decoder.decode(buf, chars, true);
+        m_decoder.flush(chars);
+        chars.flip();
+        buf.limit(limit);
+        buf.position(pos);
+        return chars.toString();
+    }
+
+    private static byte[] encodeDelimiter(
+            final Charset charset,
+            final String delimiter) {
+
+        Charset cs = charset;
+        // Do not include byte order mark
+        if ("UTF-16".equals(cs.name())) {
+            cs = Charset.forName("UTF-16BE");
+        } else if ("UTF-32".equals(cs.name())) {
+            cs = Charset.forName("UTF-32BE");
+        }
+        return delimiter.getBytes(cs);
+    }
+
+    private static int alignment(final Charset charset) {
+        String name = charset.name();
+        int alignment = 1; // ASCII compatible charsets
+        if (name.startsWith("UTF-16")) {
+            alignment = 2;
+        } else if (name.startsWith("UTF-32")) {
+            alignment = 4;
+        }
+        return alignment;
+    }
+
+    /**
+     * A framed line. The line is a view of the framed data and is valid only
+     * during the handler call.
+     */
+    public static final class Line {
+
+        private final LineFramer m_framer;
+        private ByteBuffer m_buf;
+        private int m_start;
+        private int m_end;
+        private int m_limit;
+        private boolean m_split;
+        private String m_str; // Decoded lazily
+
+        private Line(final LineFramer framer) {
+            m_framer = framer;
+        }
+
+        /**
+         * Returns the length of the line in bytes.
+         *
+         * @return the line length
+         */
+        public int length() {
+            return m_end - m_start;
+        }
+
+        /**
+         * Returns true if this line is a part of a line that is longer than
+         * the maximum line length.
+         *
+         * @return true if this is a part of a longer line
+         */
+        public boolean isSplit() {
+            return m_split;
+        }
+
+        /**
+         * Returns the line bytes as a read-only view.
+         *
+         * @return the line bytes
+         */
+        public ByteBuffer bytes() {
+            ByteBuffer view = m_buf.asReadOnlyBuffer();
+            view.limit(m_end);
+            view.position(m_start);
+            return view;
+        }
+
+        /**
+         * Copies the line bytes to the given array.
+         *
+         * @param dst the destination array
+         * @param off the offset in the destination array
+         */
+        public void copyTo(
+                final byte[] dst,
+                final int off) {
+
+            for (int i = m_start; i < m_end; i++) {
+                dst[off + i - m_start] = m_buf.get(i);
+            }
+        }
+
+        /**
+         * Returns the decoded line. The line is decoded on the first call.
+         *
+         * @return the line as string
+         */
+        @Override
+        public String toString() {
+            String str = m_str;
+            if (str == null) {
+                str = m_framer.decode(m_buf, m_start, m_end, m_limit);
+                m_str = str;
+            }
+            return str;
+        }
+
+        private void set(
+                final ByteBuffer buf,
+                final int start,
+                final int end,
+                final int limit,
+                final boolean split) {
+
+            m_buf = buf;
+            m_start = start;
+            m_end = end;
+            m_limit = limit;
+            m_split = split;
+            m_str = null;
+        }
+
+        private void clear() {
+            m_buf = null;
+            m_str = null;
+        }
+    }
+}
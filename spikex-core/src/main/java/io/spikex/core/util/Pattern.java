@@ -19,6 +19,7 @@ package io.spikex.core.util;
 
 import dk.brics.automaton.Automaton;
 import dk.brics.automaton.RegExp;
+import dk.brics.automaton.RunAutomaton;
 import java.util.Objects;
 
 /**
@@ -27,6 +28,9 @@ import java.util.Objects;
  * href="http://www.brics.dk/automaton">dk.brics.automaton</a> package.
  * 
  * "There is no support for capturing groups"
+ * <p>
+ * Matching runs a minimized deterministic automaton over the input in linear
+ * time, without backtracking and without allocating.
  * 
  * @author cli
  */
@@ -34,6 +38,7 @@ public final class Pattern implements Comparable<Pattern> {
 
     private final String m_regexp;
     private Automaton m_automaton;
+    private RunAutomaton m_runAutomaton;
 
     /**
      * Creates a new pattern based on the given regular expression. Please see
@@ -110,8 +115,12 @@ public final class Pattern implements Comparable<Pattern> {
      * @return true if the regular expression matches the given string
      */
     public boolean matches(final String str) {
-        Automaton am = internalCompile();
-        return am.run(str);
+        RunAutomaton ram = m_runAutomaton;
+        if (ram == null) {
+            internalCompile();
+            ram = m_runAutomaton;
+        }
+        return ram.run(str);
     }
 
     @Override
@@ -129,8 +138,24 @@ public final class Pattern implements Comparable<Pattern> {
             RegExp re = new RegExp(getRegexp());
             am = re.toAutomaton(true);
             am.minimize();
+            m_runAutomaton = new RunAutomaton(am, false);
             m_automaton = am;
         }
         return am;
     }
+
+    /**
+     * Returns a regular expression that matches the given string literally.
+     *
+     * @param str the string to quote
+     * @return the quoted regular expression
+     */
+    public static String quote(final String str) {
+        StringBuilder sb = new StringBuilder(str.length() * 2);
+        for (int i = 0; i < str.length(); i++) {
+            sb.append('\\');
+            sb.append(str.charAt(i));
+        }
+        return sb.toString();
+    }
 }
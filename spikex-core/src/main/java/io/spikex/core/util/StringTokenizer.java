@@ -18,16 +18,19 @@
 package io.spikex.core.util;
 
 import com.google.common.base.Preconditions;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * StringTokenizer based on <a
  * href="https://gist.github.com/jskorpan/1056060">https://gist.github.com/jskorpan/1056060</a>.
  *
  * @author jskorpan, cli
+ * @deprecated use {@link LineFramer} to split byte streams into lines
  */
+@Deprecated
 public class StringTokenizer {
 
-    private static final ThreadLocal<String[]> m_temp = new ThreadLocal();
     private static final ThreadLocal<Integer> m_remaining = new ThreadLocal();
 
     public static String[] tokenize(
@@ -40,34 +43,47 @@ public class StringTokenizer {
         Preconditions.checkArgument(delim != null && delim.length() > 0,
                 "delim is null or empty");
 
-        String[] temp = m_temp.get();
-        int tempLen = (str.length() / 2) + 2;
+        List<String> words = new ArrayList();
         int delimLen = delim.length();
-
-        if (temp == null || temp.length < tempLen) {
-            temp = new String[tempLen];
-            m_temp.set(temp);
-        }
-
-        int wordCount = 0;
         int i = 0;
         int j = str.indexOf(delim);
 
         while (j >= 0) {
-            temp[wordCount++] = str.substring(i, j);
+            words.add(str.substring(i, j));
             i = j + delimLen;
             j = str.indexOf(delim, i);
         }
 
-        //temp[wordCount++] = str.substring(i);
-        m_remaining.set(str.substring(i).getBytes().length);
+        // Encoded length of the remaining characters (no copying)
+        m_remaining.set(utf8Length(str, i));
 
-        String[] result = new String[wordCount];
-        System.arraycopy(temp, 0, result, 0, wordCount);
-        return result;
+        return words.toArray(new String[words.size()]);
     }
-    
+
     public static int remainingBytes() {
         return m_remaining.get();
     }
+
+    private static int utf8Length(
+            final String str,
+            final int start) {
+
+        int len = 0;
+        for (int i = start; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                len++;
+            } else if (c < 0x800) {
+                len += 2;
+            } else if (Character.isHighSurrogate(c)
+                    && i + 1 < str.length()
+                    && Character.isLowSurrogate(str.charAt(i + 1))) {
+                len += 4;
+                i++;
+            } else {
+                len += 3;
+            }
+        }
+        return len;
+    }
 }
@@ -19,6 +19,7 @@ package io.spikex.core.util.connection;
 
 import com.google.common.base.Preconditions;
 import io.spikex.core.util.IBuilder;
+import io.spikex.core.util.connection.ConnectionConfig.CircuitBreakerDef;
 import java.net.URI;
 import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
@@ -42,18 +43,24 @@ public abstract class AbstractConnection<V> implements IConnection<V> {
     private final long m_connectTimeout; // Connection timeout
     private final long m_reconnectInterval;
     private final AtomicLong m_connectCount; // Total amount of connects (successful & failed)
+    private final EndpointState m_endpoint; // Private or shared endpoint state
+    private final String m_user; // Owner of this connection (eg. filter name)
     //
-    private volatile boolean m_connected;
     private volatile long m_lastActivity; // ms since epoch
     private volatile int m_hashCode;
     //
     private final Logger m_logger = LoggerFactory.getLogger(getClass());
 
+    private static final String DEF_USER = "default";
+
     private AbstractConnection(
             final URI address,
             final long connectTimeout,
             final int reconnectAttempts,
-            final long reconnectInterval) {
+            final long reconnectInterval,
+            final CircuitBreakerDef circuitBreakerDef,
+            final EndpointState endpoint,
+            final String user) {
         //
         // Sanity checks
         //
@@ -69,9 +76,18 @@ public abstract class AbstractConnection<V> implements IConnection<V> {
         m_connectTimeout = connectTimeout;
         m_reconnectAttempts = reconnectAttempts;
         m_reconnectInterval = reconnectInterval;
-        m_connected = false;
         m_lastActivity = System.currentTimeMillis();
         m_connectCount = new AtomicLong(0L);
+        m_user = (user != null ? user : DEF_USER);
+        //
+        // Health and load state can be shared by connections to the same endpoint
+        //
+        if (endpoint != null) {
+            m_endpoint = endpoint;
+        } else {
+            m_endpoint = new EndpointState(address, 0, circuitBreakerDef);
+        }
+        m_endpoint.addUser(m_user);
     }
 
     /**
@@ -109,7 +125,7 @@ public abstract class AbstractConnection<V> implements IConnection<V> {
 
     @Override
     public final boolean isConnected() {
-        return m_connected;
+        return m_endpoint.isConnected();
     }
 
     @Override
@@ -139,6 +155,24 @@ public abstract class AbstractConnection<V> implements IConnection<V> {
         return m_connectCount.get();
     }
 
+    /**
+     * Returns the endpoint state of this connection.
+     *
+     * @return the private or shared endpoint state
+     */
+    public final EndpointState getEndpoint() {
+        return m_endpoint;
+    }
+
+    /**
+     * Returns the user (owner) of this connection.
+     *
+     * @return the user name
+     */
+    public final String getUser() {
+        return m_user;
+    }
+
     @Override
     public abstract V getClient();
 
@@ -148,15 +182,57 @@ public abstract class AbstractConnection<V> implements IConnection<V> {
     @Override
     public abstract void disconnect();
 
+    @Override
+    public final boolean isAvailable() {
+        return m_endpoint.isAvailable(System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the circuit breaker of this connection.
+     *
+     * @return the circuit breaker or null if passive health detection is
+     * disabled
+     */
+    public final CircuitBreaker getCircuitBreaker() {
+        return m_endpoint.getCircuitBreaker();
+    }
+
+    @Override
+    public final int getOutstandingRequests() {
+        return m_endpoint.getOutstandingRequests();
+    }
+
+    @Override
+    public final double getLatencyEwma() {
+        return m_endpoint.getLatencyEwma();
+    }
+
     @Override
     public final void setConnected(final boolean connected) {
-        m_connected = connected;
+        m_endpoint.setConnected(m_user, connected);
         updateActivity();
         if (connected) {
             m_connectCount.incrementAndGet();
         }
     }
 
+    @Override
+    public void requestStarted() {
+        m_endpoint.requestStarted(m_user);
+        updateActivity();
+    }
+
+    @Override
+    public void requestCompleted(final long latency) {
+        m_endpoint.requestCompleted(m_user, latency);
+        updateActivity();
+    }
+
+    @Override
+    public void requestFailed() {
+        m_endpoint.requestFailed(m_user);
+    }
+
     @Override
     public void updateActivity() {
         m_lastActivity = System.currentTimeMillis();
@@ -180,12 +256,18 @@ public abstract class AbstractConnection<V> implements IConnection<V> {
         protected int m_reconnectAttempts;
         protected long m_connectTimeout;
         protected long m_reconnectInterval;
+        protected CircuitBreakerDef m_circuitBreakerDef;
+        protected EndpointState m_endpoint;
+        protected String m_user;
 
         protected Builder(final URI address) {
             m_address = address;
             m_connectTimeout = 0L;
             m_reconnectInterval = 0L;
             m_reconnectAttempts = 0;
+            m_circuitBreakerDef = CircuitBreakerDef.create();
+            m_endpoint = null;
+            m_user = DEF_USER;
         }
 
         public final E connectTimeout(final long timeout) {
@@ -202,12 +284,42 @@ public abstract class AbstractConnection<V> implements IConnection<V> {
             m_reconnectInterval = reconnectInterval;
             return (E) this;
         }
+
+        public final E circuitBreaker(final CircuitBreakerDef circuitBreakerDef) {
+            if (circuitBreakerDef != null) {
+                m_circuitBreakerDef = circuitBreakerDef;
+            }
+            return (E) this;
+        }
+
+        /**
+         * Uses the given (shared) endpoint state instead of a private one.
+         * The circuit breaker definition is ignored if the endpoint state is
+         * given.
+         *
+         * @param endpoint the endpoint state
+         * @return this builder
+         */
+        public final E endpoint(final EndpointState endpoint) {
+            m_endpoint = endpoint;
+            return (E) this;
+        }
+
+        public final E user(final String user) {
+            if (user != null) {
+                m_user = user;
+            }
+            return (E) this;
+        }
     }
 
     protected AbstractConnection(final Builder builder) {
         this(builder.m_address,
                 builder.m_connectTimeout,
                 builder.m_reconnectAttempts,
-                builder.m_reconnectInterval);
+                builder.m_reconnectInterval,
+                builder.m_circuitBreakerDef,
+                builder.m_endpoint,
+                builder.m_user);
     }
 }
@@ -40,6 +40,11 @@ public abstract class AbstractLoadBalancingStrategy<E extends IConnection> imple
         m_connections = connections;
     }
 
+    @Override
+    public E next(final String key) {
+        return next(); // Keys are ignored by default
+    }
+
     protected final List<E> getConnections() {
         return m_connections;
     }
@@ -18,9 +18,19 @@
 package io.spikex.core.util.connection;
 
 import io.spikex.core.AbstractFilter;
+import io.spikex.core.helper.Events;
+import static io.spikex.core.helper.Events.DSTYPE_COUNTER;
+import static io.spikex.core.helper.Events.DSTYPE_GAUGE;
+import static io.spikex.core.helper.Events.EVENT_PRIORITY_HIGH;
+import static io.spikex.core.helper.Events.EVENT_PRIORITY_NORMAL;
+import io.spikex.core.util.HostOs;
+import io.spikex.core.util.connection.CircuitBreaker.State;
 import io.spikex.core.util.connection.ConnectionConfig.LoadBalancingDef;
 import io.spikex.core.util.connection.ConnectionConfig.NodesDef;
+import java.net.URI;
+import org.vertx.java.core.Context;
 import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonObject;
 
 /**
  *
@@ -31,13 +41,38 @@ public abstract class AsbtractClient<E extends IConnection> extends AbstractFilt
 
     private NodesDef m_nodes;
     private Connections<E> m_connections;
+    private Handler<CircuitBreaker> m_breakerListener;
     private long m_timerId;
     private boolean m_started;
 
+    //
+    // Circuit breaker metrics
+    //
+    public static final String METRIC_CIRCUIT_STATE = "connection.circuit.state";
+    public static final String METRIC_CIRCUIT_EJECTIONS = "connection.circuit.ejections";
+
     @Override
     protected void startFilter() {
         m_nodes = new ConnectionConfig().parse(config(), variables());
         m_connections = buildConnections();
+        //
+        // Shared breakers record transitions on the thread of any user
+        //
+        final Context context = vertx.currentContext();
+        m_breakerListener = new Handler<CircuitBreaker>() {
+
+            @Override
+            public void handle(final CircuitBreaker breaker) {
+                context.runOnContext(new Handler<Void>() {
+
+                    @Override
+                    public void handle(final Void event) {
+                        circuitBreakerChanged(breaker);
+                    }
+                });
+            }
+        };
+        m_connections.addCircuitBreakerListener(m_breakerListener);
         m_started = false;
         //
         // Start client immediately if health checks are disabled
@@ -56,7 +91,7 @@ public abstract class AsbtractClient<E extends IConnection> extends AbstractFilt
         //
         m_timerId = 0L;
         if (lb.isCheckEnabled()) {
-            vertx.setPeriodic(lb.getCheckInterval(), new Handler<Long>() {
+            m_timerId = vertx.setPeriodic(lb.getCheckInterval(), new Handler<Long>() {
 
                 @Override
                 public void handle(final Long timerId) {
@@ -73,7 +108,8 @@ public abstract class AsbtractClient<E extends IConnection> extends AbstractFilt
         //
         vertx.cancelTimer(m_timerId);
         stopClient();
-        m_connections.disconnectAll();
+        m_connections.removeCircuitBreakerListener(m_breakerListener);
+        closeConnections();
     }
 
     protected final boolean isStarted() {
@@ -92,6 +128,14 @@ public abstract class AsbtractClient<E extends IConnection> extends AbstractFilt
 
     protected abstract IConnectionHealthChecker<E> healthChecker(LoadBalancingDef lbDef);
 
+    /**
+     * Closes the connections when the filter is stopped. Disconnects all
+     * connections by default.
+     */
+    protected void closeConnections() {
+        m_connections.disconnectAll();
+    }
+
     protected void startClient() {
         // Do nothing by default;
     }
@@ -100,6 +144,44 @@ public abstract class AsbtractClient<E extends IConnection> extends AbstractFilt
         // Do nothing by default;
     }
 
+    /**
+     * Called on the context of this filter on every circuit breaker state
+     * transition. The default implementation publishes the breaker state and
+     * ejection count as metrics. The notification event of a shared breaker
+     * is emitted by its primary listener only.
+     *
+     * @param breaker the circuit breaker whose state changed
+     */
+    protected void circuitBreakerChanged(final CircuitBreaker breaker) {
+
+        URI address = breaker.getAddress();
+        State state = breaker.getState();
+        String instance = address.getHost() + ":" + address.getPort();
+
+        publishMetric(METRIC_CIRCUIT_STATE, instance, state.getValue(), DSTYPE_GAUGE);
+        publishMetric(METRIC_CIRCUIT_EJECTIONS, instance, breaker.getEjectionCount(), DSTYPE_COUNTER);
+
+        if (!breaker.isPrimaryListener(m_breakerListener)) {
+            return; // Another user of the shared breaker emits the notification
+        }
+
+        String title = "Circuit " + state.name().toLowerCase().replace('_', '-')
+                + " for " + instance;
+        String message = (state == State.OPEN
+                ? "Ejected " + instance + " until " + breaker.getOpenUntil()
+                + " (ejections: " + breaker.getEjectionCount() + ")"
+                : "Connection state: " + state.name());
+
+        eventLogger().info("{}:{} {}", getChainName(), getName(), title);
+        JsonObject event = Events.createNotificationEvent(
+                this,
+                HostOs.hostName(),
+                (state == State.OPEN ? EVENT_PRIORITY_HIGH : EVENT_PRIORITY_NORMAL),
+                title,
+                message);
+        emitEvent(event);
+    }
+
     private void doHealthChecks() {
         m_connections.doHealthChecks(new Handler<Boolean>() {
 
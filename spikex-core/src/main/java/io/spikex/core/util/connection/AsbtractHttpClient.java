@@ -17,17 +17,174 @@
  */
 package io.spikex.core.util.connection;
 
+import io.spikex.core.helper.EventCoalescer;
+import static io.spikex.core.helper.EventCoalescer.METRIC_EVICTED;
+import static io.spikex.core.helper.EventCoalescer.METRIC_FLUSHED;
+import static io.spikex.core.helper.EventCoalescer.METRIC_RATIO;
+import static io.spikex.core.helper.EventCoalescer.METRIC_RECEIVED;
+import io.spikex.core.helper.Events;
+import io.spikex.core.helper.PendingAcks;
+import static io.spikex.core.helper.Events.DSTYPE_COUNTER;
+import static io.spikex.core.helper.Events.DSTYPE_GAUGE;
 import io.spikex.core.util.connection.ConnectionConfig.LoadBalancingDef;
+import io.spikex.core.util.connection.ConnectionConfig.NodesDef;
+import io.spikex.core.util.connection.EndpointState.Usage;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.List;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
 
 /**
+ * Base class for HTTP client outputs.
+ * <p>
+ * Incoming events can optionally be coalesced so that only the latest event
+ * per key is passed to handleEvent. Coalesced events are flushed as a batch
+ * event periodically and whenever a request completes, provided that there
+ * are available connections (see {@link EventCoalescer} for configuration).
+ * <p>
+ * By default the health state, circuit breaker and in-flight request limit
+ * ("max-connections") of every node are shared by all HTTP outputs of this
+ * JVM that use the same node (see {@link HttpConnectionRegistry}). Pooled
+ * connections that have been idle longer than "idle-timeout" are closed.
+ * <p>
+ * As the terminal filter of an at-least-once chain ("ack-events"), the
+ * events are acknowledged only when the requests made for them have
+ * completed (negatively if a request failed or no request was made).
+ * Coalesced events carry the acknowledgements of the events they replaced.
  *
  * @author cli
  */
 public abstract class AsbtractHttpClient
         extends AsbtractClient<HttpConnection> {
 
+    private EventCoalescer m_coalescer;
+    private long m_coalesceTimerId;
+    private long m_maintenanceTimerId;
+    private PendingAcks m_pendingAcks; // Of the event being dispatched
+    private final Handler<PendingAcks> m_ackHandler = new Handler<PendingAcks>() {
+
+        @Override
+        public void handle(final PendingAcks acks) {
+            acknowledgeEvents(acks.getAcks(), acks.isSuccess());
+        }
+    };
+
+    public static final String CONF_KEY_COALESCE = "coalesce";
+
+    //
+    // Endpoint metrics (per user)
+    //
+    public static final String METRIC_ENDPOINT_REQUESTS = "connection.requests";
+    public static final String METRIC_ENDPOINT_FAILURES = "connection.failures";
+    public static final String METRIC_ENDPOINT_OUTSTANDING = "connection.outstanding";
+
+    private static final long MAINTENANCE_INTERVAL = 5000L; // ms
+
+    @Override
+    protected void startFilter() {
+        super.startFilter();
+        //
+        // Coalesce events (optional)
+        //
+        m_coalescer = null;
+        JsonObject coalesceConfig = config().getObject(CONF_KEY_COALESCE);
+        if (coalesceConfig != null) {
+            m_coalescer = EventCoalescer.create(coalesceConfig, variables());
+            m_coalesceTimerId = vertx.setPeriodic(m_coalescer.getFlushInterval(),
+                    new Handler<Long>() {
+
+                        @Override
+                        public void handle(final Long timerId) {
+                            flushCoalesced();
+                        }
+                    });
+        }
+        //
+        // Idle eviction and endpoint metrics
+        //
+        m_maintenanceTimerId = vertx.setPeriodic(MAINTENANCE_INTERVAL,
+                new Handler<Long>() {
+
+                    @Override
+                    public void handle(final Long timerId) {
+                        evictIdleConnections(System.currentTimeMillis());
+                        publishEndpointMetrics();
+                    }
+                });
+    }
+
+    @Override
+    protected void stopFilter() {
+        vertx.cancelTimer(m_maintenanceTimerId);
+        if (m_coalescer != null) {
+            vertx.cancelTimer(m_coalesceTimerId);
+            flushCoalesced();
+        }
+        super.stopFilter();
+    }
+
+    @Override
+    protected void receiveEvent(final JsonObject event) {
+
+        EventCoalescer coalescer = m_coalescer;
+        if (coalescer != null) {
+            //
+            // Pass on evicted events immediately
+            //
+            List<JsonObject> evicted = new ArrayList();
+            if (coalescer.add(event, evicted) > 0) {
+                JsonArray batch = new JsonArray();
+                for (JsonObject evictedEvent : evicted) {
+                    batch.addObject(evictedEvent);
+                }
+                dispatch(Events.createBatchEvent(this, batch));
+            }
+        } else {
+            dispatch(event);
+        }
+    }
+
+    /**
+     * Acknowledgements are kept with the events until the requests for them
+     * have completed.
+     *
+     * @return true
+     */
+    @Override
+    protected boolean isAckDelayed() {
+        return true;
+    }
+
+    /**
+     * Passes the coalesced events to handleEvent as a batch event if the
+     * client has been started and there is at least one available connection.
+     * Called periodically and whenever a request completes (a connection has
+     * been returned to the pool).
+     */
+    protected final void flushCoalesced() {
+
+        EventCoalescer coalescer = m_coalescer;
+        if (coalescer != null
+                && coalescer.size() > 0
+                && isStarted()
+                && connections().getAvailableCount() > 0) {
+
+            JsonArray batch = coalescer.flush();
+            logger().trace("Flushing {} coalesced events", batch.size());
+            dispatch(Events.createBatchEvent(this, batch));
+            //
+            // Coalescing metrics
+            //
+            String instance = getChainName() != null ? getChainName() : "-";
+            publishMetric(METRIC_RECEIVED, instance, coalescer.getReceivedCount(), DSTYPE_COUNTER);
+            publishMetric(METRIC_FLUSHED, instance, coalescer.getFlushedCount(), DSTYPE_COUNTER);
+            publishMetric(METRIC_EVICTED, instance, coalescer.getEvictedCount(), DSTYPE_COUNTER);
+            publishMetric(METRIC_RATIO, instance, coalescer.getCoalescingRatio(), DSTYPE_GAUGE);
+        }
+    }
+
     @Override
     protected Connections<HttpConnection> buildConnections() {
 
@@ -36,14 +193,30 @@ public abstract class AsbtractHttpClient
                 lbDef.getStrategy(),
                 healthChecker(lbDef));
 
-        List<URI> nodes = nodes().getNodes();
+        NodesDef nodesDef = nodes();
+        String user = address(); // Unique per verticle instance
+        List<URI> nodes = nodesDef.getNodes();
         for (URI node : nodes) {
 
-            HttpConnection connection
+            HttpConnection.Builder builder
                     = HttpConnection.builder(node, vertx)
-                    .config(nodes())
+                    .config(nodesDef)
+                    .user(user)
                     .exceptionHandler(new DefaultConnectionExceptionHandler(node))
-                    .build();
+                    .requestListener(new Handler<HttpClientAdapter>() {
+
+                        @Override
+                        public void handle(final HttpClientAdapter request) {
+                            requestStarted(request);
+                        }
+                    });
+            //
+            // Share health and load state with other users of the same node
+            //
+            if (nodesDef.isSharedPool()) {
+                builder.endpoint(HttpConnectionRegistry.acquire(node, nodesDef, user));
+            }
+            HttpConnection connection = builder.build();
 
             // Mark connection as connected from start (if health ckecks are disabled)
             if (!lbDef.isCheckEnabled()) {
@@ -55,8 +228,112 @@ public abstract class AsbtractHttpClient
         return connections;
     }
 
+    @Override
+    protected void closeConnections() {
+        //
+        // Leave shared endpoints connected if they are still used by others
+        //
+        boolean shared = nodes().isSharedPool();
+        for (HttpConnection connection : connections().getConnections()) {
+            EndpointState endpoint = connection.getEndpoint();
+            if (shared) {
+                HttpConnectionRegistry.release(endpoint, connection.getUser());
+            }
+            if (shared && endpoint.getUserCount() > 0) {
+                connection.recycle();
+            } else if (connection.isConnected()) {
+                logger().trace("Disconnecting from: {}", connection.getAddress());
+                connection.disconnect();
+            }
+        }
+    }
+
     @Override
     protected IConnectionHealthChecker<HttpConnection> healthChecker(final LoadBalancingDef lbDef) {
         return new DefaultHttpConnectionHealthChecker(lbDef);
     }
+
+    private void dispatch(final JsonObject event) {
+
+        if (!isAckEvents()) {
+            handleEvent(event);
+            return;
+        }
+
+        List<JsonObject> ackList = Events.removeAcknowledgements(event, new ArrayList());
+        if (ackList.isEmpty()) {
+            handleEvent(event);
+            return;
+        }
+
+        //
+        // Requests made by handleEvent complete the acknowledgements
+        //
+        PendingAcks acks = new PendingAcks(ackList, m_ackHandler);
+        m_pendingAcks = acks;
+        try {
+            handleEvent(event);
+        } catch (RuntimeException e) {
+            acks.fail();
+            throw e;
+        } finally {
+            m_pendingAcks = null;
+            acks.seal();
+        }
+    }
+
+    private void requestStarted(final HttpClientAdapter request) {
+        PendingAcks acks = m_pendingAcks;
+        final Handler<Boolean> ackHandler = (acks != null ? acks.request() : null);
+        if (ackHandler != null || m_coalescer != null) {
+            request.setCompletionHandler(new Handler<Boolean>() {
+
+                @Override
+                public void handle(final Boolean success) {
+                    if (ackHandler != null) {
+                        ackHandler.handle(success);
+                    }
+                    // The output has capacity again
+                    flushCoalesced();
+                }
+            });
+        }
+    }
+
+    private void evictIdleConnections(final long now) {
+        long idleTimeout = nodes().getIdleTimeout();
+        if (idleTimeout > 0L) {
+            for (HttpConnection connection : connections().getConnections()) {
+                if (connection.getOutstandingRequests() == 0
+                        && (now - connection.getLastActivity()) >= idleTimeout) {
+                    logger().trace("Evicting idle connections to: {}", connection.getAddress());
+                    connection.recycle();
+                    connection.updateActivity();
+                }
+            }
+        }
+    }
+
+    private void publishEndpointMetrics() {
+        String user = userName();
+        String key = address();
+        for (HttpConnection connection : connections().getConnections()) {
+            EndpointState endpoint = connection.getEndpoint();
+            URI address = endpoint.getAddress();
+            String instance = address.getHost() + ":" + address.getPort();
+            Usage usage = endpoint.getUsage().get(key);
+            if (usage != null) {
+                publishMetric(METRIC_ENDPOINT_REQUESTS, instance + "." + user,
+                        usage.getRequestCount(), DSTYPE_COUNTER);
+                publishMetric(METRIC_ENDPOINT_FAILURES, instance + "." + user,
+                        usage.getFailureCount(), DSTYPE_COUNTER);
+            }
+            publishMetric(METRIC_ENDPOINT_OUTSTANDING, instance,
+                    endpoint.getOutstandingRequests(), DSTYPE_GAUGE);
+        }
+    }
+
+    private String userName() {
+        return (getChainName() != null ? getChainName() : "-") + "." + getName();
+    }
 }
@@ -75,6 +75,19 @@ public final class BroadcastStrategy<E extends IConnection> extends AbstractLoad
             return connected;
         }
 
+        @Override
+        public boolean isAvailable() {
+            // true, if we have one available connection
+            boolean available = false;
+            for (IConnection connection : m_connections) {
+                if (connection.isAvailable()) {
+                    available = true;
+                    break;
+                }
+            }
+            return available;
+        }
+
         @Override
         public URI getAddress() {
             // Return the first connected address
@@ -141,5 +154,40 @@ public final class BroadcastStrategy<E extends IConnection> extends AbstractLoad
         public void updateActivity() {
             // Do nothing...
         }
+
+        @Override
+        public int getOutstandingRequests() {
+            // Return the outstanding requests of the "busiest" connection
+            int outstanding = 0;
+            for (IConnection connection : m_connections) {
+                outstanding = Math.max(outstanding, connection.getOutstandingRequests());
+            }
+            return outstanding;
+        }
+
+        @Override
+        public double getLatencyEwma() {
+            // Return the latency of the "slowest" connection
+            double latency = 0.0d;
+            for (IConnection connection : m_connections) {
+                latency = Math.max(latency, connection.getLatencyEwma());
+            }
+            return latency;
+        }
+
+        @Override
+        public void requestStarted() {
+            // Do nothing...
+        }
+
+        @Override
+        public void requestCompleted(final long latency) {
+            // Do nothing...
+        }
+
+        @Override
+        public void requestFailed() {
+            // Do nothing...
+        }
     }
 }
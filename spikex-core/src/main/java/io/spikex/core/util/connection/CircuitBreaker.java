@@ -0,0 +1,301 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.core.util.connection;
+
+import io.spikex.core.util.connection.ConnectionConfig.CircuitBreakerDef;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.vertx.java.core.Handler;
+
+/**
+ * Passive outlier detection for a single connection.
+ * <p>
+ * The breaker opens (ejects the connection) after a number of consecutive
+ * failures or when the failure rate of the latest requests exceeds the
+ * configured threshold. After the ejection time has passed, one probe request
+ * is let through (half-open). A successful probe closes the breaker, a failed
+ * one opens it again with double the ejection time (up to the maximum).
+ *
+ * @author cli
+ */
+public final class CircuitBreaker {
+
+    public enum State {
+
+        CLOSED(0), HALF_OPEN(1), OPEN(2);
+
+        private final int m_value;
+
+        private State(final int value) {
+            m_value = value;
+        }
+
+        /**
+         * Returns the numeric value of the state (used in metrics).
+         *
+         * @return 0 = closed, 1 = half-open, 2 = open
+         */
+        public int getValue() {
+            return m_value;
+        }
+    }
+
+    private final URI m_address;
+    private final CircuitBreakerDef m_def;
+    private final boolean[] m_window; // true = failure
+    private final List<Handler<CircuitBreaker>> m_listeners;
+
+    private State m_state;
+    private int m_windowPos;
+    private int m_windowCount;
+    private int m_windowFailures;
+    private int m_consecutiveFailures;
+    private int m_ejectionLevel;
+    private long m_ejectionCount;
+    private long m_openUntil; // ms since epoch
+    private long m_probeStarted; // ms since epoch (0 = no probe in flight)
+
+    public CircuitBreaker(
+            final URI address,
+            final CircuitBreakerDef def) {
+
+        m_address = address;
+        m_def = def;
+        m_window = new boolean[def.getWindowSize()];
+        m_listeners = new CopyOnWriteArrayList();
+        m_state = State.CLOSED;
+    }
+
+    public URI getAddress() {
+        return m_address;
+    }
+
+    public synchronized State getState() {
+        return m_state;
+    }
+
+    public synchronized long getEjectionCount() {
+        return m_ejectionCount;
+    }
+
+    public synchronized long getOpenUntil() {
+        return m_openUntil;
+    }
+
+    /**
+     * Adds a handler that is called on every state transition. A breaker that
+     * is shared by several users can have several listeners. Listeners are
+     * called on the thread that recorded the transition.
+     *
+     * @param listener the state transition handler
+     */
+    public void addListener(final Handler<CircuitBreaker> listener) {
+        if (!m_listeners.contains(listener)) {
+            m_listeners.add(listener);
+        }
+    }
+
+    public void removeListener(final Handler<CircuitBreaker> listener) {
+        m_listeners.remove(listener);
+    }
+
+    /**
+     * Returns true if the given listener is the oldest registered listener.
+     * Users of a shared breaker can use this to emit a single notification
+     * per state transition.
+     *
+     * @param listener the state transition handler
+     * @return true if the listener is the primary listener
+     */
+    public boolean isPrimaryListener(final Handler<CircuitBreaker> listener) {
+        Iterator<Handler<CircuitBreaker>> listeners = m_listeners.iterator();
+        return (listeners.hasNext() && listeners.next() == listener);
+    }
+
+    /**
+     * Returns true if a request may be sent through this breaker: the breaker
+     * is closed, the ejection time of an open breaker has passed or a
+     * half-open breaker has no probe request in flight.
+     *
+     * @param now the current time in milliseconds
+     * @return true if a request is allowed
+     */
+    public synchronized boolean isRequestAllowed(final long now) {
+
+        boolean allowed;
+        switch (m_state) {
+            case OPEN:
+                allowed = (now >= m_openUntil);
+                break;
+            case HALF_OPEN:
+                // Allow another probe if the previous one was never completed
+                allowed = (m_probeStarted == 0L
+                        || now - m_probeStarted >= ejectionTime());
+                break;
+            default:
+                allowed = true;
+                break;
+        }
+        return allowed;
+    }
+
+    /**
+     * Marks a request as sent. Moves an open breaker whose ejection time has
+     * passed to half-open, so that the request acts as a probe.
+     *
+     * @param now the current time in milliseconds
+     */
+    public void recordStart(final long now) {
+
+        boolean changed = false;
+
+        synchronized (this) {
+            if (m_state == State.OPEN
+                    && now >= m_openUntil) {
+                m_state = State.HALF_OPEN;
+                changed = true;
+            }
+            if (m_state == State.HALF_OPEN) {
+                m_probeStarted = now;
+            }
+        }
+
+        notifyListeners(changed);
+    }
+
+    public void recordSuccess(final long now) {
+
+        boolean changed = false;
+
+        synchronized (this) {
+            m_consecutiveFailures = 0;
+            record(false);
+            if (m_state == State.HALF_OPEN) {
+                m_state = State.CLOSED;
+                m_ejectionLevel = 0;
+                m_probeStarted = 0L;
+                resetWindow();
+                changed = true;
+            }
+        }
+
+        notifyListeners(changed);
+    }
+
+    public void recordFailure(final long now) {
+
+        boolean changed = false;
+
+        synchronized (this) {
+            m_consecutiveFailures++;
+            record(true);
+            switch (m_state) {
+                case HALF_OPEN:
+                    // Probe failed - eject for longer
+                    m_ejectionLevel++;
+                    open(now);
+                    changed = true;
+                    break;
+                case CLOSED:
+                    if (isTripped()) {
+                        open(now);
+                        changed = true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        notifyListeners(changed);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("CircuitBreaker: ");
+        sb.append(m_address);
+        sb.append(" state: ");
+        sb.append(m_state);
+        sb.append(" ejections: ");
+        sb.append(m_ejectionCount);
+        return sb.toString();
+    }
+
+    private boolean isTripped() {
+
+        CircuitBreakerDef def = m_def;
+        if (m_consecutiveFailures >= def.getConsecutiveFailures()) {
+            return true;
+        }
+
+        int count = m_windowCount;
+        return (count >= def.getMinRequests()
+                && ((double) m_windowFailures / (double) count) >= def.getFailureRate());
+    }
+
+    private void open(final long now) {
+        m_state = State.OPEN;
+        m_openUntil = now + ejectionTime();
+        m_probeStarted = 0L;
+        m_ejectionCount++;
+    }
+
+    private long ejectionTime() {
+        CircuitBreakerDef def = m_def;
+        long time = def.getBaseEjectionTime() << Math.min(m_ejectionLevel, 30);
+        return Math.min(time, def.getMaxEjectionTime());
+    }
+
+    private void record(final boolean failure) {
+
+        boolean[] window = m_window;
+        int pos = m_windowPos;
+
+        if (m_windowCount == window.length) {
+            // Drop oldest outcome
+            if (window[pos]) {
+                m_windowFailures--;
+            }
+        } else {
+            m_windowCount++;
+        }
+
+        window[pos] = failure;
+        if (failure) {
+            m_windowFailures++;
+        }
+        m_windowPos = (pos + 1) % window.length;
+    }
+
+    private void resetWindow() {
+        m_windowPos = 0;
+        m_windowCount = 0;
+        m_windowFailures = 0;
+        m_consecutiveFailures = 0;
+    }
+
+    private void notifyListeners(final boolean changed) {
+        if (changed) {
+            for (Handler<CircuitBreaker> listener : m_listeners) {
+                listener.handle(this);
+            }
+        }
+    }
+}
@@ -38,6 +38,9 @@ public final class ConnectionConfig {
     //
     public static final String LB_STRATEGY_ROUND_ROBIN = "round-robin";
     public static final String LB_STRATEGY_BROADCAST = "broadcast";
+    public static final String LB_STRATEGY_LEAST_OUTSTANDING = "least-outstanding";
+    public static final String LB_STRATEGY_EWMA_P2C = "ewma-p2c";
+    public static final String LB_STRATEGY_CONSISTENT_HASH = "consistent-hash";
 
     private static final String CONF_NODES = "nodes";
     private static final String CONF_KEEP_ALIVE = "keep-alive";
@@ -53,12 +56,25 @@ public final class ConnectionConfig {
     private static final String CONF_USE_COMPRESSION = "use-compression";
     private static final String CONF_VERIFY_HOST = "verify-host";
     private static final String CONF_MAX_POOL_SIZE = "max-pool-size";
+    private static final String CONF_SHARED_POOL = "shared-pool";
+    private static final String CONF_MAX_CONNECTIONS = "max-connections";
+    private static final String CONF_IDLE_TIMEOUT = "idle-timeout";
     private static final String CONF_LOAD_BALANCING = "load-balancing";
     private static final String CONF_STRATEGY = "strategy";
     private static final String CONF_CHECK_INTERVAL = "check-interval";
     private static final String CONF_STATUS_URI = "status-uri";
     private static final String CONF_RECONNECT_ATTEMPTS = "reconnect-attempts";
     private static final String CONF_RECONNECT_INTERVAL = "reconnect-interval";
+    private static final String CONF_HASH_KEY = "hash-key";
+    private static final String CONF_VIRTUAL_NODES = "virtual-nodes";
+    private static final String CONF_CIRCUIT_BREAKER = "circuit-breaker";
+    private static final String CONF_ENABLED = "enabled";
+    private static final String CONF_CONSECUTIVE_FAILURES = "consecutive-failures";
+    private static final String CONF_FAILURE_RATE = "failure-rate";
+    private static final String CONF_WINDOW_SIZE = "window-size";
+    private static final String CONF_MIN_REQUESTS = "min-requests";
+    private static final String CONF_BASE_EJECTION_TIME = "base-ejection-time";
+    private static final String CONF_MAX_EJECTION_TIME = "max-ejection-time";
 
     //
     // Configuration defaults
@@ -69,7 +85,10 @@ public final class ConnectionConfig {
     private static final boolean DEF_SSL_ENABLED = false;
     private static final boolean DEF_VERIFY_HOST = true;
     private static final int DEF_CONNECT_TIMEOUT = 250;
-    private static final int DEF_MAX_POOL_SIZE = 1;
+    private static final int DEF_MAX_POOL_SIZE = 5;
+    private static final boolean DEF_SHARED_POOL = true;
+    private static final int DEF_MAX_CONNECTIONS = 0; // Unlimited
+    private static final long DEF_IDLE_TIMEOUT = 0L; // Never evict
     private static final int DEF_RECONNECT_ATTEMPTS = 0;
     private static final long DEF_RECONNECT_INTERVAL = 1000L;
     private static final long DEF_CHECK_INTERVAL = 5000L;
@@ -77,6 +96,15 @@ public final class ConnectionConfig {
     private static final String DEF_KEYSTORE_TYPE = "JKS";
     private static final String DEF_TRUSTSTORE_TYPE = "JKS";
     private static final String DEF_STATUS_URI = "/";
+    private static final String DEF_HASH_KEY = "%{@dsname}";
+    private static final int DEF_VIRTUAL_NODES = 160;
+    private static final boolean DEF_CIRCUIT_BREAKER_ENABLED = true;
+    private static final int DEF_CONSECUTIVE_FAILURES = 5;
+    private static final double DEF_FAILURE_RATE = 0.5d;
+    private static final int DEF_WINDOW_SIZE = 20;
+    private static final int DEF_MIN_REQUESTS = 10;
+    private static final long DEF_BASE_EJECTION_TIME = 1000L; // ms
+    private static final long DEF_MAX_EJECTION_TIME = 60000L; // ms
 
     public NodesDef parse(
             final JsonObject config,
@@ -123,7 +151,9 @@ public final class ConnectionConfig {
             loadBalancing = new LoadBalancingDef(
                     jsonLoadBalancing.getString(CONF_STRATEGY, DEF_LOAD_BALANCING_STRATEGY),
                     jsonLoadBalancing.getString(CONF_STATUS_URI, DEF_STATUS_URI),
-                    jsonLoadBalancing.getLong(CONF_CHECK_INTERVAL, DEF_CHECK_INTERVAL));
+                    jsonLoadBalancing.getLong(CONF_CHECK_INTERVAL, DEF_CHECK_INTERVAL),
+                    jsonLoadBalancing.getString(CONF_HASH_KEY, DEF_HASH_KEY),
+                    jsonLoadBalancing.getInteger(CONF_VIRTUAL_NODES, DEF_VIRTUAL_NODES));
 
         } else {
             loadBalancing = new LoadBalancingDef(
@@ -134,6 +164,27 @@ public final class ConnectionConfig {
 
         connection.setLoadBalancingDef(loadBalancing);
 
+        //
+        // Node-wide endpoint sharing
+        //
+        connection.setSharedPool(config.getBoolean(CONF_SHARED_POOL, DEF_SHARED_POOL));
+        connection.setMaxConnections(config.getInteger(CONF_MAX_CONNECTIONS, DEF_MAX_CONNECTIONS));
+        connection.setIdleTimeout(config.getLong(CONF_IDLE_TIMEOUT, DEF_IDLE_TIMEOUT));
+
+        //
+        // Passive health detection
+        //
+        JsonObject jsonBreaker = config.getObject(CONF_CIRCUIT_BREAKER, new JsonObject());
+        Number failureRate = jsonBreaker.getNumber(CONF_FAILURE_RATE);
+        connection.setCircuitBreakerDef(new CircuitBreakerDef(
+                jsonBreaker.getBoolean(CONF_ENABLED, DEF_CIRCUIT_BREAKER_ENABLED),
+                jsonBreaker.getInteger(CONF_CONSECUTIVE_FAILURES, DEF_CONSECUTIVE_FAILURES),
+                (failureRate != null ? failureRate.doubleValue() : DEF_FAILURE_RATE),
+                jsonBreaker.getInteger(CONF_WINDOW_SIZE, DEF_WINDOW_SIZE),
+                jsonBreaker.getInteger(CONF_MIN_REQUESTS, DEF_MIN_REQUESTS),
+                jsonBreaker.getLong(CONF_BASE_EJECTION_TIME, DEF_BASE_EJECTION_TIME),
+                jsonBreaker.getLong(CONF_MAX_EJECTION_TIME, DEF_MAX_EJECTION_TIME)));
+
         //
         // Key and trust store
         //
@@ -167,6 +218,10 @@ public final class ConnectionConfig {
         private final long m_reconnectInterval;
 
         private LoadBalancingDef m_loadBalancingDef;
+        private CircuitBreakerDef m_circuitBreakerDef;
+        private boolean m_sharedPool;
+        private int m_maxConnections;
+        private long m_idleTimeout;
 
         private String m_keystorePath;
         private String m_keystorePassword;
@@ -198,6 +253,9 @@ public final class ConnectionConfig {
             m_maxPoolSize = maxPoolSize;
             m_reconnectAttempts = reconnectAttempts;
             m_reconnectInterval = reconnectInterval;
+            m_sharedPool = DEF_SHARED_POOL;
+            m_maxConnections = DEF_MAX_CONNECTIONS;
+            m_idleTimeout = DEF_IDLE_TIMEOUT;
         }
 
         public boolean isKeepAlive() {
@@ -248,6 +306,39 @@ public final class ConnectionConfig {
             return m_loadBalancingDef;
         }
 
+        public CircuitBreakerDef getCircuitBreaker() {
+            return m_circuitBreakerDef;
+        }
+
+        /**
+         * Returns true if the health and load state of the nodes should be
+         * shared by all users of the same nodes within this JVM.
+         *
+         * @return true if endpoint state is shared
+         */
+        public boolean isSharedPool() {
+            return m_sharedPool;
+        }
+
+        /**
+         * Returns the maximum number of concurrent requests per node (shared by
+         * all users of the node).
+         *
+         * @return the maximum number of requests or zero if unlimited
+         */
+        public int getMaxConnections() {
+            return m_maxConnections;
+        }
+
+        /**
+         * Returns the time after which idle connections are closed.
+         *
+         * @return the idle timeout in milliseconds or zero if disabled
+         */
+        public long getIdleTimeout() {
+            return m_idleTimeout;
+        }
+
         public String getKeystorePath() {
             return m_keystorePath;
         }
@@ -291,6 +382,9 @@ public final class ConnectionConfig {
             json.putBoolean(CONF_PIPELINING, m_pipelining);
             json.putNumber(CONF_CONNECT_TIMEOUT, m_connectTimeout);
             json.putNumber(CONF_MAX_POOL_SIZE, m_maxPoolSize);
+            json.putBoolean(CONF_SHARED_POOL, m_sharedPool);
+            json.putNumber(CONF_MAX_CONNECTIONS, m_maxConnections);
+            json.putNumber(CONF_IDLE_TIMEOUT, m_idleTimeout);
             json.putNumber(CONF_RECONNECT_ATTEMPTS, m_reconnectAttempts);
             json.putNumber(CONF_RECONNECT_INTERVAL, m_reconnectInterval);
 
@@ -311,8 +405,22 @@ public final class ConnectionConfig {
             loadBalancing.putString(CONF_STRATEGY, m_loadBalancingDef.m_strategyName);
             loadBalancing.putString(CONF_STATUS_URI, m_loadBalancingDef.m_statusUri);
             loadBalancing.putNumber(CONF_CHECK_INTERVAL, m_loadBalancingDef.m_checkInterval);
+            loadBalancing.putString(CONF_HASH_KEY, m_loadBalancingDef.m_hashKey);
+            loadBalancing.putNumber(CONF_VIRTUAL_NODES, m_loadBalancingDef.m_virtualNodes);
             json.putObject(CONF_LOAD_BALANCING, loadBalancing);
 
+            // Circuit breaker
+            CircuitBreakerDef breakerDef = m_circuitBreakerDef;
+            JsonObject breaker = new JsonObject();
+            breaker.putBoolean(CONF_ENABLED, breakerDef.m_enabled);
+            breaker.putNumber(CONF_CONSECUTIVE_FAILURES, breakerDef.m_consecutiveFailures);
+            breaker.putNumber(CONF_FAILURE_RATE, breakerDef.m_failureRate);
+            breaker.putNumber(CONF_WINDOW_SIZE, breakerDef.m_windowSize);
+            breaker.putNumber(CONF_MIN_REQUESTS, breakerDef.m_minRequests);
+            breaker.putNumber(CONF_BASE_EJECTION_TIME, breakerDef.m_baseEjectionTime);
+            breaker.putNumber(CONF_MAX_EJECTION_TIME, breakerDef.m_maxEjectionTime);
+            json.putObject(CONF_CIRCUIT_BREAKER, breaker);
+
             return json;
         }
 
@@ -320,6 +428,22 @@ public final class ConnectionConfig {
             m_loadBalancingDef = loadBalancingDef;
         }
 
+        private void setCircuitBreakerDef(final CircuitBreakerDef circuitBreakerDef) {
+            m_circuitBreakerDef = circuitBreakerDef;
+        }
+
+        private void setSharedPool(final boolean sharedPool) {
+            m_sharedPool = sharedPool;
+        }
+
+        private void setMaxConnections(final int maxConnections) {
+            m_maxConnections = maxConnections;
+        }
+
+        private void setIdleTimeout(final long idleTimeout) {
+            m_idleTimeout = idleTimeout;
+        }
+
         private void setKeystorePath(final String path) {
             m_keystorePath = path;
         }
@@ -356,6 +480,10 @@ public final class ConnectionConfig {
             m_reconnectAttempts = builder.m_reconnectAttempts;
             m_reconnectInterval = builder.m_reconnectInterval;
             m_loadBalancingDef = builder.m_loadBalancingDef;
+            m_circuitBreakerDef = builder.m_circuitBreakerDef;
+            m_sharedPool = builder.m_sharedPool;
+            m_maxConnections = builder.m_maxConnections;
+            m_idleTimeout = builder.m_idleTimeout;
 
             m_keystorePath = builder.m_keystorePath;
             m_keystorePassword = builder.m_keystorePassword;
@@ -372,15 +500,33 @@ public final class ConnectionConfig {
         private final String m_strategyName;
         private final String m_statusUri;
         private final long m_checkInterval;
+        private final String m_hashKey;
+        private final int m_virtualNodes;
 
         private LoadBalancingDef(
                 final String strategyName,
                 final String statusUri,
                 final long checkInterval) {
 
+            this(strategyName,
+                    statusUri,
+                    checkInterval,
+                    DEF_HASH_KEY,
+                    DEF_VIRTUAL_NODES);
+        }
+
+        private LoadBalancingDef(
+                final String strategyName,
+                final String statusUri,
+                final long checkInterval,
+                final String hashKey,
+                final int virtualNodes) {
+
             m_strategyName = strategyName;
             m_statusUri = statusUri;
             m_checkInterval = checkInterval;
+            m_hashKey = hashKey;
+            m_virtualNodes = virtualNodes;
         }
 
         public boolean isCheckEnabled() {
@@ -399,6 +545,29 @@ public final class ConnectionConfig {
             return m_checkInterval;
         }
 
+        /**
+         * Returns true if the strategy selects connections by request key.
+         *
+         * @return true if requests should be keyed
+         */
+        public boolean isKeyed() {
+            return LB_STRATEGY_CONSISTENT_HASH.equals(m_strategyName);
+        }
+
+        /**
+         * Returns the key template used by key based strategies (eg.
+         * %{@dsname}).
+         *
+         * @return the key template
+         */
+        public String getHashKey() {
+            return m_hashKey;
+        }
+
+        public int getVirtualNodes() {
+            return m_virtualNodes;
+        }
+
         public ILoadBalancingStrategy getStrategy() {
 
             ILoadBalancingStrategy strategy;
@@ -410,6 +579,15 @@ public final class ConnectionConfig {
                 case LB_STRATEGY_BROADCAST:
                     strategy = new BroadcastStrategy();
                     break;
+                case LB_STRATEGY_LEAST_OUTSTANDING:
+                    strategy = new LeastOutstandingStrategy();
+                    break;
+                case LB_STRATEGY_EWMA_P2C:
+                    strategy = new EwmaP2cStrategy();
+                    break;
+                case LB_STRATEGY_CONSISTENT_HASH:
+                    strategy = new ConsistentHashStrategy(m_virtualNodes);
+                    break;
                 default:
                     strategy = new RoundRobinStrategy();
                     break;
@@ -430,6 +608,105 @@ public final class ConnectionConfig {
         }
     }
 
+    public static final class CircuitBreakerDef {
+
+        private final boolean m_enabled;
+        private final int m_consecutiveFailures;
+        private final double m_failureRate;
+        private final int m_windowSize;
+        private final int m_minRequests;
+        private final long m_baseEjectionTime;
+        private final long m_maxEjectionTime;
+
+        private CircuitBreakerDef(
+                final boolean enabled,
+                final int consecutiveFailures,
+                final double failureRate,
+                final int windowSize,
+                final int minRequests,
+                final long baseEjectionTime,
+                final long maxEjectionTime) {
+            //
+            // Sanity checks
+            //
+            Preconditions.checkArgument(consecutiveFailures > 0,
+                    "Consecutive failures must be greater than zero");
+            Preconditions.checkArgument(failureRate > 0.0d && failureRate <= 1.0d,
+                    "Failure rate must be between 0.0 and 1.0");
+            Preconditions.checkArgument(windowSize > 0,
+                    "Window size must be greater than zero");
+            Preconditions.checkArgument(baseEjectionTime > 0L
+                    && maxEjectionTime >= baseEjectionTime,
+                    "Invalid ejection times");
+
+            m_enabled = enabled;
+            m_consecutiveFailures = consecutiveFailures;
+            m_failureRate = failureRate;
+            m_windowSize = windowSize;
+            m_minRequests = Math.min(minRequests, windowSize);
+            m_baseEjectionTime = baseEjectionTime;
+            m_maxEjectionTime = maxEjectionTime;
+        }
+
+        public boolean isEnabled() {
+            return m_enabled;
+        }
+
+        public int getConsecutiveFailures() {
+            return m_consecutiveFailures;
+        }
+
+        public double getFailureRate() {
+            return m_failureRate;
+        }
+
+        public int getWindowSize() {
+            return m_windowSize;
+        }
+
+        public int getMinRequests() {
+            return m_minRequests;
+        }
+
+        public long getBaseEjectionTime() {
+            return m_baseEjectionTime;
+        }
+
+        public long getMaxEjectionTime() {
+            return m_maxEjectionTime;
+        }
+
+        public static CircuitBreakerDef create() {
+            return new CircuitBreakerDef(
+                    DEF_CIRCUIT_BREAKER_ENABLED,
+                    DEF_CONSECUTIVE_FAILURES,
+                    DEF_FAILURE_RATE,
+                    DEF_WINDOW_SIZE,
+                    DEF_MIN_REQUESTS,
+                    DEF_BASE_EJECTION_TIME,
+                    DEF_MAX_EJECTION_TIME);
+        }
+
+        public static CircuitBreakerDef create(
+                final boolean enabled,
+                final int consecutiveFailures,
+                final double failureRate,
+                final int windowSize,
+                final int minRequests,
+                final long baseEjectionTime,
+                final long maxEjectionTime) {
+
+            return new CircuitBreakerDef(
+                    enabled,
+                    consecutiveFailures,
+                    failureRate,
+                    windowSize,
+                    minRequests,
+                    baseEjectionTime,
+                    maxEjectionTime);
+        }
+    }
+
     public static Builder builder(final List<URI> nodes) {
         return new Builder(nodes);
     }
@@ -448,6 +725,10 @@ public final class ConnectionConfig {
         private long m_reconnectInterval;
 
         private LoadBalancingDef m_loadBalancingDef;
+        private CircuitBreakerDef m_circuitBreakerDef;
+        private boolean m_sharedPool;
+        private int m_maxConnections;
+        private long m_idleTimeout;
 
         private String m_keystorePath;
         private String m_keystorePassword;
@@ -475,6 +756,11 @@ public final class ConnectionConfig {
                     DEF_STATUS_URI,
                     DEF_CHECK_INTERVAL);
 
+            m_circuitBreakerDef = CircuitBreakerDef.create();
+            m_sharedPool = DEF_SHARED_POOL;
+            m_maxConnections = DEF_MAX_CONNECTIONS;
+            m_idleTimeout = DEF_IDLE_TIMEOUT;
+
             m_keystoreType = DEF_KEYSTORE_TYPE;
             m_truststoreType = DEF_TRUSTSTORE_TYPE;
         }
@@ -547,6 +833,26 @@ public final class ConnectionConfig {
             return this;
         }
 
+        public Builder circuitBreaker(final CircuitBreakerDef circuitBreakerDef) {
+            m_circuitBreakerDef = circuitBreakerDef;
+            return this;
+        }
+
+        public Builder sharedPool(final boolean sharedPool) {
+            m_sharedPool = sharedPool;
+            return this;
+        }
+
+        public Builder maxConnections(final int maxConnections) {
+            m_maxConnections = maxConnections;
+            return this;
+        }
+
+        public Builder idleTimeout(final long idleTimeout) {
+            m_idleTimeout = idleTimeout;
+            return this;
+        }
+
         public Builder keystorePath(final String keystorePath) {
             m_keystorePath = keystorePath;
             return this;
@@ -56,7 +56,7 @@ public final class Connections<E extends IConnection> {
     public int getAvailableCount() {
         int count = 0;
         for (IConnection connection : m_connections) {
-            if (connection.isConnected()) {
+            if (connection.isAvailable()) {
                 count++;
             }
         }
@@ -68,6 +68,18 @@ public final class Connections<E extends IConnection> {
     }
 
     public E next() throws ConnectionException {
+        return next(null);
+    }
+
+    /**
+     * Returns the next healthy connection for the given key. The key is used
+     * by key based load balancing strategies (eg. consistent hashing).
+     *
+     * @param key the request key (can be null)
+     * @return the connection
+     * @throws ConnectionException if no healthy connection was found
+     */
+    public E next(final String key) throws ConnectionException {
         //
         // Skip unhealthy connections...
         //
@@ -76,11 +88,11 @@ public final class Connections<E extends IConnection> {
         E connection = null;
         int i = connections.size();
 
-        while ((connection = strategy.next()) != null
+        while ((connection = (key != null ? strategy.next(key) : strategy.next())) != null
                 && (i > 0)) {
 
-            if (connection.isConnected()) {
-                break; // Found healthy connection
+            if (connection.isAvailable()) {
+                break; // Found healthy connection (circuit not open)
             }
 
             i--;
@@ -97,6 +109,34 @@ public final class Connections<E extends IConnection> {
         return connection;
     }
 
+    /**
+     * Adds a handler that is called on every circuit breaker state transition
+     * of the connections.
+     *
+     * @param listener the state transition handler
+     */
+    public void addCircuitBreakerListener(final Handler<CircuitBreaker> listener) {
+        for (E connection : m_connections) {
+            if (connection instanceof AbstractConnection) {
+                CircuitBreaker breaker = ((AbstractConnection) connection).getCircuitBreaker();
+                if (breaker != null) {
+                    breaker.addListener(listener);
+                }
+            }
+        }
+    }
+
+    public void removeCircuitBreakerListener(final Handler<CircuitBreaker> listener) {
+        for (E connection : m_connections) {
+            if (connection instanceof AbstractConnection) {
+                CircuitBreaker breaker = ((AbstractConnection) connection).getCircuitBreaker();
+                if (breaker != null) {
+                    breaker.removeListener(listener);
+                }
+            }
+        }
+    }
+
     public void addConnection(final E connection) {
         m_connections.add(connection);
         m_strategy.setConnections(m_connections);
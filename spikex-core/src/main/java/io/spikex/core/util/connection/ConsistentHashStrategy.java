@@ -0,0 +1,127 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.core.util.connection;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Consistent hashing strategy. Every connection is placed on a hash ring
+ * multiple times (virtual nodes) and a key is mapped to the first available
+ * connection that follows the hash of the key on the ring. The same key is
+ * always sent to the same connection as long as it stays available, and only
+ * the keys of a failed connection move to other connections.
+ * <p>
+ * Requests without a key are distributed in round-robin order.
+ *
+ * @param <E>
+ * @author cli
+ */
+public final class ConsistentHashStrategy<E extends IConnection> extends AbstractLoadBalancingStrategy<E> {
+
+    private final int m_virtualNodes;
+    private int[] m_ringHashes; // Sorted
+    private int[] m_ringNodes; // Connection index of ring position
+    private int m_index;
+
+    private static final HashFunction HASH = Hashing.murmur3_32();
+
+    public ConsistentHashStrategy(final int virtualNodes) {
+        Preconditions.checkArgument(virtualNodes > 0, "Virtual nodes must be greater than zero");
+        m_virtualNodes = virtualNodes;
+        m_ringHashes = new int[0];
+        m_ringNodes = new int[0];
+    }
+
+    @Override
+    public void setConnections(final List<E> connections) {
+        super.setConnections(connections);
+        m_index = 0;
+        //
+        // Build ring (positions depend only on the connection address)
+        //
+        int vnodes = m_virtualNodes;
+        long[] ring = new long[connections.size() * vnodes];
+        for (int i = 0; i < connections.size(); i++) {
+            String address = String.valueOf(connections.get(i).getAddress());
+            for (int j = 0; j < vnodes; j++) {
+                int hash = hash(address + "#" + j);
+                // Hash in upper 32 bits, connection index in lower bits
+                ring[i * vnodes + j] = ((long) hash << 32) | i;
+            }
+        }
+        Arrays.sort(ring);
+
+        int[] hashes = new int[ring.length];
+        int[] nodes = new int[ring.length];
+        for (int i = 0; i < ring.length; i++) {
+            hashes[i] = (int) (ring[i] >> 32);
+            nodes[i] = (int) ring[i];
+        }
+        m_ringNodes = nodes;
+        m_ringHashes = hashes;
+    }
+
+    @Override
+    public E next() {
+        List<E> connections = getConnections();
+        if (connections == null || connections.isEmpty()) {
+            return null; // Let Connections handle this
+        }
+        return connections.get((m_index++ & Integer.MAX_VALUE) % connections.size());
+    }
+
+    @Override
+    public E next(final String key) {
+
+        if (key == null) {
+            return next();
+        }
+
+        List<E> connections = getConnections();
+        int[] hashes = m_ringHashes;
+        int[] nodes = m_ringNodes;
+        int len = hashes.length;
+        if (len == 0) {
+            return null; // Empty ring - let Connections handle this
+        }
+
+        int pos = Arrays.binarySearch(hashes, hash(key));
+        if (pos < 0) {
+            pos = -(pos + 1); // Insertion point
+        }
+        //
+        // Walk the ring until a available connection is found
+        //
+        for (int i = 0; i < len; i++) {
+            E connection = connections.get(nodes[(pos + i) % len]);
+            if (connection.isAvailable()) {
+                return connection;
+            }
+        }
+        return connections.get(nodes[pos % len]); // Let Connections handle this
+    }
+
+    private static int hash(final String value) {
+        return HASH.hashString(value, StandardCharsets.UTF_8).asInt();
+    }
+}
@@ -60,6 +60,7 @@ public class DefaultConnectionExceptionHandler<E extends IConnection>
         //
         E connection = getConnection();
         if (connection != null) {
+            connection.requestFailed();
             connection.disconnect();
             logger().error("Client error for address: {} (marked as disconnected)",
                     getAddress(), e);
@@ -0,0 +1,268 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.core.util.connection;
+
+import io.spikex.core.util.connection.ConnectionConfig.CircuitBreakerDef;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Health and load state of a remote endpoint. The state can be private to a
+ * single connection or shared by all connections to the same endpoint (see
+ * {@link HttpConnectionRegistry}). Requests are also accounted per user (eg.
+ * per output filter instance), including the share of outstanding requests
+ * of every user.
+ *
+ * @author cli
+ */
+public final class EndpointState {
+
+    private final URI m_address;
+    private final int m_maxInFlight; // 0 = unlimited
+    private final CircuitBreaker m_circuitBreaker; // null if disabled
+    private final AtomicInteger m_outstanding; // Sent but not completed requests
+    private final Map<String, Usage> m_usage; // user => usage
+    //
+    private volatile boolean m_connected;
+    private volatile double m_latencyEwma; // ms
+
+    private static final double EWMA_ALPHA = 0.3d; // Weight of latest sample
+
+    public EndpointState(
+            final URI address,
+            final int maxInFlight,
+            final CircuitBreakerDef circuitBreakerDef) {
+
+        m_address = address;
+        m_maxInFlight = maxInFlight;
+        m_outstanding = new AtomicInteger(0);
+        m_usage = new ConcurrentHashMap();
+        m_connected = false;
+        m_latencyEwma = 0.0d;
+        //
+        // Passive health detection
+        //
+        if (circuitBreakerDef != null && circuitBreakerDef.isEnabled()) {
+            m_circuitBreaker = new CircuitBreaker(address, circuitBreakerDef);
+        } else {
+            m_circuitBreaker = null;
+        }
+    }
+
+    public URI getAddress() {
+        return m_address;
+    }
+
+    public boolean isConnected() {
+        return m_connected;
+    }
+
+    /**
+     * Returns true if the endpoint is connected, the circuit breaker allows a
+     * request and the in-flight limit has not been reached.
+     *
+     * @param now the current time in milliseconds
+     * @return true if a request can be sent
+     */
+    public boolean isAvailable(final long now) {
+        CircuitBreaker breaker = m_circuitBreaker;
+        int maxInFlight = m_maxInFlight;
+        return m_connected
+                && (maxInFlight <= 0 || m_outstanding.get() < maxInFlight)
+                && (breaker == null || breaker.isRequestAllowed(now));
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return m_circuitBreaker;
+    }
+
+    public int getMaxInFlight() {
+        return m_maxInFlight;
+    }
+
+    public int getOutstandingRequests() {
+        return m_outstanding.get();
+    }
+
+    public double getLatencyEwma() {
+        return m_latencyEwma;
+    }
+
+    /**
+     * Returns the request accounting of every user of this endpoint.
+     *
+     * @return user => usage
+     */
+    public Map<String, Usage> getUsage() {
+        return Collections.unmodifiableMap(m_usage);
+    }
+
+    public void setConnected(final boolean connected) {
+        m_connected = connected;
+    }
+
+    /**
+     * Sets the connected flag. A disconnect also drops the outstanding
+     * requests of the given user (they are lost), but not those of the
+     * other users.
+     *
+     * @param user the user name
+     * @param connected true if connected
+     */
+    public void setConnected(
+            final String user,
+            final boolean connected) {
+
+        m_connected = connected;
+        if (!connected) {
+            int lost = usage(user).m_outstanding.getAndSet(0);
+            for (int i = 0; i < lost; i++) {
+                decrement(m_outstanding);
+            }
+        }
+    }
+
+    public void requestStarted(final String user) {
+        Usage usage = usage(user);
+        usage.m_outstanding.incrementAndGet();
+        m_outstanding.incrementAndGet();
+        usage.m_requests.incrementAndGet();
+        CircuitBreaker breaker = m_circuitBreaker;
+        if (breaker != null) {
+            breaker.recordStart(System.currentTimeMillis());
+        }
+    }
+
+    public void requestCompleted(
+            final String user,
+            final long latency) {
+
+        decrementOutstanding(usage(user));
+        updateLatency(latency);
+        CircuitBreaker breaker = m_circuitBreaker;
+        if (breaker != null) {
+            breaker.recordSuccess(System.currentTimeMillis());
+        }
+    }
+
+    public void requestFailed(final String user) {
+        Usage usage = usage(user);
+        decrementOutstanding(usage);
+        usage.m_failures.incrementAndGet();
+        CircuitBreaker breaker = m_circuitBreaker;
+        if (breaker != null) {
+            breaker.recordFailure(System.currentTimeMillis());
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("EndpointState: ");
+        sb.append(m_address);
+        sb.append(" connected: ");
+        sb.append(m_connected);
+        sb.append(" outstanding: ");
+        sb.append(m_outstanding.get());
+        sb.append(" users: ");
+        sb.append(m_usage.keySet());
+        return sb.toString();
+    }
+
+    void addUser(final String user) {
+        usage(user);
+    }
+
+    void removeUser(final String user) {
+        m_usage.remove(user);
+    }
+
+    int getUserCount() {
+        return m_usage.size();
+    }
+
+    private Usage usage(final String user) {
+        Usage usage = m_usage.get(user);
+        if (usage == null) {
+            Usage newUsage = new Usage();
+            usage = ((ConcurrentHashMap<String, Usage>) m_usage).putIfAbsent(user, newUsage);
+            if (usage == null) {
+                usage = newUsage;
+            }
+        }
+        return usage;
+    }
+
+    private void decrementOutstanding(final Usage usage) {
+        // Requests dropped by a disconnect are no longer outstanding
+        if (decrement(usage.m_outstanding)) {
+            decrement(m_outstanding);
+        }
+    }
+
+    private static boolean decrement(final AtomicInteger counter) {
+        int count;
+        do {
+            count = counter.get();
+            if (count <= 0) {
+                return false;
+            }
+        } while (!counter.compareAndSet(count, count - 1));
+        return true;
+    }
+
+    private synchronized void updateLatency(final long latency) {
+        double ewma = m_latencyEwma;
+        if (ewma == 0.0d) {
+            m_latencyEwma = latency; // First sample
+        } else {
+            m_latencyEwma = ewma + EWMA_ALPHA * (latency - ewma);
+        }
+    }
+
+    /**
+     * Request accounting of a single user.
+     */
+    public static final class Usage {
+
+        private final AtomicLong m_requests;
+        private final AtomicLong m_failures;
+        private final AtomicInteger m_outstanding;
+
+        private Usage() {
+            m_requests = new AtomicLong(0L);
+            m_failures = new AtomicLong(0L);
+            m_outstanding = new AtomicInteger(0);
+        }
+
+        public long getRequestCount() {
+            return m_requests.get();
+        }
+
+        public long getFailureCount() {
+            return m_failures.get();
+        }
+
+        public int getOutstandingRequests() {
+            return m_outstanding.get();
+        }
+    }
+}
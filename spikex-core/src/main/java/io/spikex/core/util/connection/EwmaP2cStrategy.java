@@ -0,0 +1,72 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.core.util.connection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Power-of-two-choices strategy weighted by request latency. Picks two random
+ * available connections and chooses the one with the lower cost, where cost is
+ * the latency EWMA multiplied by the outstanding requests (plus one).
+ * Connections with no latency samples yet are preferred, so that new and
+ * recovered nodes are measured quickly.
+ *
+ * @param <E>
+ * @author cli
+ */
+public final class EwmaP2cStrategy<E extends IConnection> extends AbstractLoadBalancingStrategy<E> {
+
+    @Override
+    public E next() {
+
+        List<E> connections = getConnections();
+        List<E> available = new ArrayList(connections.size());
+        for (E connection : connections) {
+            if (connection.isAvailable()) {
+                available.add(connection);
+            }
+        }
+
+        int size = available.size();
+        if (size == 0) {
+            return connections.get(0); // Let Connections handle this
+        }
+        if (size == 1) {
+            return available.get(0);
+        }
+        //
+        // Pick two distinct connections
+        //
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        int i = rnd.nextInt(size);
+        int j = rnd.nextInt(size - 1);
+        if (j >= i) {
+            j++;
+        }
+
+        E first = available.get(i);
+        E second = available.get(j);
+        return (cost(first) <= cost(second) ? first : second);
+    }
+
+    private static double cost(final IConnection connection) {
+        return connection.getLatencyEwma() * (connection.getOutstandingRequests() + 1);
+    }
+}
@@ -23,12 +23,20 @@ import org.vertx.java.core.http.HttpClientRequest;
 import org.vertx.java.core.http.HttpClientResponse;
 
 /**
+ * Base class of HTTP requests made through a connection. An optional
+ * completion handler is called once with the outcome of the request: true
+ * for a non-error response, false for an error response or a failure (see
+ * {@link #exceptionHandler()}).
  *
  * @author cli
  */
 public abstract class HttpClientAdapter implements Handler<HttpClient> {
 
     private final IConnection<HttpClient> m_connection;
+    private Handler<Boolean> m_completionHandler;
+
+    private static final int HTTP_ERR_CODE = 400;
+    private static final int HTTP_SERVER_ERR_CODE = 500;
 
     public HttpClientAdapter(final IConnection<HttpClient> connection) {
         m_connection = connection;
@@ -44,14 +52,53 @@ public abstract class HttpClientAdapter implements Handler<HttpClient> {
         doRequest(client);
     }
 
+    /**
+     * Sets the handler that is called once with the outcome of the request.
+     *
+     * @param handler the completion handler
+     */
+    public final void setCompletionHandler(final Handler<Boolean> handler) {
+        m_completionHandler = handler;
+    }
+
     protected abstract void doRequest(final HttpClient client);
 
+    /**
+     * Returns an exception handler for the request that marks the connection
+     * as failed and completes the request as failed.
+     *
+     * @return the request exception handler
+     */
+    protected final Handler<Throwable> exceptionHandler() {
+        return new DefaultConnectionExceptionHandler<IConnection<HttpClient>>(m_connection) {
+
+            @Override
+            public void handle(final Throwable e) {
+                super.handle(e);
+                completed(false);
+            }
+        };
+    }
+
+    /**
+     * Calls the completion handler (if any) once.
+     *
+     * @param success true if the request succeeded
+     */
+    protected final void completed(final boolean success) {
+        Handler<Boolean> handler = m_completionHandler;
+        if (handler != null) {
+            m_completionHandler = null;
+            handler.handle(success);
+        }
+    }
+
     protected HttpClientRequest doGet(
             final String uri,
             final Handler<HttpClientResponse> handler) {
 
         HttpClient client = m_connection.getClient();
-        return client.get(uri, handler);
+        return client.get(uri, track(handler));
     }
 
     protected HttpClientRequest doPut(
@@ -59,7 +106,7 @@ public abstract class HttpClientAdapter implements Handler<HttpClient> {
             final Handler<HttpClientResponse> handler) {
 
         HttpClient client = m_connection.getClient();
-        return client.put(uri, handler);
+        return client.put(uri, track(handler));
     }
 
     protected HttpClientRequest doPost(
@@ -67,7 +114,7 @@ public abstract class HttpClientAdapter implements Handler<HttpClient> {
             final Handler<HttpClientResponse> handler) {
 
         HttpClient client = m_connection.getClient();
-        return client.post(uri, handler);
+        return client.post(uri, track(handler));
     }
 
     protected HttpClientRequest doDelete(
@@ -75,7 +122,7 @@ public abstract class HttpClientAdapter implements Handler<HttpClient> {
             final Handler<HttpClientResponse> handler) {
 
         HttpClient client = m_connection.getClient();
-        return client.delete(uri, handler);
+        return client.delete(uri, track(handler));
     }
 
     protected HttpClientRequest doHead(
@@ -83,7 +130,7 @@ public abstract class HttpClientAdapter implements Handler<HttpClient> {
             final Handler<HttpClientResponse> handler) {
 
         HttpClient client = m_connection.getClient();
-        return client.head(uri, handler);
+        return client.head(uri, track(handler));
     }
 
     protected HttpClientRequest doOptions(
@@ -91,7 +138,7 @@ public abstract class HttpClientAdapter implements Handler<HttpClient> {
             final Handler<HttpClientResponse> handler) {
 
         HttpClient client = m_connection.getClient();
-        return client.options(uri, handler);
+        return client.options(uri, track(handler));
     }
 
     protected HttpClientRequest doConnect(
@@ -99,7 +146,7 @@ public abstract class HttpClientAdapter implements Handler<HttpClient> {
             final Handler<HttpClientResponse> handler) {
 
         HttpClient client = m_connection.getClient();
-        return client.connect(uri, handler);
+        return client.connect(uri, track(handler));
     }
 
     protected HttpClientRequest doTrace(
@@ -107,7 +154,7 @@ public abstract class HttpClientAdapter implements Handler<HttpClient> {
             final Handler<HttpClientResponse> handler) {
 
         HttpClient client = m_connection.getClient();
-        return client.trace(uri, handler);
+        return client.trace(uri, track(handler));
     }
 
     protected HttpClientRequest doPatch(
@@ -115,10 +162,41 @@ public abstract class HttpClientAdapter implements Handler<HttpClient> {
             final Handler<HttpClientResponse> handler) {
 
         HttpClient client = m_connection.getClient();
-        return client.patch(uri, handler);
+        return client.patch(uri, track(handler));
     }
 
     protected void disconnect() {
         m_connection.disconnect();
     }
+
+    private Handler<HttpClientResponse> track(final Handler<HttpClientResponse> handler) {
+        m_connection.requestStarted();
+        return new TrackingResponseHandler(handler);
+    }
+
+    private final class TrackingResponseHandler implements Handler<HttpClientResponse> {
+
+        private final Handler<HttpClientResponse> m_handler;
+        private final long m_start;
+
+        private TrackingResponseHandler(final Handler<HttpClientResponse> handler) {
+            m_handler = handler;
+            m_start = System.currentTimeMillis();
+        }
+
+        @Override
+        public void handle(final HttpClientResponse response) {
+            // Response headers received - request completed (server errors count as failures)
+            if (response.statusCode() >= HTTP_SERVER_ERR_CODE) {
+                m_connection.requestFailed();
+            } else {
+                m_connection.requestCompleted(System.currentTimeMillis() - m_start);
+            }
+            try {
+                m_handler.handle(response);
+            } finally {
+                completed(response.statusCode() < HTTP_ERR_CODE);
+            }
+        }
+    }
 }
@@ -37,6 +37,7 @@ public final class HttpConnection extends AbstractConnection<HttpClient> {
     private volatile HttpClient m_client;
     private final Vertx m_vertx;
     private final Handler<Throwable> m_exceptionHandler;
+    private final Handler<HttpClientAdapter> m_requestListener;
     private final String m_authBase64;
 
     public String getBase64UserAndPassword() {
@@ -53,6 +54,9 @@ public final class HttpConnection extends AbstractConnection<HttpClient> {
         URI address = getAddress();
         try {
             logger().trace("Sending request to {}:{}", address.getHost(), address.getPort());
+            if (m_requestListener != null && handler instanceof HttpClientAdapter) {
+                m_requestListener.handle((HttpClientAdapter) handler);
+            }
             //
             // Trigger handler to do a HTTP request
             //
@@ -60,6 +64,9 @@ public final class HttpConnection extends AbstractConnection<HttpClient> {
         } catch (Exception e) {
             logger().error("Failed to communicate with {}:{}",
                     address.getHost(), address.getPort(), e);
+            if (handler instanceof HttpClientAdapter) {
+                ((HttpClientAdapter) handler).completed(false);
+            }
         }
     }
 
@@ -81,6 +88,25 @@ public final class HttpConnection extends AbstractConnection<HttpClient> {
         }
     }
 
+    /**
+     * Closes the pooled connections of the underlying client without changing
+     * the connection state. Used to evict idle connections and to release
+     * sockets of a shared endpoint that is still used by others.
+     */
+    public void recycle() {
+        URI address = getAddress();
+        try {
+            HttpClient client = copyClient(); // Make a copy just before close
+            m_client.close();
+            m_client = client;
+            logger().debug("Closed pooled connections to {}:{}",
+                    address.getHost(), address.getPort());
+        } catch (Exception e) {
+            logger().error("Failed to close pooled connections to {}:{}",
+                    address.getHost(), address.getPort(), e);
+        }
+    }
+
     @Override
     protected HttpClient copyClient() {
         return builder(getAddress(), m_vertx)
@@ -117,6 +143,7 @@ public final class HttpConnection extends AbstractConnection<HttpClient> {
         private boolean m_pipelining;
         private int m_maxPoolSize;
         private Handler<Throwable> m_exceptionHandler;
+        private Handler<HttpClientAdapter> m_requestListener;
         private String m_keystorePath;
         private String m_keystorePassword;
 //        private String m_keystoreType;
@@ -175,6 +202,18 @@ public final class HttpConnection extends AbstractConnection<HttpClient> {
             return this;
         }
 
+        /**
+         * Sets the listener that is called with every request made through
+         * {@link HttpConnection#doRequest} (eg. to set a completion handler).
+         *
+         * @param requestListener the request listener
+         * @return this builder
+         */
+        public Builder requestListener(final Handler<HttpClientAdapter> requestListener) {
+            m_requestListener = requestListener;
+            return this;
+        }
+
         public Builder keystorePath(final String keystorePath) {
             m_keystorePath = keystorePath;
             return this;
@@ -206,6 +245,7 @@ public final class HttpConnection extends AbstractConnection<HttpClient> {
             m_keystorePassword = def.getKeystorePassword();
             m_truststorePath = def.getTruststorePath();
             m_truststorePassword = def.getTruststorePassword();
+            circuitBreaker(def.getCircuitBreaker());
             return this;
         }
 
@@ -224,6 +264,7 @@ public final class HttpConnection extends AbstractConnection<HttpClient> {
         m_vertx = builder.m_vertx;
         m_client = newClient(builder);
         m_exceptionHandler = builder.m_exceptionHandler;
+        m_requestListener = builder.m_requestListener;
         //
         // Basic authentication (calculate in advance)
         //
@@ -0,0 +1,138 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.core.util.connection;
+
+import com.google.common.base.Preconditions;
+import io.spikex.core.util.connection.ConnectionConfig.NodesDef;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Node-wide registry of shared endpoint states. Users (eg. output filters)
+ * that connect to the same endpoint share its health state (connected flag and
+ * circuit breaker), in-flight request limit and load statistics. The endpoint
+ * key consists of the scheme, host, port and TLS settings.
+ * <p>
+ * The underlying HTTP clients are not shared, since Vert.x clients are bound
+ * to the context of the verticle that created them.
+ * <p>
+ * Thread-safe.
+ *
+ * @author cli
+ */
+public final class HttpConnectionRegistry {
+
+    private static final Map<String, EndpointState> ENDPOINTS = new HashMap();
+    private static final Logger LOGGER = LoggerFactory.getLogger(HttpConnectionRegistry.class);
+
+    private HttpConnectionRegistry() {
+        // Utility class
+    }
+
+    /**
+     * Returns the shared state of the given endpoint and registers the given
+     * user. The state is created if it does not exist yet.
+     *
+     * @param address the endpoint address
+     * @param nodesDef the connection configuration
+     * @param user the user name (eg. address of the filter instance)
+     * @return the shared endpoint state
+     */
+    public static EndpointState acquire(
+            final URI address,
+            final NodesDef nodesDef,
+            final String user) {
+
+        Preconditions.checkNotNull(address, "address is null");
+        Preconditions.checkNotNull(nodesDef, "nodesDef is null");
+        Preconditions.checkNotNull(user, "user is null");
+
+        String key = endpointKey(address, nodesDef);
+        synchronized (ENDPOINTS) {
+            EndpointState endpoint = ENDPOINTS.get(key);
+            if (endpoint == null) {
+                endpoint = new EndpointState(
+                        address,
+                        nodesDef.getMaxConnections(),
+                        nodesDef.getCircuitBreaker());
+                ENDPOINTS.put(key, endpoint);
+                LOGGER.debug("Created shared endpoint: {}", key);
+            }
+            endpoint.addUser(user);
+            return endpoint;
+        }
+    }
+
+    /**
+     * Unregisters the user from the given endpoint. The endpoint state is
+     * removed when it has no more users.
+     *
+     * @param endpoint the endpoint state
+     * @param user the user name
+     */
+    public static void release(
+            final EndpointState endpoint,
+            final String user) {
+
+        synchronized (ENDPOINTS) {
+            endpoint.removeUser(user);
+            if (endpoint.getUserCount() == 0) {
+                ENDPOINTS.values().remove(endpoint);
+                LOGGER.debug("Removed shared endpoint: {}", endpoint.getAddress());
+            }
+        }
+    }
+
+    /**
+     * Returns the amount of registered endpoints.
+     *
+     * @return the endpoint count
+     */
+    public static int size() {
+        synchronized (ENDPOINTS) {
+            return ENDPOINTS.size();
+        }
+    }
+
+    private static String endpointKey(
+            final URI address,
+            final NodesDef nodesDef) {
+
+        int port = address.getPort();
+        if (port == -1) {
+            port = ("https".equalsIgnoreCase(address.getScheme()) ? 443 : 80);
+        }
+        StringBuilder key = new StringBuilder(address.getScheme());
+        key.append("://");
+        key.append(address.getHost());
+        key.append(":");
+        key.append(port);
+        if (nodesDef.isSslEnabled()) {
+            key.append("|ssl|");
+            key.append(nodesDef.isVerifyHost());
+            key.append("|");
+            key.append(nodesDef.getKeystorePath());
+            key.append("|");
+            key.append(nodesDef.getTruststorePath());
+        }
+        return key.toString();
+    }
+}
@@ -31,6 +31,14 @@ public interface IConnection<V> {
 
     public boolean isConnected();
 
+    /**
+     * Returns true if the connection is connected and can take a request now
+     * (ie. its circuit breaker is not open).
+     *
+     * @return true if a request can be sent
+     */
+    public boolean isAvailable();
+
     public URI getAddress();
 
     public long getConnectTimeout();
@@ -49,4 +57,25 @@ public interface IConnection<V> {
     public void setConnected(boolean connected);
 
     public void updateActivity();
+
+    /**
+     * Returns the number of requests that have been sent but not yet
+     * completed.
+     *
+     * @return the number of outstanding requests
+     */
+    public int getOutstandingRequests();
+
+    /**
+     * Returns the exponentially weighted moving average of request latency.
+     *
+     * @return the average latency in milliseconds (zero if not measured yet)
+     */
+    public double getLatencyEwma();
+
+    public void requestStarted();
+
+    public void requestCompleted(long latency);
+
+    public void requestFailed();
 }
@@ -40,4 +40,13 @@ public interface ILoadBalancingStrategy<E extends IConnection> {
      * @return the connection
      */
     public E next();
+
+    /**
+     * Returns the next available connection for the given key. Strategies
+     * that do not use keys return the same connection as {@link #next() next}.
+     *
+     * @param key the request key (eg. series name)
+     * @return the connection
+     */
+    public E next(String key);
 }
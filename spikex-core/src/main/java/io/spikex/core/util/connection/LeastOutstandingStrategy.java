@@ -0,0 +1,63 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.core.util.connection;
+
+import java.util.List;
+
+/**
+ * Picks the available connection with the least outstanding requests. Ties
+ * are resolved in round-robin order.
+ *
+ * @param <E>
+ * @author cli
+ */
+public final class LeastOutstandingStrategy<E extends IConnection> extends AbstractLoadBalancingStrategy<E> {
+
+    private int m_index;
+
+    @Override
+    public void setConnections(final List<E> connections) {
+        super.setConnections(connections);
+        m_index = 0; // First connection
+    }
+
+    @Override
+    public E next() {
+
+        List<E> connections = getConnections();
+        int size = connections.size();
+        int start = (m_index++ & Integer.MAX_VALUE) % size;
+
+        E best = null;
+        int bestCount = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            E connection = connections.get((start + i) % size);
+            if (connection.isAvailable()) {
+                int count = connection.getOutstandingRequests();
+                if (count < bestCount) {
+                    best = connection;
+                    bestCount = count;
+                }
+            }
+        }
+        //
+        // Let Connections handle the case of no available connections
+        //
+        return (best != null ? best : connections.get(start));
+    }
+}
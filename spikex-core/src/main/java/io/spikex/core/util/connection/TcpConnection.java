@@ -149,6 +149,7 @@ public final class TcpConnection extends AbstractConnection<NetClient> {
             m_keystorePassword = def.getKeystorePassword();
             m_truststorePath = def.getTruststorePath();
             m_truststorePassword = def.getTruststorePassword();
+            circuitBreaker(def.getCircuitBreaker());
             return this;
         }
 
@@ -18,17 +18,18 @@
 package io.spikex.core.util.process;
 
 import com.gs.collections.impl.list.mutable.FastList;
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
+import io.spikex.core.util.LineFramer;
+import io.spikex.core.util.LineFramer.Line;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.List;
+import org.vertx.java.core.Handler;
 
 /**
+ * Collects the lines written by a child process to stdout. Lines are framed
+ * with {@link LineFramer}, so lines that are split between stdout chunks are
+ * handled correctly. Both "\n" and "\r\n" line endings are supported.
  *
  * @author cli
  */
@@ -38,6 +39,13 @@ public class LineReader extends DefaultProcessHandler {
     private final int m_skipLinesFromEnd;
     private final long m_maxLineCount;
     private final List<String> m_lines;
+    private final Handler<Line> m_lineHandler;
+
+    private LineFramer m_framer; // Created on first output (process encoding)
+    private boolean m_done;
+
+    private static final String LINE_DELIMITER = "\n";
+    private static final int MAX_LINE_LENGTH = 1024 * 1024; // bytes
 
     public LineReader() {
         this(0, 0, 0L);
@@ -56,6 +64,13 @@ public class LineReader extends DefaultProcessHandler {
         m_skipLinesFromEnd = skipLinesFromEnd;
         m_maxLineCount = maxLineCount;
         m_lines = FastList.<String>newList().asSynchronized();
+        m_lineHandler = new Handler<Line>() {
+
+            @Override
+            public void handle(final Line line) {
+                addLine(line.toString());
+            }
+        };
     }
 
     public long getLineCount() {
@@ -90,61 +105,48 @@ public class LineReader extends DefaultProcessHandler {
             final ByteBuffer buffer,
             final boolean closed) {
 
-        if (buffer != null) {
-
-            BufferedReader reader = null;
+        LineFramer framer = m_framer;
+        if (framer == null) {
+            Charset encoding = StandardCharsets.UTF_8;
             ChildProcess process = getProcess();
-
-            try {
-                byte[] bytes = new byte[buffer.remaining()];
-                buffer.get(bytes);
-
-                Charset encoding = StandardCharsets.UTF_8;
-
-                if (process != null) {
-                    encoding = process.getEncoding();
-                }
-
-                InputStreamReader inputReader
-                        = new InputStreamReader(new ByteArrayInputStream(bytes), encoding);
-                reader = new BufferedReader(inputReader);
-
-                List<String> lines = new ArrayList();
-                long curLineCount = m_lines.size();
-                long maxLineCount = m_maxLineCount;
-
-                String line;
-                while ((line = reader.readLine()) != null) {
-
-                    // Add line to list
-                    lines.add(line);
-                    curLineCount++;
-
-                    //
-                    // Stop processing if max line count reached
-                    //
-                    if (maxLineCount > 0
-                            && curLineCount >= maxLineCount) {
-                        closeStdin();
-                        break;
-                    }
-                }
-                m_lines.addAll(lines);
-
-            } catch (IOException e) {
-                logger().error("Failed to read lines from {}",
-                        process == null ? "process" : process.getArgs(), e);
-            } finally {
-                if (reader != null) {
-                    try {
-                        reader.close();
-                    } catch (IOException e) {
-                        logger().error("Failed to close reader stream", e);
-                    }
-                }
+            if (process != null) {
+                encoding = process.getEncoding();
             }
+            framer = new LineFramer(encoding, LINE_DELIMITER, MAX_LINE_LENGTH, true);
+            m_framer = framer;
+        }
+
+        if (buffer != null && !m_done) {
+            framer.frame(buffer, m_lineHandler);
         }
         if (closed) {
+            if (!m_done) {
+                framer.flush(m_lineHandler); // Last line without delimiter
+            }
+            closeStdin();
+        }
+    }
+
+    private void addLine(final String line) {
+
+        if (m_done) {
+            return;
+        }
+
+        // Strip carriage return of "\r\n"
+        if (line.endsWith("\r")) {
+            m_lines.add(line.substring(0, line.length() - 1));
+        } else {
+            m_lines.add(line);
+        }
+
+        //
+        // Stop processing if max line count reached
+        //
+        long maxLineCount = m_maxLineCount;
+        if (maxLineCount > 0
+                && m_lines.size() >= maxLineCount) {
+            m_done = true;
             closeStdin();
         }
     }
@@ -0,0 +1,118 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.core.util.connection.unit;
+
+import io.spikex.core.util.connection.CircuitBreaker;
+import io.spikex.core.util.connection.CircuitBreaker.State;
+import io.spikex.core.util.connection.ConnectionConfig.CircuitBreakerDef;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.Assert;
+import org.junit.Test;
+import org.vertx.java.core.Handler;
+
+/**
+ * Circuit breaker tester.
+ *
+ * @author cli
+ */
+public class CircuitBreakerTest {
+
+    private static final URI ADDRESS = URI.create("http://localhost:9200");
+
+    @Test
+    public void testConsecutiveFailures() {
+
+        CircuitBreaker breaker = new CircuitBreaker(ADDRESS,
+                CircuitBreakerDef.create(true, 3, 1.0d, 10, 10, 1000L, 4000L));
+        final List<State> transitions = new ArrayList();
+        Handler<CircuitBreaker> listener = new Handler<CircuitBreaker>() {
+
+            @Override
+            public void handle(final CircuitBreaker breaker) {
+                transitions.add(breaker.getState());
+            }
+        };
+        Handler<CircuitBreaker> other = new Handler<CircuitBreaker>() {
+
+            @Override
+            public void handle(final CircuitBreaker breaker) {
+                // Do nothing
+            }
+        };
+        breaker.addListener(listener);
+        breaker.addListener(other);
+        Assert.assertTrue(breaker.isPrimaryListener(listener));
+        Assert.assertFalse(breaker.isPrimaryListener(other));
+
+        long now = 1000000L;
+        breaker.recordFailure(now);
+        breaker.recordFailure(now);
+        Assert.assertEquals(State.CLOSED, breaker.getState());
+        breaker.recordFailure(now);
+        Assert.assertEquals(State.OPEN, breaker.getState());
+        Assert.assertFalse(breaker.isRequestAllowed(now + 999L));
+
+        // Probe fails - ejection time doubles
+        Assert.assertTrue(breaker.isRequestAllowed(now + 1000L));
+        breaker.recordStart(now + 1000L);
+        Assert.assertEquals(State.HALF_OPEN, breaker.getState());
+        Assert.assertFalse(breaker.isRequestAllowed(now + 1001L)); // Probe in flight
+        breaker.recordFailure(now + 1100L);
+        Assert.assertEquals(State.OPEN, breaker.getState());
+        Assert.assertEquals(now + 1100L + 2000L, breaker.getOpenUntil());
+
+        // Probe succeeds
+        breaker.recordStart(now + 3100L);
+        breaker.recordSuccess(now + 3200L);
+        Assert.assertEquals(State.CLOSED, breaker.getState());
+        Assert.assertEquals(2L, breaker.getEjectionCount());
+
+        Assert.assertEquals(5, transitions.size());
+        Assert.assertEquals(State.OPEN, transitions.get(0));
+        Assert.assertEquals(State.HALF_OPEN, transitions.get(1));
+        Assert.assertEquals(State.OPEN, transitions.get(2));
+        Assert.assertEquals(State.HALF_OPEN, transitions.get(3));
+        Assert.assertEquals(State.CLOSED, transitions.get(4));
+
+        // Next user takes over notifications
+        breaker.removeListener(listener);
+        Assert.assertTrue(breaker.isPrimaryListener(other));
+    }
+
+    @Test
+    public void testFailureRate() {
+
+        CircuitBreaker breaker = new CircuitBreaker(ADDRESS,
+                CircuitBreakerDef.create(true, 100, 0.5d, 10, 10, 1000L, 60000L));
+
+        long now = 1000000L;
+        for (int i = 0; i < 9; i++) {
+            if (i % 2 == 0) {
+                breaker.recordFailure(now);
+            } else {
+                breaker.recordSuccess(now);
+            }
+        }
+        // 5 failures out of 9 requests - not enough requests yet
+        Assert.assertEquals(State.CLOSED, breaker.getState());
+        breaker.recordFailure(now);
+        Assert.assertEquals(State.OPEN, breaker.getState());
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.core.util.connection.unit;
+
+import io.spikex.core.util.connection.ConnectionConfig;
+import io.spikex.core.util.connection.ConnectionConfig.NodesDef;
+import io.spikex.core.util.connection.EndpointState;
+import io.spikex.core.util.connection.HttpConnectionRegistry;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ * Shared endpoint registry tester.
+ *
+ * @author cli
+ */
+public class HttpConnectionRegistryTest {
+
+    @Test
+    public void testSharedEndpoint() {
+
+        URI node1 = URI.create("http://localhost:9200");
+        URI node2 = URI.create("http://localhost:9300");
+        List<URI> nodes = new ArrayList();
+        nodes.add(node1);
+        nodes.add(node2);
+        NodesDef def = ConnectionConfig.builder(nodes).maxConnections(2).build();
+
+        int size = HttpConnectionRegistry.size();
+        EndpointState endpoint1 = HttpConnectionRegistry.acquire(node1, def, "chain1.output");
+        EndpointState endpoint2 = HttpConnectionRegistry.acquire(
+                URI.create("http://localhost:9200/"), def, "chain2.output");
+        EndpointState endpoint3 = HttpConnectionRegistry.acquire(node2, def, "chain1.output");
+        Assert.assertSame(endpoint1, endpoint2);
+        Assert.assertNotSame(endpoint1, endpoint3);
+        Assert.assertEquals(size + 2, HttpConnectionRegistry.size());
+
+        // Health state and in-flight limit are shared
+        endpoint1.setConnected(true);
+        Assert.assertTrue(endpoint2.isAvailable(System.currentTimeMillis()));
+        endpoint1.requestStarted("chain1.output");
+        endpoint2.requestStarted("chain2.output");
+        Assert.assertFalse("In-flight limit was exceeded",
+                endpoint1.isAvailable(System.currentTimeMillis()));
+        endpoint2.requestFailed("chain2.output");
+        Assert.assertTrue(endpoint1.isAvailable(System.currentTimeMillis()));
+
+        // Per-user accounting
+        Assert.assertEquals(1L, endpoint1.getUsage().get("chain1.output").getRequestCount());
+        Assert.assertEquals(0L, endpoint1.getUsage().get("chain1.output").getFailureCount());
+        Assert.assertEquals(1L, endpoint1.getUsage().get("chain2.output").getFailureCount());
+
+        // Disconnect drops the outstanding requests of one user only
+        endpoint1.requestStarted("chain1.output");
+        endpoint2.requestStarted("chain2.output");
+        Assert.assertEquals(3, endpoint1.getOutstandingRequests());
+        endpoint2.setConnected("chain2.output", false);
+        Assert.assertEquals(2, endpoint1.getOutstandingRequests());
+        Assert.assertEquals(2, endpoint1.getUsage().get("chain1.output").getOutstandingRequests());
+        endpoint2.requestCompleted("chain2.output", 10L); // Lost request
+        Assert.assertEquals(2, endpoint1.getOutstandingRequests());
+        endpoint1.requestCompleted("chain1.output", 10L);
+        Assert.assertEquals(1, endpoint1.getOutstandingRequests());
+
+        // Endpoint is removed after last user
+        HttpConnectionRegistry.release(endpoint1, "chain1.output");
+        Assert.assertEquals(size + 2, HttpConnectionRegistry.size());
+        HttpConnectionRegistry.release(endpoint2, "chain2.output");
+        HttpConnectionRegistry.release(endpoint3, "chain1.output");
+        Assert.assertEquals(size, HttpConnectionRegistry.size());
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.core.util.connection.unit;
+
+import io.spikex.core.util.connection.ConsistentHashStrategy;
+import io.spikex.core.util.connection.EwmaP2cStrategy;
+import io.spikex.core.util.connection.IConnection;
+import io.spikex.core.util.connection.LeastOutstandingStrategy;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import junit.framework.Assert;
+import org.junit.Test;
+import org.vertx.java.core.Handler;
+
+/**
+ * Load balancing strategy tester.
+ *
+ * @author cli
+ */
+public class LoadBalancingStrategyTest {
+
+    @Test
+    public void testLeastOutstanding() {
+
+        List<TestConnection> connections = createConnections(3);
+        LeastOutstandingStrategy<TestConnection> strategy = new LeastOutstandingStrategy();
+        strategy.setConnections(connections);
+
+        connections.get(0).m_outstanding = 5;
+        connections.get(1).m_outstanding = 1;
+        connections.get(2).m_outstanding = 3;
+        Assert.assertSame(connections.get(1), strategy.next());
+
+        // Skip disconnected
+        connections.get(1).m_connected = false;
+        Assert.assertSame(connections.get(2), strategy.next());
+    }
+
+    @Test
+    public void testEwmaP2c() {
+
+        List<TestConnection> connections = createConnections(2);
+        EwmaP2cStrategy<TestConnection> strategy = new EwmaP2cStrategy();
+        strategy.setConnections(connections);
+
+        connections.get(0).m_latency = 500.0d;
+        connections.get(1).m_latency = 10.0d;
+        for (int i = 0; i < 100; i++) {
+            Assert.assertSame(connections.get(1), strategy.next());
+        }
+
+        // Outstanding requests increase cost
+        connections.get(1).m_outstanding = 100;
+        Assert.assertSame(connections.get(0), strategy.next());
+    }
+
+    @Test
+    public void testConsistentHash() {
+
+        List<TestConnection> connections = createConnections(4);
+        ConsistentHashStrategy<TestConnection> strategy = new ConsistentHashStrategy(160);
+        strategy.setConnections(connections);
+
+        Map<String, TestConnection> assigned = new HashMap();
+        int[] counts = new int[connections.size()];
+        for (int i = 0; i < 10000; i++) {
+            String key = "cpu.load.host-" + i;
+            TestConnection connection = strategy.next(key);
+            Assert.assertSame(connection, strategy.next(key)); // Stable
+            assigned.put(key, connection);
+            counts[connections.indexOf(connection)]++;
+        }
+        for (int count : counts) {
+            Assert.assertTrue("Unbalanced ring: " + count, count > 1500 && count < 3500);
+        }
+
+        // Only keys of the failed connection move
+        TestConnection failed = connections.get(2);
+        failed.m_connected = false;
+        for (Map.Entry<String, TestConnection> entry : assigned.entrySet()) {
+            TestConnection connection = strategy.next(entry.getKey());
+            Assert.assertNotSame(failed, connection);
+            if (entry.getValue() != failed) {
+                Assert.assertSame(entry.getValue(), connection);
+            }
+        }
+    }
+
+    @Test
+    public void testConsistentHashEmptyRing() {
+
+        // No connections set
+        ConsistentHashStrategy<TestConnection> strategy = new ConsistentHashStrategy(160);
+        Assert.assertNull(strategy.next("cpu.load.host-1"));
+        Assert.assertNull(strategy.next());
+    }
+
+    private static List<TestConnection> createConnections(final int count) {
+        List<TestConnection> connections = new ArrayList();
+        for (int i = 0; i < count; i++) {
+            connections.add(new TestConnection(URI.create("http://relay-" + i + ":8086")));
+        }
+        return connections;
+    }
+
+    private static final class TestConnection implements IConnection<Object> {
+
+        private final URI m_address;
+        private boolean m_connected;
+        private int m_outstanding;
+        private double m_latency;
+
+        private TestConnection(final URI address) {
+            m_address = address;
+            m_connected = true;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return m_connected;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return m_connected;
+        }
+
+        @Override
+        public URI getAddress() {
+            return m_address;
+        }
+
+        @Override
+        public long getConnectTimeout() {
+            return 0L;
+        }
+
+        @Override
+        public long getLastActivity() {
+            return 0L;
+        }
+
+        @Override
+        public Object getClient() {
+            return null;
+        }
+
+        @Override
+        public void doRequest(final Handler handler) {
+        }
+
+        @Override
+        public void disconnect() {
+            m_connected = false;
+        }
+
+        @Override
+        public void setConnected(final boolean connected) {
+            m_connected = connected;
+        }
+
+        @Override
+        public void updateActivity() {
+        }
+
+        @Override
+        public int getOutstandingRequests() {
+            return m_outstanding;
+        }
+
+        @Override
+        public double getLatencyEwma() {
+            return m_latency;
+        }
+
+        @Override
+        public void requestStarted() {
+            m_outstanding++;
+        }
+
+        @Override
+        public void requestCompleted(final long latency) {
+            m_outstanding--;
+        }
+
+        @Override
+        public void requestFailed() {
+            m_outstanding--;
+        }
+    }
+}
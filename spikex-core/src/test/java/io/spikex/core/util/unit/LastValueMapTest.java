@@ -0,0 +1,98 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.core.util.unit;
+
+import io.spikex.core.util.LastValueMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ * LastValueMap tester.
+ *
+ * @author cli
+ */
+public class LastValueMapTest {
+
+    @Test
+    public void testPutAndReplace() {
+
+        LastValueMap<Integer> map = new LastValueMap(10);
+        Assert.assertNull(map.put("cpu.total", 1));
+        Assert.assertEquals(Integer.valueOf(1), map.put("cpu.total", 2));
+        Assert.assertNull(map.put("mem.free", 3));
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals(Integer.valueOf(2), map.get("cpu.total"));
+
+        List<Integer> values = new ArrayList();
+        Assert.assertEquals(2, map.drainTo(values));
+        Assert.assertTrue(values.contains(2));
+        Assert.assertTrue(values.contains(3));
+        Assert.assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testEviction() {
+
+        LastValueMap<String> map = new LastValueMap(3);
+        map.put("a", "a");
+        map.put("b", "b");
+        map.put("c", "c");
+        Assert.assertTrue(map.isFull());
+
+        try {
+            map.put("d", "d");
+            Assert.fail("Map accepted key when full");
+        } catch (IllegalStateException e) {
+            // OK
+        }
+
+        String evicted = map.evict("d");
+        Assert.assertNotNull(evicted);
+        Assert.assertFalse(map.containsKey(evicted));
+        map.put("d", "d");
+        Assert.assertEquals(3, map.size());
+    }
+
+    @Test
+    public void testRandomRemovals() {
+        //
+        // Compare against HashMap (exercises backward shift deletion)
+        //
+        Random rnd = new Random(42L);
+        LastValueMap<Integer> map = new LastValueMap(500);
+        Map<String, Integer> ref = new HashMap();
+
+        for (int i = 0; i < 100000; i++) {
+            String key = "key-" + rnd.nextInt(1000);
+            if (rnd.nextInt(3) == 0) {
+                Assert.assertEquals(ref.remove(key), map.remove(key));
+            } else if (ref.containsKey(key) || ref.size() < 500) {
+                Assert.assertEquals(ref.put(key, i), map.put(key, i));
+            }
+            Assert.assertEquals(ref.size(), map.size());
+        }
+        for (Map.Entry<String, Integer> entry : ref.entrySet()) {
+            Assert.assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.core.util.unit;
+
+import io.spikex.core.util.LineFramer;
+import io.spikex.core.util.LineFramer.Line;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.Assert;
+import org.junit.Test;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
+
+/**
+ * LineFramer tester.
+ *
+ * @author cli
+ */
+public class LineFramerTest {
+
+    @Test
+    public void testPartialLines() {
+
+        LineFramer framer = new LineFramer(StandardCharsets.UTF_8, "\n", 1024);
+        LineCollector lines = new LineCollector();
+
+        framer.frame(wrap("Hyvää päivää\nγειά", StandardCharsets.UTF_8), lines);
+        Assert.assertEquals(1, lines.size());
+        Assert.assertEquals("Hyvää päivää", lines.get(0));
+        Assert.assertEquals("γειά".getBytes(StandardCharsets.UTF_8).length, framer.getPending());
+
+        framer.frame(wrap(" σου\n\nlast", StandardCharsets.UTF_8), lines);
+        Assert.assertEquals(2, lines.size());
+        Assert.assertEquals("γειά σου", lines.get(1));
+
+        framer.flush(lines);
+        Assert.assertEquals(3, lines.size());
+        Assert.assertEquals("last", lines.get(2));
+        Assert.assertEquals(0, framer.getPending());
+    }
+
+    @Test
+    public void testSplitDelimiter() {
+
+        Charset utf16 = Charset.forName("UTF-16LE");
+        LineFramer framer = new LineFramer(utf16, "\r\n", 1024);
+        LineCollector lines = new LineCollector();
+
+        // Delimiter split between chunks and odd chunk boundaries
+        byte[] data = "first\r\nsecond\r\nĊ\r\n".getBytes(utf16);
+        int[] cuts = {5, 13, 15, 31, data.length};
+        int start = 0;
+        for (int cut : cuts) {
+            framer.frame(ByteBuffer.wrap(data, start, cut - start), lines);
+            start = cut;
+        }
+        Assert.assertEquals(3, lines.size());
+        Assert.assertEquals("first", lines.get(0));
+        Assert.assertEquals("second", lines.get(1));
+        Assert.assertEquals("Ċ", lines.get(2));
+    }
+
+    @Test
+    public void testMaxLineLength() {
+
+        LineFramer framer = new LineFramer(StandardCharsets.UTF_8, "\n", 8);
+        LineCollector lines = new LineCollector();
+
+        framer.frame(new Buffer("0123456789abcdef"), lines);
+        framer.frame(new Buffer("ghij\nshort\n"), lines);
+        Assert.assertEquals(4, lines.size());
+        Assert.assertEquals("01234567", lines.get(0));
+        Assert.assertEquals("89abcdef", lines.get(1));
+        Assert.assertEquals("ghij", lines.get(2));
+        Assert.assertEquals("short", lines.get(3));
+        Assert.assertTrue(lines.isSplit(2));
+        Assert.assertFalse(lines.isSplit(3));
+        Assert.assertEquals(1, framer.getSplitCount());
+    }
+
+    @Test
+    public void testEmptyLines() {
+
+        LineFramer framer = new LineFramer(StandardCharsets.UTF_8, "\n", 1024, true);
+        LineCollector lines = new LineCollector();
+
+        framer.frame(new Buffer("a\n\nb\n"), lines);
+        Assert.assertEquals(3, lines.size());
+        Assert.assertEquals("", lines.get(1));
+    }
+
+    private static ByteBuffer wrap(
+            final String str,
+            final Charset charset) {
+
+        return ByteBuffer.wrap(str.getBytes(charset));
+    }
+
+    private static final class LineCollector implements Handler<Line> {
+
+        private final List<String> m_lines = new ArrayList();
+        private final List<Boolean> m_split = new ArrayList();
+
+        @Override
+        public void handle(final Line line) {
+            m_lines.add(line.toString());
+            m_split.add(line.isSplit());
+        }
+
+        private int size() {
+            return m_lines.size();
+        }
+
+        private String get(final int index) {
+            return m_lines.get(index);
+        }
+
+        private boolean isSplit(final int index) {
+            return m_split.get(index);
+        }
+    }
+}
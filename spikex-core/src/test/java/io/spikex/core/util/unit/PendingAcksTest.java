@@ -0,0 +1,153 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.core.util.unit;
+
+import io.spikex.core.helper.Events;
+import static io.spikex.core.helper.Events.EVENT_FIELD_ACKS;
+import static io.spikex.core.helper.Events.EVENT_FIELD_ACK_ADDRESS;
+import static io.spikex.core.helper.Events.EVENT_FIELD_ACK_ID;
+import static io.spikex.core.helper.Events.EVENT_FIELD_BATCH_EVENTS;
+import io.spikex.core.helper.PendingAcks;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.Assert;
+import org.junit.Test;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Event acknowledgement tester.
+ *
+ * @author cli
+ */
+public class PendingAcksTest {
+
+    @Test
+    public void testRemoveAcknowledgements() {
+
+        JsonObject event1 = createEvent("1");
+        JsonObject event2 = createEvent("2");
+        JsonObject event3 = createEvent("3");
+
+        // Event 3 replaced by event 2 (eg. coalesced)
+        Events.carryAcknowledgements(event3, event2);
+        Assert.assertFalse(event3.containsField(EVENT_FIELD_ACK_ID));
+        Assert.assertEquals(1, event2.getArray(EVENT_FIELD_ACKS).size());
+
+        JsonArray events = new JsonArray();
+        events.addObject(event1);
+        events.addObject(event2);
+        JsonObject batch = new JsonObject();
+        batch.putArray(EVENT_FIELD_BATCH_EVENTS, events);
+
+        List<JsonObject> acks = Events.removeAcknowledgements(batch, new ArrayList());
+        Assert.assertEquals(3, acks.size());
+        List<String> ids = new ArrayList();
+        for (JsonObject ack : acks) {
+            Assert.assertEquals("ack.address", ack.getString(EVENT_FIELD_ACK_ADDRESS));
+            ids.add(ack.getString(EVENT_FIELD_ACK_ID));
+        }
+        Assert.assertTrue(ids.contains("1"));
+        Assert.assertTrue(ids.contains("2"));
+        Assert.assertTrue(ids.contains("3"));
+
+        // Nothing is passed to outputs
+        Assert.assertFalse(event1.containsField(EVENT_FIELD_ACK_ADDRESS));
+        Assert.assertFalse(event2.containsField(EVENT_FIELD_ACK_ID));
+        Assert.assertFalse(event2.containsField(EVENT_FIELD_ACKS));
+    }
+
+    @Test
+    public void testDelayedAck() {
+
+        List<PendingAcks> completed = new ArrayList();
+        PendingAcks acks = new PendingAcks(ackList(), new Collector(completed));
+
+        // Two requests made for the event
+        Handler<Boolean> request1 = acks.request();
+        Handler<Boolean> request2 = acks.request();
+        acks.seal();
+        Assert.assertTrue(completed.isEmpty());
+
+        request1.handle(true);
+        request1.handle(false); // Only the first outcome counts
+        Assert.assertTrue(completed.isEmpty());
+
+        request2.handle(true);
+        Assert.assertEquals(1, completed.size());
+        Assert.assertTrue(acks.isDone());
+        Assert.assertTrue(acks.isSuccess());
+    }
+
+    @Test
+    public void testNegativeAck() {
+
+        // Failed request
+        List<PendingAcks> completed = new ArrayList();
+        PendingAcks acks = new PendingAcks(ackList(), new Collector(completed));
+        Handler<Boolean> request1 = acks.request();
+        Handler<Boolean> request2 = acks.request();
+        acks.seal();
+        request1.handle(false);
+        request2.handle(true);
+        Assert.assertEquals(1, completed.size());
+        Assert.assertFalse(acks.isSuccess());
+
+        // Dropped event (no request made)
+        completed.clear();
+        acks = new PendingAcks(ackList(), new Collector(completed));
+        acks.seal();
+        Assert.assertEquals(1, completed.size());
+        Assert.assertFalse(acks.isSuccess());
+
+        // Request completes before all requests are made
+        completed.clear();
+        acks = new PendingAcks(ackList(), new Collector(completed));
+        acks.request().handle(true);
+        Assert.assertTrue(completed.isEmpty());
+        acks.seal();
+        Assert.assertEquals(1, completed.size());
+        Assert.assertTrue(acks.isSuccess());
+    }
+
+    private static JsonObject createEvent(final String ackId) {
+        JsonObject event = new JsonObject();
+        event.putString(EVENT_FIELD_ACK_ADDRESS, "ack.address");
+        event.putString(EVENT_FIELD_ACK_ID, ackId);
+        return event;
+    }
+
+    private static List<JsonObject> ackList() {
+        return Events.removeAcknowledgements(createEvent("1"), new ArrayList());
+    }
+
+    private static final class Collector implements Handler<PendingAcks> {
+
+        private final List<PendingAcks> m_completed;
+
+        private Collector(final List<PendingAcks> completed) {
+            m_completed = completed;
+        }
+
+        @Override
+        public void handle(final PendingAcks acks) {
+            m_completed.add(acks);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter;
+
+import io.spikex.core.AbstractFilter;
+import io.spikex.core.helper.EventCoalescer;
+import static io.spikex.core.helper.EventCoalescer.METRIC_EVICTED;
+import static io.spikex.core.helper.EventCoalescer.METRIC_FLUSHED;
+import static io.spikex.core.helper.EventCoalescer.METRIC_RATIO;
+import static io.spikex.core.helper.EventCoalescer.METRIC_RECEIVED;
+import io.spikex.core.helper.Events;
+import static io.spikex.core.helper.Events.DSTYPE_COUNTER;
+import static io.spikex.core.helper.Events.DSTYPE_GAUGE;
+import static io.spikex.core.helper.Events.EVENT_FIELD_ID;
+import java.util.ArrayList;
+import java.util.List;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Keeps only the latest event per key and emits the coalesced events as a
+ * batch event on every flush. Events that are evicted because the coalescer
+ * is full are emitted immediately.
+ * <p>
+ * Example:
+ * <pre>
+ *  "chain": [
+ *      { "Coalesce":
+ *              {
+ *                  "key": "%{@dsname}.%{@instance}",
+ *                  "max-size": 10000,
+ *                  "flush-interval": 5000
+ *              }
+ *      }
+ *  ]
+ * </pre>
+ *
+ * @author cli
+ */
+public final class Coalesce extends AbstractFilter {
+
+    private EventCoalescer m_coalescer;
+    private long m_timerId;
+
+    @Override
+    protected void startFilter() {
+        m_coalescer = EventCoalescer.create(config(), variables());
+        m_timerId = vertx.setPeriodic(m_coalescer.getFlushInterval(),
+                new Handler<Long>() {
+
+                    @Override
+                    public void handle(final Long timerId) {
+                        flush();
+                    }
+                });
+    }
+
+    @Override
+    protected void stopFilter() {
+        vertx.cancelTimer(m_timerId);
+        flush();
+    }
+
+    @Override
+    protected void handleEvent(final JsonObject event) {
+
+        List<JsonObject> evicted = new ArrayList();
+        if (m_coalescer.add(event, evicted) > 0) {
+            for (JsonObject evictedEvent : evicted) {
+                emitEvent(evictedEvent);
+            }
+        }
+    }
+
+    private void flush() {
+
+        EventCoalescer coalescer = m_coalescer;
+        if (coalescer.size() > 0) {
+
+            JsonArray events = coalescer.flush();
+            JsonObject batchEvent = Events.createBatchEvent(this, events);
+            logger().trace("Created batch event: {} with {} coalesced events",
+                    batchEvent.getString(EVENT_FIELD_ID),
+                    events.size());
+
+            emitEvent(batchEvent);
+            //
+            // Coalescing metrics
+            //
+            String instance = getChainName() != null ? getChainName() : "-";
+            publishMetric(METRIC_RECEIVED, instance, coalescer.getReceivedCount(), DSTYPE_COUNTER);
+            publishMetric(METRIC_FLUSHED, instance, coalescer.getFlushedCount(), DSTYPE_COUNTER);
+            publishMetric(METRIC_EVICTED, instance, coalescer.getEvictedCount(), DSTYPE_COUNTER);
+            publishMetric(METRIC_RATIO, instance, coalescer.getCoalescingRatio(), DSTYPE_GAUGE);
+        }
+    }
+}
@@ -19,24 +19,40 @@ package io.spikex.filter;
 
 import io.spikex.core.AbstractFilter;
 import io.spikex.core.util.process.ChildProcess;
-import io.spikex.core.util.process.LineReader;
 import io.spikex.core.util.process.LineWriter;
 import io.spikex.core.util.process.ProcessExecutor;
+import io.spikex.filter.internal.CoProcess;
 import io.spikex.filter.internal.DsvLineParser;
 import io.spikex.filter.internal.ILineParser;
+import io.spikex.filter.internal.LineParserHandler;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
 /**
- *
+ * Executes a command periodically or for every received event.
+ * <p>
+ * By default ("mode": "exec") a new process is started for every event and the
+ * event is written to its stdin. In co-process mode ("mode": "co-process") the
+ * command is started once and events are streamed to its stdin as NDJSON
+ * lines (one JSON object per line). Stdout lines of the co-process are parsed
+ * with the output format and emitted as events. A co-process that exits is
+ * restarted with exponential backoff (<code>restart-delay</code> up to
+ * <code>max-restart-delay</code> ms). Events are queued per co-process (at
+ * most <code>max-pending</code> lines) and spread over
+ * <code>pool-size</code> co-processes. An event is rejected if all queues are
+ * full (see filter.rejected metric).
  * <p>
  * Output format:
  * <pre>
@@ -64,6 +80,11 @@ import org.vertx.java.core.json.JsonObject;
  *                  "timeout": 2500,
  *                  "ignore-exit-code": false,
  *                  "work-dir", "%{#spikex.tmp}",
+ *                  "mode": "exec",
+ *                  "pool-size": 1,
+ *                  "max-pending": 10000,
+ *                  "restart-delay": 1000,
+ *                  "max-restart-delay": 60000,
  *                  "max-output-size": 10485760,
  *                  "skip-lines-start": 1,
  *                  "skip-lines-end": 3,
@@ -109,11 +130,19 @@ public final class Command extends AbstractFilter {
     private String m_encoding;
     private String[] m_args;
     private Map<String, String> m_env;
-    private ILineParser m_lineParser;
+    private JsonObject m_outputFormat;
+    private ILineParser m_periodicParser; // Periodic output (NuProcess thread)
     private int m_skipLinesStart;
     private int m_skipLinesEnd;
     private long m_timeout;
     private long m_maxLineCount;
+    private long m_restartDelay; // ms
+    private long m_maxRestartDelay; // ms
+    private int m_next;
+
+    private final List<CoProcess> m_coProcesses;
+    private final Handler<JsonObject> m_emitHandler;
+    private final AtomicBoolean m_running;
 
     private static final String CONF_KEY_COMMAND = "command";
     private static final String CONF_KEY_ARGS = "args";
@@ -124,13 +153,38 @@ public final class Command extends AbstractFilter {
     private static final String CONF_KEY_SKIP_LINES_END = "skip-lines-end";
     private static final String CONF_KEY_OUTPUT_FORMAT = "output-format";
     private static final String CONF_KEY_TYPE = "type";
+    private static final String CONF_KEY_MODE = "mode";
+    private static final String CONF_KEY_POOL_SIZE = "pool-size";
+    private static final String CONF_KEY_MAX_PENDING = "max-pending";
+    private static final String CONF_KEY_RESTART_DELAY = "restart-delay";
+    private static final String CONF_KEY_MAX_RESTART_DELAY = "max-restart-delay";
 
     private static final String FORMAT_TYPE_DSV = "dsv";
 
+    private static final String MODE_EXEC = "exec";
+    private static final String MODE_CO_PROCESS = "co-process";
+
     private static final long DEF_TIMEOUT = 2500L; // ms
     private static final long DEF_MAX_LINE_COUNT = 4000;
     private static final String DEF_ENCODING = StandardCharsets.UTF_8.name();
     private static final String DEF_OUTPUT_TYPE = "dsv";
+    private static final String DEF_MODE = MODE_EXEC;
+    private static final int DEF_POOL_SIZE = 1;
+    private static final int DEF_MAX_PENDING = 10000; // lines
+    private static final long DEF_RESTART_DELAY = 1000L; // ms
+    private static final long DEF_MAX_RESTART_DELAY = 60000L; // ms
+
+    public Command() {
+        m_coProcesses = new ArrayList();
+        m_emitHandler = new Handler<JsonObject>() {
+
+            @Override
+            public void handle(final JsonObject event) {
+                emitEvent(event);
+            }
+        };
+        m_running = new AtomicBoolean(false);
+    }
 
     @Override
     protected void startFilter() {
@@ -161,47 +215,97 @@ public final class Command extends AbstractFilter {
         m_env.put(CONF_KEY_TMP_PATH, config().getString(CONF_KEY_TMP_PATH));
         m_env.put(CONF_KEY_USER, config().getString(CONF_KEY_USER));
 
-        JsonObject outputFormat = config().getObject(CONF_KEY_OUTPUT_FORMAT,
+        m_outputFormat = config().getObject(CONF_KEY_OUTPUT_FORMAT,
                 new JsonObject());
-        String type = outputFormat.getString(CONF_KEY_TYPE, DEF_OUTPUT_TYPE);
+        m_periodicParser = createLineParser(m_outputFormat);
 
-        switch (type) {
-            case FORMAT_TYPE_DSV: {
-                //
-                // DSV line format
-                //
-                m_lineParser = new DsvLineParser(this, outputFormat);
+        String mode = config().getString(CONF_KEY_MODE, DEF_MODE);
+        switch (mode) {
+            case MODE_EXEC:
+                break;
+            case MODE_CO_PROCESS:
+                startCoProcesses();
                 break;
-            }
             default:
-                throw new IllegalArgumentException("Unsupported output format: " + type);
+                throw new IllegalArgumentException("Unsupported mode: " + mode);
+        }
+    }
+
+    @Override
+    protected void stopFilter() {
+        for (CoProcess coProcess : m_coProcesses) {
+            coProcess.stop();
         }
     }
 
     @Override
     public void handleTimerEvent() {
 
-        LineReader reader = new LineReader(
+        // Previous command still running?
+        if (!m_running.compareAndSet(false, true)) {
+            logger().debug("Periodic command still running: {}", m_cmd);
+            return;
+        }
+
+        //
+        // Parse output while it is being written (off the event loop)
+        //
+        final Context context = vertx.currentContext();
+        LineParserHandler handler = new LineParserHandler(
+                m_periodicParser,
                 m_skipLinesStart,
                 m_skipLinesEnd,
-                m_maxLineCount);
-        ChildProcess cmd = new ProcessExecutor()
-                .command(m_cmd, m_args)
-                .env(m_env)
-                .encoding(m_encoding)
-                .timeout(m_timeout, TimeUnit.MILLISECONDS)
-                .handler(reader)
-                .start();
+                m_maxLineCount,
+                new Handler<JsonObject[]>() {
+
+                    @Override
+                    public void handle(final JsonObject[] events) {
+                        context.runOnContext(new Handler<Void>() {
+
+                            @Override
+                            public void handle(final Void event) {
+                                for (JsonObject outputEvent : events) {
+                                    emitEvent(outputEvent);
+                                }
+                            }
+                        });
+                    }
+                },
+                new Handler<Integer>() {
+
+                    @Override
+                    public void handle(final Integer statusCode) {
+                        m_running.set(false);
+                    }
+                });
 
         try {
+            final ChildProcess cmd = new ProcessExecutor()
+                    .command(m_cmd, m_args)
+                    .env(m_env)
+                    .encoding(m_encoding)
+                    .handler(handler)
+                    .start();
+
             logger().debug("Periodic command: {}", cmd.getArgs());
-            cmd.waitForExit();
-            String[] lines = reader.getLines();
-            JsonObject[] events = m_lineParser.parse(lines);
-            for (JsonObject event : events) {
-                emitEvent(event);
+
+            // Kill command if it runs too long
+            if (m_timeout > 0L) {
+                vertx.setTimer(m_timeout, new Handler<Long>() {
+
+                    @Override
+                    public void handle(final Long timerId) {
+                        if (cmd.isRunning()) {
+                            logger().warn("Command timed out after {} ms: {}",
+                                    m_timeout, cmd.getArgs());
+                            cmd.destroy(true);
+                        }
+                    }
+                });
             }
-        } catch (InterruptedException | IOException e) {
+
+        } catch (RuntimeException e) {
+            m_running.set(false);
             logger().error("Failed to execute \"{}\" command with arguments: {}",
                     m_cmd, m_args, e);
         }
@@ -213,6 +317,23 @@ public final class Command extends AbstractFilter {
         final String eventStr = event.toString();
         logger().trace("Received event: {}", eventStr);
 
+        //
+        // Co-process mode (NDJSON to stdin)
+        //
+        List<CoProcess> coProcesses = m_coProcesses;
+        int size = coProcesses.size();
+        if (size > 0) {
+            for (int i = 0; i < size; i++) {
+                CoProcess coProcess = coProcesses.get((m_next++ & Integer.MAX_VALUE) % size);
+                if (coProcess.offer(eventStr)) {
+                    return;
+                }
+            }
+            // Counted, logged and acknowledged negatively
+            rejectEvent(event, "co-process queues are full: " + m_cmd);
+            return;
+        }
+
         ChildProcess cmd = new ProcessExecutor()
                 .command(m_cmd, m_args)
                 .env(m_env)
@@ -238,4 +359,117 @@ public final class Command extends AbstractFilter {
                     m_cmd, m_args, e);
         }
     }
+
+    private void startCoProcesses() {
+
+        m_restartDelay = config().getLong(CONF_KEY_RESTART_DELAY, DEF_RESTART_DELAY);
+        m_maxRestartDelay = config().getLong(CONF_KEY_MAX_RESTART_DELAY, DEF_MAX_RESTART_DELAY);
+        int poolSize = config().getInteger(CONF_KEY_POOL_SIZE, DEF_POOL_SIZE);
+        int maxPending = config().getInteger(CONF_KEY_MAX_PENDING, DEF_MAX_PENDING);
+        final Context context = vertx.currentContext();
+
+        for (int i = 0; i < poolSize; i++) {
+            // Rows may span output chunks - one streaming parser per co-process
+            final ILineParser parser = createLineParser(m_outputFormat);
+            CoProcess coProcess = new CoProcess(
+                    m_cmd,
+                    m_args,
+                    m_env,
+                    Charset.forName(m_encoding),
+                    maxPending,
+                    new Handler<String[]>() {
+
+                        @Override
+                        public void handle(final String[] lines) {
+                            context.runOnContext(new Handler<Void>() {
+
+                                @Override
+                                public void handle(final Void event) {
+                                    emitLines(parser, lines);
+                                }
+                            });
+                        }
+                    },
+                    new Handler<CoProcess>() {
+
+                        @Override
+                        public void handle(final CoProcess coProcess) {
+                            context.runOnContext(new Handler<Void>() {
+
+                                @Override
+                                public void handle(final Void event) {
+                                    flushLines(parser);
+                                    restartCoProcess(coProcess);
+                                }
+                            });
+                        }
+                    });
+            m_coProcesses.add(coProcess);
+            coProcess.start();
+        }
+        logger().info("Started {} co-processes: {} {}", poolSize, m_cmd, m_args);
+    }
+
+    private void restartCoProcess(final CoProcess coProcess) {
+        if (!coProcess.isStopped()) {
+            long delay = coProcess.nextRestartDelay(
+                    System.currentTimeMillis(),
+                    m_restartDelay,
+                    m_maxRestartDelay);
+            logger().warn("Co-process exited - restarting in {} ms: {} {}",
+                    delay, m_cmd, m_args);
+            vertx.setTimer(delay, new Handler<Long>() {
+
+                @Override
+                public void handle(final Long timerId) {
+                    coProcess.start();
+                }
+            });
+        }
+    }
+
+    private void emitLines(
+            final ILineParser parser,
+            final String[] lines) {
+
+        Handler<JsonObject> handler = m_emitHandler;
+        for (String line : lines) {
+            try {
+                parser.parse(line, handler);
+            } catch (IOException e) {
+                logger().error("Failed to parse output of \"{}\" command: {}",
+                        m_cmd, line, e);
+                parser.reset();
+            }
+        }
+    }
+
+    private void flushLines(final ILineParser parser) {
+        try {
+            parser.flush(m_emitHandler);
+        } catch (IOException e) {
+            logger().error("Failed to parse output of \"{}\" command", m_cmd, e);
+        } finally {
+            parser.reset();
+        }
+    }
+
+    private ILineParser createLineParser(final JsonObject outputFormat) {
+
+        ILineParser parser;
+        String type = outputFormat.getString(CONF_KEY_TYPE, DEF_OUTPUT_TYPE);
+
+        switch (type) {
+            case FORMAT_TYPE_DSV: {
+                //
+                // DSV line format
+                //
+                parser = new DsvLineParser(this, outputFormat);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unsupported output format: " + type);
+        }
+        return parser;
+    }
 }
@@ -25,19 +25,48 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import oi.thekraken.grok.api.Match;
 import oi.thekraken.grok.api.exception.GrokException;
 import io.spikex.core.AbstractFilter;
+import io.spikex.core.helper.Events;
+import static io.spikex.core.helper.Events.EVENT_FIELD_SOURCE;
 import static io.spikex.core.helper.Events.EVENT_FIELD_TAGS;
+import io.spikex.filter.internal.GrokMultiLines;
+import io.spikex.filter.internal.GrokPattern;
+import io.spikex.filter.internal.GrokPrefilter;
+import io.spikex.filter.internal.PartitionedExecutor;
+import static io.spikex.filter.internal.VertxFileHandler.EVENT_FIELD_PATH;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Matcher;
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
 /**
+ * Matches lines against Grok patterns. Match-line patterns are tried in the
+ * configured order and the first match wins. A line is first scanned for the
+ * literal anchors of all patterns at once and only the patterns whose anchor
+ * was found are run.
+ * <p>
+ * Multi-line state is kept separately for every source (by default the
+ * "@source" and "path" fields), so that interleaved lines of different files or
+ * hosts do not mix. A pending multi-line is emitted when the next line of the
+ * same source does not continue it, when the source has been idle for
+ * "multi-line-timeout" milliseconds (0 disables) or when it is evicted as the
+ * least recently used of "max-sources" sources.
+ * <p>
+ * Lines are handled on the event loop by default. If "threads" is greater than
+ * zero, sources are hashed to that many single-threaded partitions, so that
+ * the lines of a source are still handled in order. Each partition queues at
+ * most "max-pending" events, after which events are rejected (see
+ * filter.rejected metric). On stop, the queued events are handled in the
+ * background (for at most "stop-timeout" milliseconds) and the pending
+ * multi-lines of all idle partitions are emitted.
+ * <p>
  * Example:
  * <pre>
  *  "chain": [
@@ -48,6 +77,9 @@ import org.vertx.java.core.json.JsonObject;
  *                   ],
  *                   "input-field": "@message",
  *                   "output-field": "@message",
+ *                   "source-fields": ["@source", "path"],
+ *                   "threads": 4,
+ *                   "multi-line-timeout": 5000,
  *                   "group": {
  *                       "fields": ["class", "method", "message", "thread", "level",
  *                                  "year", "month", "day", "hour", "minute", "second"],
@@ -78,7 +110,17 @@ public class Grok extends AbstractFilter {
     private final String[] m_multiTags;
     private final List<String> m_groupFields;
     private final List<MatchLine> m_matchLines;
-    private final MultiLine m_multiLine;
+    private final List<String> m_sourceFields;
+    private GrokPrefilter m_prefilter;
+    private GrokPattern m_multiPattern;
+    private String m_segmentField;
+    private long m_multiLineTimeout; // ms
+    private int m_maxSources;
+    private Partition[] m_partitions;
+    private PartitionedExecutor m_executor; // Null if event loop
+    private long m_stopTimeout; // ms
+    private Context m_context;
+    private long m_timerId;
     private String m_inputField;
     private String m_outputField;
     private String m_groupField;
@@ -99,6 +141,7 @@ public class Grok extends AbstractFilter {
     private static final String SCHEME_CLASSPATH = "classpath:";
     private static final int MAX_TAG_COUNT = 32;
     private static final int MAX_LINE_COUNT = 1000;
+    private static final List<JsonObject> NO_ACKS = Collections.emptyList();
 
     private static final String CONF_KEY_TAGS = "tags";
     private static final String CONF_KEY_GROUP = "group";
@@ -111,18 +154,35 @@ public class Grok extends AbstractFilter {
     private static final String CONF_KEY_INPUT_FIELD = "input-field";
     private static final String CONF_KEY_OUTPUT_FIELD = "output-field";
     private static final String CONF_KEY_SEGMENT_FIELD = "segment-field";
+    private static final String CONF_KEY_SOURCE_FIELDS = "source-fields";
+    private static final String CONF_KEY_THREADS = "threads";
+    private static final String CONF_KEY_MAX_PENDING = "max-pending";
+    private static final String CONF_KEY_MAX_SOURCES = "max-sources";
+    private static final String CONF_KEY_MULTI_LINE_TIMEOUT = "multi-line-timeout";
+    private static final String CONF_KEY_STOP_TIMEOUT = "stop-timeout";
 
     private static final String DEF_INPUT_FIELD = "@message";
     private static final String DEF_OUTPUT_FIELD = "@message";
     private static final String DEF_GROUP_FIELD = "@fields";
+    private static final String[] DEF_SOURCE_FIELDS = {EVENT_FIELD_SOURCE, EVENT_FIELD_PATH};
+    private static final int DEF_THREADS = 0; // Event loop
+    private static final int DEF_MAX_PENDING = 10000; // Events per partition
+    private static final int DEF_MAX_SOURCES = 10000; // Per partition
+    private static final long DEF_MULTI_LINE_TIMEOUT = 5000L; // ms
+    private static final long DEF_STOP_TIMEOUT = 5000L; // ms
+
+    private static final long MIN_FLUSH_INTERVAL = 100L; // ms
+    private static final long STOP_GRACE_PERIOD = 500L; // ms
 
     public Grok() {
         m_grokMulti = new oi.thekraken.grok.api.Grok();
         m_multiTags = new String[MAX_TAG_COUNT];
         m_matchLines = new ArrayList();
-        m_multiLine = new MultiLine(MAX_LINE_COUNT, DEF_GROUP_FIELD);
+        m_sourceFields = new ArrayList();
         m_groupFields = new ArrayList();
         m_groupField = "";
+        m_segmentField = "";
+        m_timerId = -1L;
     }
 
     @Override
@@ -141,7 +201,6 @@ public class Grok extends AbstractFilter {
         // input and output fields
         m_inputField = config().getString(CONF_KEY_INPUT_FIELD, DEF_INPUT_FIELD);
         m_outputField = config().getString(CONF_KEY_OUTPUT_FIELD, DEF_OUTPUT_FIELD);
-        m_multiLine.setOutputField(m_outputField);
 
         // Group fields
         JsonObject group = config().getObject(CONF_KEY_GROUP, new JsonObject());
@@ -150,7 +209,15 @@ public class Grok extends AbstractFilter {
         for (int i = 0; i < groupFields.size(); i++) {
             m_groupFields.add((String) groupFields.get(i));
         }
-        m_multiLine.setGroupField(m_groupField);
+
+        // Multi-line state is kept per source
+        JsonArray defSourceFields = new JsonArray(DEF_SOURCE_FIELDS);
+        JsonArray sourceFields = config().getArray(CONF_KEY_SOURCE_FIELDS, defSourceFields);
+        for (int i = 0; i < sourceFields.size(); i++) {
+            m_sourceFields.add((String) sourceFields.get(i));
+        }
+        m_multiLineTimeout = config().getLong(CONF_KEY_MULTI_LINE_TIMEOUT, DEF_MULTI_LINE_TIMEOUT);
+        m_maxSources = config().getInteger(CONF_KEY_MAX_SOURCES, DEF_MAX_SOURCES);
 
         // Pre build match lines
         // match-lines
@@ -203,6 +270,8 @@ public class Grok extends AbstractFilter {
 
                     pattern = matchLine.getString(CONF_KEY_PATTERN);
                     matcher.compile(pattern);
+                    logger().debug("Pattern: {} anchor: {}", pattern,
+                            matcher.getPattern().getAnchor());
 
                     // tags
                     JsonArray tags = matchLine.getArray(CONF_KEY_TAGS);
@@ -221,6 +290,13 @@ public class Grok extends AbstractFilter {
                     }
                 }
             }
+
+            // Combined prefilter of all match-lines
+            List<GrokPattern> patterns = new ArrayList();
+            for (MatchLine matcher : m_matchLines) {
+                patterns.add(matcher.getPattern());
+            }
+            m_prefilter = new GrokPrefilter(patterns);
         } catch (GrokException e) {
             throw new IllegalStateException("Failed to compile pattern: "
                     + pattern, e);
@@ -233,9 +309,10 @@ public class Grok extends AbstractFilter {
                 JsonObject multiLine = config().getObject(CONF_KEY_MULTI_LINE);
                 pattern = multiLine.getString(CONF_KEY_PATTERN);
                 m_grokMulti.compile(pattern);
+                m_multiPattern = new GrokPattern(pattern, m_grokMulti);
                 // segment-field
                 String field = multiLine.getString(CONF_KEY_SEGMENT_FIELD, "");
-                m_multiLine.setSegmentField(field);
+                m_segmentField = field;
                 // tags
                 JsonArray tags = multiLine.getArray(CONF_KEY_TAGS);
                 Preconditions.checkArgument(tags.size() <= MAX_TAG_COUNT,
@@ -249,45 +326,134 @@ public class Grok extends AbstractFilter {
             throw new IllegalStateException("Failed to compile pattern: "
                     + pattern, e);
         }
+
+        //
+        // Partitions (sources are hashed to partitions, so that lines of a
+        // source are always handled in order by the same thread)
+        //
+        m_context = vertx.currentContext();
+        int threads = config().getInteger(CONF_KEY_THREADS, DEF_THREADS);
+        int maxPending = config().getInteger(CONF_KEY_MAX_PENDING, DEF_MAX_PENDING);
+        m_stopTimeout = config().getLong(CONF_KEY_STOP_TIMEOUT, DEF_STOP_TIMEOUT);
+        if (threads > 0) {
+            m_executor = new PartitionedExecutor(threads, maxPending);
+        }
+        m_partitions = new Partition[Math.max(1, threads)];
+        for (int i = 0; i < m_partitions.length; i++) {
+            m_partitions[i] = new Partition(i);
+        }
+
+        // Emit multi-lines of idle sources
+        long timeout = m_multiLineTimeout;
+        if (timeout > 0L && m_multiPattern != null) {
+            m_timerId = vertx.setPeriodic(Math.max(MIN_FLUSH_INTERVAL, timeout / 2L),
+                    new Handler<Long>() {
+
+                        @Override
+                        public void handle(final Long timerId) {
+                            for (Partition partition : m_partitions) {
+                                partition.flushIdle(System.currentTimeMillis());
+                            }
+                        }
+                    });
+        }
     }
 
     @Override
-    protected void handleEvent(final JsonObject event) {
+    protected void stopFilter() {
+        if (m_timerId != -1L) {
+            vertx.cancelTimer(m_timerId);
+        }
+        final Partition[] partitions = m_partitions;
+        if (partitions != null) {
+            final PartitionedExecutor executor = m_executor;
+            if (executor == null) {
+                for (Partition partition : partitions) {
+                    partition.flushAll();
+                }
+            } else {
+                //
+                // Handle queued (already acknowledged) events before flushing.
+                // Waiting is done outside of the event loop.
+                //
+                executor.shutdown();
+                final long timeout = m_stopTimeout;
+                new Thread("grok-stop-" + getChainName()) {
+
+                    @Override
+                    public void run() {
+                        drainPartitions(executor, partitions, timeout);
+                    }
+                }.start();
+            }
+        }
+    }
 
-        final String line = event.getString(m_inputField, "");
+    @Override
+    protected void handleEvent(final JsonObject event) {
 
-        // Does line match grok single-line expression?
-        if (matchLine(event, line)) {
+        String line = event.getString(m_inputField, "");
+        String source = resolveSource(event);
+        PartitionedExecutor executor = m_executor;
+        Partition partition = m_partitions[executor != null ? executor.partition(source) : 0];
+        partition.handle(source, line, event);
+    }
 
-            emitMultiLine(); // Emit multi-line (if any)
+    private void drainPartitions(
+            final PartitionedExecutor executor,
+            final Partition[] partitions,
+            final long timeout) {
+
+        boolean[] flushed = new boolean[partitions.length];
+        boolean drained = true;
+        long deadline = System.currentTimeMillis() + timeout;
+        for (int i = 0; i < partitions.length; i++) {
+            long wait = Math.max(0L, deadline - System.currentTimeMillis());
+            if (executor.awaitTermination(i, wait)) {
+                partitions[i].flushAll();
+                flushed[i] = true;
+            } else {
+                drained = false;
+            }
+        }
 
+        if (!drained) {
+            logger().warn("Dropped queued events after waiting for {} ms",
+                    timeout);
             //
-            // Forward event
+            // Flush the partitions that become idle once their queues have
+            // been dropped
             //
-            emitEvent(event);
-
-        } else {
-
-            // Does line match grok multi-line expression?
-            if (!matchMulti(event, line)) {
-                emitMultiLine(); // Emit multi-line (if any)
+            executor.shutdownNow();
+            for (int i = 0; i < partitions.length; i++) {
+                if (!flushed[i]) {
+                    if (executor.awaitTermination(i, STOP_GRACE_PERIOD)) {
+                        partitions[i].flushAll();
+                    } else {
+                        logger().warn("Dropped pending multi-lines of busy partition: {}", i);
+                    }
+                }
             }
         }
     }
 
     private boolean matchLine(
             final JsonObject event,
-            final String line) {
+            final String line,
+            final BitSet candidateSet) {
 
         boolean match = false;
 
-        for (MatchLine matcher : m_matchLines) {
-            Match m = matcher.match(line);
-            m.captures();
+        // Try only the patterns whose anchor is found in the line
+        List<MatchLine> matchLines = m_matchLines;
+        BitSet candidates = m_prefilter.candidates(line, candidateSet);
+
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
 
-            List<String> ignore = matcher.getIgnore();
-            Map<String, Object> captures = m.toMap();
-            match = !captures.isEmpty();
+            MatchLine matcher = matchLines.get(i);
+            GrokPattern pattern = matcher.getPattern();
+            Matcher m = pattern.find(line);
+            match = (m != null);
             if (match) {
 
                 JsonObject group = null;
@@ -295,13 +461,13 @@ public class Grok extends AbstractFilter {
                     group = new JsonObject();
                 }
 
+                List<String> ignore = matcher.getIgnore();
                 List<String> groupFields = m_groupFields;
                 String outputField = m_outputField;
-                Iterator<String> keys = captures.keySet().iterator();
-                while (keys.hasNext()) {
-                    String key = keys.next();
+                for (int j = 0; j < pattern.getKeyCount(); j++) {
+                    String key = pattern.getKey(j);
                     if (!ignore.contains(key)) {
-                        Object value = captures.get(key);
+                        Object value = pattern.getValue(m, j);
                         if (value != null) {
                             if ("line".equals(key)) {
                                 event.putValue(outputField, value);
@@ -337,41 +503,32 @@ public class Grok extends AbstractFilter {
         return match;
     }
 
-    private boolean matchMulti(
-            final JsonObject event,
-            final String line) {
-
-        boolean match = false;
-        Match m = m_grokMulti.match(line);
-        m.captures();
+    private Matcher matchMulti(final String line) {
+        GrokPattern pattern = m_multiPattern;
+        return (pattern != null ? pattern.find(line) : null);
+    }
 
-        Map<String, Object> captures = m.toMap();
-        if (!captures.isEmpty()) {
-            MultiLine multiLine = m_multiLine;
-            multiLine.setEvent(event);
-            match = multiLine.addFields(captures);
+    private void emitEvents(final List<JsonObject> events) {
+        for (JsonObject event : events) {
+            emitEvent(event);
         }
-
-        return match;
     }
 
-    private void emitMultiLine() {
-        // Emit multi-line (if any)
-        MultiLine multiLine = m_multiLine;
-        if (multiLine.hasLines()) {
-
-            JsonObject multiEvent = multiLine.getEvent();
-            JsonArray tags = multiEvent.getArray(EVENT_FIELD_TAGS);
-            for (String tag : m_multiTags) {
-                if (tag != null) {
-                    tags.addString(tag);
-                } else {
-                    break;
-                }
+    private String resolveSource(final JsonObject event) {
+        List<String> fields = m_sourceFields;
+        if (fields.size() == 1) {
+            Object value = event.getValue(fields.get(0));
+            return String.valueOf(value);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fields.size(); i++) {
+            if (i > 0) {
+                sb.append('|');
             }
-            emitEvent(multiEvent);
-            multiLine.clear();
+            Object value = event.getValue(fields.get(i));
+            sb.append(value);
         }
+        return sb.toString();
     }
 
     private String resolveUrl(final String url) {
@@ -385,196 +542,191 @@ public class Grok extends AbstractFilter {
         return variables().translate(grokUrl);
     }
 
-    private static final class MatchLine {
-
-        private final oi.thekraken.grok.api.Grok m_grokLine;
-        private final String[] m_lineTags;
-        private final List<String> m_ignore;
-
-        private MatchLine() {
-            m_grokLine = new oi.thekraken.grok.api.Grok();
-            m_lineTags = new String[MAX_TAG_COUNT];
-            m_ignore = new ArrayList();
-        }
-
-        private String[] getLineTags() {
-            return m_lineTags;
-        }
-
-        private List<String> getIgnore() {
-            return m_ignore;
-        }
-
-        private void addPatternFromFile(final String path) throws GrokException {
-            m_grokLine.addPatternFromFile(path);
-        }
-
-        private void compile(final String pattern) throws GrokException {
-            m_grokLine.compile(pattern);
+    /**
+     * Multi-line state of the sources of one partition. Handled either on the
+     * event loop or by the single thread of the partition.
+     */
+    private final class Partition {
+
+        private final int m_index;
+        private final GrokMultiLines m_multiLines;
+        private final BitSet m_candidates;
+
+        private Partition(final int index) {
+            m_index = index;
+            m_multiLines = new GrokMultiLines(
+                    m_multiPattern,
+                    m_multiTags,
+                    m_segmentField,
+                    m_outputField,
+                    m_groupField,
+                    m_maxSources,
+                    MAX_LINE_COUNT);
+            m_candidates = new BitSet();
+        }
+
+        private void handle(
+                final String source,
+                final String line,
+                final JsonObject event) {
+
+            PartitionedExecutor executor = m_executor;
+            if (executor == null) {
+                List<JsonObject> acks = new ArrayList(0);
+                emitEvents(process(source, line, event, System.currentTimeMillis(), acks));
+                acknowledgeEvents(acks, true);
+            } else {
+                try {
+                    executor.execute(m_index, new Runnable() {
+
+                        @Override
+                        public void run() {
+                            List<JsonObject> acks = new ArrayList(0);
+                            emitOnContext(process(source, line, event,
+                                    System.currentTimeMillis(), acks), acks);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // Counted, logged and acknowledged negatively
+                    rejectEvent(event, "partition queue is full");
+                }
+            }
         }
 
-        private void addTag(
-                final String tag,
-                final int index) {
+        private void flushIdle(final long now) {
+            PartitionedExecutor executor = m_executor;
+            if (executor == null) {
+                emitEvents(removeIdle(now));
+            } else {
+                try {
+                    executor.execute(m_index, new Runnable() {
 
-            m_lineTags[index] = tag;
-        }
-
-        private void addIgnore(final String ignore) {
-            m_ignore.add(ignore);
+                        @Override
+                        public void run() {
+                            emitOnContext(removeIdle(now), NO_ACKS);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // Busy - try again on next round
+                }
+            }
         }
 
-        private Match match(final String line) {
-            return m_grokLine.match(line);
+        /**
+         * Emits the pending multi-lines of all sources. The executor (if any)
+         * must have terminated the partition.
+         */
+        private void flushAll() {
+            List<JsonObject> events = new ArrayList();
+            m_multiLines.flushAll(events);
+            if (m_executor == null) {
+                emitEvents(events);
+            } else {
+                emitOnContext(events, NO_ACKS); // After the events of drained tasks
+            }
         }
-    }
 
-    private static final class MultiLine {
+        private List<JsonObject> process(
+                final String source,
+                final String line,
+                final JsonObject event,
+                final long now,
+                final List<JsonObject> acks) {
 
-        private final int m_maxLineCount;
-        private JsonObject m_event;
-        private List<MultiLineSegment> m_segments;
-        private String m_segmentField;
-        private String m_outputField;
-        private String m_groupField;
-        private int m_count;
-        private int m_segIndex;
+            List<JsonObject> events = new ArrayList(2);
+            GrokMultiLines multiLines = m_multiLines;
 
-        private MultiLine(
-                final int maxLineCount,
-                final String groupField) {
-
-            m_maxLineCount = maxLineCount;
-            m_groupField = groupField;
-            clear();
-        }
-
-        private boolean hasLines() {
-            return (m_count > 0);
-        }
+            // Does line match grok single-line expression?
+            if (matchLine(event, line, m_candidates)) {
 
-        private JsonObject getEvent() {
+                multiLines.flush(source, events); // Emit multi-line (if any)
+                events.add(event); // Forward event
 
-            JsonObject event = m_event; // The original/first event
-            JsonArray segArray = new JsonArray();
-            StringBuilder lines = new StringBuilder();
+            } else {
 
-            for (MultiLineSegment segment : m_segments) {
-                lines.append(segment.getLines());
-                segArray.addObject(segment.getFields());
+                // Does line match grok multi-line expression?
+                Matcher m = matchMulti(line);
+                boolean added = false;
+                if (m != null) {
+                    added = multiLines.add(source, event, m, now, events);
+                }
+                if (!added) {
+                    multiLines.flush(source, events); // Emit multi-line (if any)
+                    if (m == null) {
+                        // Unmatched line is dropped (handled as such)
+                        Events.removeAcknowledgements(event, acks);
+                    }
+                }
             }
-
-            event.putString(m_outputField, lines.toString());
-            event.putArray(m_groupField, segArray);
-
-            return event;
+            return events;
         }
 
-        private MultiLineSegment getCurrentSegment() {
-            return m_segments.get(m_segIndex);
+        private List<JsonObject> removeIdle(final long now) {
+            List<JsonObject> events = new ArrayList();
+            m_multiLines.flushIdle(now, m_multiLineTimeout, events);
+            return events;
         }
 
-        private boolean addFields(final Map<String, Object> fields) {
-
-            boolean added = false;
+        private void emitOnContext(
+                final List<JsonObject> events,
+                final List<JsonObject> acks) {
 
-            if (m_count < m_maxLineCount && fields.containsKey("line")) {
-
-                // Create new segment?
-                Object segFieldValue = fields.get(m_segmentField);
-                if (m_count > 0 && segFieldValue != null) {
-                    MultiLineSegment segment = new MultiLineSegment();
-                    m_segments.add(segment);
-                    m_segIndex++;
-                }
+            if (!events.isEmpty() || !acks.isEmpty()) {
+                m_context.runOnContext(new Handler<Void>() {
 
-                // Add fields to current segment
-                MultiLineSegment segment = getCurrentSegment();
-                segment.addFields(fields);
-                m_count++;
-                added = true;
+                    @Override
+                    public void handle(final Void event) {
+                        emitEvents(events);
+                        acknowledgeEvents(acks, true);
+                    }
+                });
             }
-
-            return added;
         }
+    }
 
-        private void setSegmentField(final String segmentField) {
-            m_segmentField = segmentField;
-        }
+    private static final class MatchLine {
 
-        private void setOutputField(final String outputField) {
-            m_outputField = outputField;
-        }
+        private final oi.thekraken.grok.api.Grok m_grokLine;
+        private final String[] m_lineTags;
+        private final List<String> m_ignore;
+        private GrokPattern m_pattern;
 
-        private void setGroupField(final String groupField) {
-            m_groupField = groupField;
+        private MatchLine() {
+            m_grokLine = new oi.thekraken.grok.api.Grok();
+            m_lineTags = new String[MAX_TAG_COUNT];
+            m_ignore = new ArrayList();
         }
 
-        private void setEvent(final JsonObject event) {
-            if (m_count == 0) {
-                m_event.mergeIn(event);
-            }
+        private String[] getLineTags() {
+            return m_lineTags;
         }
 
-        private void clear() {
-            m_count = 0;
-            m_event = new JsonObject();
-            m_segments = new ArrayList();
-            m_segments.add(new MultiLineSegment());
-            m_segIndex = 0;
+        private List<String> getIgnore() {
+            return m_ignore;
         }
-    }
-
-    private static final class MultiLineSegment {
 
-        private final StringBuilder m_lines;
-        private final Map<String, Object> m_fields;
-
-        private MultiLineSegment() {
-            m_lines = new StringBuilder();
-            m_fields = new HashMap();
+        private GrokPattern getPattern() {
+            return m_pattern;
         }
 
-        private String getLines() {
-            return m_lines.toString();
+        private void addPatternFromFile(final String path) throws GrokException {
+            m_grokLine.addPatternFromFile(path);
         }
 
-        private JsonObject getFields() {
-            return new JsonObject(m_fields);
+        private void compile(final String pattern) throws GrokException {
+            m_grokLine.compile(pattern);
+            m_pattern = new GrokPattern(pattern, m_grokLine);
         }
 
-        private void addFields(final Map<String, Object> fields) {
-
-            // Append line to this segment
-            String line = (String) fields.get("line");
-            m_lines.append(line);
-            m_lines.append("\n");
-
-            // Store fields for later use (append to list if same field exists)
-            Map<String, Object> segFields = m_fields;
-
-            Iterator<String> keys = fields.keySet().iterator();
-            while (keys.hasNext()) {
-                String key = keys.next();
-                Object value = fields.get(key);
-                if (!"line".equals(key) && value != null) {
+        private void addTag(
+                final String tag,
+                final int index) {
 
-                    // Create list if field already exists
-                    if (segFields.containsKey(key)) {
-                        Object entries = segFields.get(key);
-                        if (!(entries instanceof List)) {
-                            List tmp = new ArrayList();
-                            tmp.add(entries);
-                            entries = tmp;
-                        }
-                        ((List) entries).add(value);
-                        segFields.put(key, entries);
+            m_lineTags[index] = tag;
+        }
 
-                    } else {
-                        segFields.put(key, value);
-                    }
-                }
-            }
+        private void addIgnore(final String ignore) {
+            m_ignore.add(ignore);
         }
     }
 }
@@ -17,47 +17,29 @@
  */
 package io.spikex.filter.input;
 
+import io.netty.buffer.ByteBuf;
 import io.spikex.core.AbstractFilter;
 import io.spikex.core.helper.Events;
-import static io.spikex.core.helper.Events.DSTIME_PRECISION_MILLIS;
-import static io.spikex.core.helper.Events.DSTIME_PRECISION_SEC;
+import static io.spikex.core.helper.Events.DSTYPE_COUNTER;
+import static io.spikex.core.helper.Events.DSTYPE_GAUGE;
 import static io.spikex.core.helper.Events.EVENT_FIELD_TAGS;
 import static io.spikex.core.helper.Events.TIMEZONE_UTC;
 import io.spikex.filter.internal.CollectdMapping;
-import static io.spikex.filter.internal.CollectdMapping.DEF_MAPPING;
 import static io.spikex.filter.internal.CollectdMapping.SPIKEX_KEY_DSNAME;
 import static io.spikex.filter.internal.CollectdMapping.SPIKEX_KEY_DSTYPE;
 import static io.spikex.filter.internal.CollectdMapping.SPIKEX_KEY_INSTANCE;
 import static io.spikex.filter.internal.CollectdMapping.SPIKEX_KEY_SUBGROUP;
 import io.spikex.filter.internal.CollectdMeasurement;
-import static io.spikex.filter.internal.CollectdMeasurement.DSTYPE_ABSOLUTE;
-import static io.spikex.filter.internal.CollectdMeasurement.DSTYPE_COUNTER;
-import static io.spikex.filter.internal.CollectdMeasurement.DSTYPE_DERIVE;
-import static io.spikex.filter.internal.CollectdMeasurement.DSTYPE_GAUGE;
+import io.spikex.filter.internal.CollectdNameCache;
+import io.spikex.filter.internal.CollectdPacketParser;
 import static io.spikex.filter.internal.CollectdTypes.COLLECTD_KEY_PLUGIN;
 import static io.spikex.filter.internal.CollectdTypes.TYPES_DB;
-import static io.spikex.filter.internal.CollectdTypes.TYPE_ENCRYPTION;
-import static io.spikex.filter.internal.CollectdTypes.TYPE_HOST;
-import static io.spikex.filter.internal.CollectdTypes.TYPE_INTERVAL_HIGHRES;
-import static io.spikex.filter.internal.CollectdTypes.TYPE_INTERVAL_RRD;
-import static io.spikex.filter.internal.CollectdTypes.TYPE_MESSAGE;
-import static io.spikex.filter.internal.CollectdTypes.TYPE_PLUGIN;
-import static io.spikex.filter.internal.CollectdTypes.TYPE_PLUGIN_INSTANCE;
-import static io.spikex.filter.internal.CollectdTypes.TYPE_SEVERITY;
-import static io.spikex.filter.internal.CollectdTypes.TYPE_SIGNATURE;
-import static io.spikex.filter.internal.CollectdTypes.TYPE_TIME_EPOCH;
-import static io.spikex.filter.internal.CollectdTypes.TYPE_TIME_HIGHRES;
-import static io.spikex.filter.internal.CollectdTypes.TYPE_TYPE;
-import static io.spikex.filter.internal.CollectdTypes.TYPE_TYPE_INSTANCE;
-import static io.spikex.filter.internal.CollectdTypes.TYPE_VALUES;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import io.spikex.filter.internal.InternedStrings;
 import java.util.HashMap;
 import java.util.Map;
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.AsyncResultHandler;
 import org.vertx.java.core.Handler;
-import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.datagram.DatagramPacket;
 import org.vertx.java.core.datagram.DatagramSocket;
 import org.vertx.java.core.datagram.InternetProtocolFamily;
@@ -79,8 +61,14 @@ public final class Collectd extends AbstractFilter {
 
     private int m_secLevel;
     private JsonArray m_tags;
-    private final CollectdMeasurement m_measurement;
+    private boolean m_batchPackets;
+    private JsonArray m_events; // Events of current packet
+    private long m_tmError;
+    private final CollectdPacketParser m_parser;
+    private final Handler<CollectdMeasurement> m_measurementHandler;
     private final Map<String, CollectdMapping> m_mappings;
+    private CollectdNameCache m_nameCache;
+    private long m_timerId;
 
     private static final String CONF_KEY_HOST = "host";
     private static final String CONF_KEY_PORT = "port";
@@ -90,6 +78,7 @@ public final class Collectd extends AbstractFilter {
     private static final String CONF_KEY_DSNAME_SEPARATOR = "dsname-separator";
     private static final String CONF_KEY_ITEM_SEPARATOR = "item-separator";
     private static final String CONF_KEY_ADD_TAGS = "add-tags";
+    private static final String CONF_KEY_BATCH_PACKETS = "batch-packets";
 
     // Security levels
     private static final String SECURITY_LEVEL_NONE = "None";
@@ -107,9 +96,30 @@ public final class Collectd extends AbstractFilter {
     private static final String DEF_SECURITY_LEVEL = SECURITY_LEVEL_NONE;
     private static final String DEF_DSNAME_SEPARATOR = ".";
     private static final String DEF_ITEM_SEPARATOR = "_";
+    private static final boolean DEF_BATCH_PACKETS = true;
+
+    private static final int INTERNED_STRINGS_CAPACITY = 8192;
+    private static final int INTERNED_STRING_MAX_LENGTH = 128; // bytes
+
+    private static final long ERROR_INTERVAL_MS = 5000L;
+    private static final long METRICS_INTERVAL_MS = 10000L;
+
+    public static final String METRIC_NAMES_HITS = "collectd.names.hits";
+    public static final String METRIC_NAMES_MISSES = "collectd.names.misses";
+    public static final String METRIC_NAMES_SIZE = "collectd.names.size";
 
     public Collectd() {
-        m_measurement = new CollectdMeasurement();
+        m_parser = new CollectdPacketParser(new InternedStrings(
+                INTERNED_STRINGS_CAPACITY,
+                INTERNED_STRING_MAX_LENGTH));
+        m_measurementHandler = new Handler<CollectdMeasurement>() {
+
+            @Override
+            public void handle(final CollectdMeasurement measurement) {
+                handleMeasurement(measurement);
+            }
+        };
+        m_events = new JsonArray();
         m_mappings = new HashMap();
     }
 
@@ -133,6 +143,7 @@ public final class Collectd extends AbstractFilter {
 
         // Tags to add
         m_tags = config().getArray(CONF_KEY_ADD_TAGS, new JsonArray());
+        m_batchPackets = config().getBoolean(CONF_KEY_BATCH_PACKETS, DEF_BATCH_PACKETS);
 
         String dsnameSeparator = config().getString(CONF_KEY_DSNAME_SEPARATOR, DEF_DSNAME_SEPARATOR);
         String itemSeparator = config().getString(CONF_KEY_ITEM_SEPARATOR, DEF_ITEM_SEPARATOR);
@@ -160,6 +171,15 @@ public final class Collectd extends AbstractFilter {
             m_mappings.put(plugin, mapping);
         }
 
+        m_nameCache = new CollectdNameCache(m_mappings, CollectdNameCache.DEF_MAX_SIZE);
+        m_timerId = vertx.setPeriodic(METRICS_INTERVAL_MS, new Handler<Long>() {
+
+            @Override
+            public void handle(final Long timerId) {
+                publishNameMetrics(m_nameCache);
+            }
+        });
+
         // 
         // Start listening to packets
         //
@@ -197,192 +217,111 @@ public final class Collectd extends AbstractFilter {
         });
     }
 
-    private void handlePacket(final DatagramPacket packet) {
+    @Override
+    protected void stopFilter() {
+        vertx.cancelTimer(m_timerId);
+    }
 
-        try {
+    private void publishNameMetrics(final CollectdNameCache cache) {
+        String instance = getChainName() != null ? getChainName() : getName();
+        publishMetric(METRIC_NAMES_HITS, instance, cache.getHits(), DSTYPE_COUNTER);
+        publishMetric(METRIC_NAMES_MISSES, instance, cache.getMisses(), DSTYPE_COUNTER);
+        publishMetric(METRIC_NAMES_SIZE, instance, cache.size(), DSTYPE_GAUGE);
+    }
 
-            final Buffer buffer = packet.data();
-            logger().trace("Packet size: {}", buffer.length());
+    private void handlePacket(final DatagramPacket packet) {
 
-            CollectdMeasurement measurement = m_measurement;
-            measurement.clear();
-            String precision = DSTIME_PRECISION_SEC; // Default
+        // Parse directly from the underlying Netty buffer
+        ByteBuf buf = packet.data().getByteBuf();
+        logger().trace("Packet size: {}", buf.readableBytes());
 
-            int i = 0;
-            while (i < buffer.length()) {
+        String destAddr = getDestinationAddress();
+        if (destAddr != null && destAddr.length() > 0) {
 
-                // Next part
-                int partType = buffer.getShort(i);
-                int partLen = buffer.getShort(i + 2);
-                int pos = i + 4;
-                int strLen = i + partLen - 1;
+            Exception error = null;
+            try {
+                m_parser.parse(buf, m_measurementHandler);
+            } catch (Exception e) {
+                error = e; // Values parsed so far are still published
+            }
 
-                switch (partType) {
-                    case TYPE_HOST: {
-                        measurement.setHostname(buffer, pos, strLen);
-                        break;
-                    }
-                    case TYPE_TIME_EPOCH: {
-                        long tm = buffer.getLong(pos) * 1000L; // ms
-                        measurement.setTimestamp(tm);
-                        precision = DSTIME_PRECISION_SEC; // Seconds
-                        break;
-                    }
-                    case TYPE_TIME_HIGHRES: {
-                        long tm = (buffer.getLong(pos) / 1073741824L * 1000L); // ms
-                        // Add millis - we want ms precision
-                        long millis = System.currentTimeMillis();
-                        long epoch = (millis / 1000L) * 1000L;
-                        measurement.setTimestamp(tm + (millis - epoch));
-                        precision = DSTIME_PRECISION_MILLIS; // Higher precision
-                        break;
-                    }
-                    case TYPE_PLUGIN: {
-                        measurement.setPlugin(buffer, pos, strLen);
-                        break;
-                    }
-                    case TYPE_PLUGIN_INSTANCE: {
-                        measurement.setPluginInstance(buffer, pos, strLen);
-                        break;
-                    }
-                    case TYPE_TYPE: {
-                        measurement.setType(buffer, pos, strLen);
-                        break;
-                    }
-                    case TYPE_TYPE_INSTANCE: {
-                        measurement.setTypeInstance(buffer, pos, strLen);
-                        break;
-                    }
-                    case TYPE_VALUES: {
-                        int numValues = buffer.getShort(pos++);
-                        pos++;
-                        // Read types
-                        byte[] types = new byte[numValues];
-                        for (int n = 0; n < numValues; n++) {
-                            types[n] = buffer.getByte(pos++);
-                        }
-                        // Read actual values
-                        for (int n = 0; n < numValues; n++) {
-                            switch (types[n]) {
-                                // COUNTER
-                                case 0: {
-                                    long value = buffer.getLong(pos);
-                                    measurement.pushValue(DSTYPE_COUNTER, value);
-                                    break;
-                                }
-                                // GAUGE
-                                case 1: {
-                                    ByteBuffer buf = ByteBuffer.wrap(buffer.getBytes(pos, pos + 8));
-                                    double value = buf.order(ByteOrder.LITTLE_ENDIAN).getDouble();
-                                    measurement.pushValue(DSTYPE_GAUGE, value);
-                                    break;
-                                }
-                                // DERIVE
-                                case 2: {
-                                    long value = buffer.getLong(pos);
-                                    measurement.pushValue(DSTYPE_DERIVE, value);
-                                    break;
-                                }
-                                // ABSOLUTE
-                                case 3: {
-                                    long value = buffer.getLong(pos);
-                                    measurement.pushValue(DSTYPE_ABSOLUTE, value);
-                                    break;
-                                }
-                            }
-                            pos += 8; // 64 bit field
+            //
+            // All values of a packet in one batch event
+            //
+            JsonArray events = m_events;
+            if (events.size() > 0) {
+                m_events = new JsonArray();
+                try {
+                    if (m_batchPackets) {
+                        eventBus().publish(destAddr, Events.createBatchEvent(this, events));
+                    } else {
+                        for (int i = 0; i < events.size(); i++) {
+                            eventBus().publish(destAddr, (JsonObject) events.get(i));
                         }
-                        break;
-                    }
-                    case TYPE_INTERVAL_RRD: {
-                        long interval = buffer.getLong(i + 4);
-                        measurement.setInterval(interval);
-                        break;
-                    }
-                    case TYPE_INTERVAL_HIGHRES: {
-                        long interval = (buffer.getLong(i + 4) / 1073741824L);
-                        measurement.setInterval(interval);
-                        break;
                     }
-                    case TYPE_MESSAGE:
-                        logger().trace("Message - not supported");
-                        break;
-                    case TYPE_SEVERITY:
-                        logger().trace("Severity - not supported");
-                        break;
-                    case TYPE_SIGNATURE:
-                        logger().trace("Signature - not supported");
-                        break;
-                    case TYPE_ENCRYPTION:
-                        logger().trace("Encryption - not supported");
-                        break;
+                } catch (Exception e) {
+                    error = e;
                 }
+            }
 
-                String destAddr = getDestinationAddress();
-                if (measurement.hasValues()
-                        && destAddr != null && destAddr.length() > 0) {
-
-                    logger().trace("{} - precision {}", measurement, precision);
-
-                    String plugin = measurement.getPlugin();
-                    String[] dsnames = TYPES_DB.get(plugin);
-
-                    for (int n = 0; n < measurement.getValueCount(); n++) {
-
-                        Object value = measurement.getValue(n);
-                        String dstype = measurement.getDstype(n);
-                        String dsname = "value";
-                        if (dsnames != null && n < dsnames.length) {
-                            dsname = dsnames[n];
-                        }
-
-                        //
-                        // Create new event per value
-                        //
-                        JsonObject event = Events.createMetricEvent(this,
-                                measurement.getTimestamp(),
-                                TIMEZONE_UTC,
-                                measurement.getHostname(),
-                                dsname,
-                                dstype,
-                                precision,
-                                "-", // subgroup
-                                "-", // instance
-                                measurement.getInterval(),
-                                value);
-
-                        //
-                        // Resolve and set dsname, subgroup and instance
-                        //
-                        CollectdMapping mapping = m_mappings.get(measurement.getPlugin());
-
-                        // Use default mapping?
-                        if (mapping == null) {
-                            mapping = m_mappings.get(DEF_MAPPING);
-                        }
+            if (error != null) {
+                long tm = System.currentTimeMillis();
+                if ((tm - m_tmError) > ERROR_INTERVAL_MS) {
+                    logger().error("Failed to handle packet (published values: {})",
+                            events.size(), error);
+                    m_tmError = tm;
+                }
+            }
+        }
+    }
 
-                        mapping.resolveAndSetFields(
-                                event,
-                                measurement.getPlugin(),
-                                measurement.getPluginInstance(),
-                                measurement.getType(),
-                                measurement.getTypeInstance(),
-                                dsname,
-                                dstype);
+    private void handleMeasurement(final CollectdMeasurement measurement) {
 
-                        // Add tags
-                        event.putArray(EVENT_FIELD_TAGS, m_tags);
+        String precision = measurement.getPrecision();
+        logger().trace("{} - precision {}", measurement, precision);
 
-                        eventBus().publish(destAddr, event);
-                    }
+        String plugin = measurement.getPlugin();
+        String[] dsnames = TYPES_DB.get(plugin);
 
-                    measurement.clear(); // Ready for next round
-                }
+        for (int n = 0; n < measurement.getValueCount(); n++) {
 
-                i += partLen;
+            Object value = measurement.getValue(n);
+            String dstype = measurement.getDstype(n);
+            String dsname = "value";
+            if (dsnames != null && n < dsnames.length) {
+                dsname = dsnames[n];
             }
-        } catch (Exception e) {
-            logger().error("Failed to handle packet", e);
+
+            //
+            // Create new event per value
+            //
+            JsonObject event = Events.createMetricEvent(this,
+                    measurement.getTimestamp(),
+                    TIMEZONE_UTC,
+                    measurement.getHostname(),
+                    dsname,
+                    dstype,
+                    precision,
+                    "-", // subgroup
+                    "-", // instance
+                    measurement.getInterval(),
+                    value);
+
+            //
+            // Resolve dsname, subgroup and instance (cached per series)
+            //
+            m_nameCache.resolve(
+                    plugin,
+                    measurement.getPluginInstance(),
+                    measurement.getType(),
+                    measurement.getTypeInstance(),
+                    dsname,
+                    dstype).setFields(event);
+
+            // Add tags
+            event.putArray(EVENT_FIELD_TAGS, m_tags);
+
+            m_events.addObject(event);
         }
     }
 }
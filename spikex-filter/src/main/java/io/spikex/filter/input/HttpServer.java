@@ -19,32 +19,78 @@ package io.spikex.filter.input;
 
 import io.spikex.core.AbstractFilter;
 import io.spikex.core.helper.Events;
+import static io.spikex.core.helper.Events.DSTYPE_COUNTER;
+import static io.spikex.core.helper.Events.DSTYPE_GAUGE;
+import static io.spikex.core.helper.Events.EVENT_FIELD_PRIORITY;
 import static io.spikex.core.helper.Events.EVENT_FIELD_TAGS;
 import io.spikex.core.util.HostOs;
+import io.spikex.filter.internal.AdmissionControl;
 import io.spikex.filter.internal.CollectdJsonHandler;
+import io.spikex.filter.internal.CollectdNameCache;
 import io.spikex.filter.internal.HttpResponse;
+import io.spikex.filter.internal.JsonEventStream;
 import io.spikex.filter.internal.NagiosNrdpHandler;
 import io.spikex.filter.internal.ThingseeHandler;
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.AsyncResultHandler;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.VoidHandler;
 import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.eventbus.EventBus;
+import static org.vertx.java.core.http.HttpHeaders.CONNECTION;
+import static org.vertx.java.core.http.HttpHeaders.CONTENT_ENCODING;
 import static org.vertx.java.core.http.HttpHeaders.CONTENT_LENGTH;
 import static org.vertx.java.core.http.HttpHeaders.CONTENT_TYPE;
+import static org.vertx.java.core.http.HttpHeaders.RETRY_AFTER;
 import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.http.HttpServerResponse;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
 /**
+ * Receives events over HTTP. The "ndjson" (one JSON object per line) and
+ * "json-array" input formats are parsed incrementally as the body arrives
+ * and the events are published as batch events (at most "batch-size" events
+ * per batch). These formats support gzip and deflate encoded bodies and are
+ * limited by "max-body-size" (decompressed) and "max-event-size". The reply
+ * is 202 (Accepted) with the amount of accepted and rejected events, 413 if
+ * the body is too large, 400 if it is malformed and 415 if its content
+ * encoding is not supported. A body with a too large Content-Length is
+ * rejected before it is read. Otherwise events are published while the body
+ * is parsed, so the events preceding the point where a body turns out to be
+ * too large (eg. compressed or chunked bodies) or malformed have already been
+ * published when 413 or 400 is replied.
+ * <p>
+ * Every client (remote address or the value of "client-header") has a token
+ * bucket of "client-rate" requests per second and "client-burst" tokens.
+ * The amount of concurrently handled requests is limited by "max-in-flight".
+ * Low priority payloads (@priority) are shed first when the in-flight
+ * requests reach "shed-ratio" of the limit. Rejected and shed requests get
+ * 429 (Too Many Requests) with Retry-After. The admitted, rejected and shed
+ * requests are published as metrics per client (at most "max-client-metrics"
+ * clients, named by the filter instance and the client address or a hash of
+ * the token). The metrics of forgotten clients are removed.
  *
  * @author cli
  */
 public final class HttpServer extends AbstractFilter {
 
     private Handler<HttpResponse> m_handler;
+    private JsonHandler m_jsonHandler; // Streamed formats
+    private long m_maxBodySize;
+    private int m_maxEventSize;
+    private int m_batchSize;
+    private AdmissionControl m_admission;
+    private String m_clientHeader;
+    private CollectdNameCache m_nameCache;
+    private Deque<InFlight> m_inFlightPool;
+    private int m_maxClientMetrics;
+    private int m_clientMetrics;
     private org.vertx.java.core.http.HttpServer m_server;
+    private long m_timerId;
 
     private static final String CONF_KEY_HOST = "host";
     private static final String CONF_KEY_PORT = "port";
@@ -58,17 +104,61 @@ public final class HttpServer extends AbstractFilter {
     private static final String CONF_KEY_TRUSTSTORE_TYPE = "truststore-type";
     private static final String CONF_KEY_CLIENT_AUTH_REQUIRED = "client-auth-required";
     private static final String CONF_KEY_ADD_TAGS = "add-tags";
+    private static final String CONF_KEY_MAX_BODY_SIZE = "max-body-size";
+    private static final String CONF_KEY_MAX_EVENT_SIZE = "max-event-size";
+    private static final String CONF_KEY_BATCH_SIZE = "batch-size";
+    private static final String CONF_KEY_CLIENT_RATE = "client-rate";
+    private static final String CONF_KEY_CLIENT_BURST = "client-burst";
+    private static final String CONF_KEY_CLIENT_HEADER = "client-header";
+    private static final String CONF_KEY_MAX_CLIENTS = "max-clients";
+    private static final String CONF_KEY_MAX_IN_FLIGHT = "max-in-flight";
+    private static final String CONF_KEY_SHED_RATIO = "shed-ratio";
+    private static final String CONF_KEY_MAX_CLIENT_METRICS = "max-client-metrics";
 
     // Input formats
     private static final String INPUT_FORMAT_JSON = "json";
     private static final String INPUT_FORMAT_COLLECTD_JSON = "collectd-json";
     private static final String INPUT_FORMAT_NAGIOS_NRDP = "nagios-nrdp";
     private static final String INPUT_FORMAT_THINGSEE = "thingsee";
+    private static final String INPUT_FORMAT_NDJSON = "ndjson";
+    private static final String INPUT_FORMAT_JSON_ARRAY = "json-array";
 
     // Configuration defaults
     private static final int DEF_PORT = 44120;
     private static final String DEF_HOST = "localhost";
     private static final String DEF_INPUT_FORMAT = INPUT_FORMAT_JSON;
+    private static final long DEF_MAX_BODY_SIZE = 16L * 1024L * 1024L; // bytes
+    private static final int DEF_MAX_EVENT_SIZE = 64 * 1024; // bytes
+    private static final int DEF_BATCH_SIZE = 1000;
+    private static final double DEF_CLIENT_RATE = 0.0d; // requests/s (no limit)
+    private static final int DEF_MAX_CLIENTS = 10000;
+    private static final int DEF_MAX_IN_FLIGHT = 0; // No limit
+    private static final double DEF_SHED_RATIO = 0.8d;
+    private static final int DEF_MAX_CLIENT_METRICS = 100;
+
+    private static final int HTTP_STATUS_ACCEPTED = 202;
+    private static final int HTTP_STATUS_BAD_REQUEST = 400;
+    private static final int HTTP_STATUS_TOO_LARGE = 413;
+    private static final int HTTP_STATUS_UNSUPPORTED_MEDIA_TYPE = 415;
+    private static final int HTTP_STATUS_TOO_MANY_REQUESTS = 429;
+
+    private static final String CONNECTION_CLOSE = "close";
+    private static final String CLIENT_TOKEN_PREFIX = "token-";
+    private static final String CONTENT_TYPE_JSON = "application/json";
+    private static final String FIELD_ACCEPTED = "accepted";
+    private static final String FIELD_REJECTED = "rejected";
+    private static final String FIELD_SHED = "shed";
+
+    private static final long METRICS_INTERVAL_MS = 10000L;
+    private static final int MAX_POOLED_IN_FLIGHT = 1024;
+
+    public static final String METRIC_ADMITTED = "http.admitted";
+    public static final String METRIC_REJECTED = "http.rejected";
+    public static final String METRIC_SHED = "http.shed";
+    public static final String METRIC_IN_FLIGHT = "http.inflight";
+    public static final String METRIC_NAMES_HITS = "http.names.hits";
+    public static final String METRIC_NAMES_MISSES = "http.names.misses";
+    public static final String METRIC_NAMES_SIZE = "http.names.size";
 
     @Override
     protected void startFilter() {
@@ -76,19 +166,41 @@ public final class HttpServer extends AbstractFilter {
         final int port = config().getInteger(CONF_KEY_PORT, DEF_PORT);
         final String host = config().getString(CONF_KEY_HOST, DEF_HOST);
         String format = config().getString(CONF_KEY_INPUT_FORMAT, DEF_INPUT_FORMAT);
+        m_maxBodySize = config().getLong(CONF_KEY_MAX_BODY_SIZE, DEF_MAX_BODY_SIZE);
+        m_maxEventSize = config().getInteger(CONF_KEY_MAX_EVENT_SIZE, DEF_MAX_EVENT_SIZE);
+        m_batchSize = config().getInteger(CONF_KEY_BATCH_SIZE, DEF_BATCH_SIZE);
+        JsonEventStream.Format streamFormat = null;
+
+        //
+        // Per-client token buckets and global in-flight limit
+        //
+        Number clientRate = config().getNumber(CONF_KEY_CLIENT_RATE);
+        Number shedRatio = config().getNumber(CONF_KEY_SHED_RATIO);
+        double rate = (clientRate != null ? clientRate.doubleValue() : DEF_CLIENT_RATE);
+        m_admission = new AdmissionControl(
+                rate,
+                config().getInteger(CONF_KEY_CLIENT_BURST, Math.max(1, (int) Math.ceil(rate))),
+                config().getInteger(CONF_KEY_MAX_IN_FLIGHT, DEF_MAX_IN_FLIGHT),
+                (shedRatio != null ? shedRatio.doubleValue() : DEF_SHED_RATIO),
+                config().getInteger(CONF_KEY_MAX_CLIENTS, DEF_MAX_CLIENTS));
+        m_clientHeader = config().getString(CONF_KEY_CLIENT_HEADER);
+        m_maxClientMetrics = config().getInteger(CONF_KEY_MAX_CLIENT_METRICS, DEF_MAX_CLIENT_METRICS);
+        m_clientMetrics = 0;
+        m_inFlightPool = new ArrayDeque();
 
         // Tags to add
         JsonArray tags = config().getArray(CONF_KEY_ADD_TAGS, new JsonArray());
 
         switch (format) {
             case INPUT_FORMAT_JSON: {
-                m_handler = new JsonHandler(this, eventBus(), tags);
+                m_handler = new JsonHandler(this, eventBus(), tags, m_admission);
             }
             break;
             case INPUT_FORMAT_COLLECTD_JSON: {
                 CollectdJsonHandler handler = new CollectdJsonHandler(this, config(), eventBus(), tags);
                 handler.init();
                 m_handler = handler;
+                m_nameCache = handler.getNameCache();
             }
             break;
             case INPUT_FORMAT_NAGIOS_NRDP: {
@@ -97,23 +209,62 @@ public final class HttpServer extends AbstractFilter {
                 m_handler = handler;
             }
             break;
+            case INPUT_FORMAT_NDJSON: {
+                m_handler = null; // Streamed event by event
+                m_jsonHandler = new JsonHandler(this, eventBus(), tags, m_admission);
+                streamFormat = JsonEventStream.Format.NDJSON;
+            }
+            break;
+            case INPUT_FORMAT_JSON_ARRAY: {
+                m_handler = null; // Streamed event by event
+                m_jsonHandler = new JsonHandler(this, eventBus(), tags, m_admission);
+                streamFormat = JsonEventStream.Format.JSON_ARRAY;
+            }
+            break;
             case INPUT_FORMAT_THINGSEE: {
                 ThingseeHandler handler = new ThingseeHandler(this, config(), eventBus(), tags);
                 m_handler = handler;
             }
             break;
             default: {
-                m_handler = new JsonHandler(this, eventBus(), tags);
+                m_handler = new JsonHandler(this, eventBus(), tags, m_admission);
             }
             break;
         }
 
+        m_timerId = vertx.setPeriodic(METRICS_INTERVAL_MS, new Handler<Long>() {
+
+            @Override
+            public void handle(final Long timerId) {
+                publishMetrics();
+            }
+        });
+
+        final JsonEventStream.Format bodyFormat = streamFormat;
         m_server = vertx.createHttpServer();
         m_server.requestHandler(new Handler<HttpServerRequest>() {
 
             @Override
             public void handle(final HttpServerRequest request) {
 
+                //
+                // Admission control (before reading the body)
+                //
+                final Object client = resolveClient(request, m_clientHeader);
+                if (m_admission.admit(client, System.nanoTime()) != AdmissionControl.ADMITTED) {
+                    if (logger().isTraceEnabled()) {
+                        logger().trace("Rejecting request of {}", clientName(client));
+                    }
+                    tooManyRequests(request, false);
+                    return;
+                }
+                final InFlight inFlight = acquireInFlight(request.response());
+
+                if (bodyFormat != null) {
+                    handleStream(request, bodyFormat, client, inFlight);
+                    return;
+                }
+
                 final Buffer body = new Buffer(0);
 
                 request.dataHandler(new Handler<Buffer>() {
@@ -130,6 +281,7 @@ public final class HttpServer extends AbstractFilter {
                         HttpResponse response = new HttpResponse(
                                 request,
                                 text);
+                        response.setClient(client);
                         try {
                             logger().trace("Received: {}", text);
                             m_handler.handle(response);
@@ -145,6 +297,8 @@ public final class HttpServer extends AbstractFilter {
                         } catch (Exception e) {
                             logger().error("Failed to parse: {}", text, e);
                             request.response().setStatusCode(500).end();
+                        } finally {
+                            inFlight.release(request.response());
                         }
                     }
                 });
@@ -167,30 +321,355 @@ public final class HttpServer extends AbstractFilter {
 
     @Override
     protected void stopFilter() {
+        vertx.cancelTimer(m_timerId);
         m_server.close();
     }
 
+    private void publishMetrics() {
+
+        String instance = getChainName() != null ? getChainName() : getName();
+
+        // Remove the metrics of forgotten clients
+        for (AdmissionControl.Bucket bucket : m_admission.pollEvicted()) {
+            String client = instance + "." + clientName(bucket.getClient());
+            removeMetric(METRIC_ADMITTED, client);
+            removeMetric(METRIC_REJECTED, client);
+            removeMetric(METRIC_SHED, client);
+            m_clientMetrics--;
+        }
+
+        for (AdmissionControl.Bucket bucket : m_admission.getBuckets()) {
+            if (!bucket.isReported()) {
+                if (m_clientMetrics >= m_maxClientMetrics) {
+                    continue;
+                }
+                bucket.setReported(true);
+                m_clientMetrics++;
+            }
+            String client = instance + "." + clientName(bucket.getClient());
+            publishMetric(METRIC_ADMITTED, client, bucket.getAdmitted(), DSTYPE_COUNTER);
+            publishMetric(METRIC_REJECTED, client, bucket.getRejected(), DSTYPE_COUNTER);
+            publishMetric(METRIC_SHED, client, bucket.getShed(), DSTYPE_COUNTER);
+        }
+        publishMetric(METRIC_IN_FLIGHT, instance, m_admission.getInFlight(), DSTYPE_GAUGE);
+
+        CollectdNameCache cache = m_nameCache;
+        if (cache != null) {
+            publishMetric(METRIC_NAMES_HITS, instance, cache.getHits(), DSTYPE_COUNTER);
+            publishMetric(METRIC_NAMES_MISSES, instance, cache.getMisses(), DSTYPE_COUNTER);
+            publishMetric(METRIC_NAMES_SIZE, instance, cache.size(), DSTYPE_GAUGE);
+        }
+    }
+
+    private void tooManyRequests(
+            final HttpServerRequest request,
+            final boolean bodyRead) {
+
+        request.response().putHeader(RETRY_AFTER, String.valueOf(m_admission.getRetryAfter()));
+        if (bodyRead) {
+            respond(request, HTTP_STATUS_TOO_MANY_REQUESTS);
+        } else {
+            reject(request, HTTP_STATUS_TOO_MANY_REQUESTS);
+        }
+    }
+
+    private static Object resolveClient(
+            final HttpServerRequest request,
+            final String clientHeader) {
+
+        // Authentication token or remote address (as such, no allocation)
+        if (clientHeader != null) {
+            String token = request.headers().get(clientHeader);
+            if (token != null) {
+                return token;
+            }
+        }
+        return request.remoteAddress().getAddress();
+    }
+
+    private static String clientName(final Object client) {
+        // Tokens are never exposed as such
+        if (client instanceof InetAddress) {
+            return ((InetAddress) client).getHostAddress();
+        }
+        return CLIENT_TOKEN_PREFIX + Integer.toHexString(client.hashCode());
+    }
+
+    private InFlight acquireInFlight(final HttpServerResponse response) {
+        InFlight inFlight = m_inFlightPool.poll();
+        if (inFlight == null) {
+            inFlight = new InFlight();
+        }
+        inFlight.m_response = response;
+        response.closeHandler(inFlight);
+        return inFlight;
+    }
+
+    private void handleStream(
+            final HttpServerRequest request,
+            final JsonEventStream.Format format,
+            final Object client,
+            final InFlight inFlight) {
+
+        //
+        // Reject too large bodies before reading them
+        //
+        String contentLength = request.headers().get(CONTENT_LENGTH);
+        if (contentLength != null) {
+            try {
+                if (Long.parseLong(contentLength.trim()) > m_maxBodySize) {
+                    inFlight.release(request.response());
+                    reject(request, HTTP_STATUS_TOO_LARGE);
+                    return;
+                }
+            } catch (NumberFormatException e) {
+                inFlight.release(request.response());
+                reject(request, HTTP_STATUS_BAD_REQUEST);
+                return;
+            }
+        }
+
+        JsonEventStream stream;
+        try {
+            stream = new JsonEventStream(
+                    format,
+                    request.headers().get(CONTENT_ENCODING),
+                    m_maxBodySize,
+                    m_maxEventSize);
+        } catch (IllegalArgumentException e) {
+            logger().debug("Rejecting request: {}", e.getMessage());
+            inFlight.release(request.response());
+            reject(request, HTTP_STATUS_UNSUPPORTED_MEDIA_TYPE);
+            return;
+        }
+
+        new StreamHandler(request, stream, client, inFlight).start();
+    }
+
+    private JsonArray publishBatch(final JsonArray events) {
+        if (events.size() > 0) {
+            String destAddr = getDestinationAddress();
+            if (destAddr != null && destAddr.length() > 0) {
+                eventBus().publish(destAddr, Events.createBatchEvent(this, events));
+            }
+            return new JsonArray();
+        }
+        return events;
+    }
+
+    private void reject(
+            final HttpServerRequest request,
+            final int statusCode) {
+
+        // The rest of the body is not read - close the connection
+        request.response().setStatusCode(statusCode);
+        request.response().putHeader(CONNECTION, CONNECTION_CLOSE);
+        request.response().end();
+        request.response().close();
+    }
+
+    private void respond(
+            final HttpServerRequest request,
+            final int statusCode) {
+
+        // The whole body has been read - keep the connection
+        request.response().setStatusCode(statusCode);
+        request.response().end();
+    }
+
+    /**
+     * Parses events as body chunks arrive (the body is never buffered) and
+     * publishes them as batch events.
+     */
+    private final class StreamHandler implements Handler<JsonObject> {
+
+        private final HttpServerRequest m_request;
+        private final JsonEventStream m_stream;
+        private final Object m_client;
+        private final InFlight m_inFlight;
+        private JsonArray m_batch;
+        private long m_shed;
+        private boolean m_done;
+
+        private StreamHandler(
+                final HttpServerRequest request,
+                final JsonEventStream stream,
+                final Object client,
+                final InFlight inFlight) {
+
+            m_request = request;
+            m_stream = stream;
+            m_client = client;
+            m_inFlight = inFlight;
+            m_batch = new JsonArray();
+        }
+
+        private void start() {
+            m_request.dataHandler(new Handler<Buffer>() {
+                @Override
+                public void handle(final Buffer buffer) {
+                    handleData(buffer);
+                }
+            });
+            m_request.endHandler(new VoidHandler() {
+                @Override
+                public void handle() {
+                    handleEnd();
+                }
+            });
+        }
+
+        @Override
+        public void handle(final JsonObject data) {
+            // Prefer dropping low priority events when overloaded
+            if (m_admission.shed(m_client, data.getString(EVENT_FIELD_PRIORITY))) {
+                m_shed++;
+                return;
+            }
+            m_batch.addObject(m_jsonHandler.createEvent(data));
+            if (m_batch.size() >= m_batchSize) {
+                m_batch = publishBatch(m_batch);
+            }
+        }
+
+        private void handleData(final Buffer buffer) {
+            if (!m_done) {
+                try {
+                    boolean ok = m_stream.write(buffer, this);
+                    m_batch = publishBatch(m_batch);
+                    if (!ok) {
+                        fail(HTTP_STATUS_TOO_LARGE);
+                    }
+                } catch (IllegalArgumentException e) {
+                    m_batch = publishBatch(m_batch);
+                    logger().debug("Rejecting request: {}", e.getMessage());
+                    fail(HTTP_STATUS_BAD_REQUEST);
+                }
+            }
+        }
+
+        private void handleEnd() {
+            if (!m_done) {
+                m_done = true;
+                boolean ok;
+                try {
+                    ok = m_stream.end(this);
+                } catch (IllegalArgumentException e) {
+                    m_batch = publishBatch(m_batch);
+                    m_inFlight.release(m_request.response());
+                    logger().debug("Rejecting request: {}", e.getMessage());
+                    respond(m_request, HTTP_STATUS_BAD_REQUEST);
+                    return;
+                }
+                m_batch = publishBatch(m_batch);
+                m_inFlight.release(m_request.response());
+                if (!ok) {
+                    reject(m_request, HTTP_STATUS_TOO_LARGE);
+                    return;
+                }
+                long accepted = m_stream.getAccepted() - m_shed;
+                if (accepted == 0 && m_shed > 0) {
+                    tooManyRequests(m_request, true);
+                    return;
+                }
+                if (m_stream.getRejected() > 0) {
+                    logger().debug("Rejected {} events (accepted: {})",
+                            m_stream.getRejected(), m_stream.getAccepted());
+                }
+
+                // Events have been handed off
+                JsonObject result = new JsonObject();
+                result.putNumber(FIELD_ACCEPTED, accepted);
+                result.putNumber(FIELD_REJECTED, m_stream.getRejected());
+                result.putNumber(FIELD_SHED, m_shed);
+                Buffer content = new Buffer(result.encode());
+                m_request.response().setStatusCode(HTTP_STATUS_ACCEPTED);
+                m_request.response().putHeader(CONTENT_TYPE, CONTENT_TYPE_JSON);
+                m_request.response().putHeader(CONTENT_LENGTH, String.valueOf(content.length()));
+                m_request.response().end(content);
+            }
+        }
+
+        private void fail(final int statusCode) {
+            m_done = true;
+            m_stream.close();
+            m_inFlight.release(m_request.response());
+            reject(m_request, statusCode);
+        }
+    }
+
+    /**
+     * Releases an admitted request once (also if the connection is closed
+     * before the response is complete). Released instances are pooled and
+     * reused, so a release is ignored unless it comes from the owner of the
+     * current response.
+     */
+    private final class InFlight implements Handler<Void> {
+
+        private HttpServerResponse m_response; // null when released
+
+        @Override
+        public void handle(final Void event) {
+            if (m_response != null) {
+                release(m_response);
+            }
+        }
+
+        private void release(final HttpServerResponse response) {
+            if (m_response == response) {
+                m_admission.release();
+                m_response.closeHandler(null);
+                m_response = null;
+                if (m_inFlightPool.size() < MAX_POOLED_IN_FLIGHT) {
+                    m_inFlightPool.push(this);
+                }
+            }
+        }
+    }
+
     private static class JsonHandler implements Handler<HttpResponse> {
 
         private final AbstractFilter m_filter;
         private final EventBus m_eventBus;
         private final JsonArray m_tags;
+        private final AdmissionControl m_admission;
 
         private JsonHandler(
                 final AbstractFilter filter,
                 final EventBus eventBus,
-                final JsonArray tags) {
+                final JsonArray tags,
+                final AdmissionControl admission) {
 
             m_filter = filter;
             m_eventBus = eventBus;
             m_tags = tags;
+            m_admission = admission;
         }
 
         @Override
         public void handle(final HttpResponse response) {
-
             // Try to parse json and emit new event
             JsonObject data = new JsonObject(response.getBody());
+
+            // Prefer dropping low priority payloads when overloaded
+            if (m_admission.shed(response.getClient(), data.getString(EVENT_FIELD_PRIORITY))) {
+                response.setStatusCode(HTTP_STATUS_TOO_MANY_REQUESTS);
+                response.getResponse().putHeader(RETRY_AFTER,
+                        String.valueOf(m_admission.getRetryAfter()));
+                return;
+            }
+            emit(data);
+        }
+
+        private void emit(final JsonObject data) {
+            String destAddr = m_filter.getDestinationAddress();
+            if (destAddr != null && destAddr.length() > 0) {
+                m_eventBus.publish(destAddr, createEvent(data));
+            }
+        }
+
+        private JsonObject createEvent(final JsonObject data) {
+
             JsonObject event = Events.createMetricEvent(
                     m_filter,
                     HostOs.hostName(),
@@ -205,11 +684,7 @@ public final class HttpServer extends AbstractFilter {
 
             // Add tags
             event.putArray(EVENT_FIELD_TAGS, m_tags);
-
-            String destAddr = m_filter.getDestinationAddress();
-            if (destAddr != null && destAddr.length() > 0) {
-                m_eventBus.publish(destAddr, event);
-            }
+            return event;
         }
     }
 }
@@ -23,8 +23,14 @@ import com.google.common.base.Strings;
 import io.spikex.core.AbstractFilter;
 import io.spikex.core.helper.Events;
 import static io.spikex.core.helper.Events.DSTIME_PRECISION_SEC;
+import static io.spikex.core.helper.Events.DSTYPE_COUNTER;
+import static io.spikex.core.helper.Events.DSTYPE_GAUGE;
 import static io.spikex.core.helper.Events.TIMEZONE_UTC;
+import io.spikex.filter.internal.JolokiaTarget;
+import io.spikex.filter.internal.LatencyHistogram;
 import io.spikex.filter.internal.Modifier;
+import java.io.Closeable;
+import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -32,19 +38,41 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
+import org.apache.http.client.HttpClient;
 import org.jolokia.client.BasicAuthenticator;
 import org.jolokia.client.J4pClient;
+import org.jolokia.client.exception.J4pBulkRemoteException;
 import org.jolokia.client.exception.J4pException;
 import org.jolokia.client.request.J4pListRequest;
 import org.jolokia.client.request.J4pReadRequest;
 import org.jolokia.client.request.J4pResponse;
+import org.jolokia.client.request.J4pSearchRequest;
+import org.jolokia.client.request.J4pSearchResponse;
 import org.json.simple.JSONObject;
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
 /**
+ * Polls MBean attributes from one or more Jolokia agents.
+ * <p>
+ * Targets are polled in parallel by a bounded worker pool
+ * (<code>max-concurrency</code>) and every request is limited by
+ * <code>timeout</code> (ms). A failing target is backed off exponentially up
+ * to <code>max-backoff</code> (ms). MBean names containing wildcards are
+ * searched every <code>search-interval</code> (ms) and the results are cached
+ * per target.
+ * <p>
+ * Publishes the poll count, failure count and latency (p50, p99, max) of
+ * every target as metrics.
  *
  * @author cli
  */
@@ -53,7 +81,13 @@ public final class Jolokia extends AbstractFilter {
     private RequestConfig m_config;
     private boolean m_fetchJavaLangMbeanMetadata; // JBoss 4.x / 5.x bug circumvention
 
-    private final List<J4pClient> m_clients;
+    private long m_searchInterval; // ms
+    private long m_maxBackoff; // ms
+    private ExecutorService m_executor;
+    private Context m_context;
+    private long m_timerId;
+
+    private final List<JolokiaTarget> m_targets;
     private final Map<String, Modifier> m_actions; // action-id => action
 
     private static final String DEFAULT_MODIFIER = "*"; // Always performed (not rule based)
@@ -70,7 +104,16 @@ public final class Jolokia extends AbstractFilter {
     // https://labs.consol.de/jmx4perl/2009/11/23/jboss-remote-jmx.html - JBoss 4.x / 5.x bug circumvention
     private static final String CONF_KEY_FETCH_JAVA_LANG_MBEAN_METADATA = "fetch-java-lang-mbean-metadata";
 
+    private static final String CONF_KEY_TIMEOUT = "timeout";
+    private static final String CONF_KEY_MAX_CONCURRENCY = "max-concurrency";
+    private static final String CONF_KEY_MAX_BACKOFF = "max-backoff";
+    private static final String CONF_KEY_SEARCH_INTERVAL = "search-interval";
+
     private static final boolean DEF_AUTH_PREEMPTIVE = false;
+    private static final int DEF_TIMEOUT = 5000; // ms
+    private static final int DEF_MAX_CONCURRENCY = 16;
+    private static final long DEF_MAX_BACKOFF = TimeUnit.MINUTES.toMillis(5);
+    private static final long DEF_SEARCH_INTERVAL = TimeUnit.MINUTES.toMillis(5);
     private static final boolean DEF_FETCH_JAVA_LANG_MBEAN_METADATA = false;
 
     // Common data source types
@@ -85,11 +128,19 @@ public final class Jolokia extends AbstractFilter {
     private static final String JSON_FIELD_ATTRIBUTE = "attribute";
     private static final String JSON_FIELD_TIMESTAMP = "timestamp";
 
+    private static final long METRICS_INTERVAL_MS = 10000L;
+
+    public static final String METRIC_POLLS = "jolokia.polls";
+    public static final String METRIC_FAILURES = "jolokia.failures";
+    public static final String METRIC_LATENCY_P50 = "jolokia.latency.p50";
+    public static final String METRIC_LATENCY_P99 = "jolokia.latency.p99";
+    public static final String METRIC_LATENCY_MAX = "jolokia.latency.max";
+
     private static final String MBEAN_FIELD_TYPE = "type";
     private static final String MBEAN_JAVA_LANG_MEMORY = "java.lang:type=Memory";
 
     public Jolokia() {
-        m_clients = new ArrayList();
+        m_targets = new ArrayList();
         m_actions = new HashMap();
     }
 
@@ -106,15 +157,18 @@ public final class Jolokia extends AbstractFilter {
         //
         // Jolokia URL(s)
         //
+        int timeout = config().getInteger(CONF_KEY_TIMEOUT, DEF_TIMEOUT);
         JsonArray urls = config().getArray(CONF_KEY_JOLOKIA_URLS, new JsonArray());
         for (int i = 0; i < urls.size(); i++) {
             String url = urls.get(i).toString();
             logger().info("Connecting to: {}", url);
-            m_clients.add(J4pClient.url(url)
+            m_targets.add(new JolokiaTarget(J4pClient.url(url)
                     .user(config().getString(CONF_KEY_USER_NAME))
                     .password(config().getString(CONF_KEY_USER_PASSWORD))
                     .authenticator(new BasicAuthenticator(config().getBoolean(CONF_KEY_AUTH_PREEMPTIVE, DEF_AUTH_PREEMPTIVE)))
-                    .build());
+                    .connectionTimeout(timeout)
+                    .socketTimeout(timeout)
+                    .build()));
         }
         //
         // Build requests
@@ -140,15 +194,14 @@ public final class Jolokia extends AbstractFilter {
                 try {
                     String[] attrs = attributes.toArray(new String[len]);
                     logger().debug("Request mbean: {} attributes: {}", mbean, attrs);
-                    J4pReadRequest readRequest = new J4pReadRequest(mbean, attrs);
 
-                    if (!Strings.isNullOrEmpty(path)) {
-                        logger().debug("Request path: {}", path);
-                        readRequest.setPath(path);
+                    if (new ObjectName(mbean).isPattern()) {
+                        // Searched on a slower cadence
+                        m_config.addPattern(mbean, attrs, path);
+                    } else {
+                        m_config.addRequest(createReadRequest(mbean, attrs, path));
                     }
 
-                    m_config.addRequest(readRequest);
-
                 } catch (MalformedObjectNameException e) {
                     logger().error("Failed to build Jolokia request: {}:{}:{}",
                             mbean, attributes, path, e);
@@ -164,99 +217,264 @@ public final class Jolokia extends AbstractFilter {
             logger().debug("Fetching metadata of {} (JBoss 4.x/5.x bug circumvention)",
                     MBEAN_JAVA_LANG_MEMORY);
         }
+
+        //
+        // Bounded worker pool (every target is polled by one thread at a time)
+        //
+        m_searchInterval = config().getLong(CONF_KEY_SEARCH_INTERVAL, DEF_SEARCH_INTERVAL);
+        m_maxBackoff = config().getLong(CONF_KEY_MAX_BACKOFF, DEF_MAX_BACKOFF);
+        int concurrency = config().getInteger(CONF_KEY_MAX_CONCURRENCY, DEF_MAX_CONCURRENCY);
+        m_executor = new ThreadPoolExecutor(
+                concurrency,
+                concurrency,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, m_targets.size())));
+        m_context = vertx.currentContext();
+
+        m_timerId = vertx.setPeriodic(METRICS_INTERVAL_MS, new Handler<Long>() {
+
+            @Override
+            public void handle(final Long timerId) {
+                publishPollMetrics();
+            }
+        });
+    }
+
+    @Override
+    protected void stopFilter() {
+        vertx.cancelTimer(m_timerId);
+        ExecutorService executor = m_executor;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        for (JolokiaTarget target : m_targets) {
+            HttpClient client = target.getClient().getHttpClient();
+            if (client instanceof Closeable) {
+                try {
+                    ((Closeable) client).close();
+                } catch (IOException e) {
+                    logger().debug("Failed to close HTTP client: {}", target.getName(), e);
+                }
+            }
+        }
     }
 
     @Override
     protected void handleTimerEvent() {
         //
-        // Execute requests in a bulk
+        // Poll targets in parallel (targets that are still being polled or
+        // that are backing off are skipped)
         //
         if (!m_config.isEmpty()) {
-            for (J4pClient client : m_clients) {
-                JSONObject json = new JSONObject();
-                try {
-                    URI jolokiaUrl = client.getUri();
-
-                    // Perform a silly java.lang metainfo fetch in case of Jboss 4.x/5.x 
-                    // to avoid InstanceNotFoundException exception...
-                    if (m_fetchJavaLangMbeanMetadata) {
-                        fetchMbeanMetadata(client);
+            long now = System.currentTimeMillis();
+            for (final JolokiaTarget target : m_targets) {
+                if (target.isDue(now) && target.tryAcquire()) {
+                    try {
+                        m_executor.execute(new Runnable() {
+
+                            @Override
+                            public void run() {
+                                try {
+                                    poll(target);
+                                } finally {
+                                    target.release();
+                                }
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        target.release();
+                        logger().warn("Too many pending polls - skipping: {}",
+                                target.getName());
                     }
+                }
+            }
+        }
+    }
 
-                    List<J4pReadRequest> requests = m_config.getRequests();
-                    List<J4pResponse> responses = client.execute(requests);
-                    for (J4pResponse response : responses) {
-
-                        json = response.asJSONObject();
-                        logger().trace("Response: {}", json);
-
-                        //
-                        // Success?
-                        //
-                        if ((long) json.get(JSON_FIELD_STATUS) == 200L) {
-
-                            Map<String, Object> request = (Map) json.get(JSON_FIELD_REQUEST);
-                            String mbean = (String) request.get(JSON_FIELD_MBEAN);
-                            Object attribute = request.get(JSON_FIELD_ATTRIBUTE);
-                            long timestamp = (long) json.get(JSON_FIELD_TIMESTAMP) * 1000L; // ms
-                            Object value = response.getValue();
-
-                            if (attribute instanceof List) {
-                                List<String> attributes = (List) attribute;
-                                for (String attrName : attributes) {
-
-                                    String attr = translateAttribute(attrName);
-                                    if (value instanceof Map) {
-                                        handleResponse(
-                                                jolokiaUrl,
-                                                mbean,
-                                                attr,
-                                                ((Map) value).get(attrName),
-                                                timestamp);
-                                    } else {
-                                        // Single value
-                                        handleResponse(
-                                                jolokiaUrl,
-                                                mbean,
-                                                attr,
-                                                value,
-                                                timestamp);
-                                    }
-                                }
-                            } else {
+    private void poll(final JolokiaTarget target) {
 
-                                String attrName = (String) attribute;
-                                String attr = translateAttribute(attrName);
-                                if (value instanceof Map) {
-                                    handleResponse(
-                                            jolokiaUrl,
-                                            mbean,
-                                            attr,
-                                            ((Map) value).get(attrName),
-                                            timestamp);
-                                } else {
-                                    // Single value
-                                    handleResponse(
-                                            jolokiaUrl,
-                                            mbean,
-                                            attr,
-                                            value,
-                                            timestamp);
-                                }
+        J4pClient client = target.getClient();
+        URI jolokiaUrl = client.getUri();
+        long start = System.currentTimeMillis();
+        final JsonArray events = new JsonArray();
+        JSONObject json = new JSONObject();
+
+        try {
+            // Perform a silly java.lang metainfo fetch in case of Jboss 4.x/5.x 
+            // to avoid InstanceNotFoundException exception...
+            if (m_fetchJavaLangMbeanMetadata) {
+                fetchMbeanMetadata(client);
+            }
+
+            // Refresh MBean search results on a slower cadence
+            if (m_config.hasPatterns()
+                    && target.isSearchDue(start, m_searchInterval)) {
+                searchMbeans(target, start);
+            }
+
+            List<J4pReadRequest> requests = new ArrayList(m_config.getRequests());
+            requests.addAll(target.getSearchRequests());
+
+            List<J4pResponse> responses;
+            try {
+                responses = client.execute(requests);
+            } catch (J4pBulkRemoteException e) {
+                // Some MBeans failed (eg. unregistered) - use the others
+                logger().debug("Failed to read {} MBeans of {}",
+                        e.getRemoteExceptions().size(), target.getName());
+                responses = e.getResponses();
+                target.invalidateSearch();
+            }
+
+            for (J4pResponse response : responses) {
+
+                json = response.asJSONObject();
+                logger().trace("Response: {}", json);
+
+                //
+                // Success?
+                //
+                if ((long) json.get(JSON_FIELD_STATUS) == 200L) {
+
+                    Map<String, Object> request = (Map) json.get(JSON_FIELD_REQUEST);
+                    String mbean = (String) request.get(JSON_FIELD_MBEAN);
+                    Object attribute = request.get(JSON_FIELD_ATTRIBUTE);
+                    long timestamp = (long) json.get(JSON_FIELD_TIMESTAMP) * 1000L; // ms
+                    Object value = response.getValue();
+                    String pattern = target.getPattern(mbean);
+
+                    if (attribute instanceof List) {
+                        List<String> attributes = (List) attribute;
+                        for (String attrName : attributes) {
+
+                            String attr = translateAttribute(attrName);
+                            if (value instanceof Map) {
+                                handleResponse(
+                                        events,
+                                        jolokiaUrl,
+                                        mbean,
+                                        pattern,
+                                        attr,
+                                        ((Map) value).get(attrName),
+                                        timestamp);
+                            } else {
+                                // Single value
+                                handleResponse(
+                                        events,
+                                        jolokiaUrl,
+                                        mbean,
+                                        pattern,
+                                        attr,
+                                        value,
+                                        timestamp);
                             }
                         }
+                    } else {
+
+                        String attrName = (String) attribute;
+                        String attr = translateAttribute(attrName);
+                        if (value instanceof Map) {
+                            handleResponse(
+                                    events,
+                                    jolokiaUrl,
+                                    mbean,
+                                    pattern,
+                                    attr,
+                                    ((Map) value).get(attrName),
+                                    timestamp);
+                        } else {
+                            // Single value
+                            handleResponse(
+                                    events,
+                                    jolokiaUrl,
+                                    mbean,
+                                    pattern,
+                                    attr,
+                                    value,
+                                    timestamp);
+                        }
                     }
-                } catch (J4pException e) {
-                    logger().error("Failed to execute Jolokia requests - response: "
-                            + json, e);
                 }
             }
+
+            target.succeeded(System.currentTimeMillis() - start);
+
+        } catch (J4pException e) {
+            long now = System.currentTimeMillis();
+            long delay = target.failed(now, now - start, updateInterval(), m_maxBackoff);
+            if (target.getConsecutiveFailures() == 1) {
+                logger().error("Failed to execute Jolokia requests - response: "
+                        + json, e);
+            } else {
+                logger().debug("Polling {} failed {} times - next poll in {} ms",
+                        target.getName(), target.getConsecutiveFailures(), delay);
+            }
+        } catch (RuntimeException e) {
+            // Unexpected response content (eg. missing value or wrong type)
+            long now = System.currentTimeMillis();
+            long delay = target.failed(now, now - start, updateInterval(), m_maxBackoff);
+            logger().error("Failed to handle Jolokia response of {} - next poll in {} ms",
+                    target.getName(), delay, e);
+        }
+
+        //
+        // Emit events on the verticle context
+        //
+        if (events.size() > 0) {
+            m_context.runOnContext(new Handler<Void>() {
+
+                @Override
+                public void handle(final Void event) {
+                    emitJolokiaEvents(events);
+                }
+            });
+        }
+    }
+
+    private void searchMbeans(
+            final JolokiaTarget target,
+            final long now) throws J4pException {
+
+        List<J4pReadRequest> requests = new ArrayList();
+        Map<String, String> patterns = new HashMap();
+        for (MbeanPattern pattern : m_config.getPatterns()) {
+            try {
+                J4pSearchResponse response = target.getClient().execute(
+                        new J4pSearchRequest(pattern.getPattern()));
+                for (String mbean : response.getMBeanNames()) {
+                    requests.add(createReadRequest(
+                            mbean,
+                            pattern.getAttributes(),
+                            pattern.getPath()));
+                    patterns.put(mbean, pattern.getPattern());
+                }
+            } catch (MalformedObjectNameException e) {
+                logger().error("Invalid MBean pattern: {}", pattern.getPattern(), e);
+            }
+        }
+        logger().debug("Found {} MBeans from {}", requests.size(), target.getName());
+        target.setSearchResults(requests, patterns, now);
+    }
+
+    private void publishPollMetrics() {
+        for (JolokiaTarget target : m_targets) {
+            String instance = target.getName();
+            LatencyHistogram latency = target.getLatency();
+            publishMetric(METRIC_POLLS, instance, target.getPolls(), DSTYPE_COUNTER);
+            publishMetric(METRIC_FAILURES, instance, target.getFailures(), DSTYPE_COUNTER);
+            publishMetric(METRIC_LATENCY_P50, instance, latency.getQuantile(0.5d), DSTYPE_GAUGE);
+            publishMetric(METRIC_LATENCY_P99, instance, latency.getQuantile(0.99d), DSTYPE_GAUGE);
+            publishMetric(METRIC_LATENCY_MAX, instance, latency.getMax(), DSTYPE_GAUGE);
+            latency.reset(); // Latency of the last publish interval only
         }
     }
 
     private void handleResponse(
+            final JsonArray events,
             final URI jolokiaUrl,
             final String mbean,
+            final String pattern,
             final String subgroup,
             final Object value,
             final long timestamp) {
@@ -268,8 +486,10 @@ public final class Jolokia extends AbstractFilter {
 
                 String key = translateAttribute(entry.getKey()); // attribute
                 handleResponse(
+                        events,
                         jolokiaUrl,
                         mbean,
+                        pattern,
                         concatSubgroup(subgroup, key),
                         entry.getValue(),
                         timestamp);
@@ -278,14 +498,14 @@ public final class Jolokia extends AbstractFilter {
         } else {
 
             String dsname = resolveMetricName(mbean);
-            String dstype = m_config.getDstype(mbean, subgroup);
-            emitJolokiaEvent(
+            String dstype = m_config.getDstype(pattern, subgroup);
+            events.addObject(createJolokiaEvent(
                     jolokiaUrl,
                     dsname,
                     dstype,
                     subgroup,
                     value,
-                    timestamp);
+                    timestamp));
         }
     }
 
@@ -361,7 +581,7 @@ public final class Jolokia extends AbstractFilter {
         return attribute.toString();
     }
 
-    private void emitJolokiaEvent(
+    private JsonObject createJolokiaEvent(
             final URI jolokiaUrl,
             final String dsname,
             final String dstype,
@@ -384,19 +604,39 @@ public final class Jolokia extends AbstractFilter {
                 "-",
                 updateInterval(),
                 getNumValue(dstype, value));
-        //
-        // Default modifier
-        //
+        return event;
+    }
+
+    private void emitJolokiaEvents(final JsonArray events) {
         Map<String, Modifier> actions = m_actions;
         Modifier defModifier = actions.get(DEFAULT_MODIFIER);
-        if (defModifier != null) {
-            logger().trace("Applying default modifier: {}", defModifier);
-            defModifier.handle(event);
+        for (int i = 0; i < events.size(); i++) {
+            JsonObject event = events.get(i);
+            //
+            // Default modifier
+            //
+            if (defModifier != null) {
+                logger().trace("Applying default modifier: {}", defModifier);
+                defModifier.handle(event);
+            }
+            //
+            // Forward event
+            //
+            emitEvent(event);
         }
-        //
-        // Forward event
-        //
-        emitEvent(event);
+    }
+
+    private J4pReadRequest createReadRequest(
+            final String mbean,
+            final String[] attributes,
+            final String path) throws MalformedObjectNameException {
+
+        J4pReadRequest readRequest = new J4pReadRequest(mbean, attributes);
+        if (!Strings.isNullOrEmpty(path)) {
+            logger().debug("Request path: {}", path);
+            readRequest.setPath(path);
+        }
+        return readRequest;
     }
 
     private Object getNumValue(
@@ -443,15 +683,33 @@ public final class Jolokia extends AbstractFilter {
     private static class RequestConfig {
 
         private final List<J4pReadRequest> m_requests;
+        private final List<MbeanPattern> m_patterns;
         private final Map<String, Map<String, Object>> m_dstypes;
 
         private RequestConfig() {
             m_requests = new ArrayList();
+            m_patterns = new ArrayList();
             m_dstypes = new HashMap();
         }
 
         private boolean isEmpty() {
-            return m_requests.isEmpty();
+            return m_requests.isEmpty() && m_patterns.isEmpty();
+        }
+
+        private boolean hasPatterns() {
+            return !m_patterns.isEmpty();
+        }
+
+        private List<MbeanPattern> getPatterns() {
+            return m_patterns;
+        }
+
+        private void addPattern(
+                final String pattern,
+                final String[] attributes,
+                final String path) {
+
+            m_patterns.add(new MbeanPattern(pattern, attributes, path));
         }
 
         private String getDstype(
@@ -486,4 +744,33 @@ public final class Jolokia extends AbstractFilter {
             }
         }
     }
+
+    private static class MbeanPattern {
+
+        private final String m_pattern;
+        private final String[] m_attributes;
+        private final String m_path;
+
+        private MbeanPattern(
+                final String pattern,
+                final String[] attributes,
+                final String path) {
+
+            m_pattern = pattern;
+            m_attributes = attributes;
+            m_path = path;
+        }
+
+        private String getPattern() {
+            return m_pattern;
+        }
+
+        private String[] getAttributes() {
+            return m_attributes;
+        }
+
+        private String getPath() {
+            return m_path;
+        }
+    }
 }
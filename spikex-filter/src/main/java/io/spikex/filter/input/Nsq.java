@@ -24,7 +24,11 @@ import com.github.brainlag.nsq.callbacks.NSQMessageCallback;
 import com.github.brainlag.nsq.exceptions.NSQException;
 import com.google.common.base.Preconditions;
 import io.spikex.core.AbstractFilter;
+import static io.spikex.core.helper.Events.EVENT_FIELD_ACK_ADDRESS;
+import static io.spikex.core.helper.Events.EVENT_FIELD_ACK_ID;
+import static io.spikex.core.helper.Events.EVENT_FIELD_ACK_STATUS;
 import io.spikex.filter.internal.NsqClientConfig;
+import io.spikex.filter.internal.NsqInFlight;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
@@ -32,18 +36,34 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.vertx.java.core.Handler;
 import org.vertx.java.core.eventbus.EventBus;
+import org.vertx.java.core.eventbus.Message;
 import org.vertx.java.core.json.JsonObject;
 
 /**
+ * NSQ consumer.
+ * <p>
+ * By default messages are finished (FIN) as soon as they have been published
+ * to the next filter. In the "downstream" acknowledgement mode messages are
+ * finished only after the terminal filter of the chain (configured with
+ * "ack-events": true) has acknowledged the event. Messages that are not
+ * acknowledged within "ack-timeout" or that fail are requeued (REQ). The number
+ * of in-flight messages adapts to the acknowledgement rate of the chain and
+ * never exceeds "max-in-flight". The consumer thread pool is resized between
+ * "core-pool-size" and "max-pool-size" based on observed processing latency.
  *
  * @author cli
  */
 public final class Nsq extends AbstractFilter {
 
-    private List<NSQConsumer> m_consumers;
+    private List<ConsumerContext> m_consumers;
+    private long m_timerId;
+
+    private static final long MONITOR_INTERVAL = 1000L; // ms
 
     @Override
     protected void startFilter() {
@@ -67,12 +87,27 @@ public final class Nsq extends AbstractFilter {
                 throw new IllegalArgumentException("No channel definied for topic: " + topic);
             }
 
-            logger().info("Creating consumer for topic: {} channel: {}", topic, channel);
+            NsqInFlight inFlight = null;
+            if (config.isAckDownstream()) {
+                inFlight = new NsqInFlight(config.getMaxInFlight(), config.getAckTimeout());
+                logger().info("Creating consumer for topic: {} channel: {} "
+                        + "(downstream ack, max-in-flight: {} ack-timeout: {})",
+                        topic, channel, config.getMaxInFlight(), config.getAckTimeout());
+            } else {
+                logger().info("Creating consumer for topic: {} channel: {}", topic, channel);
+            }
+
+            NsqMessageHandler handler = new NsqMessageHandler(
+                    eventBus(),
+                    getDestinationAddress(),
+                    address(),
+                    inFlight);
+
             NSQConsumer consumer = new NSQConsumer(
                     config.buildNSQLookup(),
                     topic,
                     channel,
-                    new NsqMessageHandler(eventBus(), getDestinationAddress()),
+                    handler,
                     config.buildNSQConfig(variables()),
                     new NSQErrorCallback() {
 
@@ -83,28 +118,50 @@ public final class Nsq extends AbstractFilter {
                         }
                     });
 
-            m_consumers.add(consumer);
             consumer.setMessagesPerBatch(config.getMessagesPerBatch());
             consumer.setLookupPeriod(config.getLookupPeriod());
 
             BlockingQueue<Runnable> messageQueue = new LinkedBlockingQueue(config.getMessagesQueueSize());
-            consumer.setExecutor(
-                    new ThreadPoolExecutor(
-                            config.getCorePoolSize(),
-                            config.getMaxPoolSize(),
-                            config.getIdleThreadKeepAliveTime(),
-                            TimeUnit.MILLISECONDS,
-                            messageQueue));
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    config.getCorePoolSize(),
+                    config.getMaxPoolSize(),
+                    config.getIdleThreadKeepAliveTime(),
+                    TimeUnit.MILLISECONDS,
+                    messageQueue);
+            consumer.setExecutor(executor);
+
+            m_consumers.add(new ConsumerContext(
+                    topic,
+                    consumer,
+                    executor,
+                    handler,
+                    config.getCorePoolSize(),
+                    config.getMaxPoolSize(),
+                    config.getMessagesPerBatch()));
+
             consumer.start();
         }
+
+        // Requeue expired messages and resize consumer thread pools
+        m_timerId = vertx.setPeriodic(MONITOR_INTERVAL, new Handler<Long>() {
+
+            @Override
+            public void handle(final Long timerId) {
+                for (ConsumerContext ctx : m_consumers) {
+                    ctx.monitor(logger());
+                }
+            }
+        });
     }
 
     @Override
     protected void stopFilter() {
+        vertx.cancelTimer(m_timerId);
         if (m_consumers != null) {
-            for (NSQConsumer consumer : m_consumers) {
+            for (ConsumerContext ctx : m_consumers) {
                 try {
-                    consumer.shutdown();
+                    ctx.getConsumer().shutdown();
+                    ctx.getHandler().requeueAll();
                 } catch (Exception e) {
                     logger().error("Failed to shutdown NSQ consumer", e);
                 }
@@ -112,30 +169,198 @@ public final class Nsq extends AbstractFilter {
         }
     }
 
+    @Override
+    protected void handleMessage(final Message message) {
+        //
+        // Acknowledgement from the terminal filter
+        //
+        Object body = message.body();
+        if (body instanceof JsonObject) {
+            JsonObject ack = (JsonObject) body;
+            String ackId = ack.getString(EVENT_FIELD_ACK_ID);
+            boolean success = ack.getBoolean(EVENT_FIELD_ACK_STATUS, false);
+            if (ackId != null) {
+                for (ConsumerContext ctx : m_consumers) {
+                    if (ctx.getHandler().acknowledge(ackId, success)) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class ConsumerContext {
+
+        private final String m_topic;
+        private final NSQConsumer m_consumer;
+        private final ThreadPoolExecutor m_executor;
+        private final NsqMessageHandler m_handler;
+        private final int m_minPoolSize;
+        private final int m_maxPoolSize;
+        private int m_msgPerBatch;
+        private long m_lastCheck;
+
+        private ConsumerContext(
+                final String topic,
+                final NSQConsumer consumer,
+                final ThreadPoolExecutor executor,
+                final NsqMessageHandler handler,
+                final int minPoolSize,
+                final int maxPoolSize,
+                final int msgPerBatch) {
+
+            m_topic = topic;
+            m_consumer = consumer;
+            m_executor = executor;
+            m_handler = handler;
+            m_minPoolSize = minPoolSize;
+            m_maxPoolSize = Math.max(minPoolSize, maxPoolSize);
+            m_msgPerBatch = msgPerBatch;
+            m_lastCheck = System.nanoTime();
+        }
+
+        private NSQConsumer getConsumer() {
+            return m_consumer;
+        }
+
+        private NsqMessageHandler getHandler() {
+            return m_handler;
+        }
+
+        private void monitor(final Logger logger) {
+            //
+            // Requeue messages that were not acknowledged in time
+            //
+            NsqInFlight inFlight = m_handler.getInFlight();
+            if (inFlight != null) {
+                int count = inFlight.requeueExpired(System.currentTimeMillis());
+                if (count > 0) {
+                    logger.warn("Requeued {} unacknowledged messages of topic: {} "
+                            + "(in-flight limit: {})", count, m_topic, inFlight.getLimit());
+                }
+                //
+                // Follow downstream capacity (RDY count)
+                //
+                int limit = inFlight.getLimit();
+                if (limit != m_msgPerBatch) {
+                    m_msgPerBatch = limit;
+                    m_consumer.setMessagesPerBatch(limit);
+                }
+            }
+            //
+            // Size thread pool based on the average number of busy threads
+            // during the last interval (Little's law) with 50% headroom
+            //
+            long now = System.nanoTime();
+            long elapsed = now - m_lastCheck;
+            m_lastCheck = now;
+            if (elapsed > 0L) {
+                double busy = (double) m_handler.drainBusyTime() / (double) elapsed;
+                int size = (int) Math.ceil(busy * 1.5d);
+                size = Math.max(m_minPoolSize, Math.min(m_maxPoolSize, size));
+                if (size != m_executor.getCorePoolSize()) {
+                    logger.debug("Resizing consumer thread pool of topic: {} from {} to {}",
+                            m_topic, m_executor.getCorePoolSize(), size);
+                    m_executor.setCorePoolSize(size);
+                }
+            }
+        }
+    }
+
     private static class NsqMessageHandler implements NSQMessageCallback {
 
         private final EventBus m_eventBus;
         private final String m_address;
+        private final String m_ackAddress;
+        private final NsqInFlight m_inFlight; // null if auto ack
+        private final AtomicLong m_busyTime; // ns
         private final Logger m_logger = LoggerFactory.getLogger(NsqMessageHandler.class);
 
         private NsqMessageHandler(
                 final EventBus eventBus,
-                final String address) {
+                final String address,
+                final String ackAddress,
+                final NsqInFlight inFlight) {
 
             m_eventBus = eventBus;
             m_address = address;
+            m_ackAddress = ackAddress;
+            m_inFlight = inFlight;
+            m_busyTime = new AtomicLong();
+        }
+
+        private NsqInFlight getInFlight() {
+            return m_inFlight;
+        }
+
+        private long drainBusyTime() {
+            return m_busyTime.getAndSet(0L);
+        }
+
+        private boolean acknowledge(
+                final String ackId,
+                final boolean success) {
+
+            NsqInFlight inFlight = m_inFlight;
+            if (inFlight != null) {
+                NSQMessage message = inFlight.release(ackId, success);
+                if (message != null) {
+                    if (success) {
+                        message.finished();
+                    } else {
+                        m_logger.debug("Event handling failed, requeuing NSQ message: {}", ackId);
+                        message.requeue();
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void requeueAll() {
+            NsqInFlight inFlight = m_inFlight;
+            if (inFlight != null) {
+                inFlight.requeueAll();
+            }
         }
 
         @Override
         public void message(final NSQMessage message) {
 
+            long start = System.nanoTime();
             String id = new String(message.getId(), StandardCharsets.UTF_8);
             String body = new String(message.getMessage(), StandardCharsets.UTF_8);
             JsonObject json = new JsonObject(body);
 
-            m_logger.trace("Received NSQ message {}: {} - publishing on {}", id, json, m_address);
-            m_eventBus.publish(m_address, json);
-            message.finished(); // Signal that we're done...
+            NsqInFlight inFlight = m_inFlight;
+            if (inFlight == null) {
+                m_logger.trace("Received NSQ message {}: {} - publishing on {}", id, json, m_address);
+                m_eventBus.publish(m_address, json);
+                message.finished(); // Signal that we're done...
+            } else {
+                //
+                // Wait until downstream has capacity (not counted as busy time)
+                //
+                m_busyTime.addAndGet(System.nanoTime() - start);
+                try {
+                    if (!inFlight.acquire(id, message, inFlight.getTimeout())) {
+                        m_logger.debug("Downstream saturated, requeuing NSQ message: {}", id);
+                        message.requeue();
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    message.requeue();
+                    return;
+                }
+                start = System.nanoTime();
+                json.putString(EVENT_FIELD_ACK_ADDRESS, m_ackAddress);
+                json.putString(EVENT_FIELD_ACK_ID, id);
+                m_logger.trace("Received NSQ message {}: {} - publishing on {} (in-flight: {})",
+                        id, json, m_address, inFlight.size());
+                m_eventBus.publish(m_address, json);
+            }
+            m_busyTime.addAndGet(System.nanoTime() - start);
         }
     }
 }
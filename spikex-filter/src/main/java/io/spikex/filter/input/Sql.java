@@ -27,35 +27,70 @@ import io.spikex.core.helper.Events;
 import static io.spikex.core.helper.Events.DSTIME_PRECISION_MIN;
 import static io.spikex.core.helper.Events.TIMEZONE_UTC;
 import io.spikex.filter.internal.Modifier;
+import io.spikex.filter.internal.SqlHighWaterMarks;
+import io.spikex.filter.internal.SqlQuery;
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
 import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import org.sql2o.Connection;
 import org.sql2o.Sql2o;
-import org.sql2o.data.Column;
-import org.sql2o.data.Row;
-import org.sql2o.data.Table;
 import org.sql2o.quirks.Db2Quirks;
 import org.sql2o.quirks.NoQuirks;
 import org.sql2o.quirks.OracleQuirks;
 import org.sql2o.quirks.PostgresQuirks;
 import org.sql2o.quirks.Quirks;
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
 /**
+ * Reads events from a database. The configured queries are executed on a
+ * bounded worker pool ("worker-threads", by default the size of the
+ * connection pool) and the rows are streamed with the given "fetch-size".
+ * Events are created as rows arrive and emitted on the verticle context.
+ * <p>
+ * A query with a "hwm-column" is incremental: the largest value of the
+ * column (eg. an id or timestamp) is persisted under the data directory
+ * and bound to the <code>:hwm</code> parameters of the next execution
+ * ("hwm-initial" on the first execution). Example query:
+ * <pre>
+ *  {
+ *      "name": "new-metrics",
+ *      "sql": "SELECT * FROM metrics WHERE id > :hwm ORDER BY id",
+ *      "hwm-column": "id",
+ *      "fetch-size": 500
+ *  }
+ * </pre>
  *
  * @author cli
  */
 public final class Sql extends AbstractFilter {
 
     private Sql2o m_sql2o;
+    private SqlHighWaterMarks m_marks;
+    private ExecutorService m_executor;
+    private Context m_context;
+
+    private final List<SqlQuery> m_queries;
+    private final Map<String, String> m_precisions; // query name => precision
+    private final Map<String, Object> m_initialMarks; // query name => value
 
     private final Map<String, Modifier> m_actions; // action-id => action
 
@@ -82,6 +117,10 @@ public final class Sql extends AbstractFilter {
     private static final String CONF_KEY_NAME = "name";
     private static final String CONF_KEY_TIMESTAMP_PRECISION = "timestamp-precision";
     private static final String CONF_KEY_SQL = "sql";
+    private static final String CONF_KEY_FETCH_SIZE = "fetch-size";
+    private static final String CONF_KEY_HWM_COLUMN = "hwm-column";
+    private static final String CONF_KEY_HWM_INITIAL = "hwm-initial";
+    private static final String CONF_KEY_WORKER_THREADS = "worker-threads";
 
     private static final long DEF_CONN_TIMEOUT = TimeUnit.SECONDS.toMillis(30); // 30 sec
     private static final long DEF_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(10); // 10 min
@@ -91,6 +130,12 @@ public final class Sql extends AbstractFilter {
     private static final boolean DEF_INIT_FAIL_FAST = true;
     private static final boolean DEF_BOOTSTRAP_IGNORE_ERRORS = false;
     private static final String DEF_TIMESTAMP_PRECISION = DSTIME_PRECISION_MIN; // Minutes
+    private static final int DEF_FETCH_SIZE = 1000; // rows
+    private static final Long DEF_HWM_INITIAL = 0L;
+
+    private static final int MAX_PENDING_CHUNKS = 4;
+    private static final String SQL_DIR = "sql";
+    private static final String HWM_SUFFIX = "-hwm.json";
 
     private static final String COLUMN_HOST = "host";
     private static final String COLUMN_VALUE = "value";
@@ -110,6 +155,9 @@ public final class Sql extends AbstractFilter {
 
     public Sql() {
         m_actions = new HashMap();
+        m_queries = new ArrayList();
+        m_precisions = new HashMap();
+        m_initialMarks = new HashMap();
     }
 
     @Override
@@ -210,132 +258,302 @@ public final class Sql extends AbstractFilter {
                     (String) variables().translate(bootstrapFile),
                     bootstrapIgnoreErrors);
         }
+
+        //
+        // Queries
+        //
+        int defFetchSize = config().getInteger(CONF_KEY_FETCH_SIZE, DEF_FETCH_SIZE);
+        JsonArray queries = config().getArray(CONF_KEY_QUERIES, new JsonArray());
+        m_queries.clear();
+        m_precisions.clear();
+        m_initialMarks.clear();
+        for (int i = 0; i < queries.size(); i++) {
+            JsonObject query = queries.get(i);
+            String sql = query.getString(CONF_KEY_SQL);
+            String name = query.getString(CONF_KEY_NAME, sql);
+            m_queries.add(new SqlQuery(
+                    name,
+                    sql,
+                    query.getInteger(CONF_KEY_FETCH_SIZE, defFetchSize),
+                    query.getString(CONF_KEY_HWM_COLUMN)));
+            m_precisions.put(name, query.getString(CONF_KEY_TIMESTAMP_PRECISION,
+                    DEF_TIMESTAMP_PRECISION));
+            Object initial = query.getValue(CONF_KEY_HWM_INITIAL);
+            m_initialMarks.put(name, (initial != null ? initial : DEF_HWM_INITIAL));
+        }
+
+        //
+        // High-water marks of incremental queries
+        //
+        String chain = getChainName() != null ? getChainName() : getName();
+        m_marks = new SqlHighWaterMarks(
+                dataPath().resolve(SQL_DIR).resolve(chain.toLowerCase() + HWM_SUFFIX));
+        try {
+            m_marks.load();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to load high-water marks: "
+                    + m_marks.getFile(), e);
+        }
+
+        //
+        // Bounded worker pool (queries are executed in parallel up to the
+        // connection pool size by default)
+        //
+        int poolSize = 1;
+        if (dataSource != null) {
+            poolSize = dataSource.getMaximumPoolSize();
+        }
+        int threads = config().getInteger(CONF_KEY_WORKER_THREADS, poolSize);
+        m_executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, m_queries.size())));
+        m_context = vertx.currentContext();
+    }
+
+    @Override
+    protected void stopFilter() {
+        ExecutorService executor = m_executor;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (m_sql2o != null
+                && m_sql2o.getDataSource() instanceof HikariDataSource) {
+            ((HikariDataSource) m_sql2o.getDataSource()).close();
+        }
     }
 
     @Override
     protected void handleTimerEvent() {
+        //
+        // Run queries on the worker pool (a query that is still running
+        // from the previous round is skipped)
+        //
+        for (final SqlQuery query : m_queries) {
+            if (query.tryAcquire()) {
+                try {
+                    m_executor.execute(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            try {
+                                executeQuery(query);
+                            } finally {
+                                query.release();
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    query.release();
+                    logger().warn("Too many pending queries - skipping: {}",
+                            query.getName());
+                }
+            } else {
+                logger().debug("Query is still running - skipping: {}",
+                        query.getName());
+            }
+        }
+    }
 
-        JsonArray queries = config().getArray(CONF_KEY_QUERIES, new JsonArray());
-        try (Connection con = m_sql2o.open()) {
-            for (int i = 0; i < queries.size(); i++) {
+    private void executeQuery(final SqlQuery query) {
+
+        String name = query.getName();
+        Object hwm = null;
+        if (query.isIncremental()) {
+            hwm = m_marks.get(name);
+            if (hwm == null) {
+                hwm = m_initialMarks.get(name);
+            }
+        }
 
-                JsonObject query = queries.get(i);
-                String sql = query.getString(CONF_KEY_SQL);
-                String name = query.getString(CONF_KEY_NAME, sql);
-                String precision = query.getString(CONF_KEY_TIMESTAMP_PRECISION,
-                        DEF_TIMESTAMP_PRECISION);
+        RowHandler handler = new RowHandler(m_precisions.get(name), query.getFetchSize());
+        try (java.sql.Connection con = m_sql2o.getDataSource().getConnection()) {
 
-                try {
-                    Table result = con.createQuery(sql, name).executeAndFetchTable();
-                    emitSqlEvents(result, precision);
+            Object mark = query.execute(con, hwm, handler);
+            handler.flush();
 
-                } catch (Exception e) {
-                    logger().error("Failed to execute {}: {}", name, sql, e);
-                }
+            //
+            // Persist the new high-water mark after all events have been
+            // emitted
+            //
+            if (query.isIncremental() && mark != null && !mark.equals(hwm)) {
+                handler.awaitEmitted();
+                m_marks.update(name, mark);
+                logger().debug("New high-water mark of {}: {}", name, mark);
             }
-            con.close();
-
-        } catch (Exception e) {
-            logger().error("Failed to open connection", e);
+        } catch (SQLException | RuntimeException e) {
+            // Eg. unexpected column types or missing columns
+            logger().error("Failed to execute {}: {}", name, query.getSql(), e);
+        } catch (IOException e) {
+            logger().error("Failed to save high-water marks: {}", m_marks.getFile(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    private void emitSqlEvents(
-            final Table result,
-            final String precision) {
+    /**
+     * Creates events of result set rows on a worker thread and hands them
+     * to the verticle context in chunks of the fetch size. The amount of
+     * pending chunks is bounded.
+     */
+    private final class RowHandler implements Handler<ResultSet> {
+
+        private final String m_precision;
+        private final int m_chunkSize;
+        private final Semaphore m_pending;
+        private JsonArray m_events;
+
+        // Columns (resolved on first row)
+        private boolean m_resolved;
+        private boolean m_hasHost;
+        private boolean m_hasTimestamp;
+        private boolean m_hasPrecision;
+        private boolean m_hasTimezone;
+        private boolean m_hasInstance;
+        private boolean m_hasSubgroup;
+        private final List<String> m_fields; // Extra fields
+
+        private RowHandler(
+                final String precision,
+                final int chunkSize) {
+
+            m_precision = precision;
+            m_chunkSize = Math.max(1, chunkSize);
+            m_pending = new Semaphore(MAX_PENDING_CHUNKS);
+            m_events = new JsonArray();
+            m_fields = new ArrayList();
+        }
 
-        //
-        // Resolve existence of optional columns
-        //
-        boolean hasHost = false;
-        boolean hasTimestamp = false;
-        boolean hasPrecision = false;
-        boolean hasTimezone = false;
-        boolean hasInstance = false;
-        boolean hasSubgroup = false;
-
-        // Extra fields
-        List<String> fields = new ArrayList();
-
-        for (Column col : result.columns()) {
-            if (!Strings.isNullOrEmpty(col.getName())) {
-                String name = col.getName().toLowerCase();
-                switch (name) {
-                    case COLUMN_HOST:
-                        hasHost = true;
-                        break;
-                    case COLUMN_TIMESTAMP:
-                        hasTimestamp = true;
-                        break;
-                    case COLUMN_DSPRECISION:
-                        hasPrecision = true;
-                        break;
-                    case COLUMN_TIMEZONE:
-                        hasTimezone = true;
-                        break;
-                    case COLUMN_INSTANCE:
-                        hasInstance = true;
-                        break;
-                    case COLUMN_SUBGROUP:
-                        hasSubgroup = true;
-                        break;
-                    default:
-                        if (!COLUMN_VALUE.equals(name)
-                                && !COLUMN_DSNAME.equals(name)
-                                && !COLUMN_DSTYPE.equals(name)) {
-
-                            logger().trace("Found extra field: {}", name);
-                            fields.add(name);
+        @Override
+        public void handle(final ResultSet rs) {
+            try {
+                if (!m_resolved) {
+                    resolveColumns(rs.getMetaData());
+                    m_resolved = true;
+                }
+                m_events.addObject(createEvent(rs));
+                if (m_events.size() >= m_chunkSize) {
+                    flush();
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException("Failed to read row", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while reading rows", e);
+            }
+        }
+
+        private void flush() throws InterruptedException {
+            final JsonArray events = m_events;
+            if (events.size() > 0) {
+                m_events = new JsonArray();
+                m_pending.acquire();
+                m_context.runOnContext(new Handler<Void>() {
+
+                    @Override
+                    public void handle(final Void event) {
+                        try {
+                            emitSqlEvents(events);
+                        } finally {
+                            m_pending.release();
                         }
-                        break;
+                    }
+                });
+            }
+        }
+
+        private void awaitEmitted() throws InterruptedException {
+            m_pending.acquire(MAX_PENDING_CHUNKS);
+            m_pending.release(MAX_PENDING_CHUNKS);
+        }
+
+        private void resolveColumns(final ResultSetMetaData meta) throws SQLException {
+            //
+            // Resolve existence of optional columns
+            //
+            for (int i = 1; i <= meta.getColumnCount(); i++) {
+                String label = meta.getColumnLabel(i);
+                if (!Strings.isNullOrEmpty(label)) {
+                    String name = label.toLowerCase();
+                    switch (name) {
+                        case COLUMN_HOST:
+                            m_hasHost = true;
+                            break;
+                        case COLUMN_TIMESTAMP:
+                            m_hasTimestamp = true;
+                            break;
+                        case COLUMN_DSPRECISION:
+                            m_hasPrecision = true;
+                            break;
+                        case COLUMN_TIMEZONE:
+                            m_hasTimezone = true;
+                            break;
+                        case COLUMN_INSTANCE:
+                            m_hasInstance = true;
+                            break;
+                        case COLUMN_SUBGROUP:
+                            m_hasSubgroup = true;
+                            break;
+                        default:
+                            if (!COLUMN_VALUE.equals(name)
+                                    && !COLUMN_DSNAME.equals(name)
+                                    && !COLUMN_DSTYPE.equals(name)) {
+
+                                logger().trace("Found extra field: {}", name);
+                                m_fields.add(name);
+                            }
+                            break;
+                    }
                 }
             }
         }
 
-        for (Row row : result.rows()) {
+        private JsonObject createEvent(final ResultSet rs) throws SQLException {
             //
             // Mandatory fields
             //
-            Object value = row.getObject(COLUMN_VALUE);
-            String dsname = row.getString(COLUMN_DSNAME);
-            String dstype = row.getString(COLUMN_DSTYPE);
+            Object value = rs.getObject(COLUMN_VALUE);
+            String dsname = rs.getString(COLUMN_DSNAME);
+            String dstype = rs.getString(COLUMN_DSTYPE);
             //
             // Optional fields
             //
             String host = "-";
-            if (hasHost) {
-                host = row.getString(COLUMN_HOST);
+            if (m_hasHost) {
+                host = rs.getString(COLUMN_HOST);
             }
             long timestamp = System.currentTimeMillis();
-            if (hasTimestamp) {
-                Object tm = row.getObject(COLUMN_TIMESTAMP);
-                if (tm instanceof java.sql.Timestamp) {
-                    timestamp = ((java.sql.Timestamp) tm).getTime();
+            if (m_hasTimestamp) {
+                Object tm = rs.getObject(COLUMN_TIMESTAMP);
+                if (tm instanceof java.util.Date) {
+                    timestamp = ((java.util.Date) tm).getTime();
                 } else {
-                    timestamp = (long) tm;
+                    timestamp = ((Number) tm).longValue();
                 }
             }
-            String dsPrecision = precision;
-            if (hasPrecision) {
-                dsPrecision = row.getString(COLUMN_DSPRECISION);
+            String dsPrecision = m_precision;
+            if (m_hasPrecision) {
+                dsPrecision = rs.getString(COLUMN_DSPRECISION);
             }
             String timezone = TIMEZONE_UTC.getId();
-            if (hasTimezone) {
-                timezone = row.getString(COLUMN_TIMEZONE);
+            if (m_hasTimezone) {
+                timezone = rs.getString(COLUMN_TIMEZONE);
             }
             String instance = "-";
-            if (hasInstance) {
-                instance = row.getString(COLUMN_INSTANCE);
+            if (m_hasInstance) {
+                instance = rs.getString(COLUMN_INSTANCE);
             }
             String subgroup = "-";
-            if (hasSubgroup) {
-                subgroup = row.getString(COLUMN_SUBGROUP);
+            if (m_hasSubgroup) {
+                subgroup = rs.getString(COLUMN_SUBGROUP);
             }
             //
             // Create new event per value
             //
             JsonObject event = Events.createMetricEvent(
-                    this,
+                    Sql.this,
                     timestamp,
                     ZoneId.of(timezone),
                     host,
@@ -345,21 +563,28 @@ public final class Sql extends AbstractFilter {
                     subgroup.toLowerCase(),
                     instance,
                     updateInterval(),
-                    value);
+                    toJsonValue(value));
             //
             // Add extra fields (if any)
             //
-            for (String field : fields) {
-                Object extraValue = row.getObject(field);
+            for (String field : m_fields) {
+                Object extraValue = toJsonValue(rs.getObject(field));
                 if (extraValue != null) {
                     event.putValue(field, extraValue);
                 }
             }
+            return event;
+        }
+    }
+
+    private void emitSqlEvents(final JsonArray events) {
+        Map<String, Modifier> actions = m_actions;
+        Modifier defModifier = actions.get(DEFAULT_MODIFIER);
+        for (int i = 0; i < events.size(); i++) {
+            JsonObject event = events.get(i);
             //
             // Default modifier
             //
-            Map<String, Modifier> actions = m_actions;
-            Modifier defModifier = actions.get(DEFAULT_MODIFIER);
             if (defModifier != null) {
                 logger().trace("Applying default modifier: {}", defModifier);
                 defModifier.handle(event);
@@ -371,6 +596,18 @@ public final class Sql extends AbstractFilter {
         }
     }
 
+    private static Object toJsonValue(final Object value) {
+        // JDBC types that JsonObject does not support
+        if (value instanceof java.util.Date) {
+            return ((java.util.Date) value).getTime();
+        } else if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).doubleValue();
+        } else if (value instanceof BigInteger) {
+            return ((BigInteger) value).longValue();
+        }
+        return value;
+    }
+
     private void performBootsrap(
             final Sql2o sql2o,
             final String filename,
@@ -19,26 +19,39 @@ package io.spikex.filter.input;
 
 import com.google.common.base.Preconditions;
 import io.spikex.core.AbstractFilter;
-import io.spikex.filter.internal.AsyncFileWatcher;
+import static io.spikex.core.helper.Events.DSTYPE_COUNTER;
+import static io.spikex.core.helper.Events.DSTYPE_GAUGE;
+import io.spikex.filter.internal.TailFileWatcher;
+import io.spikex.filter.internal.TailOffsetRegistry;
 import io.spikex.filter.internal.VertxFileHandler;
 import static io.spikex.filter.internal.VertxFileHandler.EVENT_ADDRESS;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.Message;
 import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
 
 /**
  * Filter that listens to file changes and emits new rows as events. This is
- * typically used to "tail" log files. It is possible that this filter misses
- * some log lines during log rollover.
+ * typically used to "tail" log files. File offsets are persisted under the
+ * data directory, so that tailing resumes where it stopped after a restart.
+ * Files are identified by device, inode and a fingerprint of their first
+ * bytes. If a file has been rotated, the rest of the rotated file is read
+ * before its replacement. Rotation chains (eg. app.log, app.log.1,
+ * app.log.2.gz) are followed and rotated files that have been compressed with
+ * gzip or LZ4 are decompressed and read from the last known offset.
  * <p>
- * This filter can operate in two different modes: nio and interval. Interval
- * mode is based on a timer that periodically watches for file changes. The nio
- * mode uses the
+ * Paths can be file paths or glob patterns (eg. /var/log/app/*.log). File
+ * changes are detected using the
  * <a href="http://docs.oracle.com/javase/7/docs/api/java/nio/file/WatchService.html">WatchService</a>
- * of Java 7. This mode works well on Windows and Linux. Please note that this
- * filter does not work well on OS X.
+ * of Java 7 (inotify on Linux). Files are also polled as a fallback. The poll
+ * interval of idle files grows up to the maximum poll interval and is reset
+ * when a file changes. Files are kept open while they are active.
  * <p>
  * This filter has been tested on Linux, Windows, Solaris, FreeBSD and OS X.
  * <p>
@@ -60,7 +73,7 @@ import org.vertx.java.core.json.JsonArray;
  * <tr>
  * <td>paths</td>
  * <td>list of strings</td>
- * <td>The list of files to tail.</td>
+ * <td>The list of files or glob patterns to tail.</td>
  * </tr>
  *
  * <tr>
@@ -78,21 +91,59 @@ import org.vertx.java.core.json.JsonArray;
  * </tr>
  *
  * <tr>
- * <td>mode</td>
- * <td>string</td>
- * <td>The mode of tailing. The nio mode works well on Linux, Solaris and
- * Windows. Please consider using the "interval" mode on other platforms. You
- * can set the interval by defining it after the mode string delimited by a
- * colon:
- * <pre>interval:50</pre>. The interval value is in milliseconds and the default
- * value is 150 ms. Default mode is "nio".</td>
+ * <td>interval</td>
+ * <td>integer</td>
+ * <td>The interval of checking for watch events and the minimum poll interval
+ * (ms). Default is 200 ms.</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>use-watch-service</td>
+ * <td>true or false</td>
+ * <td>Use the watch service of the file system as the primary change signal.
+ * Please consider disabling this on platforms where the watch service is
+ * polling based (eg. OS X). Default is true.</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>max-poll-interval</td>
+ * <td>integer</td>
+ * <td>The maximum poll interval of idle files (ms). Default is 10000 ms.</td>
  * </tr>
  *
  * <tr>
- * <td>data-dir</td>
- * <td>directory path</td>
- * <td>The directory where book keeping files are kept. Default is
- * "var/tail"</td>
+ * <td>rescan-interval</td>
+ * <td>integer</td>
+ * <td>The interval of expanding glob patterns to find new files (ms). Default
+ * is 10000 ms.</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>close-inactive</td>
+ * <td>integer</td>
+ * <td>Close files that have not changed during this time (ms). Default is
+ * 300000 ms.</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>start-at-eof</td>
+ * <td>true or false</td>
+ * <td>Start reading new files (files without a persisted offset) from the
+ * end of file. Default is true.</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>sync-interval</td>
+ * <td>integer</td>
+ * <td>The minimum interval between writes of the offset registry (ms).
+ * Default is 1000 ms.</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>offset-retention</td>
+ * <td>integer</td>
+ * <td>Forget the offsets of files that have not been watched or open during
+ * this time (ms). Default is 604800000 ms (7 days).</td>
  * </tr>
  *
  * <tr>
@@ -102,6 +153,44 @@ import org.vertx.java.core.json.JsonArray;
  * </tr>
  *
  * <tr>
+ * <td>max-round-size</td>
+ * <td>integer</td>
+ * <td>The maximum number of bytes read from lagging files per interval. Files
+ * that have fallen behind are read round-robin until they have caught up.
+ * Default is four times the max read size.</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>on-lag</td>
+ * <td>"catch-up" or "skip"</td>
+ * <td>What to do when a file has fallen behind. "catch-up" reads all data
+ * without loss. "skip" jumps over data when the lag exceeds the max lag.
+ * Default is "catch-up".</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>max-lag</td>
+ * <td>integer</td>
+ * <td>The maximum lag (bytes) before skipping data. Used only if on-lag is
+ * "skip". Default is two times the max read size.</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>max-unacked</td>
+ * <td>integer</td>
+ * <td>The maximum number of emitted events that have not been acknowledged by
+ * the terminal filter (see "ack-events"). Reading is paused while the limit
+ * is reached. Zero disables acknowledgements. Default is 0.</td>
+ * </tr>
+ *
+ * <tr>
+ * <td>ack-timeout</td>
+ * <td>integer</td>
+ * <td>Resume reading if no acknowledgements have been received during this
+ * time (ms). Default is 30000 ms.</td>
+ * </tr>
+ *
+ * <tr>
  * <td>tags</td>
  * <td>string</td>
  * <td>Add the listed tags to the event.</td>
@@ -161,10 +250,17 @@ import org.vertx.java.core.json.JsonArray;
 public final class TailFile extends AbstractFilter {
 
     private long m_timerId;
+    private long m_syncTimerId;
 
     // Line handler
     private VertxFileHandler m_fileHandler;
 
+    // File change detection
+    private TailFileWatcher m_watcher;
+
+    // Persistent file offsets
+    private TailOffsetRegistry m_registry;
+
     //
     // Configuration defaults
     //
@@ -173,7 +269,15 @@ public final class TailFile extends AbstractFilter {
     private static final int DEF_MAX_READ_SIZE = 1024 * 1024; // 1 MB
     private static final long DEF_INTERVAL = 200L; // 200 ms
     private static final boolean DEF_START_AT_EOF = true;
-    private static final boolean DEF_READ_CHUNKS = false; // Chunks of max read size
+    private static final String DEF_ON_LAG = "catch-up";
+    private static final int DEF_MAX_UNACKED = 0; // No acknowledgements
+    private static final long DEF_ACK_TIMEOUT = 30000L; // 30 sec
+    private static final long DEF_SYNC_INTERVAL = 1000L; // 1 sec
+    private static final boolean DEF_USE_WATCH_SERVICE = true;
+    private static final long DEF_MAX_POLL_INTERVAL = 10000L; // 10 sec
+    private static final long DEF_RESCAN_INTERVAL = 10000L; // 10 sec
+    private static final long DEF_CLOSE_INACTIVE = 5L * 60L * 1000L; // 5 min
+    private static final long DEF_OFFSET_RETENTION = 7L * 24L * 60L * 60L * 1000L; // 7 days
 
     private static final String CONF_KEY_ENCODING = "encoding";
     private static final String CONF_KEY_DELIMITER = "delimiter";
@@ -182,7 +286,29 @@ public final class TailFile extends AbstractFilter {
     private static final String CONF_KEY_PATHS = "paths";
     private static final String CONF_KEY_INTERVAL = "interval";
     private static final String CONF_KEY_START_AT_EOF = "start-at-eof";
-    private static final String CONF_KEY_READ_CHUNKS = "read-chunks";
+    private static final String CONF_KEY_MAX_ROUND_SIZE = "max-round-size";
+    private static final String CONF_KEY_ON_LAG = "on-lag";
+    private static final String CONF_KEY_MAX_LAG = "max-lag";
+    private static final String CONF_KEY_MAX_UNACKED = "max-unacked";
+    private static final String CONF_KEY_ACK_TIMEOUT = "ack-timeout";
+
+    private static final String ON_LAG_CATCH_UP = "catch-up";
+    private static final String ON_LAG_SKIP = "skip";
+
+    //
+    // Metrics
+    //
+    public static final String METRIC_LAG = "tail.lag";
+    public static final String METRIC_SKIPPED = "tail.skipped";
+    private static final String CONF_KEY_SYNC_INTERVAL = "sync-interval";
+    private static final String CONF_KEY_USE_WATCH_SERVICE = "use-watch-service";
+    private static final String CONF_KEY_MAX_POLL_INTERVAL = "max-poll-interval";
+    private static final String CONF_KEY_RESCAN_INTERVAL = "rescan-interval";
+    private static final String CONF_KEY_CLOSE_INACTIVE = "close-inactive";
+    private static final String CONF_KEY_OFFSET_RETENTION = "offset-retention";
+
+    private static final String TAIL_DIR = "tail";
+    private static final String OFFSETS_SUFFIX = ".offsets";
 
     @Override
     protected void startFilter() {
@@ -192,17 +318,32 @@ public final class TailFile extends AbstractFilter {
         int minReadSize = config().getInteger(CONF_KEY_MIN_READ_SIZE, DEF_MIN_READ_SIZE);
         int maxReadSize = config().getInteger(CONF_KEY_MAX_READ_SIZE, DEF_MAX_READ_SIZE);
         boolean startAtEof = config().getBoolean(CONF_KEY_START_AT_EOF, DEF_START_AT_EOF);
-        boolean readChunks = config().getBoolean(CONF_KEY_READ_CHUNKS, DEF_READ_CHUNKS);
+        long maxRoundSize = config().getLong(CONF_KEY_MAX_ROUND_SIZE, maxReadSize * 4L);
+        String onLag = config().getString(CONF_KEY_ON_LAG, DEF_ON_LAG);
+        long maxLag = config().getLong(CONF_KEY_MAX_LAG, maxReadSize * 2L);
+        int maxUnacked = config().getInteger(CONF_KEY_MAX_UNACKED, DEF_MAX_UNACKED);
+        long ackTimeout = config().getLong(CONF_KEY_ACK_TIMEOUT, DEF_ACK_TIMEOUT);
         JsonArray cfgPaths = config().getArray(CONF_KEY_PATHS);
-        // Watch dir every 150 ms by default
+        // Watch dir every 200 ms by default
         long interval = config().getLong(CONF_KEY_INTERVAL, DEF_INTERVAL);
+        long syncInterval = config().getLong(CONF_KEY_SYNC_INTERVAL, DEF_SYNC_INTERVAL);
+        boolean useWatchService = config().getBoolean(CONF_KEY_USE_WATCH_SERVICE, DEF_USE_WATCH_SERVICE);
+        long maxPollInterval = config().getLong(CONF_KEY_MAX_POLL_INTERVAL, DEF_MAX_POLL_INTERVAL);
+        long rescanInterval = config().getLong(CONF_KEY_RESCAN_INTERVAL, DEF_RESCAN_INTERVAL);
+        final long closeInactive = config().getLong(CONF_KEY_CLOSE_INACTIVE, DEF_CLOSE_INACTIVE);
+        long offsetRetention = config().getLong(CONF_KEY_OFFSET_RETENTION, DEF_OFFSET_RETENTION);
 
         // Sanity checks
         Preconditions.checkArgument(encoding != null && encoding.length() > 0, "encoding cannot be empty");
         Preconditions.checkArgument(delimiter != null && delimiter.length() > 0, "delimiter cannot be empty");
         Preconditions.checkArgument(interval > 0, "interval must be greater than zero");
+        Preconditions.checkArgument(maxPollInterval >= interval, "max-poll-interval must not be less than interval");
         Preconditions.checkArgument(minReadSize > 0, "min-read-size must be greater than zero");
         Preconditions.checkArgument(maxReadSize > 0, "max-read-size must be greater than zero");
+        Preconditions.checkArgument(offsetRetention > 0, "offset-retention must be greater than zero");
+        Preconditions.checkArgument(maxRoundSize >= maxReadSize, "max-round-size must not be less than max-read-size");
+        Preconditions.checkArgument(ON_LAG_CATCH_UP.equals(onLag) || ON_LAG_SKIP.equals(onLag),
+                "on-lag must be \"catch-up\" or \"skip\"");
         Preconditions.checkArgument(cfgPaths != null, "paths must be specified");
         Preconditions.checkArgument(cfgPaths.size() > 0, "please specify at least one path");
 
@@ -214,6 +355,18 @@ public final class TailFile extends AbstractFilter {
             paths.add(path);
         }
 
+        // Persistent offsets (one registry per chain)
+        String name = getChainName() != null ? getChainName() : getName();
+        m_registry = new TailOffsetRegistry(
+                dataPath().resolve(TAIL_DIR).resolve(name.toLowerCase() + OFFSETS_SUFFIX),
+                syncInterval,
+                offsetRetention);
+        try {
+            m_registry.load();
+        } catch (IOException e) {
+            logger().error("Failed to load tail offsets: {}", m_registry.getFile(), e);
+        }
+
         // Start listening to file changes
         if (paths.size() > 0) {
             m_fileHandler = new VertxFileHandler(
@@ -223,20 +376,66 @@ public final class TailFile extends AbstractFilter {
                     delimiter,
                     minReadSize,
                     maxReadSize,
-                    startAtEof);
+                    startAtEof,
+                    m_registry,
+                    maxRoundSize,
+                    ON_LAG_SKIP.equals(onLag),
+                    maxLag,
+                    (maxUnacked > 0 ? address() : null),
+                    maxUnacked,
+                    ackTimeout);
 
             eventBus().registerLocalHandler(EVENT_ADDRESS,
                     m_fileHandler);
 
-            // Timer based tailing
+            // Watch service and adaptive polling
             logger().debug("Tailing files: {}", paths);
-            m_timerId = vertx.setPeriodic(interval,
-                    new AsyncFileWatcher(
-                            eventBus(),
-                            vertx.fileSystem(),
-                            paths,
-                            readChunks,
-                            maxReadSize));
+            m_watcher = new TailFileWatcher(
+                    eventBus(),
+                    paths,
+                    useWatchService,
+                    interval,
+                    maxPollInterval,
+                    rescanInterval);
+            m_watcher.start();
+            m_timerId = vertx.setPeriodic(interval, new Handler<Long>() {
+
+                @Override
+                public void handle(final Long timerId) {
+                    m_watcher.handle(timerId);
+                    m_fileHandler.catchUp(System.currentTimeMillis());
+                }
+            });
+
+            // Batched offset writes
+            m_syncTimerId = vertx.setPeriodic(syncInterval, new Handler<Long>() {
+
+                @Override
+                public void handle(final Long timerId) {
+                    long now = System.currentTimeMillis();
+                    m_fileHandler.closeIdleFiles(now, closeInactive);
+                    publishLagMetrics();
+                    m_registry.refresh(m_fileHandler.getOpenPaths(), now);
+                    m_registry.refresh(watchedPaths(), now);
+                    try {
+                        m_registry.flush(now);
+                    } catch (IOException e) {
+                        logger().error("Failed to save tail offsets: {}",
+                                m_registry.getFile(), e);
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    protected void handleMessage(final Message message) {
+        //
+        // Acknowledgement from the terminal filter
+        //
+        if (m_fileHandler != null
+                && message.body() instanceof JsonObject) {
+            m_fileHandler.acknowledge();
         }
     }
 
@@ -245,8 +444,38 @@ public final class TailFile extends AbstractFilter {
 
         // Stop timer
         vertx.cancelTimer(m_timerId);
+        if (m_watcher != null) {
+            m_watcher.close();
+        }
 
         // Stop listening to changes
-        eventBus().unregisterHandler(EVENT_ADDRESS, m_fileHandler);
+        if (m_fileHandler != null) {
+            eventBus().unregisterHandler(EVENT_ADDRESS, m_fileHandler);
+            m_fileHandler.closeAll();
+        }
+
+        // Save offsets
+        vertx.cancelTimer(m_syncTimerId);
+        try {
+            m_registry.close();
+        } catch (IOException e) {
+            logger().error("Failed to save tail offsets: {}", m_registry.getFile(), e);
+        }
+    }
+
+    private List<String> watchedPaths() {
+        List<String> paths = new ArrayList();
+        for (Path path : m_watcher.getFiles()) {
+            paths.add(path.toString());
+        }
+        return paths;
+    }
+
+    private void publishLagMetrics() {
+        for (Map.Entry<String, Long> entry : m_fileHandler.getLags().entrySet()) {
+            publishMetric(METRIC_LAG, entry.getKey(), entry.getValue(), DSTYPE_GAUGE);
+        }
+        String instance = getChainName() != null ? getChainName() : getName();
+        publishMetric(METRIC_SKIPPED, instance, m_fileHandler.getSkippedBytes(), DSTYPE_COUNTER);
     }
 }
@@ -0,0 +1,291 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import com.google.common.base.Preconditions;
+import static io.spikex.core.helper.Events.EVENT_PRIORITY_HIGH;
+import static io.spikex.core.helper.Events.EVENT_PRIORITY_LOW;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Admission control of HTTP requests. Every client (remote address or
+ * authentication token) has its own token bucket that is refilled at a fixed
+ * rate up to the burst size. A request is admitted if the bucket of the
+ * client has a token and the amount of in-flight requests is below the
+ * global limit.
+ * <p>
+ * When the in-flight requests reach the shedding level, low priority
+ * payloads are shed. Normal priority payloads are shed from the midpoint
+ * between the shedding level and the in-flight limit, and high priority
+ * payloads only at the limit.
+ * <p>
+ * Clients are keyed by the given objects as such (eg. the remote address or
+ * the token string), so distinct clients never share a bucket. Evicted
+ * buckets that have been marked as reported are kept until polled, so that
+ * their published metrics can be removed.
+ * <p>
+ * Not thread-safe. Meant to be used from the event loop of one verticle
+ * instance: decisions need no locks and an admission of a known client does
+ * not allocate.
+ *
+ * @author cli
+ */
+public final class AdmissionControl {
+
+    private final double m_rate; // tokens per nanosecond
+    private final double m_burst;
+    private final int m_maxInFlight;
+    private final int m_shedLevel;
+    private final Map<Object, Bucket> m_buckets;
+    private final List<Bucket> m_evicted;
+
+    private int m_inFlight;
+    private long m_retryAfter; // seconds (of latest rejection)
+
+    public static final int ADMITTED = 0;
+    public static final int REJECTED_RATE = 1;
+    public static final int REJECTED_IN_FLIGHT = 2;
+
+    /**
+     * Creates a new admission control.
+     *
+     * @param rate the allowed requests per second per client (zero or less
+     * for no limit)
+     * @param burst the bucket size (maximum burst) per client
+     * @param maxInFlight the global in-flight request limit (zero or less for
+     * no limit)
+     * @param shedRatio the in-flight ratio (of the limit) at which shedding
+     * of low priority payloads starts
+     * @param maxClients the maximum amount of tracked clients (least
+     * recently seen clients are forgotten)
+     */
+    public AdmissionControl(
+            final double rate,
+            final int burst,
+            final int maxInFlight,
+            final double shedRatio,
+            final int maxClients) {
+
+        Preconditions.checkArgument(rate <= 0.0d || burst >= 1,
+                "burst must be at least one");
+        Preconditions.checkArgument(shedRatio > 0.0d && shedRatio <= 1.0d,
+                "shedRatio must be within ]0, 1]");
+
+        m_rate = rate / 1000000000.0d;
+        m_burst = burst;
+        m_maxInFlight = (maxInFlight > 0 ? maxInFlight : Integer.MAX_VALUE);
+        m_shedLevel = (maxInFlight > 0
+                ? Math.max(1, (int) (maxInFlight * shedRatio))
+                : Integer.MAX_VALUE);
+        m_evicted = new ArrayList();
+        m_buckets = new LinkedHashMap<Object, Bucket>(256, 0.75f, true) {
+
+            private static final long serialVersionUID = -2283205349503811245L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Object, Bucket> eldest) {
+                boolean evict = (size() > maxClients);
+                if (evict && eldest.getValue().isReported()) {
+                    m_evicted.add(eldest.getValue());
+                }
+                return evict;
+            }
+        };
+    }
+
+    public int getInFlight() {
+        return m_inFlight;
+    }
+
+    /**
+     * Returns the suggested retry delay of the latest rejected or shed
+     * request.
+     *
+     * @return the delay in seconds (at least one)
+     */
+    public long getRetryAfter() {
+        return m_retryAfter;
+    }
+
+    public Collection<Bucket> getBuckets() {
+        return Collections.unmodifiableCollection(m_buckets.values());
+    }
+
+    /**
+     * Returns and forgets the evicted buckets that were marked as reported.
+     *
+     * @return the evicted reported buckets since the previous call
+     */
+    public List<Bucket> pollEvicted() {
+        List<Bucket> evicted = new ArrayList(m_evicted);
+        m_evicted.clear();
+        return evicted;
+    }
+
+    /**
+     * Decides whether to admit a new request of the given client. Every
+     * admitted request must be released when it has been handled.
+     *
+     * @param client the client key (compared with equals)
+     * @param now the current time in nanoseconds
+     * @return {@link #ADMITTED}, {@link #REJECTED_RATE} or
+     * {@link #REJECTED_IN_FLIGHT}
+     */
+    public int admit(
+            final Object client,
+            final long now) {
+
+        Bucket bucket = m_buckets.get(client);
+        if (bucket == null) {
+            bucket = new Bucket(client, m_burst, now);
+            m_buckets.put(client, bucket);
+        }
+
+        //
+        // Per-client rate
+        //
+        if (m_rate > 0.0d) {
+            double tokens = Math.min(m_burst,
+                    bucket.m_tokens + (now - bucket.m_refilled) * m_rate);
+            bucket.m_refilled = now;
+            if (tokens < 1.0d) {
+                bucket.m_tokens = tokens;
+                bucket.m_rejected++;
+                m_retryAfter = Math.max(1L,
+                        (long) Math.ceil((1.0d - tokens) / m_rate / 1000000000.0d));
+                return REJECTED_RATE;
+            }
+            bucket.m_tokens = tokens - 1.0d;
+        }
+
+        //
+        // Global in-flight requests
+        //
+        if (m_inFlight >= m_maxInFlight) {
+            bucket.m_rejected++;
+            m_retryAfter = 1L;
+            return REJECTED_IN_FLIGHT;
+        }
+
+        m_inFlight++;
+        bucket.m_admitted++;
+        return ADMITTED;
+    }
+
+    /**
+     * Releases an admitted request.
+     */
+    public void release() {
+        if (m_inFlight > 0) {
+            m_inFlight--;
+        }
+    }
+
+    /**
+     * Returns true if a payload of the given priority should be shed in the
+     * current load. Shed payloads are counted for the client.
+     *
+     * @param client the client key
+     * @param priority the payload priority (null is treated as normal)
+     * @return true if the payload should be dropped
+     */
+    public boolean shed(
+            final Object client,
+            final String priority) {
+
+        int inFlight = m_inFlight;
+        if (inFlight < m_shedLevel) {
+            return false;
+        }
+
+        boolean shed;
+        if (EVENT_PRIORITY_LOW.equals(priority)) {
+            shed = true;
+        } else if (EVENT_PRIORITY_HIGH.equals(priority)) {
+            shed = (inFlight >= m_maxInFlight);
+        } else {
+            shed = (inFlight >= m_shedLevel + (m_maxInFlight - m_shedLevel) / 2);
+        }
+
+        if (shed) {
+            Bucket bucket = m_buckets.get(client);
+            if (bucket != null) {
+                bucket.m_shed++;
+            }
+            m_retryAfter = 1L;
+        }
+        return shed;
+    }
+
+    /**
+     * Token bucket and counters of one client.
+     */
+    public static final class Bucket {
+
+        private final Object m_client;
+        private double m_tokens;
+        private long m_refilled; // ns
+        private long m_admitted;
+        private long m_rejected;
+        private long m_shed;
+        private boolean m_reported;
+
+        private Bucket(
+                final Object client,
+                final double tokens,
+                final long now) {
+
+            m_client = client;
+            m_tokens = tokens;
+            m_refilled = now;
+        }
+
+        public Object getClient() {
+            return m_client;
+        }
+
+        public double getTokens() {
+            return m_tokens;
+        }
+
+        public long getAdmitted() {
+            return m_admitted;
+        }
+
+        public long getRejected() {
+            return m_rejected;
+        }
+
+        public long getShed() {
+            return m_shed;
+        }
+
+        public boolean isReported() {
+            return m_reported;
+        }
+
+        public void setReported(final boolean reported) {
+            m_reported = reported;
+        }
+    }
+}
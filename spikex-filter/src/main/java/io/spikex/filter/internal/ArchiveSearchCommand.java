@@ -0,0 +1,139 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import io.spikex.core.AbstractCommand;
+import io.spikex.core.helper.Commands;
+import static io.spikex.core.helper.Commands.RET_OK;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Searches the event archive for events within a time range that contain all
+ * given keys (@host, @type or @tags values).
+ * <p>
+ * Arguments: from (ms), to (ms), keys (array of strings), max count<br>
+ * Reply: the standard command result with the matching events in "events".
+ * Invalid arguments are replied with an error result.
+ *
+ * @author cli
+ */
+public final class ArchiveSearchCommand extends AbstractCommand {
+
+    private ArchiveStore m_store;
+    private final Logger m_logger = LoggerFactory.getLogger(ArchiveSearchCommand.class);
+
+    public static final String CMD_ARCHIVE_SEARCH = "spikex-archive-search";
+    public static final String CMD_FIELD_EVENTS = "events";
+
+    public static final int ERR_ARCHIVE_SEARCH_FAILED = 70101;
+    public static final int ERR_ARCHIVE_SEARCH_INVALID_ARGS = 70102;
+    public static final String REASON_ARCHIVE_SEARCH_FAILED = "Failed to search archive: ";
+    public static final String REASON_ARCHIVE_SEARCH_INVALID_ARGS = "Invalid archive search arguments: ";
+
+    public ArchiveSearchCommand(
+            final long from,
+            final long to,
+            final JsonArray keys,
+            final int maxCount) {
+
+        super(Commands.jsonCommand(
+                CMD_ARCHIVE_SEARCH,
+                from,
+                to,
+                keys,
+                maxCount));
+    }
+
+    public ArchiveSearchCommand(
+            final ArchiveStore store,
+            final JsonObject json) {
+
+        super(json);
+        m_store = store;
+    }
+
+    @Override
+    public void execute(final Message message) {
+
+        JsonArray args = validArgs();
+        if (args == null) {
+            m_logger.warn("Invalid archive search arguments: {}", toJson());
+            message.reply(Commands.result(
+                    ERR_ARCHIVE_SEARCH_INVALID_ARGS,
+                    REASON_ARCHIVE_SEARCH_INVALID_ARGS
+                    + "expected from (ms), to (ms), keys (array) and max count (> 0)"));
+            return;
+        }
+
+        long from = ((Number) args.get(0)).longValue();
+        long to = ((Number) args.get(1)).longValue();
+        JsonArray keyArray = args.get(2);
+        int maxCount = ((Number) args.get(3)).intValue();
+
+        List<String> keys = new ArrayList();
+        if (keyArray != null) {
+            for (Object key : keyArray) {
+                keys.add(String.valueOf(key));
+            }
+        }
+
+        try {
+            JsonArray events = new JsonArray();
+            for (JsonObject event : m_store.search(from, to, keys, maxCount)) {
+                events.addObject(event);
+            }
+            JsonObject result = Commands.result(RET_OK);
+            result.putArray(CMD_FIELD_EVENTS, events);
+            message.reply(result);
+        } catch (IOException e) {
+            m_logger.error("Failed to search archive: {}", m_store.getPath(), e);
+            message.reply(Commands.result(
+                    ERR_ARCHIVE_SEARCH_FAILED,
+                    REASON_ARCHIVE_SEARCH_FAILED + e.getMessage()));
+        }
+    }
+
+    private JsonArray validArgs() {
+
+        JsonArray args;
+        try {
+            args = getArgs();
+        } catch (ClassCastException e) {
+            return null; // Not an array
+        }
+
+        if (args == null
+                || args.size() != 4
+                || !(args.get(0) instanceof Number)
+                || !(args.get(1) instanceof Number)
+                || !(args.get(2) == null || args.get(2) instanceof JsonArray)
+                || !(args.get(3) instanceof Number)
+                || ((Number) args.get(0)).longValue() > ((Number) args.get(1)).longValue()
+                || ((Number) args.get(3)).intValue() <= 0) {
+            return null;
+        }
+        return args;
+    }
+}
@@ -0,0 +1,612 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import static io.spikex.core.helper.Events.EVENT_FIELD_HOST;
+import static io.spikex.core.helper.Events.EVENT_FIELD_TAGS;
+import static io.spikex.core.helper.Events.EVENT_FIELD_TIMESTAMP;
+import static io.spikex.core.helper.Events.EVENT_FIELD_TYPE;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+import net.jpountz.xxhash.XXHash32;
+import net.jpountz.xxhash.XXHashFactory;
+import org.vertx.java.core.json.DecodeException;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Append-only event archive segment.
+ * <p>
+ * Events are stored as JSON lines in LZ4 compressed blocks. Every block has a
+ * header that contains the compressed length, the raw length and the xxhash32
+ * checksum of the raw data. A sealed segment has a separate index file that
+ * contains the min/max timestamp of the segment, the block offset table (with
+ * min/max timestamp of each block) and a bloom filter over the @host, @type
+ * and @tags values of all events in the segment.
+ * <p>
+ * Segments that were not sealed (eg. because of a crash) can be recovered. Any
+ * truncated or corrupted trailing blocks are dropped during recovery.
+ * <p>
+ * Events without a numeric @timestamp are stored with the time they were
+ * appended, so that search and recovery see the same timestamp.
+ *
+ * @author cli
+ */
+public final class ArchiveSegment {
+
+    private final Path m_dataFile;
+    private final Path m_indexFile;
+    private final int m_blockSize;
+
+    private final List<BlockInfo> m_blocks;
+    private BloomFilter<CharSequence> m_bloom;
+
+    private FileChannel m_channel; // null if sealed
+    private ByteArrayOutputStream m_block; // Pending raw block
+    private long m_blockMinTm;
+    private long m_blockMaxTm;
+    private long m_minTm;
+    private long m_maxTm;
+    private long m_eventCount;
+    private long m_size;
+
+    public static final String DATA_FILE_SUFFIX = ".seg";
+    public static final String INDEX_FILE_SUFFIX = ".idx";
+
+    private static final int INDEX_MAGIC = 0x53584931; // SXI1
+    private static final int BLOCK_HEADER_SIZE = 12; // compressed len, raw len, checksum
+    private static final int CHECKSUM_SEED = 0x9747b28c;
+    private static final double BLOOM_FPP = 0.01d;
+    private static final int MAX_COMPRESSION_RATIO = 255; // LZ4 worst case
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private static final LZ4Factory LZ4 = LZ4Factory.fastestInstance();
+    private static final XXHash32 XXHASH = XXHashFactory.fastestInstance().hash32();
+
+    private ArchiveSegment(
+            final Path dataFile,
+            final int blockSize) {
+
+        String name = dataFile.getFileName().toString();
+        name = name.substring(0, name.length() - DATA_FILE_SUFFIX.length());
+        m_dataFile = dataFile;
+        m_indexFile = dataFile.resolveSibling(name + INDEX_FILE_SUFFIX);
+        m_blockSize = blockSize;
+        m_blocks = new ArrayList();
+        m_minTm = Long.MAX_VALUE;
+        m_maxTm = Long.MIN_VALUE;
+        m_eventCount = 0L;
+        m_size = 0L;
+        resetBlock();
+    }
+
+    public Path getDataFile() {
+        return m_dataFile;
+    }
+
+    public long getMinTimestamp() {
+        return m_minTm;
+    }
+
+    public long getMaxTimestamp() {
+        return m_maxTm;
+    }
+
+    public long getEventCount() {
+        return m_eventCount;
+    }
+
+    public long getSize() {
+        return m_size + (m_block != null ? m_block.size() : 0);
+    }
+
+    public boolean isSealed() {
+        return m_channel == null;
+    }
+
+    /**
+     * Appends the event to the pending block. The block is compressed and
+     * written to disk when it exceeds the block size.
+     *
+     * @param event the event to append
+     * @throws IOException if the block could not be written
+     */
+    public void append(final JsonObject event) throws IOException {
+
+        JsonObject archived = event;
+        long tm = timestampOf(event);
+        if (tm == NO_TIMESTAMP) {
+            tm = System.currentTimeMillis();
+            archived = event.copy();
+            archived.putNumber(EVENT_FIELD_TIMESTAMP, tm);
+        }
+        byte[] data = archived.encode().getBytes(StandardCharsets.UTF_8);
+        m_block.write(data, 0, data.length);
+        m_block.write('\n');
+        m_blockMinTm = Math.min(m_blockMinTm, tm);
+        m_blockMaxTm = Math.max(m_blockMaxTm, tm);
+        addKeys(m_bloom, event);
+        m_eventCount++;
+
+        if (m_block.size() >= m_blockSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Compresses and writes the pending block (if any) to disk.
+     *
+     * @throws IOException if the block could not be written
+     */
+    public void flush() throws IOException {
+
+        if (m_channel != null && m_block.size() > 0) {
+
+            byte[] raw = m_block.toByteArray();
+            LZ4Compressor compressor = LZ4.fastCompressor();
+            byte[] compressed = new byte[compressor.maxCompressedLength(raw.length)];
+            int len = compressor.compress(raw, 0, raw.length, compressed, 0, compressed.length);
+
+            ByteBuffer buf = ByteBuffer.allocate(BLOCK_HEADER_SIZE + len);
+            buf.putInt(len);
+            buf.putInt(raw.length);
+            buf.putInt(XXHASH.hash(raw, 0, raw.length, CHECKSUM_SEED));
+            buf.put(compressed, 0, len);
+            buf.flip();
+
+            long offset = m_size;
+            while (buf.hasRemaining()) {
+                m_channel.write(buf);
+            }
+            m_size += BLOCK_HEADER_SIZE + len;
+            m_blocks.add(new BlockInfo(offset, m_blockMinTm, m_blockMaxTm));
+            m_minTm = Math.min(m_minTm, m_blockMinTm);
+            m_maxTm = Math.max(m_maxTm, m_blockMaxTm);
+            resetBlock();
+        }
+    }
+
+    /**
+     * Writes the pending block, the index file and closes the segment.
+     *
+     * @throws IOException if the segment could not be sealed
+     */
+    public void seal() throws IOException {
+
+        if (m_channel != null) {
+            flush();
+            m_channel.force(true);
+            m_channel.close();
+            m_channel = null;
+            m_block = null;
+            writeIndex();
+        }
+    }
+
+    /**
+     * Returns true if the given time range overlaps with the time range of this
+     * segment.
+     *
+     * @param from the start of the time range (inclusive)
+     * @param to the end of the time range (inclusive)
+     * @return true if there is an overlap
+     */
+    public boolean overlaps(
+            final long from,
+            final long to) {
+
+        long minTm = Math.min(m_minTm, m_blockMinTm);
+        long maxTm = Math.max(m_maxTm, m_blockMaxTm);
+        return (minTm <= to && maxTm >= from);
+    }
+
+    /**
+     * Returns false if the bloom filter rules out that all keys are in this
+     * segment.
+     *
+     * @param keys the keys to check
+     * @return true if all keys might be in this segment
+     */
+    public boolean mightContainAll(final Collection<String> keys) {
+        for (String key : keys) {
+            if (!m_bloom.mightContain(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Searches for events within the given time range that contain all given
+     * keys in their @host, @type or @tags fields.
+     *
+     * @param from the start of the time range (inclusive)
+     * @param to the end of the time range (inclusive)
+     * @param keys the keys to match (all must match)
+     * @param maxCount the maximum number of events to return
+     * @param results the list where matching events are added
+     * @throws IOException if the segment could not be read
+     */
+    public void search(
+            final long from,
+            final long to,
+            final Collection<String> keys,
+            final int maxCount,
+            final List<JsonObject> results) throws IOException {
+
+        if (!overlaps(from, to) || !mightContainAll(keys)) {
+            return;
+        }
+
+        flush(); // Make pending events searchable
+
+        try (FileChannel channel = FileChannel.open(m_dataFile, StandardOpenOption.READ)) {
+            for (BlockInfo block : m_blocks) {
+                if (results.size() >= maxCount) {
+                    break;
+                }
+                if (block.getMinTimestamp() <= to
+                        && block.getMaxTimestamp() >= from) {
+
+                    byte[] raw = readBlock(channel, block.getOffset());
+                    searchBlock(raw, from, to, keys, maxCount, results);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a new writable segment.
+     *
+     * @param dataFile the segment data file
+     * @param blockSize the raw block size in bytes
+     * @param expectedKeys the expected number of distinct keys in the segment
+     * @return the new segment
+     * @throws IOException if the data file could not be created
+     */
+    public static ArchiveSegment create(
+            final Path dataFile,
+            final int blockSize,
+            final int expectedKeys) throws IOException {
+
+        ArchiveSegment segment = new ArchiveSegment(dataFile, blockSize);
+        segment.m_bloom = BloomFilter.create(
+                Funnels.stringFunnel(StandardCharsets.UTF_8),
+                expectedKeys,
+                BLOOM_FPP);
+        segment.m_channel = FileChannel.open(dataFile,
+                StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        return segment;
+    }
+
+    /**
+     * Opens a sealed segment by reading its index file.
+     *
+     * @param dataFile the segment data file
+     * @return the sealed segment
+     * @throws IOException if the index could not be read or is corrupted
+     */
+    public static ArchiveSegment open(final Path dataFile) throws IOException {
+        ArchiveSegment segment = new ArchiveSegment(dataFile, 0);
+        segment.m_block = null;
+        segment.readIndex();
+        return segment;
+    }
+
+    /**
+     * Recovers and seals a segment that has no index file. Corrupted or
+     * truncated trailing blocks (including blocks with undecodable events) are
+     * removed from the data file.
+     *
+     * @param dataFile the segment data file
+     * @param expectedKeys the expected number of distinct keys in the segment
+     * @return the sealed segment
+     * @throws IOException if the segment could not be recovered
+     */
+    public static ArchiveSegment recover(
+            final Path dataFile,
+            final int expectedKeys) throws IOException {
+
+        ArchiveSegment segment = new ArchiveSegment(dataFile, 0);
+        segment.m_bloom = BloomFilter.create(
+                Funnels.stringFunnel(StandardCharsets.UTF_8),
+                expectedKeys,
+                BLOOM_FPP);
+
+        try (FileChannel channel = FileChannel.open(dataFile,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+
+            long offset = 0L;
+            long fileSize = channel.size();
+            while (offset < fileSize) {
+                List<JsonObject> events = new ArrayList();
+                try {
+                    byte[] raw = readBlock(channel, offset);
+                    int start = 0;
+                    for (int i = 0; i < raw.length; i++) {
+                        if (raw[i] == '\n') {
+                            events.add(new JsonObject(
+                                    new String(raw, start, i - start, StandardCharsets.UTF_8)));
+                            start = i + 1;
+                        }
+                    }
+                } catch (IOException | DecodeException e) {
+                    break; // Truncated or corrupted block
+                }
+                long minTm = Long.MAX_VALUE;
+                long maxTm = Long.MIN_VALUE;
+                for (JsonObject event : events) {
+                    long tm = timestampOf(event);
+                    if (tm != NO_TIMESTAMP) {
+                        minTm = Math.min(minTm, tm);
+                        maxTm = Math.max(maxTm, tm);
+                    }
+                    addKeys(segment.m_bloom, event);
+                    segment.m_eventCount++;
+                }
+                segment.m_blocks.add(new BlockInfo(offset, minTm, maxTm));
+                segment.m_minTm = Math.min(segment.m_minTm, minTm);
+                segment.m_maxTm = Math.max(segment.m_maxTm, maxTm);
+                ByteBuffer header = ByteBuffer.allocate(4);
+                readFully(channel, header, offset);
+                header.flip();
+                offset += BLOCK_HEADER_SIZE + header.getInt();
+            }
+            if (offset < fileSize) {
+                channel.truncate(offset);
+            }
+            channel.force(true);
+            segment.m_size = offset;
+        }
+
+        segment.m_block = null;
+        segment.writeIndex();
+        return segment;
+    }
+
+    private void resetBlock() {
+        m_block = new ByteArrayOutputStream(Math.max(m_blockSize, 1024));
+        m_blockMinTm = Long.MAX_VALUE;
+        m_blockMaxTm = Long.MIN_VALUE;
+    }
+
+    private void writeIndex() throws IOException {
+
+        ByteArrayOutputStream bloom = new ByteArrayOutputStream();
+        m_bloom.writeTo(bloom);
+
+        ByteBuffer buf = ByteBuffer.allocate(4 + 8 + 8 + 8 + 8 + 4
+                + (m_blocks.size() * 24) + 4 + bloom.size() + 4);
+        buf.putInt(INDEX_MAGIC);
+        buf.putLong(m_minTm);
+        buf.putLong(m_maxTm);
+        buf.putLong(m_eventCount);
+        buf.putLong(m_size);
+        buf.putInt(m_blocks.size());
+        for (BlockInfo block : m_blocks) {
+            buf.putLong(block.getOffset());
+            buf.putLong(block.getMinTimestamp());
+            buf.putLong(block.getMaxTimestamp());
+        }
+        buf.putInt(bloom.size());
+        buf.put(bloom.toByteArray());
+        buf.putInt(XXHASH.hash(buf.array(), 0, buf.position(), CHECKSUM_SEED));
+
+        // Write atomically
+        Path tmpFile = m_indexFile.resolveSibling(m_indexFile.getFileName() + ".tmp");
+        Files.write(tmpFile, buf.array());
+        Files.move(tmpFile, m_indexFile,
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void readIndex() throws IOException {
+
+        byte[] data = Files.readAllBytes(m_indexFile);
+        if (data.length < 44) {
+            throw new IOException("Truncated index file: " + m_indexFile);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int checksum = buf.getInt(data.length - 4);
+        if (checksum != XXHASH.hash(data, 0, data.length - 4, CHECKSUM_SEED)
+                || buf.getInt() != INDEX_MAGIC) {
+            throw new IOException("Corrupted index file: " + m_indexFile);
+        }
+        m_minTm = buf.getLong();
+        m_maxTm = buf.getLong();
+        m_eventCount = buf.getLong();
+        m_size = buf.getLong();
+        int count = buf.getInt();
+        for (int i = 0; i < count; i++) {
+            m_blocks.add(new BlockInfo(buf.getLong(), buf.getLong(), buf.getLong()));
+        }
+        int len = buf.getInt();
+        m_bloom = BloomFilter.readFrom(
+                new ByteArrayInputStream(data, buf.position(), len),
+                Funnels.stringFunnel(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] readBlock(
+            final FileChannel channel,
+            final long offset) throws IOException {
+
+        ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+        readFully(channel, header, offset);
+        header.flip();
+        int len = header.getInt();
+        int rawLen = header.getInt();
+        int checksum = header.getInt();
+        if (len < 0 || rawLen < 0
+                || offset + BLOCK_HEADER_SIZE + len > channel.size()
+                || rawLen > (long) len * MAX_COMPRESSION_RATIO + 16L) {
+            throw new IOException("Corrupted block header at offset: " + offset);
+        }
+
+        ByteBuffer compressed = ByteBuffer.allocate(len);
+        readFully(channel, compressed, offset + BLOCK_HEADER_SIZE);
+
+        byte[] raw = new byte[rawLen];
+        try {
+            // Never reads or writes outside the buffers (even if corrupted)
+            LZ4SafeDecompressor decompressor = LZ4.safeDecompressor();
+            int n = decompressor.decompress(compressed.array(), 0, len, raw, 0, rawLen);
+            if (n != rawLen) {
+                throw new IOException("Invalid raw length of block at offset: " + offset);
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Failed to decompress block at offset: " + offset, e);
+        }
+        if (checksum != XXHASH.hash(raw, 0, rawLen, CHECKSUM_SEED)) {
+            throw new IOException("Checksum mismatch of block at offset: " + offset);
+        }
+        return raw;
+    }
+
+    private static void readFully(
+            final FileChannel channel,
+            final ByteBuffer buf,
+            final long offset) throws IOException {
+
+        long pos = offset;
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, pos);
+            if (n == -1) {
+                throw new EOFException("Unexpected end of segment at offset: " + pos);
+            }
+            pos += n;
+        }
+    }
+
+    private static void searchBlock(
+            final byte[] raw,
+            final long from,
+            final long to,
+            final Collection<String> keys,
+            final int maxCount,
+            final List<JsonObject> results) {
+
+        int start = 0;
+        for (int i = 0; i < raw.length && results.size() < maxCount; i++) {
+            if (raw[i] == '\n') {
+                JsonObject event = new JsonObject(
+                        new String(raw, start, i - start, StandardCharsets.UTF_8));
+                long tm = timestampOf(event);
+                if (tm != NO_TIMESTAMP
+                        && tm >= from && tm <= to && containsAll(event, keys)) {
+                    results.add(event);
+                }
+                start = i + 1;
+            }
+        }
+    }
+
+    private static boolean containsAll(
+            final JsonObject event,
+            final Collection<String> keys) {
+
+        JsonArray tags = event.getArray(EVENT_FIELD_TAGS);
+        for (String key : keys) {
+            if (!key.equals(event.getValue(EVENT_FIELD_HOST))
+                    && !key.equals(event.getValue(EVENT_FIELD_TYPE))
+                    && (tags == null || !tags.contains(key))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void addKeys(
+            final BloomFilter<CharSequence> bloom,
+            final JsonObject event) {
+
+        Object host = event.getValue(EVENT_FIELD_HOST);
+        if (host instanceof String) {
+            bloom.put((String) host);
+        }
+        Object type = event.getValue(EVENT_FIELD_TYPE);
+        if (type instanceof String) {
+            bloom.put((String) type);
+        }
+        JsonArray tags = event.getArray(EVENT_FIELD_TAGS);
+        if (tags != null) {
+            for (Object tag : tags) {
+                if (tag instanceof String) {
+                    bloom.put((String) tag);
+                }
+            }
+        }
+    }
+
+    private static long timestampOf(final JsonObject event) {
+        Object tm = event.getValue(EVENT_FIELD_TIMESTAMP);
+        if (tm instanceof Number) {
+            return ((Number) tm).longValue();
+        } else {
+            return NO_TIMESTAMP;
+        }
+    }
+
+    private static final class BlockInfo {
+
+        private final long m_offset;
+        private final long m_minTm;
+        private final long m_maxTm;
+
+        private BlockInfo(
+                final long offset,
+                final long minTm,
+                final long maxTm) {
+
+            m_offset = offset;
+            m_minTm = minTm;
+            m_maxTm = maxTm;
+        }
+
+        private long getOffset() {
+            return m_offset;
+        }
+
+        private long getMinTimestamp() {
+            return m_minTm;
+        }
+
+        private long getMaxTimestamp() {
+            return m_maxTm;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import static io.spikex.filter.internal.ArchiveSegment.DATA_FILE_SUFFIX;
+import static io.spikex.filter.internal.ArchiveSegment.INDEX_FILE_SUFFIX;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Time-partitioned event archive that consists of one active segment and any
+ * number of sealed segments. The active segment is sealed and a new one is
+ * created when the current time partition ends or the segment grows over the
+ * maximum segment size.
+ * <p>
+ * Segment file names contain the start of the time partition (UTC), for
+ * example: <code>archive-20151105T1400-1.seg</code>.
+ * <p>
+ * Not thread-safe.
+ *
+ * @author cli
+ */
+public final class ArchiveStore {
+
+    private final Path m_path;
+    private final String m_name;
+    private final long m_partitionLength; // ms
+    private final long m_maxSegmentSize; // bytes
+    private final int m_blockSize; // bytes
+    private final int m_expectedKeys;
+
+    private final List<ArchiveSegment> m_sealed;
+    private ArchiveSegment m_active;
+    private long m_partitionEnd;
+    private int m_sequence;
+
+    private final Logger m_logger = LoggerFactory.getLogger(ArchiveStore.class);
+
+    // Segments by time partition and sequence number (not zero-padded)
+    private static final Comparator<Path> SEGMENT_ORDER = new Comparator<Path>() {
+
+        @Override
+        public int compare(final Path path1, final Path path2) {
+            String name1 = path1.getFileName().toString();
+            String name2 = path2.getFileName().toString();
+            int seqPos1 = name1.lastIndexOf('-');
+            int seqPos2 = name2.lastIndexOf('-');
+            int cmp = name1.substring(0, seqPos1 + 1).compareTo(
+                    name2.substring(0, seqPos2 + 1));
+            if (cmp == 0) {
+                cmp = Long.compare(sequenceOf(name1, seqPos1), sequenceOf(name2, seqPos2));
+            }
+            return cmp != 0 ? cmp : name1.compareTo(name2);
+        }
+    };
+
+    public ArchiveStore(
+            final Path path,
+            final String name,
+            final long partitionLength,
+            final long maxSegmentSize,
+            final int blockSize,
+            final int expectedKeys) {
+
+        m_path = path;
+        m_name = name;
+        m_partitionLength = partitionLength;
+        m_maxSegmentSize = maxSegmentSize;
+        m_blockSize = blockSize;
+        m_expectedKeys = expectedKeys;
+        m_sealed = new ArrayList();
+        m_partitionEnd = 0L;
+        m_sequence = 0;
+    }
+
+    public Path getPath() {
+        return m_path;
+    }
+
+    /**
+     * Opens all sealed segments and recovers any unsealed segments (eg. after
+     * a crash).
+     *
+     * @throws IOException if the archive directory could not be read
+     */
+    public void open() throws IOException {
+
+        Files.createDirectories(m_path);
+        m_sealed.clear();
+
+        List<Path> files = new ArrayList();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(m_path,
+                m_name + "-*" + DATA_FILE_SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files, SEGMENT_ORDER);
+
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            Path indexFile = file.resolveSibling(name.substring(0,
+                    name.length() - DATA_FILE_SUFFIX.length()) + INDEX_FILE_SUFFIX);
+            try {
+                if (Files.exists(indexFile)) {
+                    m_sealed.add(ArchiveSegment.open(file));
+                } else {
+                    m_logger.info("Recovering unsealed archive segment: {}", file);
+                    m_sealed.add(ArchiveSegment.recover(file, m_expectedKeys));
+                }
+            } catch (IOException e) {
+                m_logger.error("Skipping unreadable archive segment: {}", file, e);
+            }
+        }
+    }
+
+    /**
+     * Appends the event to the active segment. Rolls over to a new segment if
+     * needed.
+     *
+     * @param event the event to append
+     * @throws IOException if the event could not be written
+     */
+    public void append(final JsonObject event) throws IOException {
+        roll(System.currentTimeMillis());
+        m_active.append(event);
+    }
+
+    /**
+     * Flushes the pending block of the active segment and seals the active
+     * segment if its time partition has ended.
+     *
+     * @param now the current time in milliseconds
+     * @throws IOException if the segment could not be flushed or sealed
+     */
+    public void flush(final long now) throws IOException {
+        ArchiveSegment active = m_active;
+        if (active != null) {
+            if (now >= m_partitionEnd) {
+                sealActive();
+            } else {
+                active.flush();
+            }
+        }
+    }
+
+    /**
+     * Seals the active segment.
+     *
+     * @throws IOException if the segment could not be sealed
+     */
+    public void close() throws IOException {
+        sealActive();
+    }
+
+    /**
+     * Searches all segments (including the active one) for events within the
+     * given time range that contain all given keys. Segments that do not
+     * overlap with the time range or whose bloom filter rules out the keys are
+     * skipped without reading their data.
+     *
+     * @param from the start of the time range (inclusive)
+     * @param to the end of the time range (inclusive)
+     * @param keys the keys to match against @host, @type and @tags
+     * @param maxCount the maximum number of events to return
+     * @return the matching events
+     * @throws IOException if a segment could not be read
+     */
+    public List<JsonObject> search(
+            final long from,
+            final long to,
+            final Collection<String> keys,
+            final int maxCount) throws IOException {
+
+        List<JsonObject> results = new ArrayList();
+        int skipped = 0;
+        for (ArchiveSegment segment : m_sealed) {
+            if (results.size() >= maxCount) {
+                break;
+            }
+            if (segment.overlaps(from, to) && segment.mightContainAll(keys)) {
+                segment.search(from, to, keys, maxCount, results);
+            } else {
+                skipped++;
+            }
+        }
+        ArchiveSegment active = m_active;
+        if (active != null && results.size() < maxCount) {
+            active.search(from, to, keys, maxCount, results);
+        }
+        m_logger.debug("Found {} events (skipped segments: {} total: {})",
+                results.size(), skipped, m_sealed.size());
+        return results;
+    }
+
+    private void roll(final long now) throws IOException {
+
+        ArchiveSegment active = m_active;
+        if (active != null
+                && (now >= m_partitionEnd
+                || active.getSize() >= m_maxSegmentSize)) {
+            sealActive();
+            active = null;
+        }
+
+        if (active == null) {
+            long partitionStart = now - (now % m_partitionLength);
+            SimpleDateFormat fmt = new SimpleDateFormat("yyyyMMdd'T'HHmm");
+            fmt.setTimeZone(TimeZone.getTimeZone("UTC"));
+            String prefix = m_name + "-" + fmt.format(new Date(partitionStart)) + "-";
+
+            // Find next free sequence number
+            Path dataFile;
+            do {
+                dataFile = m_path.resolve(prefix + (++m_sequence) + DATA_FILE_SUFFIX);
+            } while (Files.exists(dataFile));
+
+            m_logger.debug("Creating archive segment: {}", dataFile);
+            m_active = ArchiveSegment.create(dataFile, m_blockSize, m_expectedKeys);
+            m_partitionEnd = partitionStart + m_partitionLength;
+        }
+    }
+
+    private void sealActive() throws IOException {
+        ArchiveSegment active = m_active;
+        if (active != null) {
+            m_active = null;
+            m_sequence = 0;
+            active.seal();
+            m_sealed.add(active);
+            m_logger.debug("Sealed archive segment: {} (events: {} size: {})",
+                    active.getDataFile(), active.getEventCount(), active.getSize());
+        }
+    }
+
+    private static long sequenceOf(
+            final String name,
+            final int seqPos) {
+
+        int end = name.length() - DATA_FILE_SUFFIX.length();
+        try {
+            return Long.parseLong(name.substring(seqPos + 1, Math.max(seqPos + 1, end)));
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE; // Unknown naming - sorted last
+        }
+    }
+}
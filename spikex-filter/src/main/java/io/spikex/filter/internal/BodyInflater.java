@@ -0,0 +1,294 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import io.netty.buffer.ByteBuf;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Incremental inflater of gzip and deflate (zlib wrapped or raw) encoded
+ * bodies. Unlike a decoder that inflates a whole input chunk at once, the
+ * output is pulled in steps of at most the given buffer size, so that the
+ * caller can stop inflating as soon as it has seen enough (eg. a body that
+ * has grown over its maximum size).
+ * <p>
+ * The gzip header and trailer are parsed here (the trailer CRC and size are
+ * verified). Bytes after the first gzip member are ignored.
+ * <p>
+ * Not thread-safe.
+ *
+ * @author cli
+ */
+public final class BodyInflater {
+
+    private final boolean m_gzip;
+    private final CRC32 m_crc;
+    private Inflater m_inflater;
+    private byte[] m_input;
+    private int m_pos;
+    private int m_limit;
+    private int m_state;
+
+    // Gzip header and trailer state
+    private int m_headerPos;
+    private int m_flags;
+    private int m_extraPos;
+    private int m_extraLen;
+    private int m_headerCrcPos;
+    private int m_trailerPos;
+    private long m_trailerCrc;
+    private long m_trailerSize;
+
+    private static final int STATE_HEADER = 0;
+    private static final int STATE_DATA = 1;
+    private static final int STATE_TRAILER = 2;
+    private static final int STATE_DONE = 3;
+
+    private static final int GZIP_MAGIC_1 = 0x1f;
+    private static final int GZIP_MAGIC_2 = 0x8b;
+    private static final int GZIP_HEADER_LEN = 10;
+    private static final int GZIP_TRAILER_LEN = 8;
+    private static final int METHOD_DEFLATE = 8;
+    private static final int FLAG_HCRC = 0x02;
+    private static final int FLAG_EXTRA = 0x04;
+    private static final int FLAG_NAME = 0x08;
+    private static final int FLAG_COMMENT = 0x10;
+
+    private BodyInflater(final boolean gzip) {
+        m_gzip = gzip;
+        m_crc = (gzip ? new CRC32() : null);
+        m_input = new byte[1024];
+        m_state = STATE_HEADER;
+    }
+
+    public static BodyInflater gzip() {
+        return new BodyInflater(true);
+    }
+
+    /**
+     * Returns an inflater of zlib wrapped or raw deflate data (detected from
+     * the first two bytes).
+     *
+     * @return a new deflate inflater
+     */
+    public static BodyInflater deflate() {
+        return new BodyInflater(false);
+    }
+
+    public boolean isFinished() {
+        return m_state == STATE_DONE;
+    }
+
+    /**
+     * Appends the readable bytes of the given buffer to the input. The
+     * reader index of the buffer is not changed.
+     *
+     * @param buf the compressed data
+     */
+    public void setInput(final ByteBuf buf) {
+
+        // Keep unconsumed bytes (eg. a partial header)
+        int remaining = m_limit - m_pos;
+        int len = buf.readableBytes();
+        if (remaining + len > m_input.length) {
+            byte[] input = new byte[Math.max(remaining + len, m_input.length * 2)];
+            System.arraycopy(m_input, m_pos, input, 0, remaining);
+            m_input = input;
+        } else if (m_pos > 0) {
+            System.arraycopy(m_input, m_pos, m_input, 0, remaining);
+        }
+        buf.getBytes(buf.readerIndex(), m_input, remaining, len);
+        m_pos = 0;
+        m_limit = remaining + len;
+    }
+
+    /**
+     * Inflates the next step of output.
+     *
+     * @param out the output buffer
+     * @return the amount of inflated bytes or zero if more input is needed
+     * or the data has ended
+     * @throws DataFormatException if the data is corrupt
+     */
+    public int inflate(final byte[] out) throws DataFormatException {
+
+        while (true) {
+            switch (m_state) {
+                case STATE_HEADER: {
+                    if (!(m_gzip ? readGzipHeader() : detectDeflate())) {
+                        return 0;
+                    }
+                    m_state = STATE_DATA;
+                }
+                break;
+                case STATE_DATA: {
+                    if (m_inflater.needsInput()) {
+                        if (m_pos == m_limit) {
+                            return 0;
+                        }
+                        m_inflater.setInput(m_input, m_pos, m_limit - m_pos);
+                        m_pos = m_limit;
+                    }
+                    int len = m_inflater.inflate(out);
+                    if (m_inflater.finished()) {
+                        // Unused input belongs to the trailer
+                        m_pos = m_limit - m_inflater.getRemaining();
+                        m_state = (m_gzip ? STATE_TRAILER : STATE_DONE);
+                    } else if (len == 0 && m_inflater.needsDictionary()) {
+                        throw new DataFormatException("Preset dictionary is not supported");
+                    }
+                    if (len > 0) {
+                        if (m_gzip) {
+                            m_crc.update(out, 0, len);
+                        }
+                        return len;
+                    }
+                }
+                break;
+                case STATE_TRAILER: {
+                    if (!readGzipTrailer()) {
+                        return 0;
+                    }
+                    m_state = STATE_DONE;
+                }
+                break;
+                default: {
+                    m_pos = m_limit; // Ignore the rest
+                    return 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases the native resources of the inflater.
+     */
+    public void end() {
+        if (m_inflater != null) {
+            m_inflater.end();
+        }
+        m_state = STATE_DONE;
+    }
+
+    private boolean detectDeflate() {
+
+        if (m_limit - m_pos < 2) {
+            return false;
+        }
+        int cmf = m_input[m_pos] & 0xff;
+        int flg = m_input[m_pos + 1] & 0xff;
+        boolean zlib = ((cmf & 0x0f) == METHOD_DEFLATE
+                && ((cmf << 8) | flg) % 31 == 0);
+        m_inflater = new Inflater(!zlib);
+        return true;
+    }
+
+    private boolean readGzipHeader() throws DataFormatException {
+
+        while (m_headerPos < GZIP_HEADER_LEN
+                || (m_flags & (FLAG_EXTRA | FLAG_NAME | FLAG_COMMENT | FLAG_HCRC)) != 0) {
+
+            if (m_pos == m_limit) {
+                return false;
+            }
+            int b = m_input[m_pos++] & 0xff;
+
+            if (m_headerPos < GZIP_HEADER_LEN) {
+                checkGzipHeader(m_headerPos++, b);
+            } else if ((m_flags & FLAG_EXTRA) != 0) {
+                // Two byte length (little-endian) and the extra field
+                if (m_extraPos == 0) {
+                    m_extraLen = b;
+                } else if (m_extraPos == 1) {
+                    m_extraLen |= (b << 8);
+                }
+                m_extraPos++;
+                if (m_extraPos >= 2 && m_extraPos - 2 == m_extraLen) {
+                    m_flags &= ~FLAG_EXTRA;
+                }
+            } else if ((m_flags & FLAG_NAME) != 0) {
+                if (b == 0) {
+                    m_flags &= ~FLAG_NAME;
+                }
+            } else if ((m_flags & FLAG_COMMENT) != 0) {
+                if (b == 0) {
+                    m_flags &= ~FLAG_COMMENT;
+                }
+            } else if (++m_headerCrcPos == 2) {
+                m_flags &= ~FLAG_HCRC;
+            }
+        }
+        m_inflater = new Inflater(true);
+        return true;
+    }
+
+    private void checkGzipHeader(
+            final int pos,
+            final int b) throws DataFormatException {
+
+        switch (pos) {
+            case 0:
+                if (b != GZIP_MAGIC_1) {
+                    throw new DataFormatException("Not in gzip format");
+                }
+                break;
+            case 1:
+                if (b != GZIP_MAGIC_2) {
+                    throw new DataFormatException("Not in gzip format");
+                }
+                break;
+            case 2:
+                if (b != METHOD_DEFLATE) {
+                    throw new DataFormatException("Unsupported compression method: " + b);
+                }
+                break;
+            case 3:
+                m_flags = b;
+                break;
+            default:
+                // Modification time, extra flags and OS
+                break;
+        }
+    }
+
+    private boolean readGzipTrailer() throws DataFormatException {
+
+        // CRC-32 and size modulo 2^32 (little-endian)
+        while (m_trailerPos < GZIP_TRAILER_LEN) {
+            if (m_pos == m_limit) {
+                return false;
+            }
+            long b = m_input[m_pos++] & 0xffL;
+            if (m_trailerPos < 4) {
+                m_trailerCrc |= (b << (8 * m_trailerPos));
+            } else {
+                m_trailerSize |= (b << (8 * (m_trailerPos - 4)));
+            }
+            m_trailerPos++;
+        }
+        if (m_trailerCrc != m_crc.getValue()) {
+            throw new DataFormatException("Corrupt gzip trailer (CRC mismatch)");
+        }
+        if (m_trailerSize != (m_inflater.getBytesWritten() & 0xffffffffL)) {
+            throw new DataFormatException("Corrupt gzip trailer (size mismatch)");
+        }
+        return true;
+    }
+}
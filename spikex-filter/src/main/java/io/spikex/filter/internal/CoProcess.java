@@ -0,0 +1,276 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import com.google.common.base.Preconditions;
+import io.spikex.core.util.LineFramer;
+import io.spikex.core.util.LineFramer.Line;
+import io.spikex.core.util.process.ChildProcess;
+import io.spikex.core.util.process.DefaultProcessHandler;
+import io.spikex.core.util.process.ProcessExecutor;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.vertx.java.core.Handler;
+
+/**
+ * Long-running child process that receives lines on stdin and writes lines to
+ * stdout. Lines are queued and written when the process is ready to accept
+ * more input. The queue is bounded, so that a slow process pushes back on the
+ * caller instead of growing without limits.
+ * <p>
+ * Queued lines survive restarts: the next process instance receives the lines
+ * that were not yet written to the previous one. A partially written line is
+ * lost if the process exits in the middle of it.
+ * <p>
+ * Stdout lines are passed to the output handler and exits to the exit handler.
+ * Both handlers are called from the NuProcess thread.
+ * <p>
+ * {@link #offer(java.lang.String)} can be called from any thread.
+ *
+ * @author cli
+ */
+public final class CoProcess extends DefaultProcessHandler {
+
+    private final String m_cmd;
+    private final String[] m_args;
+    private final Map<String, String> m_env;
+    private final Charset m_encoding;
+    private final int m_maxPending;
+    private final Handler<String[]> m_outputHandler;
+    private final Handler<CoProcess> m_exitHandler;
+
+    private final Queue<byte[]> m_queue;
+    private final AtomicInteger m_pending;
+    private final Handler<Line> m_lineHandler;
+    private final List<String> m_lines; // NuProcess thread only
+    private LineFramer m_framer; // NuProcess thread only
+    private ByteBuffer m_partial; // NuProcess thread only
+
+    private volatile boolean m_stopped;
+    private volatile long m_started; // ms
+    private final AtomicInteger m_restarts;
+
+    private static final String LINE_DELIMITER = "\n";
+    private static final int MAX_LINE_LENGTH = 1024 * 1024; // bytes
+    private static final int MAX_BACKOFF_SHIFT = 16;
+
+    public CoProcess(
+            final String cmd,
+            final String[] args,
+            final Map<String, String> env,
+            final Charset encoding,
+            final int maxPending,
+            final Handler<String[]> outputHandler,
+            final Handler<CoProcess> exitHandler) {
+
+        Preconditions.checkArgument(maxPending > 0, "maxPending must be positive");
+        m_cmd = cmd;
+        m_args = args;
+        m_env = env;
+        m_encoding = encoding;
+        m_maxPending = maxPending;
+        m_outputHandler = outputHandler;
+        m_exitHandler = exitHandler;
+        m_queue = new ConcurrentLinkedQueue();
+        m_pending = new AtomicInteger();
+        m_restarts = new AtomicInteger();
+        m_lines = new ArrayList();
+        m_lineHandler = new Handler<Line>() {
+
+            @Override
+            public void handle(final Line line) {
+                String str = line.toString();
+                if (str.endsWith("\r")) {
+                    str = str.substring(0, str.length() - 1);
+                }
+                m_lines.add(str);
+            }
+        };
+    }
+
+    /**
+     * Returns the amount of lines waiting to be written to stdin.
+     *
+     * @return the amount of queued lines
+     */
+    public int getPending() {
+        return m_pending.get();
+    }
+
+    public int getRestarts() {
+        return m_restarts.get();
+    }
+
+    public boolean isStopped() {
+        return m_stopped;
+    }
+
+    /**
+     * Starts a new process instance.
+     */
+    public void start() {
+        if (!m_stopped) {
+            m_framer = new LineFramer(m_encoding, LINE_DELIMITER, MAX_LINE_LENGTH);
+            m_partial = null;
+            m_started = System.currentTimeMillis();
+            new ProcessExecutor()
+                    .command(m_cmd, m_args)
+                    .env(m_env)
+                    .encoding(m_encoding.name())
+                    .handler(this)
+                    .start();
+        }
+    }
+
+    /**
+     * Stops the process (stdin is closed first to let the process exit
+     * gracefully).
+     */
+    public void stop() {
+        m_stopped = true;
+        ChildProcess process = getProcess();
+        if (process != null && process.isRunning()) {
+            process.closeStdin();
+            process.destroy(false);
+        }
+    }
+
+    /**
+     * Queues a line to be written to stdin.
+     *
+     * @param line the line to write (without line terminator)
+     * @return false if the queue is full
+     */
+    public boolean offer(final String line) {
+        if (m_pending.incrementAndGet() > m_maxPending) {
+            m_pending.decrementAndGet();
+            return false;
+        }
+        m_queue.add((line + LINE_DELIMITER).getBytes(m_encoding));
+        ChildProcess process = getProcess();
+        if (process != null && process.isRunning()) {
+            process.wantWrite();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the delay of the next restart. The delay doubles on every
+     * restart unless the previous process ran longer than the maximum delay.
+     *
+     * @param now the current time in milliseconds
+     * @param delay the initial delay in milliseconds
+     * @param maxDelay the maximum delay in milliseconds
+     * @return the restart delay in milliseconds
+     */
+    public long nextRestartDelay(
+            final long now,
+            final long delay,
+            final long maxDelay) {
+
+        long started = m_started;
+        if (started > 0L && now - started >= maxDelay) {
+            m_restarts.set(0); // Stable long enough
+        }
+        int shift = Math.min(m_restarts.getAndIncrement(), MAX_BACKOFF_SHIFT);
+        long backoff = Math.min(maxDelay, delay << shift);
+        return backoff + ThreadLocalRandom.current().nextLong(backoff / 10L + 1L);
+    }
+
+    @Override
+    public void onStart(final ChildProcess process) {
+        super.onStart(process);
+        if (!m_queue.isEmpty() || m_partial != null) {
+            process.wantWrite();
+        }
+    }
+
+    @Override
+    public void onExit(final int statusCode) {
+        logger().debug("Co-process {} exited with status: {}", m_cmd, statusCode);
+        m_exitHandler.handle(this);
+    }
+
+    @Override
+    public void onStdout(
+            final ByteBuffer buffer,
+            final boolean closed) {
+
+        LineFramer framer = m_framer;
+        if (buffer != null) {
+            framer.frame(buffer, m_lineHandler);
+        }
+        if (closed) {
+            framer.flush(m_lineHandler); // Last line without delimiter
+        }
+        List<String> lines = m_lines;
+        if (!lines.isEmpty()) {
+            String[] output = lines.toArray(new String[lines.size()]);
+            lines.clear();
+            m_outputHandler.handle(output);
+        }
+    }
+
+    @Override
+    public void onStderr(
+            final ByteBuffer buffer,
+            final boolean closed) {
+
+        if (buffer != null && buffer.hasRemaining()) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            handleStderr(new String(bytes, m_encoding));
+        }
+    }
+
+    @Override
+    public boolean onStdinReady(final ByteBuffer buffer) {
+        //
+        // Fill buffer with as many queued lines as fits
+        //
+        ByteBuffer partial = m_partial;
+        while (buffer.hasRemaining()) {
+            if (partial == null) {
+                byte[] line = m_queue.poll();
+                if (line == null) {
+                    break;
+                }
+                m_pending.decrementAndGet();
+                partial = ByteBuffer.wrap(line);
+            }
+            int len = Math.min(partial.remaining(), buffer.remaining());
+            int limit = partial.limit();
+            partial.limit(partial.position() + len);
+            buffer.put(partial);
+            partial.limit(limit);
+            if (!partial.hasRemaining()) {
+                partial = null;
+            }
+        }
+        m_partial = partial;
+        buffer.flip();
+        return (partial != null || !m_queue.isEmpty());
+    }
+}
@@ -25,7 +25,6 @@ import static io.spikex.core.helper.Events.DSTIME_PRECISION_MILLIS;
 import static io.spikex.core.helper.Events.DSTIME_PRECISION_SEC;
 import static io.spikex.core.helper.Events.EVENT_FIELD_TAGS;
 import static io.spikex.core.helper.Events.TIMEZONE_UTC;
-import static io.spikex.filter.internal.CollectdMapping.DEF_MAPPING;
 import static io.spikex.filter.internal.CollectdMapping.SPIKEX_KEY_DSNAME;
 import static io.spikex.filter.internal.CollectdMapping.SPIKEX_KEY_DSTYPE;
 import static io.spikex.filter.internal.CollectdMapping.SPIKEX_KEY_INSTANCE;
@@ -65,6 +64,7 @@ public final class CollectdJsonHandler implements Handler<HttpResponse> {
     private final JsonArray m_tags;
     private final JSONParser m_parser;
     private final Map<String, CollectdMapping> m_mappings;
+    private CollectdNameCache m_nameCache;
 
     private static final String CONF_KEY_COLLECTD_CONFIG = "collectd-config";
     private static final String CONF_KEY_MAPPINGS = "mappings";
@@ -117,6 +117,12 @@ public final class CollectdJsonHandler implements Handler<HttpResponse> {
 
             m_mappings.put(plugin, mapping);
         }
+
+        m_nameCache = new CollectdNameCache(m_mappings, CollectdNameCache.DEF_MAX_SIZE);
+    }
+
+    public CollectdNameCache getNameCache() {
+        return m_nameCache;
     }
 
     @Override
@@ -196,21 +202,13 @@ public final class CollectdJsonHandler implements Handler<HttpResponse> {
                             //
                             // Resolve and set dsname, subgroup and instance
                             //
-                            CollectdMapping mapping = m_mappings.get(plugin);
-
-                            // Use default mapping?
-                            if (mapping == null) {
-                                mapping = m_mappings.get(DEF_MAPPING);
-                            }
-
-                            mapping.resolveAndSetFields(
-                                    event,
+                            m_nameCache.resolve(
                                     plugin,
                                     pluginInstance,
                                     type,
                                     typeInstance,
                                     dsname,
-                                    dstype);
+                                    dstype).setFields(event);
 
                             // Add tags
                             event.putArray(EVENT_FIELD_TAGS, m_tags);
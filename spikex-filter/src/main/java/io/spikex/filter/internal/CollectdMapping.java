@@ -18,10 +18,6 @@
 package io.spikex.filter.internal;
 
 import com.google.common.base.CharMatcher;
-import static io.spikex.core.helper.Events.EVENT_FIELD_DSNAME;
-import static io.spikex.core.helper.Events.EVENT_FIELD_DSTYPE;
-import static io.spikex.core.helper.Events.EVENT_FIELD_INSTANCE;
-import static io.spikex.core.helper.Events.EVENT_FIELD_SUBGROUP;
 import io.spikex.core.util.StringReplace;
 import static io.spikex.filter.internal.CollectdTypes.COLLECTD_KEY_PLUGIN;
 import java.util.List;
@@ -141,6 +137,34 @@ public final class CollectdMapping {
             final String cldDsname,
             final String cldDstype) {
 
+        resolve(plugin,
+                pluginInstance,
+                type,
+                typeInstance,
+                cldDsname,
+                cldDstype).setFields(event);
+    }
+
+    /**
+     * Resolves the dsname, dstype, subgroup and instance of a collectd value.
+     * Please see {@link CollectdNameCache} for cached resolving.
+     *
+     * @param plugin the collectd plugin
+     * @param pluginInstance the collectd plugin instance
+     * @param type the collectd type
+     * @param typeInstance the collectd type instance
+     * @param cldDsname the collectd dsname
+     * @param cldDstype the collectd dstype
+     * @return the resolved names
+     */
+    public CollectdNames resolve(
+            final String plugin,
+            final String pluginInstance,
+            final String type,
+            final String typeInstance,
+            final String cldDsname,
+            final String cldDstype) {
+
         // plugin
         String dsname = m_dsname;
         dsname = StringReplace.replace(dsname, VAR_PLUGIN, plugin);
@@ -197,9 +221,10 @@ public final class CollectdMapping {
         instance = CharMatcher.is(m_itemSepChar).trimFrom(instance)
                 .replaceAll(m_itemPattern, "\\" + m_itemSeparator);
 
-        event.putString(EVENT_FIELD_DSNAME, dsname.length() > 0 ? dsname : "-");
-        event.putString(EVENT_FIELD_DSTYPE, dstype.length() > 0 ? dstype : cldDstype);
-        event.putString(EVENT_FIELD_SUBGROUP, subgroup.length() > 0 ? subgroup : "-");
-        event.putString(EVENT_FIELD_INSTANCE, instance.length() > 0 ? instance : "-");
+        return new CollectdNames(
+                dsname.length() > 0 ? dsname : "-",
+                dstype.length() > 0 ? dstype : cldDstype,
+                subgroup.length() > 0 ? subgroup : "-",
+                instance.length() > 0 ? instance : "-");
     }
 }
@@ -17,9 +17,8 @@
  */
 package io.spikex.filter.internal;
 
-import java.nio.charset.StandardCharsets;
+import static io.spikex.core.helper.Events.DSTIME_PRECISION_SEC;
 import java.util.Arrays;
-import org.vertx.java.core.buffer.Buffer;
 
 /**
  *
@@ -39,6 +38,7 @@ public final class CollectdMeasurement {
     private String m_typeInstance;
     private long m_timestamp;
     private long m_interval;
+    private String m_precision;
 
     private String[] m_dstypes;
     private Object[] m_values;
@@ -52,14 +52,35 @@ public final class CollectdMeasurement {
         m_typeInstance = "";
         m_timestamp = 0L;
         m_interval = 0L;
+        m_precision = DSTIME_PRECISION_SEC;
+        m_dstypes = new String[8];
+        m_values = new Object[8];
     }
 
+    /**
+     * Removes the values. The value arrays are reused.
+     */
     public void clear() {
-        m_dstypes = new String[]{"", "", "", "", "", "", "", ""};
-        m_values = new Object[]{0.0d, 0.0d, 0.0d, 0.0d, 0.0d, 0.0d, 0.0d, 0.0d};
+        Arrays.fill(m_dstypes, 0, m_index, null);
+        Arrays.fill(m_values, 0, m_index, null);
         m_index = 0;
     }
 
+    /**
+     * Resets all fields (eg. before parsing a new packet).
+     */
+    public void reset() {
+        clear();
+        m_hostname = "";
+        m_plugin = "";
+        m_pluginInstance = "";
+        m_type = "";
+        m_typeInstance = "";
+        m_timestamp = 0L;
+        m_interval = 0L;
+        m_precision = DSTIME_PRECISION_SEC;
+    }
+
     public boolean hasValues() {
         return (m_index > 0);
     }
@@ -104,44 +125,28 @@ public final class CollectdMeasurement {
         return m_interval;
     }
 
-    public void setHostname(
-            final Buffer buffer,
-            final int pos,
-            final int len) {
-
-        m_hostname = buffer.getString(pos, len, StandardCharsets.US_ASCII.name());
+    public String getPrecision() {
+        return m_precision;
     }
 
-    public void setPlugin(
-            final Buffer buffer,
-            final int pos,
-            final int len) {
-
-        m_plugin = buffer.getString(pos, len, StandardCharsets.US_ASCII.name());
+    public void setHostname(final String hostname) {
+        m_hostname = hostname;
     }
 
-    public void setPluginInstance(
-            final Buffer buffer,
-            final int pos,
-            final int len) {
-
-        m_pluginInstance = buffer.getString(pos, len, StandardCharsets.US_ASCII.name());
+    public void setPlugin(final String plugin) {
+        m_plugin = plugin;
     }
 
-    public void setType(
-            final Buffer buffer,
-            final int pos,
-            final int len) {
-
-        m_type = buffer.getString(pos, len, StandardCharsets.US_ASCII.name());
+    public void setPluginInstance(final String pluginInstance) {
+        m_pluginInstance = pluginInstance;
     }
 
-    public void setTypeInstance(
-            final Buffer buffer,
-            final int pos,
-            final int len) {
+    public void setType(final String type) {
+        m_type = type;
+    }
 
-        m_typeInstance = buffer.getString(pos, len, StandardCharsets.US_ASCII.name());
+    public void setTypeInstance(final String typeInstance) {
+        m_typeInstance = typeInstance;
     }
 
     public void setTimestamp(final long timestamp) {
@@ -152,10 +157,18 @@ public final class CollectdMeasurement {
         m_interval = interval;
     }
 
+    public void setPrecision(final String precision) {
+        m_precision = precision;
+    }
+
     public void pushValue(
             final String dstype,
             final Object value) {
 
+        if (m_index == m_values.length) {
+            m_dstypes = Arrays.copyOf(m_dstypes, m_index * 2);
+            m_values = Arrays.copyOf(m_values, m_index * 2);
+        }
         m_dstypes[m_index] = dstype;
         m_values[m_index] = resolveNumValue(dstype, value);
         m_index++;
@@ -177,9 +190,9 @@ public final class CollectdMeasurement {
         sb.append(" type-instance: ");
         sb.append(getTypeInstance());
         sb.append(" types: ");
-        sb.append(Arrays.asList(m_dstypes));
+        sb.append(Arrays.asList(m_dstypes).subList(0, m_index));
         sb.append(" values: ");
-        sb.append(Arrays.asList(m_values));
+        sb.append(Arrays.asList(m_values).subList(0, m_index));
         sb.append(" interval: ");
         sb.append(getInterval());
         sb.append("}");
@@ -0,0 +1,194 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import static io.spikex.filter.internal.CollectdMapping.DEF_MAPPING;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded (LRU) cache of resolved collectd names. The names only depend on
+ * the plugin, plugin instance, type, type instance, dsname and dstype of a
+ * value - not on the host - and these repeat every collectd interval. A
+ * cache hit does not allocate: the lookup key is reused and strings that
+ * have been interned by the packet parser are compared by reference first.
+ * <p>
+ * Not thread-safe.
+ *
+ * @author cli
+ */
+public final class CollectdNameCache {
+
+    private final Map<String, CollectdMapping> m_mappings;
+    private final Map<Key, CollectdNames> m_cache;
+    private final Key m_probe; // Reused lookup key
+
+    private long m_hits;
+    private long m_misses;
+
+    public static final int DEF_MAX_SIZE = 10000;
+
+    public CollectdNameCache(
+            final Map<String, CollectdMapping> mappings,
+            final int maxSize) {
+
+        m_mappings = mappings;
+        m_cache = new LinkedHashMap<Key, CollectdNames>(256, 0.75f, true) {
+
+            private static final long serialVersionUID = -542286576456645241L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, CollectdNames> eldest) {
+                return size() > maxSize;
+            }
+        };
+        m_probe = new Key();
+    }
+
+    public int size() {
+        return m_cache.size();
+    }
+
+    public long getHits() {
+        return m_hits;
+    }
+
+    public long getMisses() {
+        return m_misses;
+    }
+
+    /**
+     * Returns the resolved names of a collectd value using the mapping of the
+     * plugin (or the default mapping). Missing (null) values are resolved as
+     * empty strings.
+     *
+     * @param plugin the collectd plugin
+     * @param pluginInstance the collectd plugin instance
+     * @param type the collectd type
+     * @param typeInstance the collectd type instance
+     * @param dsname the collectd dsname
+     * @param dstype the collectd dstype
+     * @return the resolved names
+     */
+    public CollectdNames resolve(
+            final String plugin,
+            final String pluginInstance,
+            final String type,
+            final String typeInstance,
+            final String dsname,
+            final String dstype) {
+
+        Key probe = m_probe;
+        probe.set(plugin, pluginInstance, type, typeInstance, dsname, dstype);
+        CollectdNames names = m_cache.get(probe);
+
+        if (names != null) {
+            m_hits++;
+        } else {
+            m_misses++;
+            CollectdMapping mapping = m_mappings.get(plugin);
+
+            // Use default mapping?
+            if (mapping == null) {
+                mapping = m_mappings.get(DEF_MAPPING);
+            }
+
+            names = mapping.resolve(
+                    probe.m_plugin,
+                    probe.m_pluginInstance,
+                    probe.m_type,
+                    probe.m_typeInstance,
+                    probe.m_dsname,
+                    probe.m_dstype);
+
+            Key key = new Key();
+            key.set(plugin, pluginInstance, type, typeInstance, dsname, dstype);
+            m_cache.put(key, names);
+        }
+        return names;
+    }
+
+    /**
+     * Removes all cached names (eg. after the mappings have changed).
+     */
+    public void clear() {
+        m_cache.clear();
+    }
+
+    private static final class Key {
+
+        private String m_plugin;
+        private String m_pluginInstance;
+        private String m_type;
+        private String m_typeInstance;
+        private String m_dsname;
+        private String m_dstype;
+        private int m_hash;
+
+        private void set(
+                final String plugin,
+                final String pluginInstance,
+                final String type,
+                final String typeInstance,
+                final String dsname,
+                final String dstype) {
+
+            m_plugin = nullToEmpty(plugin);
+            m_pluginInstance = nullToEmpty(pluginInstance);
+            m_type = nullToEmpty(type);
+            m_typeInstance = nullToEmpty(typeInstance);
+            m_dsname = nullToEmpty(dsname);
+            m_dstype = nullToEmpty(dstype);
+
+            int hash = m_plugin.hashCode();
+            hash = 31 * hash + m_pluginInstance.hashCode();
+            hash = 31 * hash + m_type.hashCode();
+            hash = 31 * hash + m_typeInstance.hashCode();
+            hash = 31 * hash + m_dsname.hashCode();
+            hash = 31 * hash + m_dstype.hashCode();
+            m_hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return m_hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return m_hash == other.m_hash
+                    && m_plugin.equals(other.m_plugin)
+                    && m_pluginInstance.equals(other.m_pluginInstance)
+                    && m_type.equals(other.m_type)
+                    && m_typeInstance.equals(other.m_typeInstance)
+                    && m_dsname.equals(other.m_dsname)
+                    && m_dstype.equals(other.m_dstype);
+        }
+
+        private static String nullToEmpty(final String str) {
+            return (str != null ? str : "");
+        }
+    }
+}
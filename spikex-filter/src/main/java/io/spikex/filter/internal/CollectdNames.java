@@ -0,0 +1,93 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import static io.spikex.core.helper.Events.EVENT_FIELD_DSNAME;
+import static io.spikex.core.helper.Events.EVENT_FIELD_DSTYPE;
+import static io.spikex.core.helper.Events.EVENT_FIELD_INSTANCE;
+import static io.spikex.core.helper.Events.EVENT_FIELD_SUBGROUP;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Resolved dsname, dstype, subgroup and instance of a collectd value.
+ * Immutable.
+ *
+ * @author cli
+ */
+public final class CollectdNames {
+
+    private final String m_dsname;
+    private final String m_dstype;
+    private final String m_subgroup;
+    private final String m_instance;
+
+    public CollectdNames(
+            final String dsname,
+            final String dstype,
+            final String subgroup,
+            final String instance) {
+
+        m_dsname = dsname;
+        m_dstype = dstype;
+        m_subgroup = subgroup;
+        m_instance = instance;
+    }
+
+    public String getDsname() {
+        return m_dsname;
+    }
+
+    public String getDstype() {
+        return m_dstype;
+    }
+
+    public String getSubgroup() {
+        return m_subgroup;
+    }
+
+    public String getInstance() {
+        return m_instance;
+    }
+
+    /**
+     * Sets the dsname, dstype, subgroup and instance fields of the event.
+     *
+     * @param event the event to update
+     */
+    public void setFields(final JsonObject event) {
+        event.putString(EVENT_FIELD_DSNAME, m_dsname);
+        event.putString(EVENT_FIELD_DSTYPE, m_dstype);
+        event.putString(EVENT_FIELD_SUBGROUP, m_subgroup);
+        event.putString(EVENT_FIELD_INSTANCE, m_instance);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(getClass().getSimpleName());
+        sb.append("{dsname: ");
+        sb.append(m_dsname);
+        sb.append(" dstype: ");
+        sb.append(m_dstype);
+        sb.append(" subgroup: ");
+        sb.append(m_subgroup);
+        sb.append(" instance: ");
+        sb.append(m_instance);
+        sb.append("}");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import io.netty.buffer.ByteBuf;
+import static io.spikex.core.helper.Events.DSTIME_PRECISION_MILLIS;
+import static io.spikex.core.helper.Events.DSTIME_PRECISION_SEC;
+import static io.spikex.filter.internal.CollectdMeasurement.DSTYPE_ABSOLUTE;
+import static io.spikex.filter.internal.CollectdMeasurement.DSTYPE_COUNTER;
+import static io.spikex.filter.internal.CollectdMeasurement.DSTYPE_DERIVE;
+import static io.spikex.filter.internal.CollectdMeasurement.DSTYPE_GAUGE;
+import static io.spikex.filter.internal.CollectdTypes.TYPE_ENCRYPTION;
+import static io.spikex.filter.internal.CollectdTypes.TYPE_HOST;
+import static io.spikex.filter.internal.CollectdTypes.TYPE_INTERVAL_HIGHRES;
+import static io.spikex.filter.internal.CollectdTypes.TYPE_INTERVAL_RRD;
+import static io.spikex.filter.internal.CollectdTypes.TYPE_MESSAGE;
+import static io.spikex.filter.internal.CollectdTypes.TYPE_PLUGIN;
+import static io.spikex.filter.internal.CollectdTypes.TYPE_PLUGIN_INSTANCE;
+import static io.spikex.filter.internal.CollectdTypes.TYPE_SEVERITY;
+import static io.spikex.filter.internal.CollectdTypes.TYPE_SIGNATURE;
+import static io.spikex.filter.internal.CollectdTypes.TYPE_TIME_EPOCH;
+import static io.spikex.filter.internal.CollectdTypes.TYPE_TIME_HIGHRES;
+import static io.spikex.filter.internal.CollectdTypes.TYPE_TYPE;
+import static io.spikex.filter.internal.CollectdTypes.TYPE_TYPE_INSTANCE;
+import static io.spikex.filter.internal.CollectdTypes.TYPE_VALUES;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vertx.java.core.Handler;
+
+/**
+ * Parser of the collectd binary protocol. The parser reads the packet
+ * directly from the Netty byte buffer without copying. Numbers are in network
+ * byte order, except for gauge values that are little-endian doubles. Host,
+ * plugin and type names are interned across packets.
+ * <p>
+ * Ref. https://collectd.org/wiki/index.php/Binary_protocol
+ * <p>
+ * Not thread-safe.
+ *
+ * @author cli
+ */
+public final class CollectdPacketParser {
+
+    private final CollectdMeasurement m_measurement;
+    private final InternedStrings m_strings;
+
+    private static final int PART_HEADER_LEN = 4; // type + length
+    private static final int PART_NUMBER_LEN = PART_HEADER_LEN + 8; // header + 64 bit field
+    private static final long HIGHRES_UNIT = 1073741824L; // 2^30
+
+    private final Logger m_logger = LoggerFactory.getLogger(CollectdPacketParser.class);
+
+    public CollectdPacketParser(final InternedStrings strings) {
+        m_measurement = new CollectdMeasurement();
+        m_strings = strings;
+    }
+
+    public InternedStrings getStrings() {
+        return m_strings;
+    }
+
+    /**
+     * Parses the readable bytes of the given packet. The handler is called for
+     * every values part of the packet. The measurement passed to the handler
+     * is reused and valid only during the call.
+     *
+     * @param buf the packet
+     * @param handler the measurement handler
+     * @return the total amount of values in the packet
+     * @throws IllegalArgumentException if the packet is malformed
+     */
+    public int parse(
+            final ByteBuf buf,
+            final Handler<CollectdMeasurement> handler) {
+
+        CollectdMeasurement measurement = m_measurement;
+        measurement.reset();
+
+        int count = 0;
+        int i = buf.readerIndex();
+        int end = buf.writerIndex();
+
+        while (i + PART_HEADER_LEN <= end) {
+
+            // Next part
+            int partType = buf.getUnsignedShort(i);
+            int partLen = buf.getUnsignedShort(i + 2);
+            if (partLen < PART_HEADER_LEN || i + partLen > end) {
+                throw new IllegalArgumentException("Invalid part length: "
+                        + partLen + " (type: " + partType + " offset: " + i + ")");
+            }
+            int pos = i + PART_HEADER_LEN;
+            int partEnd = i + partLen;
+
+            switch (partType) {
+                case TYPE_HOST:
+                    measurement.setHostname(readString(buf, pos, partEnd));
+                    break;
+                case TYPE_TIME_EPOCH:
+                    measurement.setTimestamp(readNumber(buf, pos, partLen, partType) * 1000L); // ms
+                    measurement.setPrecision(DSTIME_PRECISION_SEC); // Seconds
+                    break;
+                case TYPE_TIME_HIGHRES: {
+                    long tm = (readNumber(buf, pos, partLen, partType) / HIGHRES_UNIT * 1000L); // ms
+                    // Add millis - we want ms precision
+                    long millis = System.currentTimeMillis();
+                    long epoch = (millis / 1000L) * 1000L;
+                    measurement.setTimestamp(tm + (millis - epoch));
+                    measurement.setPrecision(DSTIME_PRECISION_MILLIS); // Higher precision
+                    break;
+                }
+                case TYPE_PLUGIN:
+                    measurement.setPlugin(readString(buf, pos, partEnd));
+                    break;
+                case TYPE_PLUGIN_INSTANCE:
+                    measurement.setPluginInstance(readString(buf, pos, partEnd));
+                    break;
+                case TYPE_TYPE:
+                    measurement.setType(readString(buf, pos, partEnd));
+                    break;
+                case TYPE_TYPE_INSTANCE:
+                    measurement.setTypeInstance(readString(buf, pos, partEnd));
+                    break;
+                case TYPE_VALUES:
+                    count += readValues(buf, pos, partLen, measurement);
+                    handler.handle(measurement);
+                    measurement.clear(); // Ready for next values
+                    break;
+                case TYPE_INTERVAL_RRD:
+                    measurement.setInterval(readNumber(buf, pos, partLen, partType));
+                    break;
+                case TYPE_INTERVAL_HIGHRES:
+                    measurement.setInterval(readNumber(buf, pos, partLen, partType) / HIGHRES_UNIT);
+                    break;
+                case TYPE_MESSAGE:
+                    m_logger.trace("Message - not supported");
+                    break;
+                case TYPE_SEVERITY:
+                    m_logger.trace("Severity - not supported");
+                    break;
+                case TYPE_SIGNATURE:
+                    m_logger.trace("Signature - not supported");
+                    break;
+                case TYPE_ENCRYPTION:
+                    m_logger.trace("Encryption - not supported");
+                    break;
+            }
+
+            i = partEnd;
+        }
+        return count;
+    }
+
+    private int readValues(
+            final ByteBuf buf,
+            final int pos,
+            final int partLen,
+            final CollectdMeasurement measurement) {
+
+        if (partLen < PART_HEADER_LEN + 2) {
+            throw new IllegalArgumentException("Invalid values part length: "
+                    + partLen);
+        }
+        int numValues = buf.getUnsignedShort(pos);
+        if (PART_HEADER_LEN + 2 + (numValues * 9) != partLen) {
+            throw new IllegalArgumentException("Invalid values part length: "
+                    + partLen + " (values: " + numValues + ")");
+        }
+
+        int typePos = pos + 2;
+        int valuePos = typePos + numValues;
+        for (int n = 0; n < numValues; n++) {
+            switch (buf.getByte(typePos + n)) {
+                case 0:
+                    measurement.pushValue(DSTYPE_COUNTER, buf.getLong(valuePos));
+                    break;
+                case 1:
+                    // Little-endian IEEE 754 double
+                    measurement.pushValue(DSTYPE_GAUGE,
+                            Double.longBitsToDouble(Long.reverseBytes(buf.getLong(valuePos))));
+                    break;
+                case 2:
+                    measurement.pushValue(DSTYPE_DERIVE, buf.getLong(valuePos));
+                    break;
+                case 3:
+                    measurement.pushValue(DSTYPE_ABSOLUTE, buf.getLong(valuePos));
+                    break;
+            }
+            valuePos += 8; // 64 bit field
+        }
+        return numValues;
+    }
+
+    private long readNumber(
+            final ByteBuf buf,
+            final int pos,
+            final int partLen,
+            final int partType) {
+
+        // Numeric parts consist of the header and one 64 bit field
+        if (partLen != PART_NUMBER_LEN) {
+            throw new IllegalArgumentException("Invalid numeric part length: "
+                    + partLen + " (type: " + partType + ")");
+        }
+        return buf.getLong(pos);
+    }
+
+    private String readString(
+            final ByteBuf buf,
+            final int pos,
+            final int partEnd) {
+
+        // Strings are null terminated
+        int end = partEnd;
+        if (end > pos && buf.getByte(end - 1) == 0) {
+            end--;
+        }
+        return m_strings.get(buf, pos, end);
+    }
+}
@@ -0,0 +1,330 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+/**
+ * Helper methods for reading compressed (rotated) log files. Supported
+ * formats are gzip, the LZ4 frame format (as written by the lz4 command line
+ * tool) and the LZ4 block stream format of lz4-java. The format is detected
+ * from the magic number of the file.
+ *
+ * @author cli
+ */
+public final class CompressedFiles {
+
+    private static final String[] COMPRESSED_SUFFIXES = {".gz", ".lz4"};
+
+    private static final int GZIP_MAGIC = 0x8b1f; // little endian
+    private static final int LZ4_FRAME_MAGIC = 0x184d2204; // little endian
+    private static final int LZ4_SKIPPABLE_MAGIC = 0x184d2a50; // little endian (mask 0xfffffff0)
+    private static final byte[] LZ4_BLOCK_MAGIC = {'L', 'Z', '4', 'B', 'l', 'o', 'c', 'k'};
+
+    private static final int BUFFER_SIZE = 64 * 1024; // bytes
+
+    private static final LZ4Factory LZ4 = LZ4Factory.fastestInstance();
+
+    /**
+     * Returns true if the file name has a known compressed file suffix.
+     *
+     * @param path the file
+     * @return true if the file is compressed
+     */
+    public static boolean isCompressed(final Path path) {
+        String name = path.getFileName().toString();
+        for (String suffix : COMPRESSED_SUFFIXES) {
+            if (name.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Opens a decompressing input stream of the given file.
+     *
+     * @param path the compressed file
+     * @return the decompressed input stream
+     * @throws IOException if the file could not be opened or its format is not
+     * supported
+     */
+    public static InputStream open(final Path path) throws IOException {
+
+        InputStream in = new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE);
+        try {
+            byte[] magic = new byte[LZ4_BLOCK_MAGIC.length];
+            in.mark(magic.length);
+            int len = readFully(in, magic, 0, magic.length);
+            in.reset();
+
+            if (len >= 2 && (readShortLE(magic) == GZIP_MAGIC)) {
+                return new GZIPInputStream(in, BUFFER_SIZE);
+            }
+            if (len >= 4 && (readIntLE(magic, 0) == LZ4_FRAME_MAGIC
+                    || (readIntLE(magic, 0) & 0xfffffff0) == LZ4_SKIPPABLE_MAGIC)) {
+                return new Lz4FrameInputStream(in);
+            }
+            if (len == LZ4_BLOCK_MAGIC.length && Arrays.equals(magic, LZ4_BLOCK_MAGIC)) {
+                return new LZ4BlockInputStream(in);
+            }
+            throw new IOException("Unsupported compression format: " + path);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Skips exactly the given amount of bytes or until the end of stream.
+     *
+     * @param in the input stream
+     * @param count the amount of bytes to skip
+     * @return the amount of bytes skipped
+     * @throws IOException if the stream could not be read
+     */
+    public static long skip(
+            final InputStream in,
+            final long count) throws IOException {
+
+        long skipped = 0L;
+        while (skipped < count) {
+            long n = in.skip(count - skipped);
+            if (n <= 0L) {
+                // skip(...) may return 0 before EOF - verify with read
+                if (in.read() == -1) {
+                    break;
+                }
+                n = 1L;
+            }
+            skipped += n;
+        }
+        return skipped;
+    }
+
+    private static int readFully(
+            final InputStream in,
+            final byte[] buf,
+            final int off,
+            final int len) throws IOException {
+
+        int total = 0;
+        while (total < len) {
+            int n = in.read(buf, off + total, len - total);
+            if (n == -1) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    private static int readShortLE(final byte[] buf) {
+        return (buf[0] & 0xff) | ((buf[1] & 0xff) << 8);
+    }
+
+    private static int readIntLE(
+            final byte[] buf,
+            final int off) {
+
+        return (buf[off] & 0xff)
+                | ((buf[off + 1] & 0xff) << 8)
+                | ((buf[off + 2] & 0xff) << 16)
+                | ((buf[off + 3] & 0xff) << 24);
+    }
+
+    /**
+     * Minimal decoder of the LZ4 frame format. Supports concatenated and
+     * skippable frames. Block and content checksums are skipped. Linked blocks
+     * (lz4 -BD) are not supported, since the decompressor of lz4-java 1.2 does
+     * not support dictionaries.
+     * <p>
+     * Ref. https://github.com/lz4/lz4/blob/dev/doc/lz4_Frame_format.md
+     */
+    private static final class Lz4FrameInputStream extends InputStream {
+
+        private final InputStream m_in;
+        private final LZ4SafeDecompressor m_decompressor;
+        private final byte[] m_header;
+
+        private byte[] m_compressed;
+        private byte[] m_block;
+        private int m_pos;
+        private int m_len;
+        private boolean m_inFrame;
+        private boolean m_blockChecksum;
+        private boolean m_contentChecksum;
+
+        private Lz4FrameInputStream(final InputStream in) {
+            m_in = in;
+            m_decompressor = LZ4.safeDecompressor();
+            m_header = new byte[8];
+            m_compressed = new byte[0];
+            m_block = new byte[0];
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (m_pos == m_len && !nextBlock()) {
+                return -1;
+            }
+            return m_block[m_pos++] & 0xff;
+        }
+
+        @Override
+        public int read(
+                final byte[] buf,
+                final int off,
+                final int len) throws IOException {
+
+            if (len == 0) {
+                return 0;
+            }
+            if (m_pos == m_len && !nextBlock()) {
+                return -1;
+            }
+            int n = Math.min(len, m_len - m_pos);
+            System.arraycopy(m_block, m_pos, buf, off, n);
+            m_pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return m_len - m_pos;
+        }
+
+        @Override
+        public void close() throws IOException {
+            m_in.close();
+        }
+
+        private boolean nextBlock() throws IOException {
+            while (true) {
+                if (!m_inFrame && !readFrameHeader()) {
+                    return false; // EOF
+                }
+                int size = readInt();
+                if (size == 0) {
+                    // End mark
+                    if (m_contentChecksum) {
+                        skipFully(4);
+                    }
+                    m_inFrame = false;
+                    continue;
+                }
+                boolean uncompressed = ((size & 0x80000000) != 0);
+                size &= 0x7fffffff;
+                if (size > m_compressed.length) {
+                    throw new IOException("Invalid LZ4 block size: " + size);
+                }
+                readFully(m_compressed, size);
+                if (m_blockChecksum) {
+                    skipFully(4);
+                }
+                if (uncompressed) {
+                    System.arraycopy(m_compressed, 0, m_block, 0, size);
+                    m_len = size;
+                } else {
+                    m_len = m_decompressor.decompress(m_compressed, 0, size,
+                            m_block, 0, m_block.length);
+                }
+                m_pos = 0;
+                if (m_len > 0) {
+                    return true;
+                }
+            }
+        }
+
+        private boolean readFrameHeader() throws IOException {
+            while (true) {
+                int len = CompressedFiles.readFully(m_in, m_header, 0, 4);
+                if (len == 0) {
+                    return false; // EOF
+                }
+                if (len < 4) {
+                    throw new EOFException("Truncated LZ4 frame header");
+                }
+                int magic = readIntLE(m_header, 0);
+                if ((magic & 0xfffffff0) == LZ4_SKIPPABLE_MAGIC) {
+                    skipFully(readInt() & 0xffffffffL);
+                    continue;
+                }
+                if (magic != LZ4_FRAME_MAGIC) {
+                    throw new IOException("Invalid LZ4 frame magic: "
+                            + Integer.toHexString(magic));
+                }
+                readFully(m_header, 2);
+                int flg = m_header[0] & 0xff;
+                int bd = m_header[1] & 0xff;
+                if (((flg >> 6) & 0x03) != 1) {
+                    throw new IOException("Unsupported LZ4 frame version: " + ((flg >> 6) & 0x03));
+                }
+                if ((flg & 0x20) == 0) {
+                    throw new IOException("Linked LZ4 blocks are not supported");
+                }
+                int blockSizeId = (bd >> 4) & 0x07;
+                if (blockSizeId < 4) {
+                    throw new IOException("Invalid LZ4 block size id: " + blockSizeId);
+                }
+                m_blockChecksum = ((flg & 0x10) != 0);
+                m_contentChecksum = ((flg & 0x04) != 0);
+                // Content size, dictionary id and header checksum
+                skipFully(((flg & 0x08) != 0 ? 8 : 0) + ((flg & 0x01) != 0 ? 4 : 0) + 1);
+
+                int maxBlockSize = 1 << (8 + 2 * blockSizeId); // 64 KB - 4 MB
+                if (m_block.length < maxBlockSize) {
+                    m_block = new byte[maxBlockSize];
+                    m_compressed = new byte[maxBlockSize];
+                }
+                m_inFrame = true;
+                return true;
+            }
+        }
+
+        private int readInt() throws IOException {
+            readFully(m_header, 4);
+            return readIntLE(m_header, 0);
+        }
+
+        private void readFully(
+                final byte[] buf,
+                final int len) throws IOException {
+
+            if (CompressedFiles.readFully(m_in, buf, 0, len) < len) {
+                throw new EOFException("Truncated LZ4 frame");
+            }
+        }
+
+        private void skipFully(final long count) throws IOException {
+            if (CompressedFiles.skip(m_in, count) < count) {
+                throw new EOFException("Truncated LZ4 frame");
+            }
+        }
+    }
+}
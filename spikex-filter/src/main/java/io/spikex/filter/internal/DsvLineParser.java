@@ -20,12 +20,10 @@ package io.spikex.filter.internal;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.Reader;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import io.spikex.core.AbstractFilter;
 import io.spikex.core.helper.Events;
 import static io.spikex.core.helper.Events.EVENT_PRIORITY_NORMAL;
@@ -53,6 +51,7 @@ import org.supercsv.comment.CommentMatcher;
 import org.supercsv.io.CsvListReader;
 import org.supercsv.io.ICsvListReader;
 import org.supercsv.prefs.CsvPreference;
+import org.vertx.java.core.Handler;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonElement;
 import org.vertx.java.core.json.JsonObject;
@@ -118,6 +117,13 @@ import org.vertx.java.core.json.JsonObject;
  *  }
  * </pre>
  * <p>
+ * Lines can be parsed one at a time as they are read (eg. from process
+ * output). Rows with quoted columns spanning several lines are parsed once
+ * the last line of the row has been received. The CSV reader and its buffers
+ * are reused between lines and calls.
+ * <p>
+ * Not thread-safe.
+ *
  * @author cli
  */
 public final class DsvLineParser implements ILineParser {
@@ -126,6 +132,11 @@ public final class DsvLineParser implements ILineParser {
     private final int m_delimiter;
     private final boolean m_truncDupDelimiters;
     private final CsvPreference m_csvPreference;
+    private final char m_quoteChar;
+    private final StringBuilder m_pending; // Row that is not yet complete
+    private final RowReader m_input;
+    private final ICsvListReader m_listReader;
+    private int m_quotes; // Amount of quote chars in pending row
     private final CellProcessor[] m_cellProcessors;
     private final String[] m_fieldNames;
     private final Map<String, Map> m_lookupMaps;
@@ -233,6 +244,10 @@ public final class DsvLineParser implements ILineParser {
         }
 
         m_csvPreference = pref;
+        m_quoteChar = quoteChar.charAt(0);
+        m_pending = new StringBuilder();
+        m_input = new RowReader();
+        m_listReader = new CsvListReader(m_input, pref);
 
         // Mappings
         JsonObject mapping = config.getObject(CONFIG_FIELD_MAPPING, new JsonObject());
@@ -269,38 +284,88 @@ public final class DsvLineParser implements ILineParser {
     @Override
     public JsonObject[] parse(final String[] lines) throws IOException {
 
-        List<JsonObject> events = new ArrayList();
-        boolean truncDupDelimiters = m_truncDupDelimiters;
-        int delimiter = m_delimiter;
-        CsvPreference pref = m_csvPreference;
-
-        Pattern delimPattern = null;
-        String delimStr = String.copyValueOf(Character.toChars(delimiter));
-        if (truncDupDelimiters) {
-            m_logger.debug("Truncating duplicate delimiters");
-            delimPattern = Pattern.compile(delimStr + "+");
-        }
+        final List<JsonObject> events = new ArrayList();
+        Handler<JsonObject> handler = new Handler<JsonObject>() {
 
-        StringBuilder sb = new StringBuilder();
+            @Override
+            public void handle(final JsonObject event) {
+                events.add(event);
+            }
+        };
+
+        reset();
         for (String line : lines) {
-            if (delimPattern != null) {
-                Matcher m = delimPattern.matcher(line);
-                line = m.replaceAll(delimStr);
+            parse(line, handler);
+        }
+        flush(handler);
+
+        return events.toArray(new JsonObject[events.size()]);
+    }
+
+    @Override
+    public void parse(
+            final String line,
+            final Handler<JsonObject> handler) throws IOException {
+
+        //
+        // Append line to pending row (truncate duplicate delimiters)
+        //
+        StringBuilder pending = m_pending;
+        char delimiter = (char) m_delimiter;
+        char quoteChar = m_quoteChar;
+        boolean truncDupDelimiters = m_truncDupDelimiters;
+        int quotes = m_quotes;
+        char prev = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == quoteChar) {
+                quotes++;
             }
-            m_logger.trace("line: {}", line);
-            sb.append(line);
-            sb.append(pref.getEndOfLineSymbols());
+            if (!truncDupDelimiters
+                    || c != delimiter
+                    || prev != delimiter) {
+                pending.append(c);
+            }
+            prev = c;
+        }
+        pending.append(m_csvPreference.getEndOfLineSymbols());
+        m_quotes = quotes;
+
+        //
+        // Parse row only when all quoted columns have ended
+        //
+        if ((quotes & 1) == 0) {
+            m_logger.trace("row: {}", pending);
+            readRows(handler);
         }
+    }
 
-        ICsvListReader listReader = new CsvListReader(
-                new StringReader(sb.toString()),
-                pref);
+    @Override
+    public void flush(final Handler<JsonObject> handler) throws IOException {
+        if (m_pending.length() > 0) {
+            readRows(handler);
+        }
+    }
+
+    @Override
+    public void reset() {
+        m_pending.setLength(0);
+        m_quotes = 0;
+        m_input.clear();
+    }
+
+    private void readRows(final Handler<JsonObject> handler) throws IOException {
+
+        m_input.append(m_pending);
+        m_pending.setLength(0);
+        m_quotes = 0;
 
         List<Object> values;
         AbstractFilter filter = m_filter;
         String[] fieldNames = m_fieldNames;
-
         CellProcessor[] processors = m_cellProcessors;
+        ICsvListReader listReader = m_listReader;
+
         while ((values = listReader.read(processors)) != null) {
             //
             // Build one JsonObject event per row
@@ -311,8 +376,8 @@ public final class DsvLineParser implements ILineParser {
                     HostOs.hostName(),
                     EVENT_PRIORITY_NORMAL,
                     "",
-                    "");            
-            
+                    "");
+
             for (int i = 0; i < values.size(); i++) {
                 String fieldName = fieldNames[i];
                 Object value = values.get(i);
@@ -320,17 +385,15 @@ public final class DsvLineParser implements ILineParser {
                 // Append to existing value
                 //
                 if (event.containsField(fieldName)) {
-                    sb = new StringBuilder(event.getString(fieldName));
-                    sb.append(value);                   
+                    StringBuilder sb = new StringBuilder(event.getString(fieldName));
+                    sb.append(value);
                     event.putValue(fieldName, sb.toString());
                 } else {
                     event.putValue(fieldName, value);
                 }
             }
-            events.add(event);
+            handler.handle(event);
         }
-
-        return events.toArray(new JsonObject[events.size()]);
     }
 
     private String resolveTerminator(final String def) {
@@ -708,4 +771,50 @@ public final class DsvLineParser implements ILineParser {
 
         return null;
     }
+
+    /**
+     * Reader of complete rows. Returns end of stream when all appended rows
+     * have been read, but can be appended to and read again afterwards.
+     */
+    private static final class RowReader extends Reader {
+
+        private final StringBuilder m_chars;
+        private int m_pos;
+
+        private RowReader() {
+            m_chars = new StringBuilder();
+        }
+
+        private void append(final CharSequence rows) {
+            m_chars.append(rows);
+        }
+
+        private void clear() {
+            m_chars.setLength(0);
+            m_pos = 0;
+        }
+
+        @Override
+        public int read(
+                final char[] cbuf,
+                final int off,
+                final int len) {
+
+            StringBuilder chars = m_chars;
+            int pos = m_pos;
+            int n = Math.min(len, chars.length() - pos);
+            if (n <= 0) {
+                clear(); // Release consumed rows
+                return -1;
+            }
+            chars.getChars(pos, pos + n, cbuf, off);
+            m_pos = pos + n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            clear();
+        }
+    }
 }
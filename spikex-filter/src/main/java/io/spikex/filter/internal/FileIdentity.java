@@ -0,0 +1,213 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Identity of a tailed file. The identity consists of the device and inode
+ * number of the file (if supported by the file system) and a fingerprint
+ * (CRC-32) of the first bytes of the file. The fingerprint protects against
+ * inode reuse.
+ * <p>
+ * The fingerprint length grows with the file until the maximum fingerprint
+ * length has been reached. Two identities match if they have the same device
+ * and inode and the fingerprint of the shorter one matches the same amount of
+ * bytes of the other file.
+ *
+ * @author cli
+ */
+public final class FileIdentity {
+
+    private final long m_device;
+    private final long m_inode;
+    private final long m_fingerprint;
+    private final int m_fingerprintLength;
+
+    public static final int MAX_FINGERPRINT_LENGTH = 1024; // bytes
+
+    public FileIdentity(
+            final long device,
+            final long inode,
+            final long fingerprint,
+            final int fingerprintLength) {
+
+        m_device = device;
+        m_inode = inode;
+        m_fingerprint = fingerprint;
+        m_fingerprintLength = fingerprintLength;
+    }
+
+    public long getDevice() {
+        return m_device;
+    }
+
+    public long getInode() {
+        return m_inode;
+    }
+
+    public long getFingerprint() {
+        return m_fingerprint;
+    }
+
+    public int getFingerprintLength() {
+        return m_fingerprintLength;
+    }
+
+    /**
+     * Returns true if the fingerprint covers the maximum amount of bytes.
+     *
+     * @return true if the fingerprint is complete
+     */
+    public boolean isFingerprintComplete() {
+        return (m_fingerprintLength >= MAX_FINGERPRINT_LENGTH);
+    }
+
+    /**
+     * Returns true if both identities have the same device and inode.
+     *
+     * @param other the other identity
+     * @return true if the inode is the same
+     */
+    public boolean isSameInode(final FileIdentity other) {
+        return (other != null
+                && m_device == other.m_device
+                && m_inode == other.m_inode);
+    }
+
+    /**
+     * Returns the key used to store the identity (device and inode).
+     *
+     * @return the identity key
+     */
+    public String getKey() {
+        return m_device + ":" + m_inode;
+    }
+
+    /**
+     * Returns true if the given file is the file identified by this identity:
+     * it has the same inode and its first bytes match the fingerprint.
+     *
+     * @param path the file to check
+     * @return true if the file matches this identity
+     * @throws IOException if the file could not be read
+     */
+    public boolean matches(final Path path) throws IOException {
+        FileIdentity identity = of(path, m_fingerprintLength);
+        return (isSameInode(identity)
+                && identity.m_fingerprintLength == m_fingerprintLength
+                && identity.m_fingerprint == m_fingerprint);
+    }
+
+    /**
+     * Returns true if the first bytes of the given data match the fingerprint.
+     * The inode is not compared, since this is used to identify compressed
+     * copies of the original file (eg. app.log.2.gz).
+     *
+     * @param in the (decompressed) file data
+     * @return true if the data matches the fingerprint
+     * @throws IOException if the data could not be read
+     */
+    public boolean matchesContent(final InputStream in) throws IOException {
+        byte[] buf = new byte[m_fingerprintLength];
+        int len = 0;
+        while (len < buf.length) {
+            int n = in.read(buf, len, buf.length - len);
+            if (n == -1) {
+                break;
+            }
+            len += n;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf, 0, len);
+        return (len == m_fingerprintLength
+                && crc.getValue() == m_fingerprint);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getKey());
+        sb.append("/");
+        sb.append(Long.toHexString(m_fingerprint));
+        sb.append("/");
+        sb.append(m_fingerprintLength);
+        return sb.toString();
+    }
+
+    /**
+     * Resolves the identity of the given file.
+     *
+     * @param path the file
+     * @return the file identity
+     * @throws IOException if the file could not be read
+     */
+    public static FileIdentity of(final Path path) throws IOException {
+        return of(path, MAX_FINGERPRINT_LENGTH);
+    }
+
+    /**
+     * Resolves the identity of the given file using a fingerprint of at most
+     * the given amount of bytes.
+     *
+     * @param path the file
+     * @param maxLength the maximum fingerprint length
+     * @return the file identity
+     * @throws IOException if the file could not be read
+     */
+    public static FileIdentity of(
+            final Path path,
+            final int maxLength) throws IOException {
+
+        long device = 0L;
+        long inode = 0L;
+        try {
+            Map<String, Object> attrs = Files.readAttributes(path, "unix:dev,ino");
+            device = ((Number) attrs.get("dev")).longValue();
+            inode = ((Number) attrs.get("ino")).longValue();
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            // Not a unix file system (eg. Windows) - use file key if any
+            Object fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+            if (fileKey != null) {
+                inode = fileKey.hashCode();
+            }
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(maxLength);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (buf.hasRemaining()
+                    && channel.read(buf) > 0) {
+                // Read until fingerprint is full or EOF
+            }
+        }
+        buf.flip();
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.limit());
+
+        return new FileIdentity(device, inode, crc.getValue(), buf.limit());
+    }
+}
@@ -0,0 +1,355 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import io.spikex.core.helper.Events;
+import static io.spikex.core.helper.Events.EVENT_FIELD_TAGS;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Pending Grok multi-lines of several sources (eg. files or hosts). Lines
+ * that match the multi-line pattern are collected per source, so that
+ * interleaved lines of different sources do not mix. A pending multi-line is
+ * emitted as one event when it is flushed, when its source has been idle for
+ * the given timeout or when its source is evicted as the least recently used
+ * of the maximum amount of sources. The acknowledgements of the merged
+ * lines (at-least-once delivery) are carried by the multi-line event.
+ * <p>
+ * Not thread-safe.
+ *
+ * @author cli
+ */
+public final class GrokMultiLines {
+
+    private final GrokPattern m_pattern;
+    private final String[] m_tags;
+    private final String m_segmentField;
+    private final String m_outputField;
+    private final String m_groupField;
+    private final int m_maxSources;
+    private final int m_maxLineCount;
+    private final LinkedHashMap<String, MultiLine> m_sources; // Access order
+
+    public GrokMultiLines(
+            final GrokPattern pattern,
+            final String[] tags,
+            final String segmentField,
+            final String outputField,
+            final String groupField,
+            final int maxSources,
+            final int maxLineCount) {
+
+        m_pattern = pattern;
+        m_tags = tags;
+        m_segmentField = segmentField;
+        m_outputField = outputField;
+        m_groupField = groupField;
+        m_maxSources = maxSources;
+        m_maxLineCount = maxLineCount;
+        m_sources = new LinkedHashMap(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the amount of sources that have a pending multi-line.
+     *
+     * @return the source count
+     */
+    public int size() {
+        return m_sources.size();
+    }
+
+    /**
+     * Adds a matched line to the pending multi-line of the given source. A
+     * new source might evict the least recently used source.
+     *
+     * @param source the source of the line
+     * @param event the event of the line
+     * @param m the match of the multi-line pattern
+     * @param now the current time in milliseconds
+     * @param events the emitted multi-line events (of evicted sources)
+     * @return false if the multi-line is full (the line was not added)
+     */
+    public boolean add(
+            final String source,
+            final JsonObject event,
+            final Matcher m,
+            final long now,
+            final List<JsonObject> events) {
+
+        GrokPattern pattern = m_pattern;
+        Map<String, Object> captures = new HashMap();
+        for (int i = 0; i < pattern.getKeyCount(); i++) {
+            captures.put(pattern.getKey(i), pattern.getValue(m, i));
+        }
+        MultiLine multiLine = getSource(source, events);
+        multiLine.setEvent(event);
+        multiLine.setUpdated(now);
+        return multiLine.addFields(captures);
+    }
+
+    /**
+     * Emits the pending multi-line of the given source (if any).
+     *
+     * @param source the source
+     * @param events the emitted multi-line events
+     */
+    public void flush(
+            final String source,
+            final List<JsonObject> events) {
+
+        MultiLine multiLine = m_sources.remove(source);
+        if (multiLine != null) {
+            addEvent(multiLine, events);
+        }
+    }
+
+    /**
+     * Emits the pending multi-lines of sources that have been idle for at
+     * least the given time.
+     *
+     * @param now the current time in milliseconds
+     * @param timeout the idle time in milliseconds
+     * @param events the emitted multi-line events
+     */
+    public void flushIdle(
+            final long now,
+            final long timeout,
+            final List<JsonObject> events) {
+
+        Iterator<MultiLine> values = m_sources.values().iterator();
+        while (values.hasNext()) {
+            MultiLine multiLine = values.next();
+            if (now - multiLine.getUpdated() >= timeout) {
+                addEvent(multiLine, events);
+                values.remove();
+            }
+        }
+    }
+
+    /**
+     * Emits the pending multi-lines of all sources (eg. on stop).
+     *
+     * @param events the emitted multi-line events
+     */
+    public void flushAll(final List<JsonObject> events) {
+        for (MultiLine multiLine : m_sources.values()) {
+            addEvent(multiLine, events);
+        }
+        m_sources.clear();
+    }
+
+    private MultiLine getSource(
+            final String source,
+            final List<JsonObject> events) {
+
+        Map<String, MultiLine> sources = m_sources;
+        MultiLine multiLine = sources.get(source);
+        if (multiLine == null) {
+            multiLine = new MultiLine(m_maxLineCount, m_groupField,
+                    m_outputField, m_segmentField);
+            sources.put(source, multiLine);
+            // Evict least recently used source
+            if (sources.size() > m_maxSources) {
+                Iterator<MultiLine> values = sources.values().iterator();
+                addEvent(values.next(), events);
+                values.remove();
+            }
+        }
+        return multiLine;
+    }
+
+    private void addEvent(
+            final MultiLine multiLine,
+            final List<JsonObject> events) {
+
+        // Emit multi-line (if any)
+        if (multiLine.hasLines()) {
+            JsonObject multiEvent = multiLine.getEvent();
+            JsonArray tags = multiEvent.getArray(EVENT_FIELD_TAGS);
+            if (tags == null) {
+                tags = new JsonArray();
+                multiEvent.putArray(EVENT_FIELD_TAGS, tags);
+            }
+            for (String tag : m_tags) {
+                if (tag != null) {
+                    tags.addString(tag);
+                } else {
+                    break;
+                }
+            }
+            events.add(multiEvent);
+        }
+    }
+
+    private static final class MultiLine {
+
+        private final int m_maxLineCount;
+        private final String m_groupField;
+        private final String m_outputField;
+        private final String m_segmentField;
+        private final JsonObject m_event;
+        private final List<MultiLineSegment> m_segments;
+        private int m_count;
+        private int m_segIndex;
+        private long m_updated; // ms
+
+        private MultiLine(
+                final int maxLineCount,
+                final String groupField,
+                final String outputField,
+                final String segmentField) {
+
+            m_maxLineCount = maxLineCount;
+            m_groupField = groupField;
+            m_outputField = outputField;
+            m_segmentField = segmentField;
+            m_event = new JsonObject();
+            m_segments = new ArrayList();
+            m_segments.add(new MultiLineSegment());
+            m_count = 0;
+            m_segIndex = 0;
+        }
+
+        private boolean hasLines() {
+            return (m_count > 0);
+        }
+
+        private JsonObject getEvent() {
+
+            JsonObject event = m_event; // The original/first event
+            JsonArray segArray = new JsonArray();
+            StringBuilder lines = new StringBuilder();
+
+            for (MultiLineSegment segment : m_segments) {
+                lines.append(segment.getLines());
+                segArray.addObject(segment.getFields());
+            }
+
+            event.putString(m_outputField, lines.toString());
+            event.putArray(m_groupField, segArray);
+
+            return event;
+        }
+
+        private MultiLineSegment getCurrentSegment() {
+            return m_segments.get(m_segIndex);
+        }
+
+        private boolean addFields(final Map<String, Object> fields) {
+
+            boolean added = false;
+
+            if (m_count < m_maxLineCount && fields.containsKey("line")) {
+
+                // Create new segment?
+                Object segFieldValue = fields.get(m_segmentField);
+                if (m_count > 0 && segFieldValue != null) {
+                    MultiLineSegment segment = new MultiLineSegment();
+                    m_segments.add(segment);
+                    m_segIndex++;
+                }
+
+                // Add fields to current segment
+                MultiLineSegment segment = getCurrentSegment();
+                segment.addFields(fields);
+                m_count++;
+                added = true;
+            }
+
+            return added;
+        }
+
+        private long getUpdated() {
+            return m_updated;
+        }
+
+        private void setUpdated(final long updated) {
+            m_updated = updated;
+        }
+
+        private void setEvent(final JsonObject event) {
+            if (m_count == 0) {
+                m_event.mergeIn(event);
+            } else {
+                // Later lines are merged into the first event
+                Events.carryAcknowledgements(event, m_event);
+            }
+        }
+    }
+
+    private static final class MultiLineSegment {
+
+        private final StringBuilder m_lines;
+        private final Map<String, Object> m_fields;
+
+        private MultiLineSegment() {
+            m_lines = new StringBuilder();
+            m_fields = new HashMap();
+        }
+
+        private String getLines() {
+            return m_lines.toString();
+        }
+
+        private JsonObject getFields() {
+            return new JsonObject(m_fields);
+        }
+
+        private void addFields(final Map<String, Object> fields) {
+
+            // Append line to this segment
+            String line = (String) fields.get("line");
+            m_lines.append(line);
+            m_lines.append("\n");
+
+            // Store fields for later use (append to list if same field exists)
+            Map<String, Object> segFields = m_fields;
+
+            Iterator<String> keys = fields.keySet().iterator();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                Object value = fields.get(key);
+                if (!"line".equals(key) && value != null) {
+
+                    // Create list if field already exists
+                    if (segFields.containsKey(key)) {
+                        Object entries = segFields.get(key);
+                        if (!(entries instanceof List)) {
+                            List tmp = new ArrayList();
+                            tmp.add(entries);
+                            entries = tmp;
+                        }
+                        ((List) entries).add(value);
+                        segFields.put(key, entries);
+
+                    } else {
+                        segFields.put(key, value);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,588 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import com.google.code.regexp.GroupInfo;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import oi.thekraken.grok.api.Grok;
+
+/**
+ * Compiled Grok expression that extracts captures by group index. The named
+ * groups of the expression are resolved to capture keys once, so matching
+ * does not build any intermediate maps. Capture keys and values are the same
+ * as the ones returned by {@link oi.thekraken.grok.api.Match#toMap()}.
+ * <p>
+ * The expanded regular expression is also scanned for literals that every
+ * match must contain. The longest literal is used as the anchor of this
+ * pattern by {@link GrokPrefilter}.
+ * <p>
+ * Thread-safe.
+ *
+ * @author cli
+ */
+public final class GrokPattern {
+
+    private final String m_expression;
+    private final Pattern m_regex;
+    private final String[] m_keys;
+    private final int[] m_groups;
+    private final String m_anchor;
+
+    private static final int MIN_ANCHOR_LENGTH = 3;
+    private static final String KEY_UNWANTED = "UNWANTED"; // Removed by Grok Match
+
+    public GrokPattern(
+            final String expression,
+            final Grok grok) {
+
+        m_expression = expression;
+
+        com.google.code.regexp.Pattern named
+                = com.google.code.regexp.Pattern.compile(grok.getNamedRegex());
+        m_regex = named.pattern();
+
+        //
+        // Resolve capture key of every named group (last group of a key wins)
+        //
+        Map<String, List<GroupInfo>> groupInfo = named.groupInfo();
+        Map<String, Integer> keyGroups = new LinkedHashMap();
+        for (String id : named.groupNames()) {
+            String key = grok.getNamedRegexCollectionById(id);
+            if (key == null) {
+                key = id;
+            }
+            List<GroupInfo> infos = groupInfo.get(id);
+            if (key.length() > 0
+                    && !KEY_UNWANTED.equals(key)
+                    && infos != null
+                    && !infos.isEmpty()) {
+                keyGroups.remove(key);
+                keyGroups.put(key, infos.get(0).groupIndex() + 1);
+            }
+        }
+
+        m_keys = new String[keyGroups.size()];
+        m_groups = new int[keyGroups.size()];
+        int i = 0;
+        for (Entry<String, Integer> entry : keyGroups.entrySet()) {
+            m_keys[i] = entry.getKey();
+            m_groups[i++] = entry.getValue();
+        }
+
+        //
+        // Longest required literal
+        //
+        String anchor = null;
+        for (String literal : requiredLiterals(m_regex.pattern())) {
+            if (literal.length() >= MIN_ANCHOR_LENGTH
+                    && (anchor == null || literal.length() > anchor.length())) {
+                anchor = literal;
+            }
+        }
+        m_anchor = anchor;
+    }
+
+    /**
+     * Returns the original Grok expression (eg. "%{JAVALOG:line}").
+     *
+     * @return the Grok expression
+     */
+    public String getExpression() {
+        return m_expression;
+    }
+
+    /**
+     * Returns a literal that every matching line contains.
+     *
+     * @return the anchor or null if the pattern has no usable literal
+     */
+    public String getAnchor() {
+        return m_anchor;
+    }
+
+    public int getKeyCount() {
+        return m_keys.length;
+    }
+
+    public String getKey(final int index) {
+        return m_keys[index];
+    }
+
+    /**
+     * Searches the line for this pattern.
+     *
+     * @param line the line to search
+     * @return the matcher positioned at the match or null if no match
+     */
+    public Matcher find(final String line) {
+        Matcher matcher = null;
+        if (m_keys.length > 0 && !isBlank(line)) {
+            Matcher m = m_regex.matcher(line);
+            if (m.find()) {
+                matcher = m;
+            }
+        }
+        return matcher;
+    }
+
+    /**
+     * Returns the captured value of the given key. Integers are converted to
+     * Integer objects and surrounding quotes are removed from strings.
+     *
+     * @param matcher the matcher returned by {@link #find(java.lang.String)}
+     * @param index the key index
+     * @return the value or null if the group did not participate in the match
+     */
+    public Object getValue(
+            final Matcher matcher,
+            final int index) {
+
+        Object value = matcher.group(m_groups[index]);
+        if (value != null) {
+            String str = (String) value;
+            Integer num = parseInteger(str);
+            if (num != null) {
+                value = num;
+            } else {
+                value = unquote(str);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Returns the literals that every match of the regular expression must
+     * contain. The analysis is conservative: alternations, optional parts,
+     * character classes, escapes other than escaped punctuation and inline
+     * flags end a literal. Case-insensitive or comment mode expressions have
+     * no literals.
+     *
+     * @param regex the regular expression
+     * @return the required literals
+     */
+    public static List<String> requiredLiterals(final String regex) {
+        List<String> literals = new ArrayList();
+        if (regex.contains("(?")
+                && (hasInlineFlag(regex, 'i') || hasInlineFlag(regex, 'x'))) {
+            return literals;
+        }
+        try {
+            new LiteralScanner(regex, literals).scanSequence(true);
+        } catch (RuntimeException e) {
+            // Unsupported syntax - no literals
+            literals.clear();
+        }
+        return literals;
+    }
+
+    @Override
+    public String toString() {
+        return m_expression;
+    }
+
+    private static boolean hasInlineFlag(
+            final String regex,
+            final char flag) {
+
+        int pos = regex.indexOf("(?");
+        while (pos >= 0) {
+            int i = pos + 2;
+            while (i < regex.length()) {
+                char c = regex.charAt(i);
+                if (c == flag) {
+                    return true;
+                }
+                if (!Character.isLetter(c) && c != '-') {
+                    break;
+                }
+                i++;
+            }
+            pos = regex.indexOf("(?", pos + 2);
+        }
+        return false;
+    }
+
+    private static boolean isBlank(final String str) {
+        for (int i = 0; i < str.length(); i++) {
+            if (!Character.isWhitespace(str.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Integer parseInteger(final String str) {
+        Integer num = null;
+        int len = str.length();
+        if (len > 0 && len <= 11) {
+            char c = str.charAt(0);
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+') {
+                try {
+                    num = Integer.parseInt(str);
+                } catch (NumberFormatException e) {
+                    // Not an integer
+                }
+            }
+        }
+        return num;
+    }
+
+    private static String unquote(final String str) {
+        int len = str.length();
+        if (len >= 2) {
+            char first = str.charAt(0);
+            char last = str.charAt(len - 1);
+            if ((first == '"' && last == '"')
+                    || (first == '\'' && last == '\'')) {
+                return str.substring(1, len - 1);
+            }
+        }
+        return str;
+    }
+
+    /**
+     * Recursive descent over the regular expression that collects runs of
+     * literal characters that are required in every match.
+     */
+    private static final class LiteralScanner {
+
+        private static final int GROUP_CAPTURING = 0;
+        private static final int GROUP_NON_CAPTURING = 1;
+        private static final int GROUP_LOOKAROUND = 2;
+        private static final int GROUP_FLAGS = 3;
+
+        private final String m_regex;
+        private final List<String> m_literals;
+        private final StringBuilder m_run;
+        private int m_pos;
+
+        private LiteralScanner(
+                final String regex,
+                final List<String> literals) {
+
+            m_regex = regex;
+            m_literals = literals;
+            m_run = new StringBuilder();
+        }
+
+        /**
+         * Scans a sequence until the end of the group (or expression).
+         *
+         * @param required true if the sequence is required in every match
+         * @return true if the sequence contains an alternation
+         */
+        private boolean scanSequence(final boolean required) {
+
+            String regex = m_regex;
+            boolean alternation = false;
+
+            while (m_pos < regex.length()) {
+
+                char c = regex.charAt(m_pos);
+                if (c == ')') {
+                    break;
+                }
+                if (c == '|') {
+                    alternation = true;
+                    endRun(false);
+                    m_pos++;
+                    continue;
+                }
+
+                int start = m_pos;
+                char literal = 0;
+                boolean isLiteral = false;
+
+                switch (c) {
+                    case '(': {
+                        m_pos++;
+                        int kind = GROUP_CAPTURING;
+                        if (m_pos < regex.length() && regex.charAt(m_pos) == '?') {
+                            kind = skipGroupPrefix();
+                        }
+                        endRun(required);
+                        if (kind == GROUP_FLAGS) {
+                            break; // Eg. "(?m)"
+                        }
+                        // Literals of group are required only if the group is
+                        List<String> inner = new ArrayList();
+                        LiteralScanner scanner = new LiteralScanner(regex, inner);
+                        scanner.m_pos = m_pos;
+                        boolean alt = scanner.scanSequence(true);
+                        m_pos = scanner.m_pos;
+                        expect(')');
+                        int[] quantifier = skipQuantifier();
+                        if (required
+                                && kind != GROUP_LOOKAROUND
+                                && !alt
+                                && isRequired(quantifier)) {
+                            m_literals.addAll(inner);
+                        }
+                        break;
+                    }
+                    case '[':
+                        skipClass();
+                        endRun(required);
+                        skipQuantifier();
+                        break;
+                    case '\\': {
+                        m_pos++;
+                        char e = regex.charAt(m_pos++);
+                        if (!Character.isLetterOrDigit(e)) {
+                            literal = e;
+                            isLiteral = true;
+                        } else if (e == 't') {
+                            literal = '\t';
+                            isLiteral = true;
+                        } else if (e == 'n') {
+                            literal = '\n';
+                            isLiteral = true;
+                        } else if (e == 'r') {
+                            literal = '\r';
+                            isLiteral = true;
+                        } else {
+                            skipEscape(e);
+                        }
+                        break;
+                    }
+                    case '.':
+                    case '^':
+                    case '$':
+                        m_pos++;
+                        break;
+                    case '*':
+                    case '+':
+                    case '?':
+                    case '{':
+                        throw new IllegalArgumentException("Dangling quantifier at: " + start);
+                    default:
+                        literal = c;
+                        isLiteral = true;
+                        m_pos++;
+                        break;
+                }
+
+                if (c != '(' && c != '[') {
+                    int[] quantifier = skipQuantifier();
+                    if (isLiteral && quantifier == null) {
+                        m_run.append(literal);
+                    } else {
+                        endRun(required);
+                        if (isLiteral && isRequired(quantifier) && required) {
+                            // Repeated literal (eg. "a+") - at least one required
+                            m_run.append(literal);
+                            endRun(true);
+                        }
+                    }
+                }
+            }
+
+            endRun(required && !alternation);
+            if (alternation && required) {
+                // Literals of alternatives are not required
+                m_literals.clear();
+            }
+            return alternation;
+        }
+
+        /**
+         * Skips the prefix of a special group ("(?" has been seen).
+         *
+         * @return the kind of the group
+         */
+        private int skipGroupPrefix() {
+            String regex = m_regex;
+            m_pos++;
+            char c = regex.charAt(m_pos);
+            switch (c) {
+                case ':':
+                case '>':
+                    m_pos++;
+                    return GROUP_NON_CAPTURING;
+                case '=':
+                case '!':
+                    m_pos++;
+                    return GROUP_LOOKAROUND;
+                case '<': {
+                    char n = regex.charAt(m_pos + 1);
+                    if (n == '=' || n == '!') {
+                        m_pos += 2;
+                        return GROUP_LOOKAROUND;
+                    }
+                    m_pos = regex.indexOf('>', m_pos) + 1; // Named group
+                    return GROUP_CAPTURING;
+                }
+                default: {
+                    // Inline flags: "(?m)" or "(?s:X)"
+                    while (m_pos < regex.length()) {
+                        char f = regex.charAt(m_pos++);
+                        if (f == ')') {
+                            return GROUP_FLAGS;
+                        }
+                        if (f == ':') {
+                            return GROUP_NON_CAPTURING;
+                        }
+                    }
+                    throw new IllegalArgumentException("Unterminated group");
+                }
+            }
+        }
+
+        private void skipEscape(final char e) {
+            String regex = m_regex;
+            switch (e) {
+                case 'Q': {
+                    // Quoted text (not used as literal)
+                    int end = regex.indexOf("\\E", m_pos);
+                    m_pos = (end >= 0 ? end + 2 : regex.length());
+                    break;
+                }
+                case 'p':
+                case 'P':
+                case 'x':
+                    if (m_pos < regex.length() && regex.charAt(m_pos) == '{') {
+                        m_pos = regex.indexOf('}', m_pos) + 1;
+                    } else {
+                        m_pos += (e == 'x' ? 2 : 1);
+                    }
+                    break;
+                case 'u':
+                    m_pos += 4;
+                    break;
+                case 'c':
+                    m_pos++;
+                    break;
+                case 'k':
+                    m_pos = regex.indexOf('>', m_pos) + 1;
+                    break;
+                default:
+                    // Back reference or octal escape
+                    while (Character.isDigit(e)
+                            && m_pos < regex.length()
+                            && Character.isDigit(regex.charAt(m_pos))) {
+                        m_pos++;
+                    }
+                    break;
+            }
+            if (m_pos <= 0 || m_pos > regex.length()) {
+                throw new IllegalArgumentException("Invalid escape: \\" + e);
+            }
+        }
+
+        private void skipClass() {
+            String regex = m_regex;
+            int depth = 0;
+            m_pos++; // [
+            if (m_pos < regex.length() && regex.charAt(m_pos) == '^') {
+                m_pos++;
+            }
+            if (m_pos < regex.length() && regex.charAt(m_pos) == ']') {
+                m_pos++; // Literal ]
+            }
+            while (m_pos < regex.length()) {
+                char c = regex.charAt(m_pos++);
+                if (c == '\\') {
+                    m_pos++;
+                } else if (c == '[') {
+                    depth++;
+                } else if (c == ']') {
+                    if (depth == 0) {
+                        return;
+                    }
+                    depth--;
+                }
+            }
+            throw new IllegalArgumentException("Unterminated character class");
+        }
+
+        /**
+         * Skips a quantifier (if any).
+         *
+         * @return the minimum and maximum repetitions or null if no quantifier
+         */
+        private int[] skipQuantifier() {
+            String regex = m_regex;
+            if (m_pos >= regex.length()) {
+                return null;
+            }
+            int[] quantifier = null;
+            char c = regex.charAt(m_pos);
+            switch (c) {
+                case '?':
+                    quantifier = new int[]{0, 1};
+                    m_pos++;
+                    break;
+                case '*':
+                    quantifier = new int[]{0, Integer.MAX_VALUE};
+                    m_pos++;
+                    break;
+                case '+':
+                    quantifier = new int[]{1, Integer.MAX_VALUE};
+                    m_pos++;
+                    break;
+                case '{': {
+                    int end = regex.indexOf('}', m_pos);
+                    if (end < 0) {
+                        throw new IllegalArgumentException("Unterminated quantifier");
+                    }
+                    String[] bounds = regex.substring(m_pos + 1, end).split(",", -1);
+                    int min = Integer.parseInt(bounds[0].trim());
+                    quantifier = new int[]{min, Integer.MAX_VALUE};
+                    m_pos = end + 1;
+                    break;
+                }
+                default:
+                    break;
+            }
+            // Lazy or possessive
+            if (quantifier != null && m_pos < regex.length()) {
+                char m = regex.charAt(m_pos);
+                if (m == '?' || m == '+') {
+                    m_pos++;
+                }
+            }
+            return quantifier;
+        }
+
+        private boolean isRequired(final int[] quantifier) {
+            return (quantifier == null || quantifier[0] > 0);
+        }
+
+        private void expect(final char c) {
+            if (m_pos >= m_regex.length() || m_regex.charAt(m_pos) != c) {
+                throw new IllegalArgumentException("Expected '" + c + "' at: " + m_pos);
+            }
+            m_pos++;
+        }
+
+        private void endRun(final boolean required) {
+            if (m_run.length() > 0) {
+                if (required) {
+                    m_literals.add(m_run.toString());
+                }
+                m_run.setLength(0);
+            }
+        }
+    }
+}
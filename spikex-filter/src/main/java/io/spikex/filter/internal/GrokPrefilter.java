@@ -0,0 +1,197 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Selects the Grok patterns that can possibly match a line. The anchors of all
+ * patterns are combined into one Aho-Corasick automaton, so a line is scanned
+ * only once regardless of the amount of patterns. A pattern is a candidate if
+ * its anchor occurs in the line. Patterns without an anchor are always
+ * candidates.
+ * <p>
+ * Thread-safe (the automaton is immutable after construction).
+ *
+ * @author cli
+ */
+public final class GrokPrefilter {
+
+    private final int m_patternCount;
+    private final BitSet m_unanchored;
+
+    // Automaton (state 0 is the root)
+    private final char[][] m_keys; // state => sorted transition chars
+    private final int[][] m_next; // state => target states
+    private final int[] m_fail; // state => failure state
+    private final int[][] m_outputs; // state => patterns whose anchor ends here
+
+    public GrokPrefilter(final List<GrokPattern> patterns) {
+
+        m_patternCount = patterns.size();
+        m_unanchored = new BitSet(m_patternCount);
+
+        //
+        // Build trie of anchors
+        //
+        List<TreeMap<Character, Integer>> trie = new ArrayList();
+        List<List<Integer>> outputs = new ArrayList();
+        trie.add(new TreeMap<Character, Integer>());
+        outputs.add(new ArrayList<Integer>());
+
+        for (int i = 0; i < patterns.size(); i++) {
+            String anchor = patterns.get(i).getAnchor();
+            if (anchor == null) {
+                m_unanchored.set(i);
+            } else {
+                int state = 0;
+                for (int j = 0; j < anchor.length(); j++) {
+                    char c = anchor.charAt(j);
+                    Integer next = trie.get(state).get(c);
+                    if (next == null) {
+                        next = trie.size();
+                        trie.add(new TreeMap<Character, Integer>());
+                        outputs.add(new ArrayList<Integer>());
+                        trie.get(state).put(c, next);
+                    }
+                    state = next;
+                }
+                outputs.get(state).add(i);
+            }
+        }
+
+        int size = trie.size();
+        m_keys = new char[size][];
+        m_next = new int[size][];
+        m_fail = new int[size];
+        m_outputs = new int[size][];
+
+        for (int state = 0; state < size; state++) {
+            TreeMap<Character, Integer> edges = trie.get(state);
+            char[] keys = new char[edges.size()];
+            int[] next = new int[edges.size()];
+            int i = 0;
+            for (Character c : edges.keySet()) {
+                keys[i] = c;
+                next[i++] = edges.get(c);
+            }
+            m_keys[state] = keys;
+            m_next[state] = next;
+        }
+
+        //
+        // Failure links (breadth-first) and merged outputs
+        //
+        Queue<Integer> queue = new ArrayDeque();
+        for (int target : m_next[0]) {
+            m_fail[target] = 0;
+            queue.add(target);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            char[] keys = m_keys[state];
+            int[] next = m_next[state];
+            for (int i = 0; i < keys.length; i++) {
+                int target = next[i];
+                int fail = m_fail[state];
+                int to = transition(fail, keys[i]);
+                while (to < 0 && fail != 0) {
+                    fail = m_fail[fail];
+                    to = transition(fail, keys[i]);
+                }
+                m_fail[target] = (to >= 0 ? to : 0);
+                outputs.get(target).addAll(outputs.get(m_fail[target]));
+                queue.add(target);
+            }
+        }
+
+        for (int state = 0; state < size; state++) {
+            List<Integer> out = outputs.get(state);
+            int[] arr = new int[out.size()];
+            for (int i = 0; i < arr.length; i++) {
+                arr[i] = out.get(i);
+            }
+            m_outputs[state] = arr;
+        }
+    }
+
+    public int getPatternCount() {
+        return m_patternCount;
+    }
+
+    /**
+     * Returns the candidate patterns of the given line.
+     *
+     * @param line the line to scan
+     * @param candidates the set to fill (cleared first)
+     * @return the candidate pattern indexes
+     */
+    public BitSet candidates(
+            final CharSequence line,
+            final BitSet candidates) {
+
+        candidates.clear();
+        candidates.or(m_unanchored);
+
+        int state = 0;
+        int[][] outputs = m_outputs;
+        int[] fail = m_fail;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            int to = transition(state, c);
+            while (to < 0 && state != 0) {
+                state = fail[state];
+                to = transition(state, c);
+            }
+            state = (to >= 0 ? to : 0);
+            for (int pattern : outputs[state]) {
+                candidates.set(pattern);
+            }
+        }
+        return candidates;
+    }
+
+    private int transition(
+            final int state,
+            final char c) {
+
+        char[] keys = m_keys[state];
+        int i = (keys.length > 8
+                ? Arrays.binarySearch(keys, c)
+                : indexOf(keys, c));
+        return (i >= 0 ? m_next[state][i] : -1);
+    }
+
+    private static int indexOf(
+            final char[] keys,
+            final char c) {
+
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
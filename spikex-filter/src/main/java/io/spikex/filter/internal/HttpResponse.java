@@ -30,6 +30,7 @@ public final class HttpResponse {
 
     private Buffer m_content;
     private String m_type;
+    private Object m_client;
 
     private final HttpServerRequest m_request;
     private final String m_body;
@@ -59,6 +60,10 @@ public final class HttpResponse {
         return m_type;
     }
 
+    public Object getClient() {
+        return m_client;
+    }
+
     public HttpServerRequest getRequest() {
         return m_request;
     }
@@ -78,4 +83,8 @@ public final class HttpResponse {
     public void setContentType(final String type) {
         m_type = type;
     }
+
+    public void setClient(final Object client) {
+        m_client = client;
+    }
 }
@@ -18,6 +18,7 @@
 package io.spikex.filter.internal;
 
 import java.io.IOException;
+import org.vertx.java.core.Handler;
 import org.vertx.java.core.json.JsonObject;
 
 /**
@@ -27,4 +28,26 @@ import org.vertx.java.core.json.JsonObject;
 public interface ILineParser {
 
     public JsonObject[] parse(String[] lines) throws IOException;
+
+    /**
+     * Parses one line and passes the events of completed rows to the handler.
+     *
+     * @param line the line to parse (without line terminator)
+     * @param handler the event handler
+     * @throws IOException if the line could not be parsed
+     */
+    public void parse(String line, Handler<JsonObject> handler) throws IOException;
+
+    /**
+     * Parses any pending row (eg. at the end of output).
+     *
+     * @param handler the event handler
+     * @throws IOException if the row could not be parsed
+     */
+    public void flush(Handler<JsonObject> handler) throws IOException;
+
+    /**
+     * Discards any pending row.
+     */
+    public void reset();
 }
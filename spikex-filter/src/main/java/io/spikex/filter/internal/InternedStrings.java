@@ -0,0 +1,193 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Fixed size cache of ASCII strings read from byte buffers. A cached string
+ * is found by comparing the bytes in place, so repeated strings (eg. host,
+ * plugin and type names of collectd packets) are neither copied nor
+ * allocated again. The cache is cleared when it becomes full.
+ * <p>
+ * Not thread-safe.
+ *
+ * @author cli
+ */
+public final class InternedStrings {
+
+    private final byte[][] m_keys;
+    private final String[] m_values;
+    private final int m_mask;
+    private final int m_maxSize;
+    private final int m_maxLength;
+
+    private int m_size;
+    private long m_hits;
+    private long m_misses;
+
+    private static final int MAX_PROBES = 8;
+
+    /**
+     * Creates a new string cache.
+     *
+     * @param capacity the amount of slots (rounded up to a power of two)
+     * @param maxLength the maximum length of cached strings (longer strings are
+     * not cached)
+     */
+    public InternedStrings(
+            final int capacity,
+            final int maxLength) {
+
+        Preconditions.checkArgument(capacity > 0, "capacity must be greater than zero");
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        if (size < 2) {
+            size = 2;
+        }
+        m_keys = new byte[size][];
+        m_values = new String[size];
+        m_mask = size - 1;
+        m_maxSize = (size * 3) / 4;
+        m_maxLength = maxLength;
+    }
+
+    public int size() {
+        return m_size;
+    }
+
+    public long getHits() {
+        return m_hits;
+    }
+
+    public long getMisses() {
+        return m_misses;
+    }
+
+    /**
+     * Returns the string of the given bytes.
+     *
+     * @param buf the buffer
+     * @param start the start index (inclusive)
+     * @param end the end index (exclusive)
+     * @return the cached or new string
+     */
+    public String get(
+            final ByteBuf buf,
+            final int start,
+            final int end) {
+
+        int len = end - start;
+        if (len <= 0) {
+            return "";
+        }
+        if (len > m_maxLength) {
+            m_misses++;
+            return buf.toString(start, len, StandardCharsets.US_ASCII);
+        }
+
+        int hash = hash(buf, start, end);
+        int index = hash & m_mask;
+        byte[][] keys = m_keys;
+
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            byte[] key = keys[index];
+            if (key == null) {
+                break;
+            }
+            if (equals(key, buf, start, len)) {
+                m_hits++;
+                return m_values[index];
+            }
+            index = (index + 1) & m_mask;
+        }
+
+        m_misses++;
+        String str = buf.toString(start, len, StandardCharsets.US_ASCII);
+        put(hash, buf, start, len, str);
+        return str;
+    }
+
+    /**
+     * Removes all cached strings.
+     */
+    public void clear() {
+        for (int i = 0; i < m_keys.length; i++) {
+            m_keys[i] = null;
+            m_values[i] = null;
+        }
+        m_size = 0;
+    }
+
+    private void put(
+            final int hash,
+            final ByteBuf buf,
+            final int start,
+            final int len,
+            final String str) {
+
+        if (m_size >= m_maxSize) {
+            clear(); // Simple eviction
+        }
+
+        int index = hash & m_mask;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            if (m_keys[index] == null) {
+                byte[] key = new byte[len];
+                buf.getBytes(start, key);
+                m_keys[index] = key;
+                m_values[index] = str;
+                m_size++;
+                break;
+            }
+            index = (index + 1) & m_mask;
+        }
+    }
+
+    private static boolean equals(
+            final byte[] key,
+            final ByteBuf buf,
+            final int start,
+            final int len) {
+
+        if (key.length != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (key[i] != buf.getByte(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(
+            final ByteBuf buf,
+            final int start,
+            final int end) {
+
+        // FNV-1a
+        int hash = 0x811c9dc5;
+        for (int i = start; i < end; i++) {
+            hash ^= (buf.getByte(i) & 0xff);
+            hash *= 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jolokia.client.J4pClient;
+import org.jolokia.client.request.J4pReadRequest;
+
+/**
+ * Polling state of one Jolokia agent: adaptive backoff of a failing agent,
+ * cached MBean search results and poll latency.
+ * <p>
+ * A target is polled by one thread at a time (see {@link #tryAcquire()}).
+ * Thread-safe.
+ *
+ * @author cli
+ */
+public final class JolokiaTarget {
+
+    private final J4pClient m_client;
+    private final String m_name; // host:port/path
+    private final AtomicBoolean m_polling;
+    private final LatencyHistogram m_latency;
+    private final AtomicLong m_polls;
+    private final AtomicLong m_failures;
+
+    private volatile int m_consecutiveFailures;
+    private volatile long m_nextPoll; // ms since epoch
+
+    // Cached search results (concrete read requests of MBean patterns)
+    private volatile List<J4pReadRequest> m_searchRequests;
+    private volatile Map<String, String> m_patterns; // mbean => pattern
+    private volatile long m_searched; // ms since epoch
+
+    private static final int MAX_BACKOFF_SHIFT = 16;
+
+    public JolokiaTarget(final J4pClient client) {
+        URI uri = client.getUri();
+        m_client = client;
+        String path = uri.getPath();
+        m_name = uri.getHost() + ":" + uri.getPort()
+                + (path != null ? path : "");
+        m_polling = new AtomicBoolean(false);
+        m_latency = new LatencyHistogram();
+        m_polls = new AtomicLong();
+        m_failures = new AtomicLong();
+        m_searchRequests = Collections.emptyList();
+        m_patterns = Collections.emptyMap();
+    }
+
+    public J4pClient getClient() {
+        return m_client;
+    }
+
+    public String getName() {
+        return m_name;
+    }
+
+    public LatencyHistogram getLatency() {
+        return m_latency;
+    }
+
+    public long getPolls() {
+        return m_polls.get();
+    }
+
+    public long getFailures() {
+        return m_failures.get();
+    }
+
+    public int getConsecutiveFailures() {
+        return m_consecutiveFailures;
+    }
+
+    /**
+     * Returns true if the target is not backing off.
+     *
+     * @param now the current time in milliseconds
+     * @return true if the target should be polled
+     */
+    public boolean isDue(final long now) {
+        return now >= m_nextPoll;
+    }
+
+    /**
+     * Marks this target as being polled.
+     *
+     * @return false if the target is already being polled
+     */
+    public boolean tryAcquire() {
+        return m_polling.compareAndSet(false, true);
+    }
+
+    /**
+     * Marks this target as not being polled.
+     */
+    public void release() {
+        m_polling.set(false);
+    }
+
+    /**
+     * Records a successful poll and resets the backoff.
+     *
+     * @param latency the poll latency in milliseconds
+     */
+    public void succeeded(final long latency) {
+        m_polls.incrementAndGet();
+        m_latency.record(latency);
+        m_consecutiveFailures = 0;
+        m_nextPoll = 0L;
+    }
+
+    /**
+     * Records a failed poll. The next poll is delayed exponentially (with
+     * jitter) by the amount of consecutive failures.
+     *
+     * @param now the current time in milliseconds
+     * @param latency the poll latency in milliseconds
+     * @param interval the poll interval in milliseconds
+     * @param maxBackoff the maximum delay in milliseconds
+     * @return the delay of the next poll in milliseconds
+     */
+    public long failed(
+            final long now,
+            final long latency,
+            final long interval,
+            final long maxBackoff) {
+
+        m_polls.incrementAndGet();
+        m_failures.incrementAndGet();
+        m_latency.record(latency);
+        int failures = ++m_consecutiveFailures;
+
+        // First failure is retried on next round
+        long delay = 0L;
+        if (failures > 1) {
+            int shift = Math.min(failures - 2, MAX_BACKOFF_SHIFT);
+            delay = Math.min(maxBackoff, interval << shift);
+            delay += ThreadLocalRandom.current().nextLong(delay / 10L + 1L);
+        }
+        m_nextPoll = now + delay;
+        return delay;
+    }
+
+    /**
+     * Returns true if the cached MBean search results are older than the
+     * search interval.
+     *
+     * @param now the current time in milliseconds
+     * @param searchInterval the search interval in milliseconds
+     * @return true if the MBean patterns should be searched again
+     */
+    public boolean isSearchDue(
+            final long now,
+            final long searchInterval) {
+
+        return (now - m_searched) >= searchInterval;
+    }
+
+    public List<J4pReadRequest> getSearchRequests() {
+        return m_searchRequests;
+    }
+
+    /**
+     * Returns the configured MBean pattern of a searched MBean.
+     *
+     * @param mbean the MBean name
+     * @return the pattern or the given name if it was not searched
+     */
+    public String getPattern(final String mbean) {
+        String pattern = m_patterns.get(mbean);
+        return (pattern != null ? pattern : mbean);
+    }
+
+    /**
+     * Replaces the cached MBean search results.
+     *
+     * @param requests the read requests of found MBeans
+     * @param patterns the patterns of found MBeans (mbean => pattern)
+     * @param now the current time in milliseconds
+     */
+    public void setSearchResults(
+            final List<J4pReadRequest> requests,
+            final Map<String, String> patterns,
+            final long now) {
+
+        m_patterns = patterns;
+        m_searchRequests = requests;
+        m_searched = now;
+    }
+
+    /**
+     * Forces a new MBean search on the next poll (eg. an MBean has been
+     * unregistered).
+     */
+    public void invalidateSearch() {
+        m_searched = 0L;
+    }
+}
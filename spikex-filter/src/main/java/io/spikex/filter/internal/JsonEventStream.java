@@ -0,0 +1,425 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.spikex.core.util.LineFramer;
+import io.spikex.core.util.LineFramer.Line;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Incremental parser of JSON events in a request body. The body is consumed
+ * chunk by chunk as it arrives and is never buffered as a whole. Supported
+ * formats are newline delimited JSON (one object per line) and a JSON array
+ * of objects. Gzip and deflate encoded bodies are decompressed on the fly
+ * in steps of at most {@value #INFLATE_STEP} bytes.
+ * <p>
+ * Every event is framed on byte level and parsed directly from the framed
+ * bytes with Jackson. Events that are longer than the maximum event size or
+ * that cannot be parsed are rejected (counted and skipped). The maximum body
+ * size is checked against the decompressed data after every step, so a
+ * highly compressed chunk is never inflated beyond the limit.
+ * <p>
+ * Events are handed to the handler as soon as they are parsed. If the body
+ * turns out to be too large or malformed later on, the events parsed before
+ * that have already been handled (partial body).
+ * <p>
+ * Not thread-safe.
+ *
+ * @author cli
+ */
+public final class JsonEventStream {
+
+    private final Format m_format;
+    private final long m_maxBodySize;
+    private final int m_maxEventSize;
+    private final BodyInflater m_inflater; // null if not compressed
+    private final byte[] m_inflated;
+    private final ByteBuf m_inflatedBuf;
+    private final LineFramer m_framer; // NDJSON
+    private final Handler<Line> m_lineHandler;
+
+    private Handler<JsonObject> m_handler;
+    private byte[] m_event; // Current event bytes
+    private int m_eventLen;
+    private long m_bodySize;
+    private long m_accepted;
+    private long m_rejected;
+    private boolean m_compressedInput;
+
+    // JSON array scanner state
+    private int m_depth;
+    private boolean m_started;
+    private boolean m_ended;
+    private boolean m_inString;
+    private boolean m_escape;
+    private boolean m_scalar;
+    private boolean m_overflow;
+
+    // Thread-safe after configuration
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final int INFLATE_STEP = 8192; // bytes
+
+    public static final String ENCODING_GZIP = "gzip";
+    public static final String ENCODING_DEFLATE = "deflate";
+    public static final String ENCODING_IDENTITY = "identity";
+
+    public enum Format {
+
+        NDJSON,
+        JSON_ARRAY
+    }
+
+    /**
+     * Creates a new event stream.
+     *
+     * @param format the body format
+     * @param contentEncoding the content encoding of the body (null or
+     * "identity", "gzip" or "deflate")
+     * @param maxBodySize the maximum size of the (decompressed) body in bytes
+     * @param maxEventSize the maximum size of one event in bytes
+     * @throws IllegalArgumentException if the content encoding is not
+     * supported
+     */
+    public JsonEventStream(
+            final Format format,
+            final String contentEncoding,
+            final long maxBodySize,
+            final int maxEventSize) {
+
+        Preconditions.checkArgument(maxEventSize > 0, "maxEventSize must be positive");
+        m_format = format;
+        m_maxBodySize = maxBodySize;
+        m_maxEventSize = maxEventSize;
+        m_inflater = createInflater(contentEncoding);
+        if (m_inflater != null) {
+            m_inflated = new byte[INFLATE_STEP];
+            m_inflatedBuf = Unpooled.wrappedBuffer(m_inflated);
+        } else {
+            m_inflated = null;
+            m_inflatedBuf = null;
+        }
+
+        if (format == Format.NDJSON) {
+            m_framer = new LineFramer(StandardCharsets.UTF_8, "\n", maxEventSize);
+            m_lineHandler = new Handler<Line>() {
+
+                @Override
+                public void handle(final Line line) {
+                    handleLine(line);
+                }
+            };
+        } else {
+            m_framer = null;
+            m_lineHandler = null;
+        }
+        m_event = new byte[Math.min(maxEventSize, 1024)];
+    }
+
+    public long getBodySize() {
+        return m_bodySize;
+    }
+
+    public long getAccepted() {
+        return m_accepted;
+    }
+
+    public long getRejected() {
+        // Lines longer than the maximum event size are counted by the framer
+        long split = (m_framer != null ? m_framer.getSplitCount() : 0L);
+        return m_rejected + split;
+    }
+
+    /**
+     * Returns true if the (decompressed) body has grown over the maximum
+     * body size. No more events are parsed after that.
+     *
+     * @return true if the body is too large
+     */
+    public boolean isTooLarge() {
+        return m_bodySize > m_maxBodySize;
+    }
+
+    /**
+     * Parses the events of the given body chunk. The events are handled
+     * before the rest of the body is known to be valid.
+     *
+     * @param chunk the body chunk
+     * @param handler the handler of parsed events
+     * @return false if the body has grown over the maximum body size (no
+     * more of the chunk is inflated or parsed)
+     * @throws IllegalArgumentException if the body is malformed (eg. a JSON
+     * array body does not start with '[' or a compressed body is corrupt)
+     */
+    public boolean write(
+            final Buffer chunk,
+            final Handler<JsonObject> handler) {
+
+        m_handler = handler;
+        ByteBuf buf = chunk.getByteBuf();
+        if (m_inflater == null) {
+            return consume(buf);
+        } else {
+            m_compressedInput |= buf.isReadable();
+            m_inflater.setInput(buf);
+            return inflate();
+        }
+    }
+
+    /**
+     * Parses the remaining events at the end of the body and releases the
+     * decompressor (if any).
+     *
+     * @param handler the handler of parsed events
+     * @return false if the body has grown over the maximum body size
+     * @throws IllegalArgumentException if a compressed body is truncated
+     */
+    public boolean end(final Handler<JsonObject> handler) {
+
+        m_handler = handler;
+        boolean ok = !isTooLarge();
+        BodyInflater inflater = m_inflater;
+        if (inflater != null) {
+            boolean truncated = ok && m_compressedInput && !inflater.isFinished();
+            inflater.end(); // All input has been inflated by write
+            if (truncated) {
+                throw new IllegalArgumentException("Truncated compressed body");
+            }
+        }
+        if (ok && m_framer != null) {
+            m_framer.flush(m_lineHandler); // Last line without delimiter
+        }
+        if (ok && m_format == Format.JSON_ARRAY && m_depth > 0) {
+            m_rejected++; // Truncated event
+        }
+        return ok;
+    }
+
+    /**
+     * Releases the decompressor (if any) without parsing the remaining
+     * events.
+     */
+    public void close() {
+        if (m_inflater != null) {
+            m_inflater.end();
+        }
+    }
+
+    private boolean inflate() {
+        try {
+            int len;
+            while ((len = m_inflater.inflate(m_inflated)) > 0) {
+                if (!consume(m_inflatedBuf.setIndex(0, len))) {
+                    return false; // Stop inflating
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Failed to decompress body", e);
+        }
+        return true;
+    }
+
+    private boolean consume(final ByteBuf buf) {
+
+        int len = buf.readableBytes();
+        m_bodySize += len;
+        if (isTooLarge()) {
+            return false;
+        }
+
+        if (m_format == Format.NDJSON) {
+            m_framer.frame(buf.nioBuffer(), m_lineHandler);
+        } else {
+            scan(buf, buf.readerIndex(), buf.readerIndex() + len);
+        }
+        return true;
+    }
+
+    private void handleLine(final Line line) {
+
+        //
+        // Lines longer than the maximum event size are split by the framer
+        // (rejected once per line by the split count of the framer)
+        //
+        if (line.isSplit()) {
+            return;
+        }
+
+        // Read-only view - copied in bulk
+        ByteBuffer bytes = line.bytes();
+        int len = bytes.remaining();
+        ensureCapacity(len);
+        bytes.get(m_event, 0, len);
+        parse(m_event, 0, len);
+    }
+
+    private void scan(
+            final ByteBuf buf,
+            final int start,
+            final int end) {
+
+        for (int i = start; i < end; i++) {
+            byte b = buf.getByte(i);
+
+            if (m_depth == 0 && !m_scalar) {
+                //
+                // Between events
+                //
+                if (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+                    continue;
+                }
+                if (!m_started) {
+                    if (b != '[') {
+                        throw new IllegalArgumentException("Expected JSON array");
+                    }
+                    m_started = true;
+                    continue;
+                }
+                if (m_ended || b == ',') {
+                    continue;
+                }
+                if (b == ']') {
+                    m_ended = true;
+                    continue;
+                }
+                m_eventLen = 0;
+                m_overflow = false;
+                if (b == '{' || b == '[') {
+                    m_depth = 1;
+                    append(b);
+                } else {
+                    // Not an object - skip until next element
+                    m_scalar = true;
+                    m_inString = (b == '"');
+                    m_rejected++;
+                }
+                continue;
+            }
+
+            if (!m_scalar) {
+                append(b);
+            }
+
+            if (m_inString) {
+                if (m_escape) {
+                    m_escape = false;
+                } else if (b == '\\') {
+                    m_escape = true;
+                } else if (b == '"') {
+                    m_inString = false;
+                }
+            } else if (b == '"') {
+                m_inString = true;
+            } else if (m_scalar) {
+                if (b == ',' || b == ']') {
+                    m_scalar = false;
+                    m_ended = (b == ']');
+                }
+            } else if (b == '{' || b == '[') {
+                m_depth++;
+            } else if (b == '}' || b == ']') {
+                if (--m_depth == 0) {
+                    if (m_overflow) {
+                        m_rejected++;
+                    } else {
+                        parse(m_event, 0, m_eventLen);
+                    }
+                }
+            }
+        }
+    }
+
+    private void append(final byte b) {
+        if (!m_overflow) {
+            if (m_eventLen >= m_maxEventSize) {
+                m_overflow = true; // Keep scanning, but do not copy
+            } else {
+                ensureCapacity(m_eventLen + 1);
+                m_event[m_eventLen++] = b;
+            }
+        }
+    }
+
+    private void ensureCapacity(final int len) {
+        if (len > m_event.length) {
+            m_event = Arrays.copyOf(m_event,
+                    Math.min(Math.max(len, m_event.length * 2), m_maxEventSize));
+        }
+    }
+
+    private void parse(
+            final byte[] bytes,
+            final int off,
+            final int len) {
+
+        // Skip empty lines
+        int start = off;
+        int end = off + len;
+        while (start < end && bytes[start] <= ' ') {
+            start++;
+        }
+        if (start == end) {
+            return;
+        }
+
+        try {
+            Map<String, Object> map = MAPPER.readValue(bytes, start, end - start, Map.class);
+            m_accepted++;
+            m_handler.handle(new JsonObject(map));
+        } catch (IOException | ClassCastException e) {
+            m_rejected++;
+        }
+    }
+
+    private static BodyInflater createInflater(final String contentEncoding) {
+
+        BodyInflater inflater = null;
+        if (contentEncoding != null) {
+            String encoding = contentEncoding.trim().toLowerCase();
+            switch (encoding) {
+                case ENCODING_GZIP:
+                case "x-gzip":
+                    inflater = BodyInflater.gzip();
+                    break;
+                case ENCODING_DEFLATE:
+                    // Zlib wrapped or raw deflate
+                    inflater = BodyInflater.deflate();
+                    break;
+                case ENCODING_IDENTITY:
+                case "":
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported content encoding: "
+                            + contentEncoding);
+            }
+        }
+        return inflater;
+    }
+}
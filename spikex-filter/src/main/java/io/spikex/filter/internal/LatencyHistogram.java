@@ -0,0 +1,120 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-bucket latency histogram (milliseconds). Recording is lock-free and
+ * does not allocate. Quantiles are estimated as the upper bound of the
+ * bucket that contains the quantile.
+ * <p>
+ * Thread-safe.
+ *
+ * @author cli
+ */
+public final class LatencyHistogram {
+
+    private final AtomicLongArray m_counts;
+    private final AtomicLong m_count;
+    private final AtomicLong m_sum; // ms
+    private final AtomicLong m_max; // ms
+
+    // Upper bounds of buckets in milliseconds (last bucket is unbounded)
+    private static final long[] BOUNDS = {
+        1L, 2L, 5L, 10L, 25L, 50L, 100L, 250L, 500L,
+        1000L, 2500L, 5000L, 10000L, 30000L, 60000L
+    };
+
+    public LatencyHistogram() {
+        m_counts = new AtomicLongArray(BOUNDS.length + 1);
+        m_count = new AtomicLong();
+        m_sum = new AtomicLong();
+        m_max = new AtomicLong();
+    }
+
+    /**
+     * Records one latency.
+     *
+     * @param latency the latency in milliseconds
+     */
+    public void record(final long latency) {
+        int i = 0;
+        while (i < BOUNDS.length && latency > BOUNDS[i]) {
+            i++;
+        }
+        m_counts.incrementAndGet(i);
+        m_count.incrementAndGet();
+        m_sum.addAndGet(latency);
+
+        long max;
+        do {
+            max = m_max.get();
+        } while (latency > max && !m_max.compareAndSet(max, latency));
+    }
+
+    public long getCount() {
+        return m_count.get();
+    }
+
+    public long getMax() {
+        return m_max.get();
+    }
+
+    public double getMean() {
+        long count = m_count.get();
+        return (count > 0 ? (double) m_sum.get() / count : 0.0d);
+    }
+
+    /**
+     * Returns the estimated latency of the given quantile.
+     *
+     * @param quantile the quantile (0.0 - 1.0)
+     * @return the latency in milliseconds (the maximum latency if the
+     * quantile falls into the unbounded bucket)
+     */
+    public long getQuantile(final double quantile) {
+        long count = m_count.get();
+        if (count == 0L) {
+            return 0L;
+        }
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0L;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += m_counts.get(i);
+            if (seen >= rank) {
+                return Math.min(BOUNDS[i], m_max.get());
+            }
+        }
+        return m_max.get();
+    }
+
+    /**
+     * Clears all recorded latencies. Latencies recorded concurrently with a
+     * reset may be partially lost.
+     */
+    public void reset() {
+        for (int i = 0; i < m_counts.length(); i++) {
+            m_counts.set(i, 0L);
+        }
+        m_count.set(0L);
+        m_sum.set(0L);
+        m_max.set(0L);
+    }
+}
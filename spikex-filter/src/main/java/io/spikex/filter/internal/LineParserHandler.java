@@ -0,0 +1,195 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import io.spikex.core.util.LineFramer;
+import io.spikex.core.util.LineFramer.Line;
+import io.spikex.core.util.process.ChildProcess;
+import io.spikex.core.util.process.DefaultProcessHandler;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Parses the stdout of a child process while it is being written. Lines are
+ * passed to the line parser as soon as they are framed and the resulting
+ * events are handed to the event handler once per stdout chunk. Only the
+ * lines to skip from the end are held back, so memory use does not depend on
+ * the size of the output.
+ * <p>
+ * Both handlers are called from the NuProcess thread.
+ *
+ * @author cli
+ */
+public final class LineParserHandler extends DefaultProcessHandler {
+
+    private final ILineParser m_parser;
+    private final int m_skipLinesFromStart;
+    private final int m_skipLinesFromEnd;
+    private final long m_maxLineCount;
+    private final Handler<JsonObject[]> m_eventHandler;
+    private final Handler<Integer> m_exitHandler;
+
+    private final ArrayDeque<String> m_tail; // Lines that might be skipped
+    private final List<JsonObject> m_events;
+    private final Handler<Line> m_lineHandler;
+    private final Handler<JsonObject> m_parserHandler;
+
+    private LineFramer m_framer; // Created on first output (process encoding)
+    private long m_lineCount;
+    private boolean m_done;
+
+    private static final String LINE_DELIMITER = "\n";
+    private static final int MAX_LINE_LENGTH = 1024 * 1024; // bytes
+
+    public LineParserHandler(
+            final ILineParser parser,
+            final int skipLinesFromStart,
+            final int skipLinesFromEnd,
+            final long maxLineCount,
+            final Handler<JsonObject[]> eventHandler,
+            final Handler<Integer> exitHandler) {
+
+        m_parser = parser;
+        m_skipLinesFromStart = skipLinesFromStart;
+        m_skipLinesFromEnd = skipLinesFromEnd;
+        m_maxLineCount = maxLineCount;
+        m_eventHandler = eventHandler;
+        m_exitHandler = exitHandler;
+        m_tail = new ArrayDeque();
+        m_events = new ArrayList();
+        m_lineHandler = new Handler<Line>() {
+
+            @Override
+            public void handle(final Line line) {
+                addLine(line.toString());
+            }
+        };
+        m_parserHandler = new Handler<JsonObject>() {
+
+            @Override
+            public void handle(final JsonObject event) {
+                m_events.add(event);
+            }
+        };
+        parser.reset();
+    }
+
+    public long getLineCount() {
+        return m_lineCount;
+    }
+
+    @Override
+    public void onExit(final int statusCode) {
+        super.onExit(statusCode);
+        m_exitHandler.handle(statusCode);
+    }
+
+    @Override
+    public void onStdout(
+            final ByteBuffer buffer,
+            final boolean closed) {
+
+        LineFramer framer = m_framer;
+        if (framer == null) {
+            Charset encoding = StandardCharsets.UTF_8;
+            ChildProcess process = getProcess();
+            if (process != null) {
+                encoding = process.getEncoding();
+            }
+            framer = new LineFramer(encoding, LINE_DELIMITER, MAX_LINE_LENGTH, true);
+            m_framer = framer;
+        }
+
+        try {
+            if (buffer != null && !m_done) {
+                framer.frame(buffer, m_lineHandler);
+            }
+            if (closed) {
+                if (!m_done) {
+                    framer.flush(m_lineHandler); // Last line without delimiter
+                }
+                m_parser.flush(m_parserHandler);
+                closeStdin();
+            }
+        } catch (IOException | RuntimeException e) {
+            // Drop the rest of the output
+            logger().error("Failed to parse command output: {}",
+                    (getProcess() != null ? getProcess().getArgs() : ""), e);
+            m_done = true;
+            m_parser.reset();
+            closeStdin();
+        }
+
+        if (buffer != null) {
+            buffer.position(buffer.limit()); // Ignore output after done
+        }
+
+        List<JsonObject> events = m_events;
+        if (!events.isEmpty()) {
+            JsonObject[] batch = events.toArray(new JsonObject[events.size()]);
+            events.clear();
+            m_eventHandler.handle(batch);
+        }
+    }
+
+    private void addLine(final String str) {
+
+        if (m_done) {
+            return;
+        }
+
+        // Strip carriage return of "\r\n"
+        String line = str;
+        if (line.endsWith("\r")) {
+            line = line.substring(0, line.length() - 1);
+        }
+
+        long lineCount = ++m_lineCount;
+        if (lineCount > m_skipLinesFromStart) {
+            //
+            // Hold back lines that might be skipped from the end
+            //
+            ArrayDeque<String> tail = m_tail;
+            tail.addLast(line);
+            if (tail.size() > m_skipLinesFromEnd) {
+                try {
+                    m_parser.parse(tail.removeFirst(), m_parserHandler);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+
+        //
+        // Stop processing if max line count reached
+        //
+        long maxLineCount = m_maxLineCount;
+        if (maxLineCount > 0
+                && lineCount >= maxLineCount) {
+            m_done = true;
+            closeStdin();
+        }
+    }
+}
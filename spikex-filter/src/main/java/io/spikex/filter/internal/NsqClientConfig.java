@@ -48,6 +48,7 @@ public final class NsqClientConfig {
     private final boolean m_featureNegotiation;
     private final boolean m_sslEnabled;
     private final boolean m_sslClientAuth;
+    private final boolean m_ackDownstream;
     private final int m_heartbeatInterval;
     private final int m_lookupPeriod;
     private final int m_deflateLevel;
@@ -59,7 +60,9 @@ public final class NsqClientConfig {
     private final int m_outputBufferTimeout;
     private final int m_outputBufferSize;
     private final int m_sampleRate;
+    private final int m_maxInFlight;
     private final long m_idleThreadKeepAliveTime;
+    private final long m_ackTimeout;
 
     private final String m_clientId;
     private final String m_userAgent;
@@ -86,6 +89,9 @@ public final class NsqClientConfig {
     public static final String SSL_PROVIDER_JDK = "jdk";
     public static final String SSL_PROVIDER_OPENSSL = "openssl";
 
+    public static final String ACK_MODE_AUTO = "auto"; // FIN on receive
+    public static final String ACK_MODE_DOWNSTREAM = "downstream"; // FIN on ack
+
     private static final String CONF_KEY_CLIENT_ID = "client-id";
     private static final String CONF_KEY_COMPRESSION = "compression";
     private static final String CONF_KEY_DEFLATE_LEVEL = "deflate-level";
@@ -117,6 +123,9 @@ public final class NsqClientConfig {
     private static final String CONF_KEY_TRUST_CERT_CHAIN_PATH = "trust-cert-chain-path";
     private static final String CONF_KEY_CLIENT_CERT_PATH = "client-cert-path";
     private static final String CONF_KEY_CLIENT_KEY_PATH = "client-key-path";
+    private static final String CONF_KEY_ACK_MODE = "ack-mode";
+    private static final String CONF_KEY_ACK_TIMEOUT = "ack-timeout";
+    private static final String CONF_KEY_MAX_IN_FLIGHT = "max-in-flight";
 
     //
     // Configuration defaults
@@ -145,6 +154,7 @@ public final class NsqClientConfig {
     private static final int DEF_MAX_POOL_SIZE = 1;
     private static final int DEF_MESSAGE_QUEUE_SIZE = 1000;
     private static final long DEF_IDLE_THREAD_KEEP_ALIVE_TIME = 1000L; // ms
+    private static final long DEF_ACK_TIMEOUT = 30000L; // ms
 
     private static final boolean DEF_FEATURE_NEGOTIATION = true;
     private static final boolean DEF_SSL_ENABLED = false;
@@ -163,6 +173,7 @@ public final class NsqClientConfig {
             final boolean featureNegotiation,
             final boolean sslEnabled,
             final boolean sslClientAuth,
+            final boolean ackDownstream,
             final int heartbeatInterval,
             final int lookupPeriod,
             final int deflateLevel,
@@ -174,7 +185,9 @@ public final class NsqClientConfig {
             final int outputBufferTimeout,
             final int outputBufferSize,
             final int sampleRate,
+            final int maxInFlight,
             final long idleThreadKeepAliveTime,
+            final long ackTimeout,
             final String clientId,
             final String userAgent,
             final String trustStorePath,
@@ -193,6 +206,7 @@ public final class NsqClientConfig {
         m_featureNegotiation = featureNegotiation;
         m_sslEnabled = sslEnabled;
         m_sslClientAuth = sslClientAuth;
+        m_ackDownstream = ackDownstream;
         m_heartbeatInterval = heartbeatInterval;
         m_lookupPeriod = lookupPeriod;
         m_deflateLevel = deflateLevel;
@@ -204,7 +218,9 @@ public final class NsqClientConfig {
         m_outputBufferTimeout = outputBufferTimeout;
         m_outputBufferSize = outputBufferSize;
         m_sampleRate = sampleRate;
+        m_maxInFlight = maxInFlight;
         m_idleThreadKeepAliveTime = idleThreadKeepAliveTime;
+        m_ackTimeout = ackTimeout;
         m_clientId = clientId;
         m_userAgent = userAgent;
         m_trustStorePath = trustStorePath;
@@ -226,6 +242,10 @@ public final class NsqClientConfig {
         return m_sslClientAuth;
     }
 
+    public boolean isAckDownstream() {
+        return m_ackDownstream;
+    }
+
     public String getSslProvider() {
         return m_sslProvider;
     }
@@ -262,6 +282,14 @@ public final class NsqClientConfig {
         return m_idleThreadKeepAliveTime;
     }
 
+    public int getMaxInFlight() {
+        return m_maxInFlight;
+    }
+
+    public long getAckTimeout() {
+        return m_ackTimeout;
+    }
+
     public NSQConfig buildNSQConfig(final Variables variables) {
 
         NSQConfig config = new NSQConfig();
@@ -377,6 +405,7 @@ public final class NsqClientConfig {
         private boolean m_featureNegotiation;
         private boolean m_sslEnabled;
         private boolean m_sslClientAuth;
+        private boolean m_ackDownstream;
         private int m_heartbeatInterval;
         private int m_lookupPeriod;
         private int m_deflateLevel;
@@ -388,7 +417,9 @@ public final class NsqClientConfig {
         private int m_outputBufferTimeout;
         private int m_outputBufferSize;
         private int m_sampleRate;
+        private int m_maxInFlight;
         private long m_idleThreadKeepAliveTime;
+        private long m_ackTimeout;
 
         private String m_clientId;
         private String m_userAgent;
@@ -426,6 +457,9 @@ public final class NsqClientConfig {
             m_outputBufferSize = DEF_OUTPUT_BUFFER_SIZE;
             m_sampleRate = DEF_SAMPLE_RATE;
             m_idleThreadKeepAliveTime = DEF_IDLE_THREAD_KEEP_ALIVE_TIME;
+            m_ackDownstream = false;
+            m_ackTimeout = DEF_ACK_TIMEOUT;
+            m_maxInFlight = DEF_MESSAGES_PER_BATCH;
             m_userAgent = DEF_USER_AGENT;
             m_clientId = newClientId();
 
@@ -486,6 +520,11 @@ public final class NsqClientConfig {
             corePoolSize(config.getInteger(CONF_KEY_CORE_POOL_SIZE, DEF_CORE_POOL_SIZE));
             maxPoolSize(config.getInteger(CONF_KEY_MAX_POOL_SIZE, DEF_MAX_POOL_SIZE));
             idleThreadKeepAliveTime(config.getLong(CONF_KEY_IDLE_THREAD_KEEP_ALIVE_TIME, DEF_IDLE_THREAD_KEEP_ALIVE_TIME));
+
+            ackMode(config.getString(CONF_KEY_ACK_MODE, ACK_MODE_AUTO));
+            ackTimeout(config.getLong(CONF_KEY_ACK_TIMEOUT, DEF_ACK_TIMEOUT));
+            // Never allow more in-flight messages than we requested by default
+            maxInFlight(config.getInteger(CONF_KEY_MAX_IN_FLIGHT, m_msgPerBatch));
         }
 
         public void clientId(final String clientId) {
@@ -605,6 +644,25 @@ public final class NsqClientConfig {
             m_idleThreadKeepAliveTime = time;
         }
 
+        public void ackMode(final String mode) {
+            switch (mode) {
+                case ACK_MODE_DOWNSTREAM:
+                    m_ackDownstream = true;
+                    break;
+                default:
+                    m_ackDownstream = false;
+                    break;
+            }
+        }
+
+        public void ackTimeout(final long timeout) {
+            m_ackTimeout = timeout;
+        }
+
+        public void maxInFlight(final int count) {
+            m_maxInFlight = count;
+        }
+
         public void nodes(List<String> nodes) {
             m_nodes.clear();
             m_nodes.addAll(nodes);
@@ -624,6 +682,7 @@ public final class NsqClientConfig {
                     m_featureNegotiation,
                     m_sslEnabled,
                     m_sslClientAuth,
+                    m_ackDownstream,
                     m_heartbeatInterval,
                     m_lookupPeriod,
                     m_deflateLevel,
@@ -635,7 +694,9 @@ public final class NsqClientConfig {
                     m_outputBufferTimeout,
                     m_outputBufferSize,
                     m_sampleRate,
+                    m_maxInFlight,
                     m_idleThreadKeepAliveTime,
+                    m_ackTimeout,
                     m_clientId,
                     m_userAgent,
                     m_trustStorePath,
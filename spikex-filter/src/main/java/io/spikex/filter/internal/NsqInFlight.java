@@ -0,0 +1,192 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import com.github.brainlag.nsq.NSQMessage;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Keeps track of NSQ messages that have been published downstream, but not yet
+ * acknowledged by the terminal filter of the chain.
+ * <p>
+ * The number of in-flight messages is limited using additive increase and
+ * multiplicative decrease: the limit is halved on every timeout or failure and
+ * increased by one after a full round of successful acknowledgements. The limit
+ * never exceeds the configured maximum. Consumer threads that try to exceed the
+ * limit are blocked until a slot is released or the wait times out.
+ *
+ * @author cli
+ */
+public final class NsqInFlight {
+
+    private final Map<String, InFlightMessage> m_messages; // ack-id => message
+    private final int m_maxLimit;
+    private final long m_timeout; // ms
+
+    private int m_limit;
+    private int m_acked; // Successful acks since last limit increase
+
+    public NsqInFlight(
+            final int maxLimit,
+            final long timeout) {
+
+        m_messages = new HashMap();
+        m_maxLimit = Math.max(1, maxLimit);
+        m_timeout = timeout;
+        m_limit = m_maxLimit;
+        m_acked = 0;
+    }
+
+    public synchronized int getLimit() {
+        return m_limit;
+    }
+
+    public synchronized int size() {
+        return m_messages.size();
+    }
+
+    public long getTimeout() {
+        return m_timeout;
+    }
+
+    /**
+     * Registers the message as in-flight. Blocks until there is room for the
+     * message or the given wait time has elapsed.
+     *
+     * @param ackId the acknowledgement identifier of the message
+     * @param message the NSQ message
+     * @param maxWait the maximum wait time in milliseconds
+     * @return true if the message was registered, false on timeout
+     * @throws InterruptedException if the waiting thread was interrupted
+     */
+    public synchronized boolean acquire(
+            final String ackId,
+            final NSQMessage message,
+            final long maxWait) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + maxWait;
+        while (m_messages.size() >= m_limit) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0L) {
+                return false;
+            }
+            wait(wait);
+        }
+        m_messages.put(ackId, new InFlightMessage(message));
+        return true;
+    }
+
+    /**
+     * Releases the in-flight message and adjusts the in-flight limit.
+     *
+     * @param ackId the acknowledgement identifier of the message
+     * @param success true if the message was handled successfully
+     * @return the released message or null if it was not in-flight anymore
+     */
+    public synchronized NSQMessage release(
+            final String ackId,
+            final boolean success) {
+
+        NSQMessage message = null;
+        InFlightMessage inFlight = m_messages.remove(ackId);
+        if (inFlight != null) {
+            message = inFlight.getMessage();
+            if (success) {
+                increaseLimit();
+            } else {
+                decreaseLimit();
+            }
+            notifyAll();
+        }
+        return message;
+    }
+
+    /**
+     * Requeues all messages that have not been acknowledged within the
+     * acknowledgement timeout.
+     *
+     * @param now the current time in milliseconds
+     * @return the number of requeued messages
+     */
+    public synchronized int requeueExpired(final long now) {
+
+        int count = 0;
+        Iterator<InFlightMessage> messages = m_messages.values().iterator();
+        while (messages.hasNext()) {
+            InFlightMessage inFlight = messages.next();
+            if (now - inFlight.getStartTime() > m_timeout) {
+                messages.remove();
+                inFlight.getMessage().requeue();
+                count++;
+            }
+        }
+        if (count > 0) {
+            decreaseLimit();
+            notifyAll();
+        }
+        return count;
+    }
+
+    /**
+     * Requeues all in-flight messages (eg. on shutdown).
+     *
+     * @return the number of requeued messages
+     */
+    public synchronized int requeueAll() {
+        int count = m_messages.size();
+        for (InFlightMessage inFlight : m_messages.values()) {
+            inFlight.getMessage().requeue();
+        }
+        m_messages.clear();
+        notifyAll();
+        return count;
+    }
+
+    private void increaseLimit() {
+        if (++m_acked >= m_limit) {
+            m_acked = 0;
+            m_limit = Math.min(m_maxLimit, m_limit + 1);
+        }
+    }
+
+    private void decreaseLimit() {
+        m_acked = 0;
+        m_limit = Math.max(1, m_limit / 2);
+    }
+
+    private static final class InFlightMessage {
+
+        private final NSQMessage m_message;
+        private final long m_startTime;
+
+        private InFlightMessage(final NSQMessage message) {
+            m_message = message;
+            m_startTime = System.currentTimeMillis();
+        }
+
+        private NSQMessage getMessage() {
+            return m_message;
+        }
+
+        private long getStartTime() {
+            return m_startTime;
+        }
+    }
+}
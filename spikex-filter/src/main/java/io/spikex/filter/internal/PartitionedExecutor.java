@@ -0,0 +1,149 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed set of single-threaded executors. Keys (eg. sources) are hashed to
+ * partitions, so that the tasks of a key are always run in order by the same
+ * thread. Each partition queues at most the given amount of tasks.
+ * <p>
+ * Thread-safe.
+ *
+ * @author cli
+ */
+public final class PartitionedExecutor {
+
+    private final ExecutorService[] m_executors;
+
+    public PartitionedExecutor(
+            final int partitions,
+            final int maxPending) {
+
+        m_executors = new ExecutorService[partitions];
+        for (int i = 0; i < partitions; i++) {
+            m_executors[i] = new ThreadPoolExecutor(
+                    1,
+                    1,
+                    0L,
+                    TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(maxPending));
+        }
+    }
+
+    public int size() {
+        return m_executors.length;
+    }
+
+    /**
+     * Returns the partition of the given key.
+     *
+     * @param key the key
+     * @return the partition index
+     */
+    public int partition(final String key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % m_executors.length;
+    }
+
+    /**
+     * Runs the given task in the given partition after all previously queued
+     * tasks of the partition.
+     *
+     * @param partition the partition index
+     * @param task the task
+     * @throws RejectedExecutionException if the queue of the partition is full
+     * or the executor has been shut down
+     */
+    public void execute(
+            final int partition,
+            final Runnable task) {
+
+        m_executors[partition].execute(task);
+    }
+
+    /**
+     * Stops accepting new tasks. Queued tasks are still run. Does not wait.
+     */
+    public void shutdown() {
+        for (ExecutorService executor : m_executors) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Stops accepting new tasks and drops the queued tasks. Does not wait for
+     * the running tasks.
+     */
+    public void shutdownNow() {
+        for (ExecutorService executor : m_executors) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits until the given partition has run its queued tasks after
+     * shutdown.
+     *
+     * @param partition the partition index
+     * @param timeout the maximum time to wait in milliseconds
+     * @return true if the partition has terminated
+     */
+    public boolean awaitTermination(
+            final int partition,
+            final long timeout) {
+
+        try {
+            return m_executors[partition].awaitTermination(timeout,
+                    TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Stops accepting new tasks and waits until the queued tasks have been
+     * run. Tasks that are still queued after the timeout are dropped.
+     *
+     * @param timeout the maximum time to wait in milliseconds
+     * @return true if all queued tasks were run
+     */
+    public boolean shutdown(final long timeout) {
+
+        shutdown();
+
+        boolean drained = true;
+        long deadline = System.currentTimeMillis() + timeout;
+        for (int i = 0; i < m_executors.length; i++) {
+            long wait = Math.max(0L, deadline - System.currentTimeMillis());
+            if (!awaitTermination(i, wait)) {
+                drained = false;
+            }
+        }
+
+        if (!drained) {
+            shutdownNow();
+        }
+        return drained;
+    }
+}
@@ -21,11 +21,11 @@ import com.google.common.base.Preconditions;
 import io.spikex.core.helper.Events;
 import io.spikex.core.helper.Variables;
 import io.spikex.core.util.Numbers;
+import io.spikex.core.util.Pattern;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.regex.Pattern;
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
@@ -36,6 +36,13 @@ import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
 /**
+ * Matches events by tag and/or field value.
+ * <p>
+ * The "value-matches" (regular expression) and "value-contains-any" (any of
+ * the given strings) constraints are compiled into one deterministic automaton
+ * per rule, so matching is linear in the length of the value. Several regular
+ * expressions are combined as alternatives. The whole value must match the
+ * regular expression (see {@link Pattern} for the syntax).
  *
  * @author cli
  */
@@ -52,6 +59,7 @@ public final class Rule {
 
     private final Object m_value;
     private final List<? extends Object> m_values;
+    private final Pattern m_pattern; // value-matches or value-contains-any
 
     private static final String CONFIG_FIELD_MATCH_FIELD = "match-field";
     private static final String CONFIG_FIELD_MATCH_TAG = "match-tag";
@@ -62,6 +70,8 @@ public final class Rule {
     private static final String CONFIG_FIELD_EXPRESSION = "expression";
     private static final String CONFIG_FIELD_VALUE_EQUALS = "value-equals";
     private static final String CONFIG_FIELD_VALUE_CONTAINS = "value-contains";
+    private static final String CONFIG_FIELD_VALUE_CONTAINS_ANY = "value-contains-any"; // Array
+    private static final String CONFIG_FIELD_VALUE_MATCHES = "value-matches"; // Regexp or array
     private static final String CONFIG_FIELD_VALUE_IN = "value-in"; // Array
     private static final String CONFIG_FIELD_VALUE_NOT_IN = "value-not-in"; // Array
     private static final String CONFIG_FIELD_VALUE_LT = "value-lt"; // Less than
@@ -78,8 +88,8 @@ public final class Rule {
 
     // Built-ins
     private static final String BUILTIN_NOW = "#now";
-    private static final Pattern REGEXP_NOW
-            = Pattern.compile("#now[(]?"
+    private static final java.util.regex.Pattern REGEXP_NOW
+            = java.util.regex.Pattern.compile("#now[(]?"
                     + "([A-Z][0-9\\\\w\\\\-\\\\+_/]+)?,?" // Timezone
                     + "([\\\\+\\\\-]?[0-9]+h)?,?" // Hours
                     + "([\\\\+\\\\-]?[0-9]+m)?,?" // Minutes
@@ -94,6 +104,7 @@ public final class Rule {
     public static final int CONSTRAINT_LTE = 105;
     public static final int CONSTRAINT_GT = 106;
     public static final int CONSTRAINT_GTE = 107;
+    public static final int CONSTRAINT_MATCHES = 108; // String only
 
     private static final Logger m_logger = LoggerFactory.getLogger(Rule.class);
 
@@ -107,7 +118,8 @@ public final class Rule {
             final Object fmt,
             final int constraint,
             final Object value,
-            final List<? extends Object> values) {
+            final List<? extends Object> values,
+            final Pattern pattern) {
 
         // Sanity checks
         Preconditions.checkArgument(id != null && id.length() > 0,
@@ -127,6 +139,7 @@ public final class Rule {
         m_constraint = constraint;
         m_value = value;
         m_values = values;
+        m_pattern = pattern;
     }
 
     @Override
@@ -137,6 +150,7 @@ public final class Rule {
         hash = 59 * hash + Objects.hashCode(m_tag);
         hash = 59 * hash + Objects.hashCode(m_value);
         hash = 59 * hash + Objects.hashCode(m_values);
+        hash = 59 * hash + Objects.hashCode(m_pattern);
         return hash;
     }
 
@@ -164,6 +178,9 @@ public final class Rule {
         if (!Objects.equals(m_values, other.m_values)) {
             return false;
         }
+        if (!Objects.equals(m_pattern, other.m_pattern)) {
+            return false;
+        }
         return true;
     }
 
@@ -244,6 +261,8 @@ public final class Rule {
         sb.append(m_value);
         sb.append(" values: ");
         sb.append(m_values);
+        sb.append(" pattern: ");
+        sb.append(m_pattern != null ? m_pattern.getRegexp() : null);
         return sb.toString();
     }
 
@@ -363,6 +382,16 @@ public final class Rule {
                 break;
             }
 
+            // String (value-matches or value-contains-any)
+            case CONSTRAINT_MATCHES: {
+                if (eventValue instanceof String) {
+                    match = m_pattern.matches((String) eventValue);
+                } else if (eventValue != null) {
+                    match = m_pattern.matches(String.valueOf(eventValue));
+                }
+                break;
+            }
+
             // String or numerical
             case CONSTRAINT_NOT_IN:
                 match = true;
@@ -505,6 +534,7 @@ public final class Rule {
         Object value = null;
         List values = new ArrayList();
         Object fmt = "";
+        Pattern pattern = null;
 
         if (config.containsField(CONFIG_FIELD_VALUE_EQUALS)) {
             constraint = CONSTRAINT_EQUALS;
@@ -525,6 +555,33 @@ public final class Rule {
                         CONFIG_FIELD_VALUE_CONTAINS + " must not be null or empty");
                 values.add(str);
             }
+        } else if (config.containsField(CONFIG_FIELD_VALUE_CONTAINS_ANY)) {
+            constraint = CONSTRAINT_MATCHES;
+            StringBuilder regexp = new StringBuilder(".*(");
+            List<String> strings = createStrings(config, CONFIG_FIELD_VALUE_CONTAINS_ANY);
+            for (int i = 0; i < strings.size(); i++) {
+                if (i > 0) {
+                    regexp.append('|');
+                }
+                regexp.append(Pattern.quote(strings.get(i)));
+            }
+            regexp.append(").*");
+            pattern = createPattern(regexp.toString(), CONFIG_FIELD_VALUE_CONTAINS_ANY);
+
+        } else if (config.containsField(CONFIG_FIELD_VALUE_MATCHES)) {
+            constraint = CONSTRAINT_MATCHES;
+            StringBuilder regexp = new StringBuilder();
+            List<String> regexps = createStrings(config, CONFIG_FIELD_VALUE_MATCHES);
+            for (int i = 0; i < regexps.size(); i++) {
+                if (i > 0) {
+                    regexp.append('|');
+                }
+                regexp.append('(');
+                regexp.append(regexps.get(i));
+                regexp.append(')');
+            }
+            pattern = createPattern(regexp.toString(), CONFIG_FIELD_VALUE_MATCHES);
+
         } else if (config.containsField(CONFIG_FIELD_VALUE_IN)) {
             constraint = CONSTRAINT_IN;
             JsonArray array = config.getArray(CONFIG_FIELD_VALUE_IN);
@@ -603,7 +660,41 @@ public final class Rule {
                 fmt,
                 constraint,
                 value,
-                values);
+                values,
+                pattern);
+    }
+
+    private static List<String> createStrings(
+            final JsonObject config,
+            final String field) {
+
+        List<String> strings = new ArrayList();
+        Object value = config.getValue(field);
+        if (!(value instanceof JsonArray)) {
+            value = new JsonArray().add(value);
+        }
+        JsonArray array = (JsonArray) value;
+        for (int i = 0; i < array.size(); i++) {
+            Object str = array.get(i);
+            Preconditions.checkArgument(str != null && String.valueOf(str).length() > 0,
+                    field + " must not be null or empty");
+            strings.add(String.valueOf(str));
+        }
+        Preconditions.checkArgument(!strings.isEmpty(), field + " must not be empty");
+        return strings;
+    }
+
+    private static Pattern createPattern(
+            final String regexp,
+            final String field) {
+
+        Pattern pattern = new Pattern(regexp);
+        try {
+            pattern.compile(); // Compile once - matching is read-only
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid " + field + ": " + regexp, e);
+        }
+        return pattern;
     }
 
     private static BigDecimal createBigDecimal(
@@ -0,0 +1,226 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Persistent registry of the high-water marks of incremental SQL queries
+ * (query name => last seen value of the high-water mark column). Numbers,
+ * timestamps and strings are supported.
+ * <p>
+ * The registry file is written to a temporary file that is synced to disk
+ * and atomically renamed. Every update is versioned, so that a snapshot is
+ * never written over a newer one by a concurrent update. Timestamps are
+ * stored with nanosecond precision.
+ * <p>
+ * Thread-safe.
+ *
+ * @author cli
+ */
+public final class SqlHighWaterMarks {
+
+    private final Path m_file;
+    private final Map<String, Object> m_marks; // query name => value
+    private long m_version; // Guarded by this
+    private long m_savedVersion; // Guarded by m_file
+
+    private final Logger m_logger = LoggerFactory.getLogger(SqlHighWaterMarks.class);
+
+    private static final String FIELD_VERSION = "version";
+    private static final String FIELD_MARKS = "marks";
+    private static final String FIELD_TYPE = "type";
+    private static final String FIELD_VALUE = "value";
+    private static final String FIELD_NANOS = "nanos";
+
+    private static final String TYPE_LONG = "long";
+    private static final String TYPE_DOUBLE = "double";
+    private static final String TYPE_DECIMAL = "decimal";
+    private static final String TYPE_TIMESTAMP = "timestamp";
+    private static final String TYPE_STRING = "string";
+
+    private static final int VERSION = 1;
+    private static final String TMP_SUFFIX = ".tmp";
+
+    public SqlHighWaterMarks(final Path file) {
+        m_file = file;
+        m_marks = new HashMap();
+    }
+
+    public Path getFile() {
+        return m_file;
+    }
+
+    /**
+     * Loads the persisted high-water marks. A missing file is not an error.
+     *
+     * @throws IOException if the file could not be read
+     */
+    public synchronized void load() throws IOException {
+
+        m_marks.clear();
+
+        if (Files.exists(m_file)) {
+            String json = new String(Files.readAllBytes(m_file), StandardCharsets.UTF_8);
+            JsonObject marks = new JsonObject(json).getObject(FIELD_MARKS, new JsonObject());
+            for (String name : marks.getFieldNames()) {
+                JsonObject mark = marks.getObject(name);
+                String type = mark.getString(FIELD_TYPE, TYPE_STRING);
+                Object value;
+                switch (type) {
+                    case TYPE_LONG:
+                        value = mark.getLong(FIELD_VALUE);
+                        break;
+                    case TYPE_DOUBLE:
+                        value = mark.getNumber(FIELD_VALUE).doubleValue();
+                        break;
+                    case TYPE_DECIMAL:
+                        value = new BigDecimal(mark.getString(FIELD_VALUE));
+                        break;
+                    case TYPE_TIMESTAMP: {
+                        Timestamp timestamp = new Timestamp(mark.getLong(FIELD_VALUE));
+                        if (mark.containsField(FIELD_NANOS)) {
+                            timestamp.setNanos(mark.getInteger(FIELD_NANOS));
+                        }
+                        value = timestamp;
+                    }
+                    break;
+                    default:
+                        value = mark.getString(FIELD_VALUE);
+                        break;
+                }
+                m_marks.put(name, value);
+            }
+            m_logger.debug("Loaded {} high-water marks from: {}", m_marks.size(), m_file);
+        }
+    }
+
+    /**
+     * Returns the high-water mark of the given query.
+     *
+     * @param name the query name
+     * @return the high-water mark or null if the query has no mark yet
+     */
+    public synchronized Object get(final String name) {
+        return m_marks.get(name);
+    }
+
+    /**
+     * Updates and persists the high-water mark of the given query.
+     *
+     * @param name the query name
+     * @param value the new high-water mark
+     * @throws IOException if the file could not be written
+     */
+    public void update(
+            final String name,
+            final Object value) throws IOException {
+
+        JsonObject json;
+        long version;
+        synchronized (this) {
+            m_marks.put(name, value);
+            version = ++m_version;
+
+            JsonObject marks = new JsonObject();
+            for (Map.Entry<String, Object> entry : m_marks.entrySet()) {
+                marks.putObject(entry.getKey(), toJson(entry.getValue()));
+            }
+            json = new JsonObject();
+            json.putNumber(FIELD_VERSION, VERSION);
+            json.putObject(FIELD_MARKS, marks);
+        }
+        save(json, version);
+    }
+
+    private void save(
+            final JsonObject json,
+            final long version) throws IOException {
+
+        //
+        // Write to temporary file, sync and rename
+        //
+        synchronized (m_file) {
+            if (version <= m_savedVersion) {
+                return; // A newer snapshot has already been saved
+            }
+            Files.createDirectories(m_file.getParent());
+            Path tmpFile = m_file.resolveSibling(m_file.getFileName() + TMP_SUFFIX);
+            byte[] data = json.encode().getBytes(StandardCharsets.UTF_8);
+            try (FileChannel channel = FileChannel.open(tmpFile,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer buf = ByteBuffer.wrap(data);
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+                channel.force(true);
+            }
+            Files.move(tmpFile, m_file,
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            m_savedVersion = version;
+        }
+        m_logger.trace("Saved high-water marks to: {}", m_file);
+    }
+
+    private static JsonObject toJson(final Object value) {
+        JsonObject mark = new JsonObject();
+        if (value instanceof java.util.Date) {
+            mark.putString(FIELD_TYPE, TYPE_TIMESTAMP);
+            mark.putNumber(FIELD_VALUE, ((java.util.Date) value).getTime());
+            if (value instanceof Timestamp) {
+                mark.putNumber(FIELD_NANOS, ((Timestamp) value).getNanos());
+            }
+        } else if (value instanceof Long
+                || value instanceof Integer
+                || value instanceof Short
+                || value instanceof Byte) {
+            mark.putString(FIELD_TYPE, TYPE_LONG);
+            mark.putNumber(FIELD_VALUE, ((Number) value).longValue());
+        } else if (value instanceof BigDecimal
+                || value instanceof BigInteger) {
+            // Keep precision (eg. NUMBER columns)
+            mark.putString(FIELD_TYPE, TYPE_DECIMAL);
+            mark.putString(FIELD_VALUE, value.toString());
+        } else if (value instanceof Number) {
+            mark.putString(FIELD_TYPE, TYPE_DOUBLE);
+            mark.putNumber(FIELD_VALUE, ((Number) value).doubleValue());
+        } else {
+            mark.putString(FIELD_TYPE, TYPE_STRING);
+            mark.putString(FIELD_VALUE, String.valueOf(value));
+        }
+        return mark;
+    }
+}
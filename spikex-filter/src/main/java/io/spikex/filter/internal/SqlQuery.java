@@ -0,0 +1,184 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import com.google.common.base.Preconditions;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.vertx.java.core.Handler;
+
+/**
+ * A configured SQL query that streams its result set row by row. The rows
+ * are fetched from the database in batches of the fetch size - the result
+ * set is never materialized in memory.
+ * <p>
+ * An incremental query has a high-water mark column (eg. an increasing id
+ * or timestamp). The largest value of the column is tracked while reading
+ * the rows and the previous high-water mark is bound to every
+ * <code>:hwm</code> parameter of the query, for example:
+ * <pre>
+ *  SELECT * FROM metrics WHERE id > :hwm ORDER BY id
+ * </pre>
+ * <p>
+ * A query is executed by one thread at a time (see {@link #tryAcquire()}).
+ *
+ * @author cli
+ */
+public final class SqlQuery {
+
+    private final String m_name;
+    private final String m_sql; // JDBC SQL (:hwm replaced by ?)
+    private final int m_paramCount;
+    private final int m_fetchSize;
+    private final String m_hwmColumn; // null if not incremental
+    private final AtomicBoolean m_running;
+
+    private static final Pattern HWM_PARAM = Pattern.compile(":hwm\\b");
+
+    /**
+     * Creates a new query.
+     *
+     * @param name the query name
+     * @param sql the SQL query (may contain :hwm parameters)
+     * @param fetchSize the JDBC fetch size (zero for driver default)
+     * @param hwmColumn the high-water mark column (null if not incremental)
+     */
+    public SqlQuery(
+            final String name,
+            final String sql,
+            final int fetchSize,
+            final String hwmColumn) {
+
+        Preconditions.checkNotNull(sql, "sql is null");
+        Preconditions.checkArgument(fetchSize >= 0, "fetchSize is negative");
+
+        m_name = name;
+        m_fetchSize = fetchSize;
+        m_hwmColumn = hwmColumn;
+        m_running = new AtomicBoolean(false);
+
+        Matcher matcher = HWM_PARAM.matcher(sql);
+        int count = 0;
+        while (matcher.find()) {
+            count++;
+        }
+        m_paramCount = count;
+        m_sql = matcher.replaceAll("?");
+    }
+
+    public String getName() {
+        return m_name;
+    }
+
+    public String getSql() {
+        return m_sql;
+    }
+
+    public int getFetchSize() {
+        return m_fetchSize;
+    }
+
+    public boolean isIncremental() {
+        return (m_hwmColumn != null);
+    }
+
+    /**
+     * Marks this query as running.
+     *
+     * @return false if the query is already running
+     */
+    public boolean tryAcquire() {
+        return m_running.compareAndSet(false, true);
+    }
+
+    /**
+     * Marks this query as not running.
+     */
+    public void release() {
+        m_running.set(false);
+    }
+
+    /**
+     * Executes the query and passes every row to the handler. The result set
+     * is positioned on the current row during the handler call.
+     *
+     * @param con the JDBC connection
+     * @param hwm the previous high-water mark (bound to :hwm parameters)
+     * @param handler the row handler
+     * @return the new high-water mark (or the previous one if there were no
+     * rows or the query is not incremental)
+     * @throws SQLException if the query fails
+     */
+    public Object execute(
+            final Connection con,
+            final Object hwm,
+            final Handler<ResultSet> handler) throws SQLException {
+
+        Object mark = hwm;
+
+        // Some drivers (eg. PostgreSQL) use the fetch size only in a transaction
+        boolean autoCommit = con.getAutoCommit();
+        if (m_fetchSize > 0 && autoCommit) {
+            con.setAutoCommit(false);
+        }
+
+        try (PreparedStatement stmt = con.prepareStatement(m_sql,
+                ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY)) {
+
+            stmt.setFetchSize(m_fetchSize);
+            for (int i = 1; i <= m_paramCount; i++) {
+                stmt.setObject(i, hwm);
+            }
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                int hwmIndex = (m_hwmColumn != null ? rs.findColumn(m_hwmColumn) : -1);
+                while (rs.next()) {
+                    handler.handle(rs);
+                    if (hwmIndex > 0) {
+                        mark = max(mark, rs.getObject(hwmIndex));
+                    }
+                }
+            }
+        } finally {
+            if (m_fetchSize > 0 && autoCommit) {
+                con.rollback(); // Read-only
+                con.setAutoCommit(true);
+            }
+        }
+        return mark;
+    }
+
+    private static Object max(
+            final Object mark,
+            final Object value) {
+
+        if (value == null) {
+            return mark;
+        }
+        if (mark == null || mark.getClass() != value.getClass()) {
+            return value; // First value or type changed (eg. initial value)
+        }
+        return (((Comparable) value).compareTo(mark) > 0 ? value : mark);
+    }
+}
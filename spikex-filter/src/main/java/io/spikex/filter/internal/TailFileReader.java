@@ -0,0 +1,284 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import io.spikex.core.util.LineFramer;
+import io.spikex.core.util.LineFramer.Line;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.vertx.java.core.Handler;
+
+/**
+ * Incremental reader of a tailed file. The file channel is kept open between
+ * reads and data is read into a caller provided (reusable) byte buffer.
+ * <p>
+ * Lines are framed at byte level by {@link LineFramer}, so only complete
+ * lines are decoded. A trailing partial line is carried over to the next
+ * round and the position (offset) of the reader is the start of the partial
+ * line. A line that does not fit into the read buffer is emitted in parts.
+ * <p>
+ * Compressed (rotated) files are read sequentially from a decompressing
+ * stream. Positions refer to the uncompressed data.
+ * <p>
+ * Not thread-safe.
+ *
+ * @author cli
+ */
+public final class TailFileReader {
+
+    private final Path m_path;
+    private final FileIdentity m_identity;
+    private final FileChannel m_channel; // null if compressed
+    private final ReadableByteChannel m_stream; // null if not compressed
+    private final Charset m_charset;
+    private final String m_delimiter;
+    private final Handler<Line> m_lineHandler;
+
+    private LineFramer m_framer; // Created on first read (max line = buffer size)
+    private Handler<String> m_handler; // Handler of current read
+    private long m_position; // Offset of first unconsumed byte
+    private long m_lastRead; // ms since epoch
+    private long m_size; // Last known file size
+    private boolean m_pending; // Waiting for catch-up
+
+    public TailFileReader(
+            final Path path,
+            final FileIdentity identity,
+            final Charset charset,
+            final String delimiter,
+            final long position) throws IOException {
+
+        this(path, identity, charset, delimiter, position,
+                FileChannel.open(path, StandardOpenOption.READ), null);
+    }
+
+    private TailFileReader(
+            final Path path,
+            final FileIdentity identity,
+            final Charset charset,
+            final String delimiter,
+            final long position,
+            final FileChannel channel,
+            final ReadableByteChannel stream) {
+
+        m_path = path;
+        m_identity = identity;
+        m_channel = channel;
+        m_stream = stream;
+        m_charset = charset;
+        m_delimiter = delimiter;
+        m_position = position;
+        m_lastRead = System.currentTimeMillis();
+        m_lineHandler = new Handler<Line>() {
+
+            @Override
+            public void handle(final Line line) {
+                m_handler.handle(line.toString());
+            }
+        };
+    }
+
+    /**
+     * Opens a reader of a compressed file. The decompressed data is skipped up
+     * to the given position.
+     *
+     * @param path the compressed file
+     * @param identity the identity of the original (uncompressed) file
+     * @param charset the character set of the file
+     * @param delimiter the line delimiter
+     * @param position the position in the uncompressed data
+     * @return the reader
+     * @throws IOException if the file could not be opened
+     */
+    public static TailFileReader openCompressed(
+            final Path path,
+            final FileIdentity identity,
+            final Charset charset,
+            final String delimiter,
+            final long position) throws IOException {
+
+        InputStream in = CompressedFiles.open(path);
+        long skipped;
+        try {
+            skipped = CompressedFiles.skip(in, position);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new TailFileReader(path, identity, charset, delimiter,
+                skipped, null, Channels.newChannel(in));
+    }
+
+    public Path getPath() {
+        return m_path;
+    }
+
+    public FileIdentity getIdentity() {
+        return m_identity;
+    }
+
+    public long getPosition() {
+        return m_position;
+    }
+
+    public long getLastRead() {
+        return m_lastRead;
+    }
+
+    /**
+     * Returns the amount of bytes between the read position and the last
+     * known size of the file.
+     *
+     * @return the lag in bytes
+     */
+    public long getLag() {
+        return Math.max(0L, m_size - m_position);
+    }
+
+    public long getLastSize() {
+        return m_size;
+    }
+
+    public boolean isPending() {
+        return m_pending;
+    }
+
+    public boolean isCompressed() {
+        return (m_stream != null);
+    }
+
+    public void setLastSize(final long size) {
+        m_size = size;
+    }
+
+    public void setPending(final boolean pending) {
+        m_pending = pending;
+    }
+
+    /**
+     * Returns the current size of the file (the compressed size of compressed
+     * files).
+     *
+     * @return the file size in bytes
+     * @throws IOException if the size could not be read
+     */
+    public long size() throws IOException {
+        return (m_channel != null ? m_channel.size() : Files.size(m_path));
+    }
+
+    /**
+     * Moves the read position (eg. after truncation). Any carried partial line
+     * is discarded.
+     *
+     * @param position the new position
+     */
+    public void seek(final long position) {
+        if (m_framer != null) {
+            m_framer.reset();
+        }
+        m_position = position;
+    }
+
+    /**
+     * Reads at most one buffer full of data and passes all complete lines to
+     * the given handler.
+     *
+     * @param buf the read buffer (cleared before use)
+     * @param limit the maximum position to read up to (exclusive, ignored
+     * for compressed files)
+     * @param emitPartial true if a trailing partial line should also be emitted
+     * (eg. the file has been rotated and is finished)
+     * @param handler the line handler
+     * @return the amount of bytes consumed
+     * @throws IOException if the file could not be read
+     */
+    public int read(
+            final ByteBuffer buf,
+            final long limit,
+            final boolean emitPartial,
+            final Handler<String> handler) throws IOException {
+
+        LineFramer framer = m_framer;
+        if (framer == null) {
+            framer = new LineFramer(m_charset, m_delimiter, buf.capacity());
+            m_framer = framer;
+        }
+
+        long position = m_position;
+        long readPos = position + framer.getPending();
+        buf.clear();
+
+        int len = 0;
+        if (m_channel != null) {
+            if (limit - readPos < buf.capacity()) {
+                buf.limit((int) Math.max(0L, limit - readPos));
+            }
+            while (buf.hasRemaining()) {
+                int n = m_channel.read(buf, readPos + len);
+                if (n <= 0) {
+                    break;
+                }
+                len += n;
+            }
+        } else {
+            while (buf.hasRemaining()) {
+                int n = m_stream.read(buf);
+                if (n <= 0) {
+                    break;
+                }
+                len += n;
+            }
+        }
+        m_lastRead = System.currentTimeMillis();
+
+        m_handler = handler;
+        try {
+            buf.flip();
+            framer.frame(buf, m_lineHandler);
+            if (emitPartial) {
+                framer.flush(m_lineHandler); // Finished file
+            }
+        } finally {
+            m_handler = null;
+        }
+
+        m_position = readPos + len - framer.getPending();
+        return (int) (m_position - position);
+    }
+
+    /**
+     * Closes the file channel.
+     *
+     * @throws IOException if the channel could not be closed
+     */
+    public void close() throws IOException {
+        if (m_channel != null) {
+            m_channel.close();
+        } else {
+            m_stream.close();
+        }
+    }
+}
@@ -0,0 +1,531 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import static io.spikex.filter.internal.VertxFileHandler.EVENT_ADDRESS;
+import static io.spikex.filter.internal.VertxFileHandler.EVENT_FIELD_CUR_SIZE;
+import static io.spikex.filter.internal.VertxFileHandler.EVENT_FIELD_OLD_SIZE;
+import static io.spikex.filter.internal.VertxFileHandler.EVENT_FIELD_PATH;
+import static io.spikex.filter.internal.VertxFileHandler.EVENT_FIELD_ROLLOVER;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.EventBus;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Watches tailed files for changes. Paths can be plain file paths or glob
+ * patterns (eg. <code>/var/log/*&#47;*.log</code>).
+ * <p>
+ * The {@link WatchService} of the file system (inotify on Linux) is used as
+ * the primary change signal. Every file is also polled as a fallback, since
+ * watch events can be lost or unsupported (eg. network file systems). The
+ * poll interval of a file adapts to its activity: it doubles for every poll
+ * that finds no change (up to the maximum poll interval) and is reset to the
+ * minimum on every change. Polling only reads the basic file attributes
+ * (size, modification time and file key) of a file.
+ * <p>
+ * Glob patterns are expanded periodically (rescan interval) to find new files
+ * and directories.
+ *
+ * @author cli
+ */
+public final class TailFileWatcher implements Handler<Long> {
+
+    private final EventBus m_eventBus;
+    private final List<WatchedPattern> m_patterns;
+    private final Map<Path, WatchedFile> m_files;
+    private final Map<WatchKey, Path> m_keys;
+    private final Set<Path> m_watchedDirs;
+    private final long m_minPollInterval; // ms
+    private final long m_maxPollInterval; // ms
+    private final long m_rescanInterval; // ms
+    private final boolean m_useWatchService;
+
+    private WatchService m_watchService;
+    private long m_lastRescan; // ms since epoch
+
+    private final Logger m_logger = LoggerFactory.getLogger(TailFileWatcher.class);
+
+    // Simple rate limiting for errors...
+    private long m_tm1 = 0L;
+    private static final long ERROR_INTERVAL_MS = 1000L * 60L * 5L; // 5 min
+
+    private static final String GLOB_CHARS = "*?[{";
+
+    public TailFileWatcher(
+            final EventBus eventBus,
+            final List<Path> paths,
+            final boolean useWatchService,
+            final long minPollInterval,
+            final long maxPollInterval,
+            final long rescanInterval) {
+
+        m_eventBus = eventBus;
+        m_patterns = new ArrayList();
+        m_files = new ConcurrentHashMap();
+        m_keys = new ConcurrentHashMap();
+        m_watchedDirs = new HashSet();
+        m_useWatchService = useWatchService;
+        m_minPollInterval = minPollInterval;
+        m_maxPollInterval = maxPollInterval;
+        m_rescanInterval = rescanInterval;
+        m_lastRescan = 0L;
+
+        for (Path path : paths) {
+            m_patterns.add(new WatchedPattern(path));
+        }
+    }
+
+    /**
+     * Starts the watch service (if enabled) and expands the path patterns.
+     */
+    public void start() {
+        if (m_useWatchService) {
+            try {
+                m_watchService = FileSystems.getDefault().newWatchService();
+            } catch (IOException | UnsupportedOperationException e) {
+                m_logger.warn("Watch service not available - using polling only", e);
+                m_watchService = null;
+            }
+        }
+        rescan(System.currentTimeMillis());
+    }
+
+    /**
+     * Closes the watch service.
+     */
+    public void close() {
+        WatchService watchService = m_watchService;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                m_logger.error("Failed to close watch service", e);
+            }
+        }
+        m_keys.clear();
+        m_watchedDirs.clear();
+    }
+
+    /**
+     * Returns the files that are currently being watched.
+     *
+     * @return the watched files
+     */
+    public Set<Path> getFiles() {
+        return m_files.keySet();
+    }
+
+    @Override
+    public void handle(final Long timerId) {
+
+        long now = System.currentTimeMillis();
+
+        // Find new files
+        if ((now - m_lastRescan) >= m_rescanInterval) {
+            rescan(now);
+        }
+
+        // Primary change signal
+        pollWatchEvents();
+
+        // Inspect changed files and files whose poll interval has passed
+        for (WatchedFile file : m_files.values()) {
+            if (!file.isBusy()
+                    && (file.isDirty() || now >= file.getNextPoll())) {
+                inspect(file, now);
+            }
+        }
+    }
+
+    private void rescan(final long now) {
+
+        m_lastRescan = now;
+        Set<Path> found = new HashSet();
+
+        for (WatchedPattern pattern : m_patterns) {
+            if (pattern.isLiteral()) {
+                // Allow non-existent files to be added
+                found.add(pattern.getPath());
+            } else {
+                expand(pattern, pattern.getBaseDir(), 0, found);
+            }
+        }
+
+        for (Path path : found) {
+            if (!m_files.containsKey(path)) {
+                m_logger.debug("Watching file: {}", path);
+                m_files.put(path, new WatchedFile(path, m_minPollInterval));
+            }
+            watchDir(path.getParent());
+        }
+
+        // Forget files that no longer exist or match
+        for (Path path : m_files.keySet()) {
+            if (!found.contains(path)) {
+                m_logger.debug("Stopped watching file: {}", path);
+                m_files.remove(path);
+            }
+        }
+    }
+
+    private void expand(
+            final WatchedPattern pattern,
+            final Path dir,
+            final int depth,
+            final Set<Path> found) {
+
+        if (Files.isDirectory(dir)) {
+            watchDir(dir);
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path path : stream) {
+                    if (depth + 1 < pattern.getDepth()) {
+                        if (Files.isDirectory(path)) {
+                            expand(pattern, path, depth + 1, found);
+                        }
+                    } else if (pattern.matches(path)
+                            && Files.isRegularFile(path)) {
+                        found.add(path);
+                    }
+                }
+            } catch (IOException e) {
+                logError("Failed to list directory: " + dir, e);
+            }
+        }
+    }
+
+    private void watchDir(final Path dir) {
+        WatchService watchService = m_watchService;
+        if (watchService != null
+                && dir != null
+                && !m_watchedDirs.contains(dir)
+                && Files.isDirectory(dir)) {
+            try {
+                WatchKey key = dir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                m_keys.put(key, dir);
+                m_watchedDirs.add(dir);
+                m_logger.trace("Watching directory: {}", dir);
+            } catch (IOException e) {
+                logError("Failed to watch directory: " + dir, e);
+            }
+        }
+    }
+
+    private void pollWatchEvents() {
+
+        WatchService watchService = m_watchService;
+        if (watchService != null) {
+            WatchKey key;
+            while ((key = watchService.poll()) != null) {
+                Path dir = m_keys.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // Events lost - inspect all files
+                        for (WatchedFile file : m_files.values()) {
+                            file.setDirty(true);
+                        }
+                    } else if (dir != null) {
+                        Path path = dir.resolve((Path) event.context());
+                        WatchedFile file = m_files.get(path);
+                        if (file == null
+                                && event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                                && matchesAny(path)) {
+                            m_logger.debug("Watching new file: {}", path);
+                            file = new WatchedFile(path, m_minPollInterval);
+                            m_files.put(path, file);
+                        }
+                        if (file != null) {
+                            file.setDirty(true);
+                        }
+                    }
+                }
+                if (!key.reset()) {
+                    // Directory is no longer accessible
+                    m_keys.remove(key);
+                    m_watchedDirs.remove(dir);
+                }
+            }
+        }
+    }
+
+    private boolean matchesAny(final Path path) {
+        for (WatchedPattern pattern : m_patterns) {
+            if (pattern.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void inspect(
+            final WatchedFile file,
+            final long now) {
+
+        file.setDirty(false);
+        BasicFileAttributes attrs = null;
+        try {
+            attrs = Files.readAttributes(file.getPath(), BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            // Might be normal, since the file might be unavailable during rollover...
+        } catch (IOException e) {
+            logError("Failed to read attributes of file: " + file.getPath(), e);
+        }
+
+        if (attrs == null) {
+            file.idle(now, m_maxPollInterval);
+            return;
+        }
+
+        long curTm = attrs.lastModifiedTime().toMillis();
+        long curSize = attrs.size();
+        Object curKey = attrs.fileKey();
+        long oldTm = file.getModifiedTime();
+        long oldSize = file.getSize();
+        boolean rollover = (file.isInitialized()
+                && (!Objects.equals(curKey, file.getFileKey()) || curSize < oldSize));
+        boolean changed = (!file.isInitialized()
+                || rollover
+                || curTm != oldTm
+                || curSize != oldSize);
+
+        file.update(curTm, curSize, curKey);
+
+        if (changed) {
+
+            file.active(now, m_minPollInterval);
+
+            m_logger.trace("File changed: {} tm: {} size: {} - old tm: {} size: {}",
+                    file.getPath(), curTm, curSize, oldTm, oldSize);
+
+            JsonObject event = new JsonObject();
+            event.putString(EVENT_FIELD_PATH, file.getPath().toString());
+            event.putBoolean(EVENT_FIELD_ROLLOVER, rollover);
+            event.putNumber(EVENT_FIELD_CUR_SIZE, curSize);
+            event.putNumber(EVENT_FIELD_OLD_SIZE, oldSize);
+
+            file.setBusy(true); // Reserve file
+            m_eventBus.send(EVENT_ADDRESS, event, new Handler<Message<Void>>() {
+
+                @Override
+                public void handle(final Message<Void> message) {
+                    file.setBusy(false); // Release file
+                }
+            });
+        } else {
+            file.idle(now, m_maxPollInterval);
+        }
+    }
+
+    private void logError(
+            final String msg,
+            final Throwable cause) {
+
+        long tm = System.currentTimeMillis();
+        if ((tm - m_tm1) > ERROR_INTERVAL_MS) {
+            m_logger.error(msg, cause);
+            m_tm1 = tm;
+        }
+    }
+
+    /**
+     * Plain file path or glob pattern.
+     */
+    private static final class WatchedPattern {
+
+        private final Path m_path;
+        private final Path m_baseDir; // Longest path without glob characters
+        private final int m_depth; // Pattern depth below base dir
+        private final PathMatcher m_matcher; // null if literal
+
+        private WatchedPattern(final Path path) {
+
+            m_path = path;
+            Path baseDir = path.getRoot();
+            int i = 0;
+            int count = path.getNameCount();
+            for (; i < count; i++) {
+                if (isGlob(path.getName(i).toString())) {
+                    break;
+                }
+                baseDir = (baseDir != null
+                        ? baseDir.resolve(path.getName(i))
+                        : path.getName(i));
+            }
+
+            if (i < count) {
+                m_baseDir = baseDir;
+                m_depth = count - i;
+                m_matcher = path.getFileSystem().getPathMatcher("glob:" + path.toString());
+            } else {
+                m_baseDir = path.getParent();
+                m_depth = 1;
+                m_matcher = null;
+            }
+        }
+
+        private boolean isLiteral() {
+            return (m_matcher == null);
+        }
+
+        private Path getPath() {
+            return m_path;
+        }
+
+        private Path getBaseDir() {
+            return m_baseDir;
+        }
+
+        private int getDepth() {
+            return m_depth;
+        }
+
+        private boolean matches(final Path path) {
+            return (m_matcher != null
+                    ? m_matcher.matches(path)
+                    : m_path.equals(path));
+        }
+
+        private static boolean isGlob(final String name) {
+            for (int i = 0; i < GLOB_CHARS.length(); i++) {
+                if (name.indexOf(GLOB_CHARS.charAt(i)) != -1) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * State of a single watched file.
+     */
+    private static final class WatchedFile {
+
+        private final Path m_path;
+        private volatile boolean m_dirty;
+        private volatile boolean m_busy;
+        private boolean m_initialized;
+        private long m_modifiedTime;
+        private long m_size;
+        private Object m_fileKey;
+        private long m_pollInterval;
+        private long m_nextPoll;
+
+        private WatchedFile(
+                final Path path,
+                final long pollInterval) {
+
+            m_path = path;
+            m_dirty = true;
+            m_busy = false;
+            m_initialized = false;
+            m_pollInterval = pollInterval;
+            m_nextPoll = 0L;
+        }
+
+        private Path getPath() {
+            return m_path;
+        }
+
+        private boolean isDirty() {
+            return m_dirty;
+        }
+
+        private boolean isBusy() {
+            return m_busy;
+        }
+
+        private boolean isInitialized() {
+            return m_initialized;
+        }
+
+        private long getModifiedTime() {
+            return m_modifiedTime;
+        }
+
+        private long getSize() {
+            return m_size;
+        }
+
+        private Object getFileKey() {
+            return m_fileKey;
+        }
+
+        private long getNextPoll() {
+            return m_nextPoll;
+        }
+
+        private void setDirty(final boolean dirty) {
+            m_dirty = dirty;
+        }
+
+        private void setBusy(final boolean busy) {
+            m_busy = busy;
+        }
+
+        private void update(
+                final long modifiedTime,
+                final long size,
+                final Object fileKey) {
+
+            m_modifiedTime = modifiedTime;
+            m_size = size;
+            m_fileKey = fileKey;
+            m_initialized = true;
+        }
+
+        private void active(
+                final long now,
+                final long minPollInterval) {
+
+            m_pollInterval = minPollInterval;
+            m_nextPoll = now + minPollInterval;
+        }
+
+        private void idle(
+                final long now,
+                final long maxPollInterval) {
+
+            // Back off
+            m_pollInterval = Math.min(m_pollInterval * 2L, maxPollInterval);
+            m_nextPoll = now + m_pollInterval;
+        }
+    }
+}
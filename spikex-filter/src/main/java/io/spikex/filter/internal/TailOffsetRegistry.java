@@ -0,0 +1,361 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Persistent registry of tail offsets. Offsets are stored per file identity
+ * (device, inode and fingerprint - see {@link FileIdentity}) so that renamed
+ * (rotated) files can be recognized and a restart can resume where it stopped.
+ * <p>
+ * Updates are kept in memory and written in batches. The registry file is
+ * written to a temporary file that is synced to disk and atomically renamed,
+ * but at most once per sync interval. Offsets of files that have not been
+ * updated or refreshed (see {@link #refresh(Collection, long)}) during the
+ * retention time are dropped on save.
+ * <p>
+ * Thread-safe.
+ *
+ * @author cli
+ */
+public final class TailOffsetRegistry {
+
+    private final Path m_file;
+    private final long m_syncInterval; // ms
+    private final long m_retention; // ms
+    private final Map<String, TailOffset> m_offsets; // identity key => offset
+    private final Map<String, TailOffset> m_paths; // path => offset
+
+    private boolean m_dirty;
+    private long m_lastSync; // ms since epoch
+
+    private final Logger m_logger = LoggerFactory.getLogger(TailOffsetRegistry.class);
+
+    private static final String FIELD_VERSION = "version";
+    private static final String FIELD_OFFSETS = "offsets";
+    private static final String FIELD_PATH = "path";
+    private static final String FIELD_DEVICE = "dev";
+    private static final String FIELD_INODE = "ino";
+    private static final String FIELD_FINGERPRINT = "fp";
+    private static final String FIELD_FINGERPRINT_LENGTH = "fp-len";
+    private static final String FIELD_OFFSET = "offset";
+    private static final String FIELD_UPDATED = "updated";
+
+    private static final int VERSION = 1;
+    private static final String TMP_SUFFIX = ".tmp";
+
+    public TailOffsetRegistry(
+            final Path file,
+            final long syncInterval,
+            final long retention) {
+
+        m_file = file;
+        m_syncInterval = syncInterval;
+        m_retention = retention;
+        m_offsets = new HashMap();
+        m_paths = new HashMap();
+        m_dirty = false;
+        m_lastSync = 0L;
+    }
+
+    public Path getFile() {
+        return m_file;
+    }
+
+    /**
+     * Loads the persisted offsets. A missing registry file is not an error.
+     *
+     * @throws IOException if the registry file could not be read
+     */
+    public synchronized void load() throws IOException {
+
+        m_offsets.clear();
+        m_paths.clear();
+
+        if (Files.exists(m_file)) {
+            String json = new String(Files.readAllBytes(m_file), StandardCharsets.UTF_8);
+            JsonArray offsets = new JsonObject(json).getArray(FIELD_OFFSETS, new JsonArray());
+            for (int i = 0; i < offsets.size(); i++) {
+                JsonObject entry = offsets.get(i);
+                FileIdentity identity = new FileIdentity(
+                        entry.getLong(FIELD_DEVICE),
+                        entry.getLong(FIELD_INODE),
+                        entry.getLong(FIELD_FINGERPRINT),
+                        entry.getInteger(FIELD_FINGERPRINT_LENGTH));
+                TailOffset offset = new TailOffset(
+                        entry.getString(FIELD_PATH),
+                        identity,
+                        entry.getLong(FIELD_OFFSET),
+                        entry.getLong(FIELD_UPDATED));
+                m_offsets.put(identity.getKey(), offset);
+                m_paths.put(offset.getPath(), offset);
+            }
+            m_logger.debug("Loaded {} tail offsets from: {}", m_offsets.size(), m_file);
+        }
+    }
+
+    /**
+     * Returns the last known offset of the given path.
+     *
+     * @param path the file path
+     * @return the offset or null if the path is unknown
+     */
+    public synchronized TailOffset get(final String path) {
+        return m_paths.get(path);
+    }
+
+    /**
+     * Returns all known offsets.
+     *
+     * @return a snapshot of the offsets
+     */
+    public synchronized List<TailOffset> getOffsets() {
+        return new ArrayList(m_offsets.values());
+    }
+
+    /**
+     * Returns the offset of the file with the given identity (the file might
+     * have been renamed).
+     *
+     * @param identity the file identity
+     * @return the offset or null if the identity is unknown
+     */
+    public synchronized TailOffset find(final FileIdentity identity) {
+        return m_offsets.get(identity.getKey());
+    }
+
+    /**
+     * Updates the offset of the given file. The update is persisted on the
+     * next flush.
+     *
+     * @param path the file path
+     * @param identity the file identity
+     * @param offset the new offset
+     */
+    public synchronized void update(
+            final String path,
+            final FileIdentity identity,
+            final long offset) {
+
+        TailOffset old = m_paths.get(path);
+        if (old != null
+                && !old.getIdentity().isSameInode(identity)) {
+            m_offsets.remove(old.getIdentity().getKey()); // Replaced file
+        }
+        TailOffset renamed = m_offsets.get(identity.getKey());
+        if (renamed != null
+                && !renamed.getPath().equals(path)
+                && m_paths.get(renamed.getPath()) == renamed) {
+            m_paths.remove(renamed.getPath()); // Renamed file
+        }
+        TailOffset tailOffset = new TailOffset(
+                path,
+                identity,
+                offset,
+                System.currentTimeMillis());
+        m_offsets.put(identity.getKey(), tailOffset);
+        m_paths.put(path, tailOffset);
+        m_dirty = true;
+    }
+
+    /**
+     * Marks the offsets of the given paths as recently seen so that files
+     * that are still tailed but have not changed for a long time are not
+     * expired. Does not force a write.
+     *
+     * @param paths the paths that are currently watched or open
+     * @param now the current time in milliseconds
+     */
+    public synchronized void refresh(
+            final Collection<String> paths,
+            final long now) {
+
+        for (String path : paths) {
+            TailOffset offset = m_paths.get(path);
+            if (offset != null
+                    && offset.getUpdated() < now) {
+                TailOffset refreshed = new TailOffset(
+                        path,
+                        offset.getIdentity(),
+                        offset.getOffset(),
+                        now);
+                m_offsets.put(offset.getIdentity().getKey(), refreshed);
+                m_paths.put(path, refreshed);
+            }
+        }
+    }
+
+    /**
+     * Removes the offset of the given identity (eg. a finished rotated file).
+     *
+     * @param identity the file identity
+     */
+    public synchronized void remove(final FileIdentity identity) {
+        TailOffset offset = m_offsets.remove(identity.getKey());
+        if (offset != null) {
+            TailOffset current = m_paths.get(offset.getPath());
+            if (current != null
+                    && current.getIdentity().isSameInode(identity)) {
+                m_paths.remove(offset.getPath());
+            }
+            m_dirty = true;
+        }
+    }
+
+    /**
+     * Writes the offsets to disk if they have changed and the sync interval
+     * has passed since the last write.
+     *
+     * @param now the current time in milliseconds
+     * @throws IOException if the registry file could not be written
+     */
+    public void flush(final long now) throws IOException {
+        if ((now - m_lastSync) >= m_syncInterval) {
+            save(now);
+        }
+    }
+
+    /**
+     * Writes the offsets to disk if they have changed.
+     *
+     * @throws IOException if the registry file could not be written
+     */
+    public void close() throws IOException {
+        save(System.currentTimeMillis());
+    }
+
+    public synchronized int size() {
+        return m_offsets.size();
+    }
+
+    private void save(final long now) throws IOException {
+
+        JsonObject json;
+        synchronized (this) {
+            if (!m_dirty) {
+                return;
+            }
+            //
+            // Drop offsets of files that have not been seen for a long time
+            //
+            List<TailOffset> expired = new ArrayList();
+            JsonArray offsets = new JsonArray();
+            for (TailOffset offset : m_offsets.values()) {
+                if ((now - offset.getUpdated()) > m_retention) {
+                    expired.add(offset);
+                } else {
+                    FileIdentity identity = offset.getIdentity();
+                    JsonObject entry = new JsonObject();
+                    entry.putString(FIELD_PATH, offset.getPath());
+                    entry.putNumber(FIELD_DEVICE, identity.getDevice());
+                    entry.putNumber(FIELD_INODE, identity.getInode());
+                    entry.putNumber(FIELD_FINGERPRINT, identity.getFingerprint());
+                    entry.putNumber(FIELD_FINGERPRINT_LENGTH, identity.getFingerprintLength());
+                    entry.putNumber(FIELD_OFFSET, offset.getOffset());
+                    entry.putNumber(FIELD_UPDATED, offset.getUpdated());
+                    offsets.addObject(entry);
+                }
+            }
+            for (TailOffset offset : expired) {
+                remove(offset.getIdentity());
+            }
+            json = new JsonObject();
+            json.putNumber(FIELD_VERSION, VERSION);
+            json.putArray(FIELD_OFFSETS, offsets);
+            m_dirty = false;
+            m_lastSync = now;
+        }
+
+        //
+        // Write to temporary file, sync and rename
+        //
+        Files.createDirectories(m_file.getParent());
+        Path tmpFile = m_file.resolveSibling(m_file.getFileName() + TMP_SUFFIX);
+        byte[] data = json.encode().getBytes(StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(tmpFile,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            channel.force(true);
+        }
+        Files.move(tmpFile, m_file,
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        m_logger.trace("Saved tail offsets to: {}", m_file);
+    }
+
+    /**
+     * Immutable offset of a single file.
+     */
+    public static final class TailOffset {
+
+        private final String m_path;
+        private final FileIdentity m_identity;
+        private final long m_offset;
+        private final long m_updated;
+
+        private TailOffset(
+                final String path,
+                final FileIdentity identity,
+                final long offset,
+                final long updated) {
+
+            m_path = path;
+            m_identity = identity;
+            m_offset = offset;
+            m_updated = updated;
+        }
+
+        public String getPath() {
+            return m_path;
+        }
+
+        public FileIdentity getIdentity() {
+            return m_identity;
+        }
+
+        public long getOffset() {
+            return m_offset;
+        }
+
+        public long getUpdated() {
+            return m_updated;
+        }
+    }
+}
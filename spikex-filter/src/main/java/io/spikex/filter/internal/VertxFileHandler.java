@@ -19,25 +19,58 @@ package io.spikex.filter.internal;
 
 import io.spikex.core.AbstractFilter;
 import io.spikex.core.helper.Events;
+import static io.spikex.core.helper.Events.EVENT_FIELD_ACK_ADDRESS;
+import static io.spikex.core.helper.Events.EVENT_FIELD_ACK_ID;
 import static io.spikex.core.helper.Events.EVENT_PRIORITY_NORMAL;
 import io.spikex.core.util.HostOs;
-import io.spikex.core.util.StringTokenizer;
+import io.spikex.filter.internal.TailOffsetRegistry.TailOffset;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.vertx.java.core.AsyncResult;
-import org.vertx.java.core.AsyncResultHandler;
 import org.vertx.java.core.Handler;
-import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.eventbus.EventBus;
 import org.vertx.java.core.eventbus.Message;
-import org.vertx.java.core.file.AsyncFile;
-import org.vertx.java.core.file.FileSystem;
 import org.vertx.java.core.json.JsonObject;
 
 /**
- * Asynchronous non-locking reading of file and emitting of lines.
+ * Non-locking reading of file and emitting of lines.
+ * <p>
+ * Every active file has a {@link TailFileReader} that keeps the file open and
+ * reads into a shared direct buffer. Please run the owning filter as a worker
+ * verticle, since reading is blocking.
+ * <p>
+ * File offsets are kept in a persistent {@link TailOffsetRegistry} keyed by
+ * file identity. If the file behind a path has been replaced (rotated), the
+ * rest of the old file is read from its rotated location before the new file
+ * is read. Rotated files are queued and read by {@link #catchUp(long)} like
+ * any other file that is behind. Rotated files that have been compressed
+ * (gzip or LZ4) are read by decompressing them up to the last known offset.
+ * The offsets of rotated files are recorded by their own path, so that a
+ * compressed file that has already been read can be recognized by the
+ * fingerprint of its decompressed data.
+ * <p>
+ * A change event reads at most one buffer (max read size) of a file. Files
+ * that are still behind are queued and read in round-robin order, one buffer
+ * per file at a time, by {@link #catchUp(long)} until the round budget has
+ * been used. If acknowledgements are enabled, catch-up also pauses while the
+ * amount of unacknowledged lines is over the limit. Data is only skipped if
+ * the skip policy is enabled and a file is more than the maximum lag behind.
  *
  * @author cli
  */
@@ -60,17 +93,30 @@ public final class VertxFileHandler implements Handler<Message<JsonObject>> {
 
     private final AbstractFilter m_filter;
     private final EventBus m_eventBus;
-    private final String m_encoding;
+    private final Charset m_charset;
     private final String m_delimiter;
-    private final Map<String, Long> m_offset;
+    private final TailOffsetRegistry m_registry;
+    private final Map<String, TailFileReader> m_readers;
+    private final ByteBuffer m_readBuffer; // Shared by all readers
+    private final Handler<String> m_lineHandler;
+    private final Deque<String> m_pending; // Files to catch up (round-robin)
+    private final Map<String, Deque<TailFileReader>> m_rotated; // path => rotated files to read first
+    private final long m_maxRoundSize; // bytes per catch-up round
+    private final boolean m_skip; // Skip policy
+    private final long m_maxLag; // bytes
+    private final String m_ackAddress; // null if acks are disabled
+    private final int m_maxUnacked; // lines
+    private final long m_ackTimeout; // ms
+
+    private int m_unacked;
+    private long m_ackSeq;
+    private long m_lastAck; // ms since epoch
+    private long m_skipped; // bytes
 
     // Simple rate limiting for errors...
     private long m_tm1 = 0L;
     private long m_tm2 = 0L;
-    private long m_tm3 = 0L;
     private int m_errCount1 = 0;
-    private int m_errCount2 = 0;
-    private int m_errCount3 = 0;
     private static final long ERROR_INTERVAL_MS = 1000L * 60L * 5L; // 5 min
 
     private final Logger m_logger = LoggerFactory.getLogger(getClass());
@@ -82,231 +128,602 @@ public final class VertxFileHandler implements Handler<Message<JsonObject>> {
             final String delimiter,
             final int minReadSize,
             final int maxReadSize,
-            final boolean startAtEof) {
+            final boolean startAtEof,
+            final TailOffsetRegistry registry,
+            final long maxRoundSize,
+            final boolean skip,
+            final long maxLag,
+            final String ackAddress,
+            final int maxUnacked,
+            final long ackTimeout) {
 
         m_filter = filter;
         m_eventBus = eventBus;
-        m_encoding = encoding;
+        m_charset = Charset.forName(encoding);
         m_delimiter = delimiter;
         m_minReadSize = minReadSize;
         m_maxReadSize = maxReadSize;
         m_startAtEof = startAtEof;
-        m_offset = new ConcurrentHashMap();
+        m_registry = registry;
+        m_readers = new HashMap();
+        m_readBuffer = ByteBuffer.allocateDirect(maxReadSize);
+        m_pending = new ArrayDeque();
+        m_rotated = new HashMap();
+        m_maxRoundSize = maxRoundSize;
+        m_skip = skip;
+        m_maxLag = maxLag;
+        m_ackAddress = ackAddress;
+        m_maxUnacked = maxUnacked;
+        m_ackTimeout = ackTimeout;
+        m_lastAck = System.currentTimeMillis();
+        m_lineHandler = new Handler<String>() {
+
+            @Override
+            public void handle(final String line) {
+                JsonObject event = Events.createNotificationEvent(
+                        m_filter,
+                        HostOs.hostName(),
+                        EVENT_PRIORITY_NORMAL,
+                        "Log line event",
+                        line);
+                if (m_ackAddress != null) {
+                    event.putString(EVENT_FIELD_ACK_ADDRESS, m_ackAddress);
+                    event.putString(EVENT_FIELD_ACK_ID, String.valueOf(++m_ackSeq));
+                    m_unacked++;
+                }
+                m_eventBus.send(m_filter.getDestinationAddress(), event);
+            }
+        };
+    }
+
+    /**
+     * Returns the lag (bytes behind) of every open file.
+     *
+     * @return path => lag in bytes
+     */
+    public Map<String, Long> getLags() {
+        Map<String, Long> lags = new HashMap();
+        for (Map.Entry<String, TailFileReader> entry : m_readers.entrySet()) {
+            lags.put(entry.getKey(), entry.getValue().getLag());
+        }
+        return lags;
+    }
+
+    /**
+     * Returns the paths of all open files.
+     *
+     * @return the open paths
+     */
+    public Set<String> getOpenPaths() {
+        return m_readers.keySet();
+    }
+
+    /**
+     * Returns the total amount of bytes skipped by the skip policy.
+     *
+     * @return the skipped bytes
+     */
+    public long getSkippedBytes() {
+        return m_skipped;
+    }
+
+    /**
+     * Acknowledges a line that has been handled by the terminal filter.
+     */
+    public void acknowledge() {
+        if (m_unacked > 0) {
+            m_unacked--;
+        }
+        m_lastAck = System.currentTimeMillis();
+    }
+
+    /**
+     * Reads one buffer of every file that is behind in round-robin order until
+     * the round budget has been used or downstream has no capacity.
+     *
+     * @param now the current time in milliseconds
+     */
+    public void catchUp(final long now) {
+
+        long budget = m_maxRoundSize;
+        int count = m_pending.size();
+
+        while (budget > 0L
+                && count-- > 0
+                && hasCapacity(now)) {
+
+            String path = m_pending.poll();
+            Deque<TailFileReader> rotated = m_rotated.get(path);
+            if (rotated != null) {
+                // Rest of rotated files before the current file
+                budget -= readRotatedChunk(path, rotated);
+                m_pending.add(path);
+                continue;
+            }
+
+            TailFileReader reader = m_readers.get(path);
+            if (reader != null
+                    && reader.isPending()) {
+                try {
+                    int consumed = readChunk(path, reader);
+                    budget -= consumed;
+                    if (isBehind(reader, consumed)) {
+                        m_pending.add(path); // Back of the queue
+                    } else {
+                        reader.setPending(false);
+                    }
+                } catch (IOException e) {
+                    closeReader(path);
+                    logError("Failed to read file: " + path, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes files that have not been read during the given idle time.
+     *
+     * @param now the current time in milliseconds
+     * @param idleTime the maximum idle time in milliseconds
+     */
+    public void closeIdleFiles(
+            final long now,
+            final long idleTime) {
+
+        List<String> idle = new ArrayList();
+        for (Map.Entry<String, TailFileReader> entry : m_readers.entrySet()) {
+            if ((now - entry.getValue().getLastRead()) > idleTime) {
+                idle.add(entry.getKey());
+            }
+        }
+        for (String path : idle) {
+            if (m_readers.get(path).isPending()) {
+                continue; // Still catching up
+            }
+            m_logger.trace("Closing idle file: {}", path);
+            closeReader(path);
+        }
+    }
+
+    /**
+     * Closes all open files.
+     */
+    public void closeAll() {
+        for (String path : new ArrayList<>(m_readers.keySet())) {
+            closeReader(path);
+        }
+        // Offsets of unfinished rotated files have been recorded
+        for (Deque<TailFileReader> rotated : m_rotated.values()) {
+            for (TailFileReader reader : rotated) {
+                close(reader);
+            }
+        }
+        m_rotated.clear();
     }
 
     @Override
     public void handle(final Message<JsonObject> message) {
 
         JsonObject event = message.body();
-        final String path = event.getString(EVENT_FIELD_PATH);
-        final boolean rollover = event.getBoolean(EVENT_FIELD_ROLLOVER);
-        final long curSize = event.getLong(EVENT_FIELD_CUR_SIZE);
-        final long oldSize = event.getLong(EVENT_FIELD_OLD_SIZE);
-
-        Long offsetTmp = m_offset.get(path);
-        if (offsetTmp == null) {
-            if (m_startAtEof) {
-                offsetTmp = curSize; // start at EOF
-            } else {
-                offsetTmp = 0L; // start at BOF
+        String path = event.getString(EVENT_FIELD_PATH);
+        boolean rollover = event.getBoolean(EVENT_FIELD_ROLLOVER);
+        long curSize = event.getLong(EVENT_FIELD_CUR_SIZE);
+
+        try {
+            TailFileReader reader = reader(path, rollover, curSize);
+            if (reader != null) {
+                reader.setLastSize(curSize);
+                // Pending files are read in catch-up order
+                if (!reader.isPending()
+                        && m_rotated.containsKey(path)) {
+                    reader.setPending(true); // Rotated files first
+                    m_pending.add(path);
+                } else if (!reader.isPending()
+                        && (reader.getLag() >= m_minReadSize || reader.getPosition() > curSize)) {
+                    if (!hasCapacity(System.currentTimeMillis())
+                            || isBehind(reader, readChunk(path, reader))) {
+                        reader.setPending(true);
+                        m_pending.add(path);
+                    }
+                }
             }
-            m_offset.put(path, offsetTmp);
+            m_errCount1 = 0;
+        } catch (IOException e) {
+            closeReader(path); // Reopen on next change
+            logError("Failed to read file: " + path, e);
+        } finally {
+            message.reply(); // Ready
+        }
+    }
+
+    private TailFileReader reader(
+            final String path,
+            final boolean rollover,
+            final long curSize) throws IOException {
+
+        TailFileReader reader = m_readers.get(path);
+        if (reader != null && !rollover) {
+            return reader; // Same open file (the watcher compares file keys)
+        }
+
+        Path file = Paths.get(path);
+        if (!Files.exists(file)) {
+            return null;
         }
-        long offset = offsetTmp;
 
         //
-        // Determine if the file has actually changed
-        //
-        // All kinds of silly scenarios:
-        //
-        // 1. Lines have been appended 
-        //      - modified tm changed and size has increased
-        // 2. File has been rolled over to the exact same size 
-        //      - offset is reset if first line has changed
-        // 3. File has been rolled over - normal logging speed
-        //      - modification tm changed and size is smaller
-        // 4. File has been rolled over - crazy logging speed
-        //      - modification tm changed and size is same or bigger
-        //      - offset is reset if first line has changed
-        // 5. File has changed, modification tm has not yet changed, but size has
-        //      - handled by previous cases...
+        // Resolve identity of file and its last known offset
         //
-        m_logger.trace("Current size: {} offset: {} diff: {}", curSize, offset,
-                Math.abs(curSize - offset));
-        // Read lines if file is big enough (>32 bytes)
-        // and we can read enough bytes (>= read buffer size)
-        if (curSize >= 32
-                && Math.abs(curSize - offset) >= m_minReadSize) {
-
-            if (rollover) {
-                // Update state
-                offset = 0;
-                m_offset.put(path, offset);
-                m_logger.trace("First bytes of file changed");
-            } else {
-                // Reset offset if offset is larger than file size
-                if (offset > curSize) {
-                    offset = 0;
-                    m_logger.trace("Offset reset");
-                }
+        FileIdentity identity = FileIdentity.of(file);
+        if (reader != null
+                && reader.getIdentity().isSameInode(identity)) {
+            return reader; // Truncated file is handled by the reader
+        }
+        closeReader(path);
+        long offset = resolveOffset(path, identity, curSize);
+        reader = new TailFileReader(file, identity, m_charset, m_delimiter, offset);
+        m_readers.put(path, reader);
+        return reader;
+    }
+
+    /**
+     * Reads at most one buffer of the given file.
+     *
+     * @return the amount of bytes consumed
+     */
+    private int readChunk(
+            final String path,
+            final TailFileReader reader) throws IOException {
+
+        long size = reader.getLastSize();
+        long position = reader.getPosition();
+
+        // Reset offset if offset is larger than file size (truncated)
+        if (position > size) {
+            m_logger.trace("Offset reset: {}", path);
+            reader.seek(0L);
+            position = 0L;
+        }
+
+        // Explicit skip policy
+        if (m_skip
+                && (size - position) > m_maxLag) {
+            long skipped = size - position - m_maxLag;
+            m_logger.warn("File is more than {} bytes behind. Skipping {} bytes in file: {}",
+                    m_maxLag, skipped, path);
+            reader.seek(position + skipped);
+            m_skipped += skipped;
+            position = reader.getPosition();
+        }
+
+        m_logger.trace("Reading from offset: {} len: {} file: {}",
+                position, (size - position), path);
+
+        int consumed = reader.read(m_readBuffer, size, false, m_lineHandler);
+        m_registry.update(path, reader.getIdentity(), reader.getPosition()); // Update offset
+        return consumed;
+    }
+
+    /**
+     * Reads at most one buffer of the oldest unread rotated file of the given
+     * path. The rotated file is closed when only a partial line remains.
+     *
+     * @return the amount of bytes consumed
+     */
+    private int readRotatedChunk(
+            final String path,
+            final Deque<TailFileReader> rotated) {
+
+        TailFileReader reader = rotated.peek();
+        int consumed = 0;
+        try {
+            long size = (reader.isCompressed() ? Long.MAX_VALUE : reader.size());
+            consumed = reader.read(m_readBuffer, size, false, m_lineHandler);
+            if (consumed == 0) {
+                consumed = reader.read(m_readBuffer, size, true, m_lineHandler); // Last partial line
+                finishRotatedFile(path, rotated);
             }
+            m_registry.update(reader.getPath().toString(), reader.getIdentity(),
+                    reader.getPosition());
+        } catch (IOException e) {
+            m_logger.error("Failed to read rotated file: {}", reader.getPath(), e);
+            finishRotatedFile(path, rotated);
+        }
+        return consumed;
+    }
 
-            // Yes, tail file if size or first bytes changed
-            // Jump over this round if rollover since cursize might be the old size
-            final long curOffset = offset;
-            if (curSize > 0
-                    && (curSize != oldSize || curOffset == 0)
-                    && !rollover) {
-                // The flush flag is required at least on Windows
-                // Linux and FreeBSD work fine with or without it...
-                // Internally it is translated to StandardOpenOption.DSYNC in Vert.x
-                fileSystem().open(path, "r--r--r--", true, false, false, true, new AsyncResultHandler<AsyncFile>() {
-
-                    @Override
-                    public void handle(AsyncResult<AsyncFile> ar) {
-                        if (ar.succeeded()) {
-                            m_errCount1 = 0;
-                            handleFileOpen(message, ar.result(), path, curOffset, curSize);
-                        } else {
-                            message.reply(); // Ready
-                            long tm = System.currentTimeMillis();
-                            if ((m_errCount1++ > 25)
-                                    && ((tm - m_tm1) > ERROR_INTERVAL_MS)) {
-                                m_logger.error("Failed to open file: {}", path, ar.cause());
-                                m_tm1 = tm;
-                            }
-                        }
-                    }
-                });
+    private void finishRotatedFile(
+            final String path,
+            final Deque<TailFileReader> rotated) {
+
+        close(rotated.poll());
+        if (rotated.isEmpty()) {
+            m_rotated.remove(path);
+        }
+    }
+
+    private boolean isBehind(
+            final TailFileReader reader,
+            final int consumed) {
+        // No progress means that only a partial line remains
+        return (consumed > 0 && reader.getLag() >= m_minReadSize);
+    }
+
+    private boolean hasCapacity(final long now) {
+        boolean capacity = true;
+        if (m_ackAddress != null
+                && m_unacked >= m_maxUnacked) {
+            if ((now - m_lastAck) > m_ackTimeout) {
+                // Acknowledgements have been lost - do not stall forever
+                m_logger.warn("No acknowledgements received in {} ms (unacknowledged: {}). "
+                        + "Resetting window.", m_ackTimeout, m_unacked);
+                m_unacked = 0;
+                m_lastAck = now;
             } else {
-                message.reply(); // Ready
+                capacity = false;
             }
-        } else {
-            message.reply(); // Ready
+        }
+        return capacity;
+    }
+
+    private void logError(
+            final String msg,
+            final Throwable cause) {
+
+        long tm = System.currentTimeMillis();
+        if ((m_errCount1++ > 25)
+                && ((tm - m_tm1) > ERROR_INTERVAL_MS)) {
+            m_logger.error(msg, cause);
+            m_tm1 = tm;
         }
     }
 
-    private void handleFileOpen(
-            final Message<JsonObject> message,
-            final AsyncFile file,
+    private long resolveOffset(
             final String path,
-            final long offset,
-            final long size) {
+            final FileIdentity identity,
+            final long curSize) throws IOException {
+
+        long offset;
+        TailOffset known = m_registry.get(path);
+
+        if (known == null) {
+            //
+            // New path - the file might have been renamed to this path
+            //
+            TailOffset renamed = m_registry.find(identity);
+            if (renamed != null
+                    && isSameFile(renamed.getIdentity(), identity, Paths.get(path))) {
+                offset = renamed.getOffset();
+            } else if (m_startAtEof) {
+                offset = curSize; // start at EOF
+            } else {
+                offset = 0L; // start at BOF
+            }
+            m_registry.update(path, identity, offset);
+
+        } else if (!isSameFile(known.getIdentity(), identity, Paths.get(path))) {
+            //
+            // File has been replaced - finish the old file first
+            //
+            m_logger.debug("File has been rotated: {} (old: {} new: {})",
+                    path, known.getIdentity(), identity);
+            finishRotated(Paths.get(path), known);
+            offset = 0L; // start at BOF
+            m_registry.update(path, identity, offset);
 
-        final AbstractFilter filter = m_filter;
-        final int maxReadSize = m_maxReadSize;
-        int len = (int) (size - offset);
+        } else {
+            offset = known.getOffset();
+            if (identity.getFingerprintLength() > known.getIdentity().getFingerprintLength()) {
+                m_registry.update(path, identity, offset); // Longer fingerprint
+            }
+        }
+        return offset;
+    }
 
-        if (len > 0) {
+    private boolean isSameFile(
+            final FileIdentity known,
+            final FileIdentity current,
+            final Path path) throws IOException {
+
+        boolean same = false;
+        if (known.isSameInode(current)) {
+            int knownLen = known.getFingerprintLength();
+            int curLen = current.getFingerprintLength();
+            if (knownLen == curLen) {
+                same = (known.getFingerprint() == current.getFingerprint());
+            } else if (knownLen < curLen) {
+                same = known.matches(path); // File has grown
+            }
+        }
+        return same;
+    }
 
-            // Prevent uncontrolled memory consumption
-            if (len > (maxReadSize * 2)) {
-                m_logger.warn("Too much input data. Skipping {} bytes in file: {}",
-                        (len - maxReadSize), path);
-                len = maxReadSize;
+    /**
+     * Queues the rest of a rotated file and any newer rotated files that have
+     * not been read. The rotation chain is searched from the directory of the
+     * original file (eg. app.log.1, app.log.2.gz) and the rotated file is
+     * identified by its identity. Compressed files are identified by the
+     * fingerprint of their decompressed data.
+     */
+    private void finishRotated(
+            final Path path,
+            final TailOffset known) {
+
+        FileIdentity identity = known.getIdentity();
+        List<Path> chain = rotationChain(path);
+
+        // Search newest first
+        int index = -1;
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            if (isRotatedFile(chain.get(i), identity)) {
+                index = i;
+                break;
             }
-            m_logger.trace("Reading from offset: {} len: {} file: {}",
-                    offset, len, path);
-
-            final Buffer buf = new Buffer(len);
-            // Read max 1 MB by default
-            file.read(buf, 0, offset, len, new AsyncResultHandler<Buffer>() {
-
-                @Override
-                public void handle(final AsyncResult<Buffer> ar) {
-
-                    if (ar.succeeded()) {
-                        // Reset error count state 
-                        // Too many consecutive errors is considered abnormal
-                        m_errCount2 = 0;
-
-                        Buffer buf = ar.result();
-                        String raw = buf.toString(m_encoding);
-                        m_offset.put(path, size); // Update offset
-
-                        int len = buf.length();
-                        m_logger.trace("Read {} bytes", len);
-
-                        if (raw.length() > 0) {
-                            try {
-                                String[] lines = StringTokenizer.tokenize(raw, m_delimiter);
-                                int remainingBytes = StringTokenizer.remainingBytes();
-
-                                // Re-read bytes that are part of last "half" line
-                                if (remainingBytes > 0) {
-                                    m_offset.put(path, size - remainingBytes); // Update offset
-                                }
-
-                                for (String line : lines) {
-
-                                    // Do not emit empty lines
-                                    if (line.length() > 0) {
-                                        JsonObject event = Events.createNotificationEvent(
-                                                filter,
-                                                HostOs.hostName(),
-                                                EVENT_PRIORITY_NORMAL,
-                                                "Log line event",
-                                                line);
-                                        m_eventBus.send(filter.getDestinationAddress(), event);
-                                    }
-                                }
-                                m_errCount3 = 0;
-                            } catch (Exception e) {
-                                long tm = System.currentTimeMillis();
-                                if ((m_errCount3++ > 25)
-                                        && ((tm - m_tm3) > ERROR_INTERVAL_MS)) {
-                                    m_logger.error("Failed to tokenize or emit line", e);
-                                    m_tm3 = tm;
-                                }
-                            }
-                        }
-
-                        // Try to close file after read...
-                        file.close(new AsyncResultHandler<Void>() {
-
-                            @Override
-                            public void handle(final AsyncResult<Void> ar) {
-
-                                if (ar.failed()) {
-                                    long tm = System.currentTimeMillis();
-                                    if ((tm - m_tm2) > ERROR_INTERVAL_MS) {
-                                        m_logger.error("Failed to close file: {}",
-                                                path, ar.cause());
-                                        m_tm2 = tm;
-                                    }
-                                } else {
-                                    m_logger.trace("Closed: {}", path);
-                                }
-                                message.reply(); // Ready
-                            }
-                        });
+        }
 
+        if (index >= 0) {
+            Deque<TailFileReader> rotated = m_rotated.get(path.toString());
+            if (rotated == null) {
+                rotated = new ArrayDeque();
+                m_rotated.put(path.toString(), rotated);
+            }
+            queueRotated(rotated, chain.get(index), identity, known.getOffset());
+            //
+            // The file might have been rotated several times since the
+            // last read (eg. app.log.1 has been rotated to app.log.2.gz and
+            // app.log to app.log.1) - read the newer files from their last
+            // recorded offset or from the beginning
+            //
+            for (int i = index + 1; i < chain.size(); i++) {
+                Path newer = chain.get(i);
+                try {
+                    FileIdentity newerIdentity = FileIdentity.of(newer);
+                    TailOffset newerOffset = m_registry.find(newerIdentity);
+                    if (newerOffset != null
+                            && !isSameFile(newerOffset.getIdentity(), newerIdentity, newer)) {
+                        newerOffset = null; // Reused inode
+                    }
+                    if (newerOffset == null
+                            && CompressedFiles.isCompressed(newer)) {
+                        newerOffset = findCompressed(path, newer);
+                    }
+                    if (newerOffset != null) {
+                        queueRotated(rotated, newer, newerOffset.getIdentity(),
+                                newerOffset.getOffset());
                     } else {
-                        message.reply(); // Ready
-                        long tm = System.currentTimeMillis();
-                        if ((m_errCount2++ > 25)
-                                && ((tm - m_tm2) > ERROR_INTERVAL_MS)) {
-                            m_logger.error("Failed to read file: {}", path,
-                                    ar.cause());
-                            m_tm2 = tm;
-                        }
+                        m_logger.info("Reading unread rotated file: {}", newer);
+                        queueRotated(rotated, newer, newerIdentity, 0L);
                     }
+                } catch (IOException e) {
+                    m_logger.error("Failed to read rotated file: {}", newer, e);
                 }
-            });
+            }
         } else {
-            m_logger.warn("Negative or zero input size. Resetting file offset pointer to: {}",
-                    size);
-            m_offset.put(path, size); // Update offset
-            message.reply(); // Ready
+            m_logger.warn("Rotated file of {} not found (last offset: {})",
+                    path, known.getOffset());
+            m_registry.remove(identity);
         }
     }
 
     /**
-     * Returns the Vert.x file system object.
-     *
-     * @return Vert.x file system
+     * Opens the given rotated file (so that it can be renamed again before it
+     * has been read) and queues it for catch-up.
+     */
+    private void queueRotated(
+            final Deque<TailFileReader> rotated,
+            final Path file,
+            final FileIdentity identity,
+            final long offset) {
+
+        m_logger.debug("Queuing rest of rotated file: {} from offset: {}",
+                file, offset);
+        try {
+            TailFileReader reader;
+            if (CompressedFiles.isCompressed(file)) {
+                reader = TailFileReader.openCompressed(file, identity,
+                        m_charset, m_delimiter, offset);
+            } else {
+                reader = new TailFileReader(file, identity, m_charset,
+                        m_delimiter, offset);
+            }
+            // Record the offset by rotated path (the original path is reused)
+            m_registry.update(file.toString(), identity, offset);
+            rotated.add(reader);
+        } catch (IOException e) {
+            m_logger.error("Failed to open rotated file: {}", file, e);
+        }
+    }
+
+    /**
+     * Returns the recorded offset of an uncompressed rotated file of the
+     * given path whose data matches the decompressed data of the given file.
+     */
+    private TailOffset findCompressed(
+            final Path path,
+            final Path compressed) {
+
+        TailOffset match = null;
+        for (TailOffset offset : m_registry.getOffsets()) {
+            if (offset.getPath().startsWith(path.toString())
+                    && offset.getIdentity().getFingerprintLength() > 0
+                    && isRotatedFile(compressed, offset.getIdentity())) {
+                match = offset;
+                break;
+            }
+        }
+        return match;
+    }
+
+    private boolean isRotatedFile(
+            final Path candidate,
+            final FileIdentity identity) {
+
+        boolean match = false;
+        try {
+            if (CompressedFiles.isCompressed(candidate)) {
+                try (InputStream in = CompressedFiles.open(candidate)) {
+                    match = identity.matchesContent(in);
+                }
+            } else {
+                match = identity.matches(candidate);
+            }
+        } catch (IOException e) {
+            m_logger.debug("Failed to read rotated file candidate: {}", candidate, e);
+        }
+        return match;
+    }
+
+    /**
+     * Returns the rotated files of the given file ordered from the oldest to
+     * the newest.
      */
-    private FileSystem fileSystem() {
-        return m_filter.getVertx().fileSystem();
+    private List<Path> rotationChain(final Path path) {
+
+        final Map<Path, Long> modified = new HashMap();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(path.getParent(),
+                path.getFileName() + "?*")) {
+            for (Path candidate : stream) {
+                if (Files.isRegularFile(candidate)) {
+                    modified.put(candidate, Files.getLastModifiedTime(candidate).toMillis());
+                }
+            }
+        } catch (IOException e) {
+            m_logger.error("Failed to search rotated files of: {}", path, e);
+        }
+
+        List<Path> chain = new ArrayList(modified.keySet());
+        Collections.sort(chain, new Comparator<Path>() {
+
+            @Override
+            public int compare(final Path p1, final Path p2) {
+                int cmp = Long.compare(modified.get(p1), modified.get(p2));
+                if (cmp == 0) {
+                    // Higher rotation number is older (app.log.2 < app.log.1)
+                    cmp = p2.getFileName().toString().compareTo(p1.getFileName().toString());
+                }
+                return cmp;
+            }
+        });
+        return chain;
+    }
+
+    private void closeReader(final String path) {
+        close(m_readers.remove(path));
+    }
+
+    private void close(final TailFileReader reader) {
+        if (reader != null) {
+            try {
+                reader.close();
+                m_logger.trace("Closed: {}", reader.getPath());
+            } catch (IOException e) {
+                long tm = System.currentTimeMillis();
+                if ((tm - m_tm2) > ERROR_INTERVAL_MS) {
+                    m_logger.error("Failed to close file: {}",
+                            reader.getPath(), e);
+                    m_tm2 = tm;
+                }
+            }
+        }
     }
 }
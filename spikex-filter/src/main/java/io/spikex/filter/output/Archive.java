@@ -0,0 +1,174 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.output;
+
+import com.google.common.base.Strings;
+import io.spikex.core.AbstractFilter;
+import static io.spikex.core.helper.Commands.CMD_FIELD_CMD;
+import static io.spikex.core.helper.Events.EVENT_FIELD_BATCH_EVENTS;
+import static io.spikex.core.helper.Events.EVENT_FIELD_ID;
+import io.spikex.filter.internal.ArchiveSearchCommand;
+import static io.spikex.filter.internal.ArchiveSearchCommand.CMD_ARCHIVE_SEARCH;
+import io.spikex.filter.internal.ArchiveStore;
+import java.io.IOException;
+import java.nio.file.Path;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Writes events to a local, append-only event archive. Events are stored in
+ * time-partitioned, LZ4 compressed segment files under the data directory.
+ * Every sealed segment has an index (min/max timestamp, block offset table and
+ * bloom filter over @host, @type and @tags) that is used to skip segments when
+ * searching.
+ * <p>
+ * The archive can be searched by sending the
+ * {@link ArchiveSearchCommand#CMD_ARCHIVE_SEARCH} command to the local address
+ * of this filter. Please run this filter as a worker verticle, since both
+ * writing and searching use blocking file I/O.
+ * <p>
+ * Alias: <b>Archive</b><br>
+ * Name: <b>io.spikex.filter.output.Archive</b><br>
+ * <p>
+ * Example:
+ * <pre>
+ *  {"Archive":
+ *      {
+ *          "archive-name": "forensics",
+ *          "partition-length": 60,
+ *          "max-segment-size": 268435456,
+ *          "block-size": 65536,
+ *          "flush-interval": 1000,
+ *          "expected-keys": 10000
+ *      }
+ *  }
+ * </pre>
+ *
+ * @author cli
+ */
+public final class Archive extends AbstractFilter {
+
+    private ArchiveStore m_store;
+    private long m_timerId;
+
+    private static final String CONF_KEY_ARCHIVE_NAME = "archive-name";
+    private static final String CONF_KEY_PARTITION_LENGTH = "partition-length";
+    private static final String CONF_KEY_MAX_SEGMENT_SIZE = "max-segment-size";
+    private static final String CONF_KEY_BLOCK_SIZE = "block-size";
+    private static final String CONF_KEY_FLUSH_INTERVAL = "flush-interval";
+    private static final String CONF_KEY_EXPECTED_KEYS = "expected-keys";
+
+    //
+    // Configuration defaults
+    //
+    private static final String DEF_ARCHIVE_NAME = "archive";
+    private static final int DEF_PARTITION_LENGTH = 60; // min
+    private static final long DEF_MAX_SEGMENT_SIZE = 256L * 1024L * 1024L; // bytes
+    private static final int DEF_BLOCK_SIZE = 64 * 1024; // bytes
+    private static final long DEF_FLUSH_INTERVAL = 1000L; // ms
+    private static final int DEF_EXPECTED_KEYS = 10000;
+
+    private static final String ARCHIVE_DIR = "archive";
+
+    @Override
+    protected void startFilter() {
+
+        String name = config().getString(CONF_KEY_ARCHIVE_NAME, getChainName());
+        if (Strings.isNullOrEmpty(name)) {
+            name = DEF_ARCHIVE_NAME;
+        }
+        Path path = dataPath().resolve(ARCHIVE_DIR).resolve(name.toLowerCase());
+
+        m_store = new ArchiveStore(
+                path,
+                name.toLowerCase(),
+                config().getInteger(CONF_KEY_PARTITION_LENGTH, DEF_PARTITION_LENGTH) * 60L * 1000L,
+                config().getLong(CONF_KEY_MAX_SEGMENT_SIZE, DEF_MAX_SEGMENT_SIZE),
+                config().getInteger(CONF_KEY_BLOCK_SIZE, DEF_BLOCK_SIZE),
+                config().getInteger(CONF_KEY_EXPECTED_KEYS, DEF_EXPECTED_KEYS));
+
+        try {
+            m_store.open();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open archive: " + path, e);
+        }
+
+        // Flush pending blocks and seal segments of ended partitions
+        m_timerId = vertx.setPeriodic(
+                config().getLong(CONF_KEY_FLUSH_INTERVAL, DEF_FLUSH_INTERVAL),
+                new Handler<Long>() {
+
+                    @Override
+                    public void handle(final Long timerId) {
+                        try {
+                            m_store.flush(System.currentTimeMillis());
+                        } catch (IOException e) {
+                            logger().error("Failed to flush archive: {}",
+                                    m_store.getPath(), e);
+                        }
+                    }
+                });
+    }
+
+    @Override
+    protected void stopFilter() {
+        vertx.cancelTimer(m_timerId);
+        if (m_store != null) {
+            try {
+                m_store.close();
+            } catch (IOException e) {
+                logger().error("Failed to close archive: {}", m_store.getPath(), e);
+            }
+        }
+    }
+
+    @Override
+    protected void handleEvent(final JsonObject batchEvent) {
+        try {
+            //
+            // Archive all events of a batch
+            //
+            JsonArray batch = batchEvent.getArray(EVENT_FIELD_BATCH_EVENTS, new JsonArray());
+            if (!batchEvent.containsField(EVENT_FIELD_BATCH_EVENTS)) {
+                batch.addObject(batchEvent);
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                JsonObject event = batch.get(i);
+                m_store.append(event);
+            }
+        } catch (IOException e) {
+            // Let the caller know (negative acknowledgement)
+            throw new IllegalStateException("Failed to archive event: "
+                    + batchEvent.getString(EVENT_FIELD_ID), e);
+        }
+    }
+
+    @Override
+    protected void handleLocalMessage(final Message message) {
+        Object body = message.body();
+        if (body instanceof JsonObject) {
+            JsonObject json = (JsonObject) body;
+            if (CMD_ARCHIVE_SEARCH.equals(json.getString(CMD_FIELD_CMD))) {
+                logger().debug("Received command: {}", json);
+                new ArchiveSearchCommand(m_store, json).execute(message);
+            }
+        }
+    }
+}
@@ -25,7 +25,6 @@ import static io.spikex.core.helper.Events.EVENT_FIELD_ID;
 import static io.spikex.core.helper.Events.EVENT_FIELD_VALUE;
 import io.spikex.core.util.connection.AsbtractHttpClient;
 import io.spikex.core.util.connection.ConnectionException;
-import io.spikex.core.util.connection.DefaultConnectionExceptionHandler;
 import io.spikex.core.util.connection.HttpClientAdapter;
 import io.spikex.core.util.connection.HttpClientResponseAdapter;
 import io.spikex.core.util.connection.IConnection;
@@ -165,8 +164,7 @@ public class Dweet extends AsbtractHttpClient {
             byte[] body = m_event.encode().getBytes();
             request.putHeader(CONTENT_TYPE, "application/json");
             request.putHeader(CONTENT_LENGTH, String.valueOf(body.length));
-            request.exceptionHandler(new DefaultConnectionExceptionHandler(
-                    getConnection()));
+            request.exceptionHandler(exceptionHandler());
             request.write(new Buffer(body));
             request.end();
         }
@@ -24,7 +24,6 @@ import io.spikex.core.helper.Variables;
 import io.spikex.core.util.Version;
 import io.spikex.core.util.connection.AsbtractHttpClient;
 import io.spikex.core.util.connection.ConnectionException;
-import io.spikex.core.util.connection.DefaultConnectionExceptionHandler;
 import io.spikex.core.util.connection.HttpClientAdapter;
 import io.spikex.core.util.connection.HttpClientResponseAdapter;
 import io.spikex.core.util.connection.IConnection;
@@ -239,8 +238,7 @@ public final class Elasticsearch extends AsbtractHttpClient {
             String content = m_templateResource.getData();
             byte[] body = content.getBytes();
             request.putHeader(CONTENT_LENGTH, String.valueOf(body.length));
-            request.exceptionHandler(new DefaultConnectionExceptionHandler(
-                    getConnection()));
+            request.exceptionHandler(exceptionHandler());
             request.write(new Buffer(body));
             request.end();
         }
@@ -325,8 +323,7 @@ public final class Elasticsearch extends AsbtractHttpClient {
 
             byte[] body = bulk.toString().getBytes();
             request.putHeader(CONTENT_LENGTH, String.valueOf(body.length));
-            request.exceptionHandler(new DefaultConnectionExceptionHandler(
-                    getConnection()));
+            request.exceptionHandler(exceptionHandler());
             request.write(new Buffer(body));
             request.end();
         }
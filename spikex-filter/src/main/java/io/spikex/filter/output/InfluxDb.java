@@ -35,15 +35,17 @@ import static io.spikex.core.helper.Events.EVENT_FIELD_ID;
 import io.spikex.core.util.Base64;
 import io.spikex.core.util.Numbers;
 import io.spikex.core.util.connection.AsbtractHttpClient;
+import io.spikex.core.util.connection.ConnectionConfig.LoadBalancingDef;
 import io.spikex.core.util.connection.ConnectionException;
-import io.spikex.core.util.connection.DefaultConnectionExceptionHandler;
 import io.spikex.core.util.connection.HttpClientAdapter;
 import io.spikex.core.util.connection.HttpClientResponseAdapter;
 import io.spikex.core.util.connection.HttpConnection;
 import io.spikex.core.util.connection.IConnection;
 import io.spikex.filter.internal.Rule;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import org.msgpack.core.Preconditions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -190,6 +192,14 @@ public final class InfluxDb extends AsbtractHttpClient {
                 if (available > 0) {
                     String precision = m_precision;
                     List<String> points = new ArrayList();
+                    //
+                    // Key based load balancing (keep series on same node)
+                    //
+                    LoadBalancingDef lbDef = nodes().getLoadBalancing();
+                    Map<IConnection<HttpClient>, List<String>> keyedPoints = null;
+                    if (lbDef.isKeyed()) {
+                        keyedPoints = new LinkedHashMap();
+                    }
 
                     for (int i = 0; i < batch.size(); i++) {
                         //
@@ -202,7 +212,18 @@ public final class InfluxDb extends AsbtractHttpClient {
                                 logger().trace("Data point: {}", point);
                                 // Ignore empty points (eg. empty value fields)
                                 if (point != null) {
-                                    points.add(point);
+                                    if (keyedPoints != null) {
+                                        String key = variables().translate(event, lbDef.getHashKey());
+                                        IConnection<HttpClient> connection = connections().next(key);
+                                        List<String> connPoints = keyedPoints.get(connection);
+                                        if (connPoints == null) {
+                                            connPoints = new ArrayList();
+                                            keyedPoints.put(connection, connPoints);
+                                        }
+                                        connPoints.add(point);
+                                    } else {
+                                        points.add(point);
+                                    }
                                 }
                                 break; // Match found, handle next event
                             }
@@ -222,6 +243,19 @@ public final class InfluxDb extends AsbtractHttpClient {
                                 points);
                         connection.doRequest(handler);
                     }
+                    if (keyedPoints != null) {
+                        for (Map.Entry<IConnection<HttpClient>, List<String>> entry
+                                : keyedPoints.entrySet()) {
+                            IConnection<HttpClient> connection = entry.getKey();
+                            InfluxDbWriter handler = new InfluxDbWriter(
+                                    connection,
+                                    m_databaseName,
+                                    m_consistency,
+                                    m_precision,
+                                    entry.getValue());
+                            connection.doRequest(handler);
+                        }
+                    }
                 }
             }
         } catch (ConnectionException e) {
@@ -747,8 +781,7 @@ public final class InfluxDb extends AsbtractHttpClient {
                         + base64UserAndPassword(m_adminUser, m_adminPassword));
             }
 
-            request.exceptionHandler(new DefaultConnectionExceptionHandler(
-                    getConnection()));
+            request.exceptionHandler(exceptionHandler());
             request.end();
         }
     }
@@ -824,8 +857,7 @@ public final class InfluxDb extends AsbtractHttpClient {
                         + m_base64UserAndPassword);
             }
 
-            request.exceptionHandler(new DefaultConnectionExceptionHandler(
-                    getConnection()));
+            request.exceptionHandler(exceptionHandler());
             request.write(new Buffer(body));
             request.end();
         }
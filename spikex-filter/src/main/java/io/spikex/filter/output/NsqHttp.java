@@ -23,7 +23,6 @@ import static io.spikex.core.helper.Events.EVENT_FIELD_BATCH_SIZE;
 import static io.spikex.core.helper.Events.EVENT_FIELD_ID;
 import io.spikex.core.util.connection.AsbtractHttpClient;
 import io.spikex.core.util.connection.ConnectionException;
-import io.spikex.core.util.connection.DefaultConnectionExceptionHandler;
 import io.spikex.core.util.connection.HttpClientAdapter;
 import io.spikex.core.util.connection.HttpClientResponseAdapter;
 import io.spikex.core.util.connection.IConnection;
@@ -183,8 +182,7 @@ public class NsqHttp extends AsbtractHttpClient {
 
             byte[] body = bulk.toString().getBytes();
             request.putHeader(CONTENT_LENGTH, String.valueOf(body.length));
-            request.exceptionHandler(new DefaultConnectionExceptionHandler(
-                    getConnection()));
+            request.exceptionHandler(exceptionHandler());
             request.write(new Buffer(body));
             request.end();
         }
@@ -27,7 +27,6 @@ import io.spikex.core.helper.Variables;
 import io.spikex.core.util.connection.AsbtractHttpClient;
 import io.spikex.core.util.connection.ConnectionException;
 import io.spikex.core.util.connection.Connections;
-import io.spikex.core.util.connection.DefaultConnectionExceptionHandler;
 import io.spikex.core.util.connection.HttpClientAdapter;
 import io.spikex.core.util.connection.HttpClientResponseAdapter;
 import io.spikex.core.util.connection.HttpConnection;
@@ -460,8 +459,7 @@ public class Ubidots extends AsbtractHttpClient {
                     queryUri, getConnection().getAddress());
 
             HttpClientRequest request = doGet(queryUri.toString(), m_handler);
-            request.exceptionHandler(new DefaultConnectionExceptionHandler(
-                    getConnection()));
+            request.exceptionHandler(exceptionHandler());
             request.end();
         }
     }
@@ -509,8 +507,7 @@ public class Ubidots extends AsbtractHttpClient {
             }
             request.putHeader(CONTENT_TYPE, "application/json");
             request.putHeader(CONTENT_LENGTH, String.valueOf(body.length));
-            request.exceptionHandler(new DefaultConnectionExceptionHandler(
-                    getConnection()));
+            request.exceptionHandler(exceptionHandler());
             request.write(new Buffer(body));
             request.end();
         }
@@ -0,0 +1,130 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.unit;
+
+import io.spikex.filter.internal.AdmissionControl;
+import static io.spikex.filter.internal.AdmissionControl.ADMITTED;
+import static io.spikex.filter.internal.AdmissionControl.REJECTED_IN_FLIGHT;
+import static io.spikex.filter.internal.AdmissionControl.REJECTED_RATE;
+import java.util.List;
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ * HTTP admission control tester.
+ *
+ * @author cli
+ */
+public class AdmissionControlTest {
+
+    private static final long SECOND = 1000000000L; // ns
+
+    @Test
+    public void testTokenBucket() {
+
+        AdmissionControl admission = new AdmissionControl(2.0d, 4, 0, 0.8d, 100);
+        long now = 0L;
+
+        // Burst
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(ADMITTED, admission.admit("client-1", now));
+            admission.release();
+        }
+        Assert.assertEquals(REJECTED_RATE, admission.admit("client-1", now));
+        Assert.assertEquals(1L, admission.getRetryAfter());
+
+        // Other clients have their own buckets
+        Assert.assertEquals(ADMITTED, admission.admit("client-2", now));
+        admission.release();
+
+        // Refill (2 tokens per second)
+        now += SECOND / 2L;
+        Assert.assertEquals(ADMITTED, admission.admit("client-1", now));
+        admission.release();
+        Assert.assertEquals(REJECTED_RATE, admission.admit("client-1", now));
+
+        for (AdmissionControl.Bucket bucket : admission.getBuckets()) {
+            if ("client-1".equals(bucket.getClient())) {
+                Assert.assertEquals(5L, bucket.getAdmitted());
+                Assert.assertEquals(2L, bucket.getRejected());
+            } else {
+                Assert.assertEquals(1L, bucket.getAdmitted());
+            }
+        }
+    }
+
+    @Test
+    public void testInFlightAndShedding() {
+
+        AdmissionControl admission = new AdmissionControl(0.0d, 0, 10, 0.6d, 100);
+
+        // Below shedding level (6)
+        for (int i = 0; i < 6; i++) {
+            Assert.assertFalse(admission.shed("client", "low"));
+            Assert.assertEquals(ADMITTED, admission.admit("client", 0L));
+        }
+
+        // Low priority is shed first
+        Assert.assertTrue(admission.shed("client", "low"));
+        Assert.assertFalse(admission.shed("client", "normal"));
+        Assert.assertFalse(admission.shed("client", null));
+
+        // Normal priority from midpoint (8)
+        Assert.assertEquals(ADMITTED, admission.admit("client", 0L));
+        Assert.assertEquals(ADMITTED, admission.admit("client", 0L));
+        Assert.assertTrue(admission.shed("client", "normal"));
+        Assert.assertFalse(admission.shed("client", "high"));
+
+        // High priority only at the limit
+        Assert.assertEquals(ADMITTED, admission.admit("client", 0L));
+        Assert.assertEquals(ADMITTED, admission.admit("client", 0L));
+        Assert.assertEquals(REJECTED_IN_FLIGHT, admission.admit("client", 0L));
+        Assert.assertTrue(admission.shed("client", "high"));
+        Assert.assertEquals(10, admission.getInFlight());
+
+        admission.release();
+        Assert.assertEquals(ADMITTED, admission.admit("client", 0L));
+
+        AdmissionControl.Bucket bucket = admission.getBuckets().iterator().next();
+        Assert.assertEquals(3L, bucket.getShed());
+        Assert.assertEquals(1L, bucket.getRejected());
+    }
+
+    @Test
+    public void testEviction() {
+
+        AdmissionControl admission = new AdmissionControl(0.0d, 0, 0, 0.8d, 2);
+
+        Assert.assertEquals(ADMITTED, admission.admit("client-1", 0L));
+        Assert.assertEquals(ADMITTED, admission.admit("client-2", 0L));
+        for (AdmissionControl.Bucket bucket : admission.getBuckets()) {
+            bucket.setReported("client-1".equals(bucket.getClient()));
+        }
+
+        // Least recently seen clients are forgotten
+        Assert.assertEquals(ADMITTED, admission.admit("client-3", 0L));
+        Assert.assertEquals(ADMITTED, admission.admit("client-4", 0L));
+        Assert.assertEquals(2, admission.getBuckets().size());
+
+        // Only reported buckets are kept until polled
+        List<AdmissionControl.Bucket> evicted = admission.pollEvicted();
+        Assert.assertEquals(1, evicted.size());
+        Assert.assertEquals("client-1", evicted.get(0).getClient());
+        Assert.assertTrue(admission.pollEvicted().isEmpty());
+    }
+}
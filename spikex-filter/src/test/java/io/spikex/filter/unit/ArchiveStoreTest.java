@@ -0,0 +1,235 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.unit;
+
+import static io.spikex.core.helper.Events.EVENT_FIELD_HOST;
+import static io.spikex.core.helper.Events.EVENT_FIELD_TAGS;
+import static io.spikex.core.helper.Events.EVENT_FIELD_TIMESTAMP;
+import static io.spikex.core.helper.Events.EVENT_FIELD_TYPE;
+import io.spikex.filter.internal.ArchiveSegment;
+import io.spikex.filter.internal.ArchiveStore;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.Assert;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.xxhash.XXHashFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Event archive tester.
+ *
+ * @author cli
+ */
+public class ArchiveStoreTest {
+
+    private static final Path ARCHIVE_PATH = Paths.get("build", "archive-test");
+    private static final long HOUR = 60L * 60L * 1000L;
+
+    @Before
+    public void cleanup() throws IOException {
+        if (Files.exists(ARCHIVE_PATH)) {
+            for (Path file : Files.newDirectoryStream(ARCHIVE_PATH)) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void testAppendAndSearch() throws IOException {
+
+        ArchiveStore store = new ArchiveStore(ARCHIVE_PATH, "test", HOUR,
+                1024L * 1024L, 512, 1000);
+        store.open();
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 1000; i++) {
+            store.append(createEvent(now + i, "host-" + (i % 10), "log", "tag-" + (i % 3)));
+        }
+
+        // Search active segment
+        List<JsonObject> events = store.search(now, now + 1000L,
+                Arrays.asList("host-1", "tag-1"), 1000);
+        Assert.assertEquals(34, events.size());
+        store.close();
+
+        // Reopen and search sealed segment
+        store = new ArchiveStore(ARCHIVE_PATH, "test", HOUR,
+                1024L * 1024L, 512, 1000);
+        store.open();
+        events = store.search(now, now + 1000L,
+                Arrays.asList("host-1", "tag-1"), 1000);
+        Assert.assertEquals(34, events.size());
+        Assert.assertEquals("host-1", events.get(0).getString(EVENT_FIELD_HOST));
+
+        // Max count and time range
+        Assert.assertEquals(10, store.search(now, now + 1000L,
+                Collections.<String>emptyList(), 10).size());
+        Assert.assertEquals(100, store.search(now + 100L, now + 199L,
+                Collections.<String>emptyList(), 1000).size());
+        Assert.assertEquals(0, store.search(now + 2000L, now + 3000L,
+                Collections.<String>emptyList(), 1000).size());
+
+        // Unknown key (ruled out by bloom filter)
+        Assert.assertEquals(0, store.search(now, now + 1000L,
+                Arrays.asList("host-99"), 1000).size());
+        store.close();
+    }
+
+    @Test
+    public void testRecovery() throws IOException {
+
+        Path dataFile = ARCHIVE_PATH.resolve("test-20150101T0000-1"
+                + ArchiveSegment.DATA_FILE_SUFFIX);
+        Files.createDirectories(ARCHIVE_PATH);
+
+        ArchiveSegment segment = ArchiveSegment.create(dataFile, 256, 100);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 100; i++) {
+            segment.append(createEvent(now + i, "host-1", "metric", "cpu"));
+        }
+        segment.flush(); // Not sealed - no index
+
+        // Corrupt tail
+        Files.write(dataFile, new byte[]{1, 2, 3, 4, 5},
+                StandardOpenOption.APPEND);
+
+        ArchiveStore store = new ArchiveStore(ARCHIVE_PATH, "test", HOUR,
+                1024L * 1024L, 256, 100);
+        store.open();
+        Assert.assertEquals(100, store.search(now, now + 100L,
+                Arrays.asList("host-1", "cpu"), 1000).size());
+        store.close();
+    }
+
+    @Test
+    public void testUndecodableBlock() throws IOException {
+
+        Path dataFile = ARCHIVE_PATH.resolve("test-20150101T0000-1"
+                + ArchiveSegment.DATA_FILE_SUFFIX);
+        Files.createDirectories(ARCHIVE_PATH);
+
+        ArchiveSegment segment = ArchiveSegment.create(dataFile, 256, 100);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            segment.append(createEvent(now + i, "host-1", "metric", "cpu"));
+        }
+        segment.flush(); // Not sealed - no index
+
+        // Valid block (checksum) with invalid JSON
+        byte[] raw = "{\"@host\": \n".getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = LZ4Factory.fastestInstance().fastCompressor().compress(raw);
+        ByteBuffer block = ByteBuffer.allocate(12 + compressed.length);
+        block.putInt(compressed.length);
+        block.putInt(raw.length);
+        block.putInt(XXHashFactory.fastestInstance().hash32().hash(raw, 0, raw.length, 0x9747b28c));
+        block.put(compressed);
+        Files.write(dataFile, block.array(), StandardOpenOption.APPEND);
+        long size = Files.size(dataFile);
+
+        // Recovery truncates at the undecodable block
+        ArchiveStore store = new ArchiveStore(ARCHIVE_PATH, "test", HOUR,
+                1024L * 1024L, 256, 100);
+        store.open();
+        Assert.assertEquals(10, store.search(now, now + 10L,
+                Arrays.asList("host-1"), 1000).size());
+        Assert.assertEquals(size - block.capacity(), Files.size(dataFile));
+        store.close();
+    }
+
+    @Test
+    public void testSegmentOrder() throws IOException {
+
+        Files.createDirectories(ARCHIVE_PATH);
+        long now = System.currentTimeMillis();
+        for (int i = 1; i <= 12; i++) {
+            Path dataFile = ARCHIVE_PATH.resolve("test-20150101T0000-" + i
+                    + ArchiveSegment.DATA_FILE_SUFFIX);
+            ArchiveSegment segment = ArchiveSegment.create(dataFile, 256, 100);
+            segment.append(createEvent(now + i, "host-" + i, "log", "app"));
+            segment.seal();
+        }
+
+        // Segments are searched in sequence order (1, 2, 3 and not 1, 10, 11)
+        ArchiveStore store = new ArchiveStore(ARCHIVE_PATH, "test", HOUR,
+                1024L * 1024L, 256, 100);
+        store.open();
+        List<JsonObject> events = store.search(now, now + 100L,
+                Collections.<String>emptyList(), 3);
+        Assert.assertEquals(3, events.size());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals("host-" + (i + 1), events.get(i).getString(EVENT_FIELD_HOST));
+        }
+        store.close();
+    }
+
+    @Test
+    public void testMissingTimestamp() throws IOException {
+
+        Path dataFile = ARCHIVE_PATH.resolve("test-20150101T0000-1"
+                + ArchiveSegment.DATA_FILE_SUFFIX);
+        Files.createDirectories(ARCHIVE_PATH);
+
+        long start = System.currentTimeMillis();
+        ArchiveSegment segment = ArchiveSegment.create(dataFile, 256, 100);
+        for (int i = 0; i < 10; i++) {
+            JsonObject event = createEvent(0L, "host-2", "log", "app");
+            event.removeField(EVENT_FIELD_TIMESTAMP);
+            segment.append(event);
+            Assert.assertFalse(event.containsField(EVENT_FIELD_TIMESTAMP)); // Not modified
+        }
+        segment.flush(); // Not sealed - no index
+        long end = System.currentTimeMillis();
+
+        // Recovered events have the timestamp of the append
+        ArchiveStore store = new ArchiveStore(ARCHIVE_PATH, "test", HOUR,
+                1024L * 1024L, 256, 100);
+        store.open();
+        List<JsonObject> events = store.search(start, end,
+                Arrays.asList("host-2"), 1000);
+        Assert.assertEquals(10, events.size());
+        long tm = events.get(0).getLong(EVENT_FIELD_TIMESTAMP);
+        Assert.assertEquals(tm, store.search(tm, tm,
+                Arrays.asList("host-2"), 1).get(0).getLong(EVENT_FIELD_TIMESTAMP).longValue());
+        store.close();
+    }
+
+    private static JsonObject createEvent(
+            final long timestamp,
+            final String host,
+            final String type,
+            final String tag) {
+
+        JsonObject event = new JsonObject();
+        event.putNumber(EVENT_FIELD_TIMESTAMP, timestamp);
+        event.putString(EVENT_FIELD_HOST, host);
+        event.putString(EVENT_FIELD_TYPE, type);
+        event.putArray(EVENT_FIELD_TAGS, new JsonArray().addString(tag));
+        return event;
+    }
+}
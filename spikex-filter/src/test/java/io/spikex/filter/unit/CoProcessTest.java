@@ -0,0 +1,112 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.unit;
+
+import io.spikex.filter.internal.CoProcess;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.Assert;
+import org.junit.Test;
+import org.vertx.java.core.Handler;
+
+/**
+ * Co-process tester.
+ *
+ * @author cli
+ */
+public class CoProcessTest {
+
+    @Test
+    public void testEcho() throws InterruptedException {
+
+        final List<String> output = new CopyOnWriteArrayList();
+        final CountDownLatch outputLatch = new CountDownLatch(1000);
+        final CountDownLatch exitLatch = new CountDownLatch(1);
+
+        CoProcess coProcess = new CoProcess(
+                "/bin/cat",
+                new String[0],
+                new HashMap(),
+                StandardCharsets.UTF_8,
+                1000,
+                new Handler<String[]>() {
+
+                    @Override
+                    public void handle(final String[] lines) {
+                        for (String line : lines) {
+                            output.add(line);
+                            outputLatch.countDown();
+                        }
+                    }
+                },
+                new Handler<CoProcess>() {
+
+                    @Override
+                    public void handle(final CoProcess coProcess) {
+                        exitLatch.countDown();
+                    }
+                });
+
+        // Queued before start
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(coProcess.offer("{\"@message\":\"line " + i + "\"}"));
+        }
+        Assert.assertFalse("Queue is not bounded", coProcess.offer("overflow"));
+
+        coProcess.start();
+        Assert.assertTrue("Output was not received",
+                outputLatch.await(10L, TimeUnit.SECONDS));
+        Assert.assertEquals(1000, output.size());
+        Assert.assertEquals("{\"@message\":\"line 0\"}", output.get(0));
+        Assert.assertEquals("{\"@message\":\"line 999\"}", output.get(999));
+        Assert.assertEquals(0, coProcess.getPending());
+
+        coProcess.stop();
+        Assert.assertTrue("Process did not exit",
+                exitLatch.await(10L, TimeUnit.SECONDS));
+        Assert.assertTrue(coProcess.isStopped());
+    }
+
+    @Test
+    public void testRestartDelay() {
+
+        CoProcess coProcess = new CoProcess(
+                "/bin/cat",
+                new String[0],
+                new HashMap(),
+                StandardCharsets.UTF_8,
+                10,
+                null,
+                null);
+
+        long now = System.currentTimeMillis();
+        long delay = coProcess.nextRestartDelay(now, 1000L, 8000L);
+        Assert.assertTrue("Delay: " + delay, delay >= 1000L && delay <= 1100L);
+        delay = coProcess.nextRestartDelay(now, 1000L, 8000L);
+        Assert.assertTrue("Delay: " + delay, delay >= 2000L && delay <= 2200L);
+        for (int i = 0; i < 5; i++) {
+            delay = coProcess.nextRestartDelay(now, 1000L, 8000L);
+        }
+        Assert.assertTrue("Delay: " + delay, delay >= 8000L && delay <= 8800L);
+        Assert.assertEquals(7, coProcess.getRestarts());
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.unit;
+
+import io.spikex.filter.internal.CollectdMapping;
+import static io.spikex.filter.internal.CollectdMapping.DEF_MAPPING;
+import io.spikex.filter.internal.CollectdNameCache;
+import io.spikex.filter.internal.CollectdNames;
+import java.util.HashMap;
+import java.util.Map;
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ * Collectd name cache tester.
+ *
+ * @author cli
+ */
+public class CollectdNameCacheTest {
+
+    @Test
+    public void testResolve() {
+
+        Map<String, CollectdMapping> mappings = new HashMap();
+        CollectdMapping.buildDefaults(mappings, ".", "_");
+        CollectdNameCache cache = new CollectdNameCache(mappings, 100);
+
+        CollectdMapping mapping = mappings.get("cpu");
+        if (mapping == null) {
+            mapping = mappings.get(DEF_MAPPING);
+        }
+        CollectdNames expected = mapping.resolve("cpu", "0", "cpu", "idle", "value", "derive");
+
+        CollectdNames names = cache.resolve("cpu", "0", "cpu", "idle", "value", "derive");
+        Assert.assertEquals(expected.getDsname(), names.getDsname());
+        Assert.assertEquals(expected.getDstype(), names.getDstype());
+        Assert.assertEquals(expected.getSubgroup(), names.getSubgroup());
+        Assert.assertEquals(expected.getInstance(), names.getInstance());
+        Assert.assertEquals(0, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+
+        // Equal (not same) strings hit the cache
+        Assert.assertSame(names, cache.resolve(new String("cpu"), "0", "cpu",
+                new String("idle"), "value", "derive"));
+        Assert.assertEquals(1, cache.getHits());
+
+        // Different type instance
+        Assert.assertNotSame(names, cache.resolve("cpu", "0", "cpu", "user", "value", "derive"));
+        Assert.assertEquals(2, cache.getMisses());
+        Assert.assertEquals(2, cache.size());
+
+        // Null values are treated as empty
+        CollectdNames empty = cache.resolve("load", null, "load", null, "shortterm", "gauge");
+        Assert.assertSame(empty, cache.resolve("load", "", "load", "", "shortterm", "gauge"));
+    }
+
+    @Test
+    public void testEviction() {
+
+        Map<String, CollectdMapping> mappings = new HashMap();
+        CollectdMapping.buildDefaults(mappings, ".", "_");
+        CollectdNameCache cache = new CollectdNameCache(mappings, 10);
+
+        for (int i = 0; i < 100; i++) {
+            cache.resolve("interface", "eth" + i, "if_octets", "", "rx", "derive");
+        }
+        Assert.assertEquals(10, cache.size());
+        Assert.assertEquals(100, cache.getMisses());
+
+        // Most recently used entries are kept
+        cache.resolve("interface", "eth99", "if_octets", "", "rx", "derive");
+        Assert.assertEquals(1, cache.getHits());
+
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.unit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.spikex.filter.internal.CollectdMeasurement;
+import static io.spikex.filter.internal.CollectdMeasurement.DSTYPE_DERIVE;
+import static io.spikex.filter.internal.CollectdMeasurement.DSTYPE_GAUGE;
+import io.spikex.filter.internal.CollectdPacketParser;
+import static io.spikex.filter.internal.CollectdTypes.TYPE_HOST;
+import static io.spikex.filter.internal.CollectdTypes.TYPE_INTERVAL_RRD;
+import static io.spikex.filter.internal.CollectdTypes.TYPE_PLUGIN;
+import static io.spikex.filter.internal.CollectdTypes.TYPE_TIME_EPOCH;
+import static io.spikex.filter.internal.CollectdTypes.TYPE_TYPE;
+import static io.spikex.filter.internal.CollectdTypes.TYPE_VALUES;
+import io.spikex.filter.internal.InternedStrings;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.Assert;
+import org.junit.Test;
+import org.vertx.java.core.Handler;
+
+/**
+ * Collectd binary protocol parser tester.
+ *
+ * @author cli
+ */
+public class CollectdPacketParserTest {
+
+    @Test
+    public void testParse() {
+
+        CollectdPacketParser parser = new CollectdPacketParser(new InternedStrings(64, 64));
+        ValueCollector values = new ValueCollector();
+
+        ByteBuf packet = createPacket();
+        Assert.assertEquals(3, parser.parse(packet, values));
+        Assert.assertEquals(3, values.m_values.size());
+        Assert.assertEquals("host1/cpu/percent", values.m_names.get(0));
+        Assert.assertEquals(12.5d, values.m_values.get(0));
+        Assert.assertEquals(DSTYPE_GAUGE, values.m_dstypes.get(0));
+        Assert.assertEquals(-0.25d, values.m_values.get(1));
+        Assert.assertEquals(123456789L, values.m_values.get(2));
+        Assert.assertEquals(DSTYPE_DERIVE, values.m_dstypes.get(2));
+        Assert.assertEquals("host1/interface/if_octets", values.m_names.get(2));
+        Assert.assertEquals(1445000000000L, values.m_timestamp);
+        Assert.assertEquals(10L, values.m_interval);
+
+        // Names are interned across packets
+        long misses = parser.getStrings().getMisses();
+        parser.parse(createPacket(), values);
+        Assert.assertEquals(misses, parser.getStrings().getMisses());
+        Assert.assertTrue(parser.getStrings().getHits() >= 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedPacket() {
+
+        CollectdPacketParser parser = new CollectdPacketParser(new InternedStrings(64, 64));
+        ByteBuf packet = Unpooled.buffer();
+        packet.writeShort(TYPE_HOST);
+        packet.writeShort(100); // Longer than packet
+        packet.writeBytes("host1".getBytes(StandardCharsets.US_ASCII));
+        parser.parse(packet, new ValueCollector());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testShortNumericPart() {
+
+        CollectdPacketParser parser = new CollectdPacketParser(new InternedStrings(64, 64));
+        ByteBuf packet = Unpooled.buffer();
+        packet.writeShort(TYPE_TIME_EPOCH);
+        packet.writeShort(4 + 4); // Only 32 bits
+        packet.writeInt(1445000000);
+        writeString(packet, TYPE_HOST, "host1");
+        parser.parse(packet, new ValueCollector());
+    }
+
+    private static ByteBuf createPacket() {
+        ByteBuf buf = Unpooled.buffer();
+        writeString(buf, TYPE_HOST, "host1");
+        writeLong(buf, TYPE_TIME_EPOCH, 1445000000L);
+        writeLong(buf, TYPE_INTERVAL_RRD, 10L);
+        writeString(buf, TYPE_PLUGIN, "cpu");
+        writeString(buf, TYPE_TYPE, "percent");
+        // Two gauges
+        buf.writeShort(TYPE_VALUES);
+        buf.writeShort(4 + 2 + 2 * 9);
+        buf.writeShort(2);
+        buf.writeByte(1);
+        buf.writeByte(1);
+        buf.writeLong(Long.reverseBytes(Double.doubleToLongBits(12.5d)));
+        buf.writeLong(Long.reverseBytes(Double.doubleToLongBits(-0.25d)));
+        // One derive
+        writeString(buf, TYPE_PLUGIN, "interface");
+        writeString(buf, TYPE_TYPE, "if_octets");
+        buf.writeShort(TYPE_VALUES);
+        buf.writeShort(4 + 2 + 9);
+        buf.writeShort(1);
+        buf.writeByte(2);
+        buf.writeLong(123456789L);
+        return buf;
+    }
+
+    private static void writeString(
+            final ByteBuf buf,
+            final int type,
+            final String value) {
+
+        byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        buf.writeShort(type);
+        buf.writeShort(4 + bytes.length + 1);
+        buf.writeBytes(bytes);
+        buf.writeByte(0);
+    }
+
+    private static void writeLong(
+            final ByteBuf buf,
+            final int type,
+            final long value) {
+
+        buf.writeShort(type);
+        buf.writeShort(4 + 8);
+        buf.writeLong(value);
+    }
+
+    private static final class ValueCollector implements Handler<CollectdMeasurement> {
+
+        private final List<String> m_names = new ArrayList();
+        private final List<String> m_dstypes = new ArrayList();
+        private final List<Object> m_values = new ArrayList();
+        private long m_timestamp;
+        private long m_interval;
+
+        @Override
+        public void handle(final CollectdMeasurement measurement) {
+            for (int i = 0; i < measurement.getValueCount(); i++) {
+                m_names.add(measurement.getHostname() + "/"
+                        + measurement.getPlugin() + "/"
+                        + measurement.getType());
+                m_dstypes.add(measurement.getDstype(i));
+                m_values.add(measurement.getValue(i));
+            }
+            m_timestamp = measurement.getTimestamp();
+            m_interval = measurement.getInterval();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.unit;
+
+import io.spikex.filter.internal.CompressedFiles;
+import io.spikex.filter.internal.FileIdentity;
+import io.spikex.filter.internal.TailFileReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import junit.framework.Assert;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.Handler;
+
+/**
+ * Compressed rotated file tester.
+ *
+ * @author cli
+ */
+public class CompressedFilesTest {
+
+    private static final Path COMPRESSED_PATH = Paths.get("build", "compressed-files-test");
+
+    @Before
+    public void cleanup() throws IOException {
+        if (Files.exists(COMPRESSED_PATH)) {
+            for (Path file : Files.newDirectoryStream(COMPRESSED_PATH)) {
+                Files.delete(file);
+            }
+        }
+        Files.createDirectories(COMPRESSED_PATH);
+    }
+
+    @Test
+    public void testGzip() throws IOException {
+
+        byte[] data = createLines(1000);
+        Path log = COMPRESSED_PATH.resolve("app.log");
+        Files.write(log, data);
+        FileIdentity identity = FileIdentity.of(log);
+
+        Path gz = COMPRESSED_PATH.resolve("app.log.2.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gz))) {
+            out.write(data);
+        }
+        Assert.assertTrue(CompressedFiles.isCompressed(gz));
+        Assert.assertFalse(CompressedFiles.isCompressed(log));
+
+        try (InputStream in = CompressedFiles.open(gz)) {
+            Assert.assertTrue(identity.matchesContent(in));
+        }
+
+        // Continue from the offset of line 500
+        long offset = "line 0000\n".length() * 500L;
+        List<String> lines = readAll(TailFileReader.openCompressed(gz, identity,
+                StandardCharsets.UTF_8, "\n", offset));
+        Assert.assertEquals(500, lines.size());
+        Assert.assertEquals("line 0500", lines.get(0));
+        Assert.assertEquals("line 0999", lines.get(499));
+    }
+
+    @Test
+    public void testLz4Frame() throws IOException {
+
+        byte[] data = createLines(20000);
+        Path lz4 = COMPRESSED_PATH.resolve("app.log.1.lz4");
+        Files.write(lz4, createLz4Frame(data, 64 * 1024));
+
+        try (InputStream in = CompressedFiles.open(lz4)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+            Assert.assertTrue(Arrays.equals(data, out.toByteArray()));
+        }
+
+        List<String> lines = readAll(TailFileReader.openCompressed(lz4,
+                new FileIdentity(0L, 0L, 0L, 0), StandardCharsets.UTF_8, "\n", 0L));
+        Assert.assertEquals(20000, lines.size());
+        Assert.assertEquals("line 19999", lines.get(19999));
+    }
+
+    private static List<String> readAll(final TailFileReader reader) throws IOException {
+        final List<String> lines = new ArrayList();
+        Handler<String> handler = new Handler<String>() {
+
+            @Override
+            public void handle(final String line) {
+                lines.add(line);
+            }
+        };
+        // Small buffer to exercise carry-over of partial lines
+        ByteBuffer buf = ByteBuffer.allocate(333);
+        while (reader.read(buf, Long.MAX_VALUE, false, handler) > 0) {
+            // Read until EOF
+        }
+        reader.read(buf, Long.MAX_VALUE, true, handler);
+        reader.close();
+        return lines;
+    }
+
+    private static byte[] createLines(final int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(String.format("line %04d\n", i));
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] createLz4Frame(
+            final byte[] data,
+            final int blockSize) {
+
+        LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeIntLE(out, 0x184d2204); // Magic
+        out.write(0x60); // Version 1, independent blocks
+        out.write(0x40); // 64 KB blocks
+        out.write(0x00); // Header checksum (not verified)
+
+        for (int off = 0; off < data.length; off += blockSize) {
+            int len = Math.min(blockSize, data.length - off);
+            byte[] block = compressor.compress(data, off, len);
+            if (off == 0) {
+                // First block uncompressed
+                writeIntLE(out, len | 0x80000000);
+                out.write(data, off, len);
+            } else {
+                writeIntLE(out, block.length);
+                out.write(block, 0, block.length);
+            }
+        }
+        writeIntLE(out, 0); // End mark
+        return out.toByteArray();
+    }
+
+    private static void writeIntLE(
+            final ByteArrayOutputStream out,
+            final int value) {
+
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+        out.write((value >>> 16) & 0xff);
+        out.write((value >>> 24) & 0xff);
+    }
+}
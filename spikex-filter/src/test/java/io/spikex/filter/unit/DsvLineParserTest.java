@@ -19,10 +19,21 @@ package io.spikex.filter.unit;
 
 import java.io.IOException;
 import io.spikex.core.AbstractFilter;
+import io.spikex.core.util.process.ChildProcess;
+import io.spikex.core.util.process.ProcessExecutor;
 import io.spikex.filter.internal.DsvLineParser;
+import io.spikex.filter.internal.LineParserHandler;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.Assert;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.vertx.java.core.Handler;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
@@ -100,6 +111,104 @@ public class DsvLineParserTest {
         }
     }
 
+    @Test
+    public void testStreaming() throws IOException {
+
+        // Config
+        JsonObject config = new JsonObject();
+        config.putString("delimiter", "<SPACE>");
+        config.putBoolean("trunc-dup-delimiters", true);
+        JsonObject mapping = new JsonObject();
+        JsonArray fields = new JsonArray();
+        fields.addArray(new JsonArray("[ \"pid\", \"Long\" ]"));
+        fields.addArray(new JsonArray("[ \"user\" ]"));
+        fields.addArray(new JsonArray("[ \"command\" ]"));
+        mapping.putArray("fields", fields);
+        config.putObject("mapping", mapping);
+
+        final List<JsonObject> events = new ArrayList();
+        Handler<JsonObject> handler = new Handler<JsonObject>() {
+
+            @Override
+            public void handle(final JsonObject event) {
+                events.add(event);
+            }
+        };
+
+        DsvLineParser parser = new DsvLineParser(createFilter(), config);
+        for (int i = 0; i < 10000; i++) {
+            parser.parse(i + "   root    /sbin/init", handler);
+            Assert.assertEquals(i + 1, events.size());
+        }
+        Assert.assertEquals(9999L, (long) events.get(9999).getLong("pid"));
+        Assert.assertEquals("root", events.get(9999).getString("user"));
+
+        // Quoted column spanning two lines
+        events.clear();
+        parser.parse("1 john \"vi", handler);
+        Assert.assertEquals(0, events.size());
+        parser.parse("notes.txt\"", handler);
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals("vi\nnotes.txt", events.get(0).getString("command"));
+
+        // Pending row is discarded on reset
+        parser.parse("2 jody \"unterminated", handler);
+        parser.reset();
+        parser.parse("3 jody top", handler);
+        Assert.assertEquals(2, events.size());
+        Assert.assertEquals(3L, (long) events.get(1).getLong("pid"));
+
+        // Batch parsing with the same parser
+        JsonObject[] batch = parser.parse(new String[]{"4 john ls", "5 john ps"});
+        Assert.assertEquals(2, batch.length);
+        Assert.assertEquals(5L, (long) batch[1].getLong("pid"));
+    }
+
+    @Test
+    public void testProcessOutput() throws InterruptedException {
+
+        JsonObject config = new JsonObject();
+        config.putString("delimiter", "<SPACE>");
+        JsonObject mapping = new JsonObject();
+        JsonArray fields = new JsonArray();
+        fields.addArray(new JsonArray("[ \"word\" ]"));
+        mapping.putArray("fields", fields);
+        config.putObject("mapping", mapping);
+
+        final List<JsonObject> events = new CopyOnWriteArrayList();
+        final CountDownLatch latch = new CountDownLatch(1);
+        LineParserHandler handler = new LineParserHandler(
+                new DsvLineParser(createFilter(), config),
+                1, // Skip header
+                2, // Skip footer
+                0L,
+                new Handler<JsonObject[]>() {
+
+                    @Override
+                    public void handle(final JsonObject[] batch) {
+                        events.addAll(Arrays.asList(batch));
+                    }
+                },
+                new Handler<Integer>() {
+
+                    @Override
+                    public void handle(final Integer statusCode) {
+                        latch.countDown();
+                    }
+                });
+
+        ChildProcess cmd = new ProcessExecutor()
+                .command("/usr/bin/printf", "header\\nalpha\\nbeta\\ngamma\\nfooter1\\nfooter2")
+                .handler(handler)
+                .start();
+        Assert.assertTrue("Command did not exit", latch.await(10L, TimeUnit.SECONDS));
+        Assert.assertFalse(cmd.isRunning());
+        Assert.assertEquals(6L, handler.getLineCount());
+        Assert.assertEquals(3, events.size());
+        Assert.assertEquals("alpha", events.get(0).getString("word"));
+        Assert.assertEquals("gamma", events.get(2).getString("word"));
+    }
+
     private static AbstractFilter createFilter() {
         return new AbstractFilter() {
         };
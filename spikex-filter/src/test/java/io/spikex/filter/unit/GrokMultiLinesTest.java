@@ -0,0 +1,140 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.unit;
+
+import static io.spikex.core.helper.Events.EVENT_FIELD_TAGS;
+import io.spikex.filter.internal.GrokMultiLines;
+import io.spikex.filter.internal.GrokPattern;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import junit.framework.Assert;
+import oi.thekraken.grok.api.Grok;
+import org.junit.Test;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Grok multi-line tester.
+ *
+ * @author cli
+ */
+public class GrokMultiLinesTest {
+
+    private static final String[] TAGS = {"exception", null};
+
+    @Test
+    public void testInterleavedSources() throws Exception {
+
+        GrokPattern pattern = createPattern();
+        GrokMultiLines multiLines = createMultiLines(pattern, 10);
+        List<JsonObject> events = new ArrayList();
+
+        add(multiLines, pattern, "host1", "java.lang.Error: one", 1000L, events);
+        add(multiLines, pattern, "host2", "java.io.IOException: two", 1000L, events);
+        add(multiLines, pattern, "host1", "    at Foo.bar(Foo.java:1)", 1001L, events);
+        add(multiLines, pattern, "host2", "    at Baz.qux(Baz.java:2)", 1001L, events);
+        Assert.assertEquals(2, multiLines.size());
+        Assert.assertTrue(events.isEmpty());
+
+        multiLines.flush("host2", events);
+        multiLines.flush("host1", events);
+        multiLines.flush("host1", events); // Nothing pending
+        Assert.assertEquals(2, events.size());
+        Assert.assertEquals("java.io.IOException: two\n    at Baz.qux(Baz.java:2)\n",
+                events.get(0).getString("@message"));
+        Assert.assertEquals("host2", events.get(0).getString("host"));
+        Assert.assertEquals("java.lang.Error: one\n    at Foo.bar(Foo.java:1)\n",
+                events.get(1).getString("@message"));
+        Assert.assertEquals("host1", events.get(1).getString("host"));
+        Assert.assertTrue(events.get(1).getArray(EVENT_FIELD_TAGS).contains("exception"));
+        Assert.assertEquals(0, multiLines.size());
+    }
+
+    @Test
+    public void testIdleTimeout() throws Exception {
+
+        GrokPattern pattern = createPattern();
+        GrokMultiLines multiLines = createMultiLines(pattern, 10);
+        List<JsonObject> events = new ArrayList();
+
+        add(multiLines, pattern, "host1", "java.lang.Error: one", 1000L, events);
+        add(multiLines, pattern, "host2", "java.lang.Error: two", 3000L, events);
+
+        multiLines.flushIdle(4999L, 4000L, events);
+        Assert.assertTrue(events.isEmpty());
+        multiLines.flushIdle(5000L, 4000L, events);
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals("host1", events.get(0).getString("host"));
+
+        multiLines.flushAll(events);
+        Assert.assertEquals(2, events.size());
+        Assert.assertEquals("host2", events.get(1).getString("host"));
+        Assert.assertEquals(0, multiLines.size());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+
+        GrokPattern pattern = createPattern();
+        GrokMultiLines multiLines = createMultiLines(pattern, 2);
+        List<JsonObject> events = new ArrayList();
+
+        add(multiLines, pattern, "host1", "java.lang.Error: one", 1000L, events);
+        add(multiLines, pattern, "host2", "java.lang.Error: two", 1000L, events);
+        add(multiLines, pattern, "host1", "    at Foo.bar(Foo.java:1)", 1001L, events);
+
+        // host2 is the least recently used source
+        add(multiLines, pattern, "host3", "java.lang.Error: three", 1002L, events);
+        Assert.assertEquals(2, multiLines.size());
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals("host2", events.get(0).getString("host"));
+        Assert.assertEquals("java.lang.Error: two\n", events.get(0).getString("@message"));
+    }
+
+    private static void add(
+            final GrokMultiLines multiLines,
+            final GrokPattern pattern,
+            final String source,
+            final String line,
+            final long now,
+            final List<JsonObject> events) {
+
+        Matcher m = pattern.find(line);
+        Assert.assertNotNull(line, m);
+        JsonObject event = new JsonObject();
+        event.putString("host", source);
+        event.putArray(EVENT_FIELD_TAGS, new JsonArray());
+        Assert.assertTrue(multiLines.add(source, event, m, now, events));
+    }
+
+    private static GrokMultiLines createMultiLines(
+            final GrokPattern pattern,
+            final int maxSources) {
+
+        return new GrokMultiLines(pattern, TAGS, "class", "@message",
+                "@fields", maxSources, 100);
+    }
+
+    private static GrokPattern createPattern() throws Exception {
+        String expression = "(?<line>(?<class>[a-z]+\\.[\\w.]+): .*|\\s+at .*)";
+        Grok grok = new Grok();
+        grok.compile(expression);
+        return new GrokPattern(expression, grok);
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.unit;
+
+import io.spikex.filter.internal.GrokPattern;
+import io.spikex.filter.internal.GrokPrefilter;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import junit.framework.Assert;
+import oi.thekraken.grok.api.Grok;
+import oi.thekraken.grok.api.Match;
+import org.junit.Test;
+
+/**
+ * Grok pattern and prefilter tester.
+ *
+ * @author cli
+ */
+public class GrokPatternTest {
+
+    private static final String[] PATTERN_FILES = {
+        "/grok/patterns",
+        "/grok/java",
+        "/grok/linux-syslog"
+    };
+
+    private static final String[] LINES = {
+        "2009-09-29 15:43:41,112 ERROR [org.jboss.deployment.MainDeployer] "
+        + "Could not create deployment: file:/D:/Java/jboss-4.2.3.GA/server/grmbs/deploy/ejb-management.jar",
+        "12:37:25,546 INFO [Server] Release ID: JBoss EAP] 4.3.0.GA_CP02"
+        + " (build: SVNTag=JBPAPP_4_3_0_GA_CP02 date=200808051050)",
+        "    at java.util.concurrent.FutureTask.get(FutureTask.java:111)",
+        "Caused by: java.lang.StackOverflowError at java.util.HashSet.(HashSet.java:103)",
+        "Mar 16 00:01:25 evita postfix/smtpd[1713]: connect from camomile.cloud9.net[168.100.1.3]",
+        "took 1234 ms",
+        "",
+        "nothing to see here"
+    };
+
+    @Test
+    public void testRequiredLiterals() {
+
+        Assert.assertEquals(Arrays.asList("foo", "qux"),
+                GrokPattern.requiredLiterals("foo(bar|baz)qux"));
+        Assert.assertEquals(Arrays.asList("Caused by: ", "at "),
+                GrokPattern.requiredLiterals("Caused by: (\\S+)\\s+at (?:x)?"));
+        Assert.assertEquals(Arrays.asList("ab", "x", "cd"),
+                GrokPattern.requiredLiterals("ab(?:x)cde?\\.?"));
+        Assert.assertEquals(Arrays.asList("[main]"),
+                GrokPattern.requiredLiterals("\\[main\\][a-z]*"));
+        Assert.assertEquals(Arrays.asList("x", "y"),
+                GrokPattern.requiredLiterals("x+y{2,3}z{0,1}"));
+        Assert.assertEquals(Arrays.asList("abc"),
+                GrokPattern.requiredLiterals("(abc)\\1(?<!x)(?m)\\p{L}+"));
+
+        // No required literals
+        Assert.assertTrue(GrokPattern.requiredLiterals("abc|def").isEmpty());
+        Assert.assertTrue(GrokPattern.requiredLiterals("(?i)abc").isEmpty());
+        Assert.assertTrue(GrokPattern.requiredLiterals("(abc)?").isEmpty());
+        Assert.assertTrue(GrokPattern.requiredLiterals("(?=abc)").isEmpty());
+    }
+
+    @Test
+    public void testCapturesMatchGrok() throws Exception {
+
+        String[] expressions = {
+            "%{JAVAJBOSS4LOG:line}",
+            "%{JAVAERRORSTACK:line}",
+            "%{SYSLOGBASE} %{GREEDYDATA:message}",
+            "took %{INT:duration} ms",
+            "%{WORD:first} %{WORD:second}"
+        };
+
+        for (String expression : expressions) {
+
+            Grok grok = createGrok();
+            grok.compile(expression);
+            GrokPattern pattern = new GrokPattern(expression, grok);
+
+            for (String line : LINES) {
+
+                Match match = grok.match(line);
+                match.captures();
+                Map<String, Object> expected = match.toMap();
+
+                Map<String, Object> actual = new HashMap();
+                Matcher m = pattern.find(line);
+                if (m != null) {
+                    for (int i = 0; i < pattern.getKeyCount(); i++) {
+                        actual.put(pattern.getKey(i), pattern.getValue(m, i));
+                    }
+                }
+                Assert.assertEquals(expression + " => " + line, expected, actual);
+
+                // Anchor must never rule out a match
+                if (m != null && pattern.getAnchor() != null) {
+                    Assert.assertTrue(line.contains(pattern.getAnchor()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPrefilter() throws Exception {
+
+        String[] expressions = {
+            "Caused by: %{GREEDYDATA:line}",
+            "took %{INT:duration} ms",
+            "%{GREEDYDATA:line}",
+            "%{WORD:verb} request finished"
+        };
+
+        List<GrokPattern> patterns = new ArrayList();
+        for (String expression : expressions) {
+            Grok grok = createGrok();
+            grok.compile(expression);
+            patterns.add(new GrokPattern(expression, grok));
+        }
+        Assert.assertNull(patterns.get(2).getAnchor());
+
+        GrokPrefilter prefilter = new GrokPrefilter(patterns);
+        BitSet candidates = new BitSet();
+
+        prefilter.candidates("Caused by: java.lang.Error", candidates);
+        Assert.assertEquals("{0, 2}", candidates.toString());
+
+        prefilter.candidates("GET request finished - took 12 ms", candidates);
+        Assert.assertEquals("{1, 2, 3}", candidates.toString());
+
+        prefilter.candidates("plain line", candidates);
+        Assert.assertEquals("{2}", candidates.toString());
+    }
+
+    private static Grok createGrok() throws Exception {
+        Grok grok = new Grok();
+        for (String file : PATTERN_FILES) {
+            try (Reader reader = new InputStreamReader(
+                    GrokPatternTest.class.getResourceAsStream(file),
+                    StandardCharsets.UTF_8)) {
+                grok.addPatternFromReader(reader);
+            }
+        }
+        return grok;
+    }
+}
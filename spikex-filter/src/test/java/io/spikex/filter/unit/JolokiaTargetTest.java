@@ -0,0 +1,131 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.unit;
+
+import io.spikex.filter.internal.JolokiaTarget;
+import io.spikex.filter.internal.LatencyHistogram;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import junit.framework.Assert;
+import org.jolokia.client.J4pClient;
+import org.jolokia.client.request.J4pReadRequest;
+import org.junit.Test;
+
+/**
+ * Jolokia target tester.
+ *
+ * @author cli
+ */
+public class JolokiaTargetTest {
+
+    @Test
+    public void testBackoff() {
+
+        JolokiaTarget target = new JolokiaTarget(
+                J4pClient.url("http://localhost:8778/jolokia").build());
+        Assert.assertEquals("localhost:8778/jolokia", target.getName());
+        Assert.assertTrue(target.isDue(0L));
+
+        // First failure is retried immediately
+        long now = 1000000L;
+        Assert.assertEquals(0L, target.failed(now, 10L, 1000L, 5000L));
+        Assert.assertTrue(target.isDue(now));
+
+        // Then exponentially (with max 10% jitter)
+        long delay = target.failed(now, 10L, 1000L, 5000L);
+        Assert.assertTrue("Delay: " + delay, delay >= 1000L && delay <= 1100L);
+        Assert.assertFalse(target.isDue(now + 999L));
+        delay = target.failed(now, 10L, 1000L, 5000L);
+        Assert.assertTrue("Delay: " + delay, delay >= 2000L && delay <= 2200L);
+
+        // Capped by max backoff
+        for (int i = 0; i < 10; i++) {
+            delay = target.failed(now, 10L, 1000L, 5000L);
+        }
+        Assert.assertTrue("Delay: " + delay, delay >= 5000L && delay <= 5500L);
+        Assert.assertEquals(13, target.getConsecutiveFailures());
+
+        // Success resets backoff
+        target.succeeded(10L);
+        Assert.assertTrue(target.isDue(now));
+        Assert.assertEquals(0, target.getConsecutiveFailures());
+        Assert.assertEquals(14L, target.getPolls());
+        Assert.assertEquals(13L, target.getFailures());
+
+        // Only one poll at a time
+        Assert.assertTrue(target.tryAcquire());
+        Assert.assertFalse(target.tryAcquire());
+        target.release();
+        Assert.assertTrue(target.tryAcquire());
+    }
+
+    @Test
+    public void testSearchCache() throws Exception {
+
+        JolokiaTarget target = new JolokiaTarget(
+                J4pClient.url("http://localhost:8778/jolokia").build());
+        long now = System.currentTimeMillis();
+        Assert.assertTrue(target.isSearchDue(now, 60000L));
+
+        String pattern = "java.lang:type=GarbageCollector,*";
+        String mbean = "java.lang:type=GarbageCollector,name=G1 Young Generation";
+        List<J4pReadRequest> requests = new ArrayList();
+        requests.add(new J4pReadRequest(mbean, "CollectionCount"));
+        Map<String, String> patterns = new HashMap();
+        patterns.put(mbean, pattern);
+        target.setSearchResults(requests, patterns, now);
+
+        Assert.assertFalse(target.isSearchDue(now + 1000L, 60000L));
+        Assert.assertTrue(target.isSearchDue(now + 60000L, 60000L));
+        Assert.assertEquals(1, target.getSearchRequests().size());
+        Assert.assertEquals(pattern, target.getPattern(mbean));
+        Assert.assertEquals("java.lang:type=Memory", target.getPattern("java.lang:type=Memory"));
+
+        target.invalidateSearch();
+        Assert.assertTrue(target.isSearchDue(now + 1000L, 60000L));
+    }
+
+    @Test
+    public void testLatencyHistogram() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0L, histogram.getQuantile(0.5d));
+
+        for (int i = 0; i < 98; i++) {
+            histogram.record(20L);
+        }
+        histogram.record(400L);
+        histogram.record(70000L);
+
+        Assert.assertEquals(100L, histogram.getCount());
+        Assert.assertEquals(70000L, histogram.getMax());
+        Assert.assertEquals(25L, histogram.getQuantile(0.5d));
+        Assert.assertEquals(500L, histogram.getQuantile(0.99d));
+        Assert.assertEquals(70000L, histogram.getQuantile(1.0d));
+        Assert.assertEquals((98 * 20 + 400 + 70000) / 100.0d, histogram.getMean(), 0.001d);
+
+        histogram.reset();
+        Assert.assertEquals(0L, histogram.getCount());
+        Assert.assertEquals(0L, histogram.getMax());
+        Assert.assertEquals(0L, histogram.getQuantile(0.99d));
+        histogram.record(3L);
+        Assert.assertEquals(3L, histogram.getQuantile(0.5d));
+    }
+}
@@ -0,0 +1,254 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.unit;
+
+import io.spikex.filter.internal.JsonEventStream;
+import io.spikex.filter.internal.JsonEventStream.Format;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import junit.framework.Assert;
+import org.junit.Test;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * JSON event stream tester.
+ *
+ * @author cli
+ */
+public class JsonEventStreamTest {
+
+    private static final String NDJSON_BODY
+            = "{\"a\": 1, \"s\": \"x\\ny\"}\n"
+            + "\n"
+            + "{\"a\": 2}\r\n"
+            + "not json\n"
+            + "{\"a\": 3, \"long\": \"0123456789012345678901234567890123456789\"}\n"
+            + "{\"a\": 4}";
+
+    private static final String ARRAY_BODY
+            = " [ {\"a\": 1, \"s\": \"}]\\\"{\"},\n"
+            + "{\"a\": 2, \"nested\": {\"b\": [1, 2, {\"c\": 3}]}},"
+            + "\"scalar, value\", 42,"
+            + "{\"a\": 3, \"long\": \"0123456789012345678901234567890123456789\"},"
+            + "{\"a\": 4} ] ";
+
+    @Test
+    public void testNdjson() {
+        List<JsonObject> events = new ArrayList();
+        JsonEventStream stream = new JsonEventStream(Format.NDJSON, null, 1024L, 40);
+        writeInChunks(stream, NDJSON_BODY.getBytes(StandardCharsets.UTF_8), 7, events);
+
+        Assert.assertEquals(3, events.size());
+        Assert.assertEquals("x\ny", events.get(0).getString("s"));
+        Assert.assertEquals(2, events.get(1).getInteger("a").intValue());
+        Assert.assertEquals(4, events.get(2).getInteger("a").intValue());
+        Assert.assertEquals(3, stream.getAccepted());
+        Assert.assertEquals(2, stream.getRejected());
+    }
+
+    @Test
+    public void testConsecutiveLongLines() {
+        List<JsonObject> events = new ArrayList();
+        JsonEventStream stream = new JsonEventStream(Format.NDJSON, null, 1024L, 20);
+        String longLine = "{\"long\": \"0123456789012345678901234567890\"}\n";
+        String exactLine = "{\"s\": \"0123456789012345678901234567890\"}"; // Two times max event size
+        String body = longLine + longLine + exactLine + exactLine + "\n" + exactLine
+                + "\n{\"a\": 1}\n";
+        writeInChunks(stream, body.getBytes(StandardCharsets.UTF_8), 7, events);
+
+        // Every long line is rejected once
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals(1, stream.getAccepted());
+        Assert.assertEquals(4, stream.getRejected());
+    }
+
+    @Test
+    public void testJsonArray() {
+        List<JsonObject> events = new ArrayList();
+        JsonEventStream stream = new JsonEventStream(Format.JSON_ARRAY, null, 1024L, 50);
+        writeInChunks(stream, ARRAY_BODY.getBytes(StandardCharsets.UTF_8), 5, events);
+
+        Assert.assertEquals(3, events.size());
+        Assert.assertEquals("}]\"{", events.get(0).getString("s"));
+        Assert.assertEquals(3, events.get(1).getObject("nested")
+                .getArray("b").<JsonObject>get(2).getInteger("c").intValue());
+        Assert.assertEquals(4, events.get(2).getInteger("a").intValue());
+        Assert.assertEquals(3, stream.getRejected()); // Two scalars and one long event
+    }
+
+    @Test
+    public void testMalformedArray() {
+        JsonEventStream stream = new JsonEventStream(Format.JSON_ARRAY, null, 1024L, 60);
+        try {
+            stream.write(new Buffer("{\"a\": 1}"), new EventCollector(new ArrayList()));
+            Assert.fail("Malformed array was accepted");
+        } catch (IllegalArgumentException e) {
+            // OK
+        }
+    }
+
+    @Test
+    public void testCompressed() throws IOException {
+
+        byte[] body = NDJSON_BODY.getBytes(StandardCharsets.UTF_8);
+
+        // gzip
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(body);
+        }
+        List<JsonObject> events = new ArrayList();
+        JsonEventStream stream = new JsonEventStream(Format.NDJSON, "gzip", 1024L, 40);
+        writeInChunks(stream, out.toByteArray(), 3, events);
+        Assert.assertEquals(3, events.size());
+
+        // deflate (zlib)
+        out = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflate = new DeflaterOutputStream(out)) {
+            deflate.write(body);
+        }
+        events.clear();
+        stream = new JsonEventStream(Format.NDJSON, "deflate", 1024L, 40);
+        writeInChunks(stream, out.toByteArray(), 3, events);
+        Assert.assertEquals(3, events.size());
+
+        // deflate (raw)
+        out = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflate = new DeflaterOutputStream(out,
+                new Deflater(Deflater.DEFAULT_COMPRESSION, true))) {
+            deflate.write(body);
+        }
+        events.clear();
+        stream = new JsonEventStream(Format.NDJSON, "deflate", 1024L, 40);
+        writeInChunks(stream, out.toByteArray(), 1, events);
+        Assert.assertEquals(3, events.size());
+
+        // Corrupt gzip trailer
+        out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(body);
+        }
+        byte[] corrupt = out.toByteArray();
+        corrupt[corrupt.length - 8]++;
+        stream = new JsonEventStream(Format.NDJSON, "gzip", 1024L, 40);
+        try {
+            stream.write(new Buffer(corrupt), new EventCollector(events));
+            Assert.fail("Corrupt body was accepted");
+        } catch (IllegalArgumentException e) {
+            // OK
+        }
+    }
+
+    @Test
+    public void testTruncatedGzip() throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(NDJSON_BODY.getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] body = out.toByteArray();
+        byte[] truncated = Arrays.copyOf(body, body.length - 4); // Partial trailer
+
+        List<JsonObject> events = new ArrayList();
+        EventCollector collector = new EventCollector(events);
+        JsonEventStream stream = new JsonEventStream(Format.NDJSON, "gzip", 1024L, 40);
+        Assert.assertTrue(stream.write(new Buffer(truncated), collector));
+        try {
+            stream.end(collector);
+            Assert.fail("Truncated body was accepted");
+        } catch (IllegalArgumentException e) {
+            // OK
+        }
+
+        // Empty body
+        stream = new JsonEventStream(Format.NDJSON, "gzip", 1024L, 40);
+        Assert.assertTrue(stream.end(collector));
+    }
+
+    @Test
+    public void testMaxBodySize() throws IOException {
+
+        // Limit applies to decompressed data
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            for (int i = 0; i < 1000; i++) {
+                gzip.write("{\"a\": 1}\n".getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        List<JsonObject> events = new ArrayList();
+        JsonEventStream stream = new JsonEventStream(Format.NDJSON, "gzip", 1024L, 40);
+        Assert.assertFalse(stream.write(new Buffer(out.toByteArray()), new EventCollector(events)));
+        Assert.assertTrue(stream.isTooLarge());
+        stream.close();
+
+        // Highly compressed chunk is not inflated beyond the limit
+        out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(new byte[64 * 1024 * 1024]);
+        }
+        stream = new JsonEventStream(Format.NDJSON, "gzip", 1024L, 40);
+        Assert.assertFalse(stream.write(new Buffer(out.toByteArray()), new EventCollector(events)));
+        Assert.assertTrue(stream.getBodySize() <= 1024L + 8192L);
+        stream.close();
+
+        try {
+            new JsonEventStream(Format.NDJSON, "br", 1024L, 40);
+            Assert.fail("Unsupported encoding was accepted");
+        } catch (IllegalArgumentException e) {
+            // OK
+        }
+    }
+
+    private static void writeInChunks(
+            final JsonEventStream stream,
+            final byte[] body,
+            final int chunkSize,
+            final List<JsonObject> events) {
+
+        EventCollector collector = new EventCollector(events);
+        for (int i = 0; i < body.length; i += chunkSize) {
+            byte[] chunk = new byte[Math.min(chunkSize, body.length - i)];
+            System.arraycopy(body, i, chunk, 0, chunk.length);
+            Assert.assertTrue(stream.write(new Buffer(chunk), collector));
+        }
+        Assert.assertTrue(stream.end(collector));
+    }
+
+    private static final class EventCollector implements Handler<JsonObject> {
+
+        private final List<JsonObject> m_events;
+
+        private EventCollector(final List<JsonObject> events) {
+            m_events = events;
+        }
+
+        @Override
+        public void handle(final JsonObject event) {
+            m_events.add(event);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.unit;
+
+import com.github.brainlag.nsq.NSQMessage;
+import io.spikex.filter.internal.NsqInFlight;
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ * NSQ in-flight message tracker tester.
+ *
+ * @author cli
+ */
+public class NsqInFlightTest {
+
+    @Test
+    public void testAdaptiveLimit() throws InterruptedException {
+
+        NsqInFlight inFlight = new NsqInFlight(4, 1000L);
+        Assert.assertEquals(4, inFlight.getLimit());
+
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue("Message was not accepted",
+                    inFlight.acquire("msg-" + i, new TestMessage(), 10L));
+        }
+
+        // Limit reached
+        Assert.assertFalse("Limit was exceeded",
+                inFlight.acquire("msg-4", new TestMessage(), 10L));
+
+        // Failure halves the limit
+        Assert.assertNotNull(inFlight.release("msg-0", false));
+        Assert.assertEquals(2, inFlight.getLimit());
+        Assert.assertNull(inFlight.release("msg-0", true));
+
+        // Full round of successful acks increases the limit by one
+        Assert.assertNotNull(inFlight.release("msg-1", true));
+        Assert.assertNotNull(inFlight.release("msg-2", true));
+        Assert.assertEquals(3, inFlight.getLimit());
+        Assert.assertEquals(1, inFlight.size());
+    }
+
+    @Test
+    public void testRequeueExpired() throws InterruptedException {
+
+        NsqInFlight inFlight = new NsqInFlight(10, 100L);
+        TestMessage msg1 = new TestMessage();
+        TestMessage msg2 = new TestMessage();
+        inFlight.acquire("msg-1", msg1, 10L);
+        inFlight.acquire("msg-2", msg2, 10L);
+
+        Assert.assertEquals(0, inFlight.requeueExpired(System.currentTimeMillis()));
+        Assert.assertEquals(2, inFlight.requeueExpired(System.currentTimeMillis() + 200L));
+        Assert.assertTrue(msg1.isRequeued());
+        Assert.assertTrue(msg2.isRequeued());
+        Assert.assertEquals(0, inFlight.size());
+        Assert.assertEquals(5, inFlight.getLimit());
+    }
+
+    private static final class TestMessage extends NSQMessage {
+
+        private boolean m_requeued;
+
+        private boolean isRequeued() {
+            return m_requeued;
+        }
+
+        @Override
+        public void requeue() {
+            m_requeued = true;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.unit;
+
+import io.spikex.filter.internal.PartitionedExecutor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ * Partitioned executor tester.
+ *
+ * @author cli
+ */
+public class PartitionedExecutorTest {
+
+    @Test
+    public void testOrderPerKey() {
+
+        PartitionedExecutor executor = new PartitionedExecutor(4, 10000);
+        String[] keys = {"host1", "host2", "host3", "host4", "host5"};
+        final Map<String, List<Integer>> results = new HashMap();
+        for (String key : keys) {
+            results.put(key, Collections.synchronizedList(new ArrayList<Integer>()));
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            for (final String key : keys) {
+                final int seq = i;
+                executor.execute(executor.partition(key), new Runnable() {
+
+                    @Override
+                    public void run() {
+                        results.get(key).add(seq);
+                    }
+                });
+            }
+        }
+
+        // Queued tasks are run before shutdown returns
+        Assert.assertTrue(executor.shutdown(10000L));
+        for (String key : keys) {
+            List<Integer> seqs = results.get(key);
+            Assert.assertEquals(1000, seqs.size());
+            for (int i = 0; i < seqs.size(); i++) {
+                Assert.assertEquals(key, i, (int) seqs.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testPartition() {
+        PartitionedExecutor executor = new PartitionedExecutor(3, 10);
+        Assert.assertEquals(3, executor.size());
+        Assert.assertEquals(executor.partition("host1"), executor.partition("host1"));
+        Assert.assertTrue(executor.partition("host1") < 3);
+        Assert.assertTrue(executor.shutdown(1000L));
+    }
+
+    @Test
+    public void testShutdownPerPartition() {
+
+        PartitionedExecutor executor = new PartitionedExecutor(2, 100);
+        final AtomicInteger count = new AtomicInteger();
+        for (int i = 0; i < 100; i++) {
+            executor.execute(i % 2, new Runnable() {
+
+                @Override
+                public void run() {
+                    count.incrementAndGet();
+                }
+            });
+        }
+
+        // Queued tasks are still run, new tasks are rejected
+        executor.shutdown();
+        try {
+            executor.execute(0, new Runnable() {
+
+                @Override
+                public void run() {
+                    count.incrementAndGet();
+                }
+            });
+            Assert.fail("Task accepted after shutdown");
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+        Assert.assertTrue(executor.awaitTermination(0, 10000L));
+        Assert.assertTrue(executor.awaitTermination(1, 10000L));
+        Assert.assertEquals(100, count.get());
+    }
+}
@@ -492,6 +492,88 @@ public class RuleTest {
         Assert.assertTrue("Rule r2 did not match event", r2.match(event2));
     }
 
+    @Test
+    public void testContainsAnyRule() {
+
+        // -------------- Rule r1 ---------------
+        JsonObject config1 = new JsonObject();
+        config1.putString("match-field", "@message");
+        config1.putArray("value-contains-any",
+                new JsonArray("[\"ERROR\",\"FATAL\",\"a.b*c\"]"));
+        config1.putString("schedule", "*");
+        config1.putString("modifier", "*");
+
+        Rule r1 = Rule.create("r1", config1);
+        JsonObject event1 = new JsonObject();
+        event1.putString("@message", "12:01:03 FATAL out of memory");
+        Assert.assertTrue("Rule r1 did not match event", r1.match(event1));
+
+        event1.putString("@message", "literal a.b*c in the middle");
+        Assert.assertTrue("Rule r1 did not match event", r1.match(event1));
+
+        event1.putString("@message", "12:01:03 WARN ERRO abbc");
+        Assert.assertFalse("Rule r1 did match event - even though no string is contained",
+                r1.match(event1));
+
+        // -------------- Rule r2 ---------------
+        JsonObject config2 = new JsonObject();
+        config2.putString("match-field", "@value");
+        config2.putString("value-contains-any", "23");
+        config2.putString("schedule", "*");
+        config2.putString("modifier", "*");
+
+        Rule r2 = Rule.create("r2", config2);
+        JsonObject event2 = new JsonObject();
+        event2.putNumber("@value", 1234);
+        Assert.assertTrue("Rule r2 did not match event", r2.match(event2));
+    }
+
+    @Test
+    public void testMatchesRule() {
+
+        // -------------- Rule r1 ---------------
+        JsonObject config1 = new JsonObject();
+        config1.putString("match-field", "@host");
+        config1.putString("value-matches", "web[0-9]+\\.example\\.com");
+        config1.putString("schedule", "*");
+        config1.putString("modifier", "*");
+
+        Rule r1 = Rule.create("r1", config1);
+        JsonObject event1 = new JsonObject();
+        event1.putString("@host", "web12.example.com");
+        Assert.assertTrue("Rule r1 did not match event", r1.match(event1));
+
+        event1.putString("@host", "db1.example.com");
+        Assert.assertFalse("Rule r1 did match event - even though host does not match",
+                r1.match(event1));
+
+        event1.putString("@host", "web12.example.com.evil");
+        Assert.assertFalse("Rule r1 did match event - even though host only partially matches",
+                r1.match(event1));
+
+        // -------------- Rule r2 ---------------
+        JsonObject config2 = new JsonObject();
+        config2.putString("match-field", "@message");
+        config2.putArray("value-matches",
+                new JsonArray("[\"(a|aa)*b\",\".*timeout.*\"]"));
+        config2.putString("schedule", "*");
+        config2.putString("modifier", "*");
+
+        Rule r2 = Rule.create("r2", config2);
+        JsonObject event2 = new JsonObject();
+        event2.putString("@message", "connect timeout after 30s");
+        Assert.assertTrue("Rule r2 did not match event", r2.match(event2));
+
+        // Pathological for backtracking matchers
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            sb.append('a');
+        }
+        event2.putString("@message", sb.toString());
+        Assert.assertFalse("Rule r2 did match event - even though b is missing",
+                r2.match(event2));
+    }
+
     @Test
     public void testDateGreaterThanRule() {
 
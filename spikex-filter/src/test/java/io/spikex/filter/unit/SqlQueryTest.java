@@ -0,0 +1,167 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.unit;
+
+import io.spikex.filter.internal.SqlHighWaterMarks;
+import io.spikex.filter.internal.SqlQuery;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.Handler;
+
+/**
+ * Streaming and incremental SQL query tester (H2 in-memory database).
+ *
+ * @author cli
+ */
+public class SqlQueryTest {
+
+    private Connection m_con;
+
+    private static final Path HWM_FILE = Paths.get("build", "sql-test", "test-hwm.json");
+
+    @Before
+    public void setUp() throws SQLException, IOException {
+        Files.deleteIfExists(HWM_FILE);
+        m_con = DriverManager.getConnection("jdbc:h2:mem:sqlquerytest", "sa", "");
+        try (Statement stmt = m_con.createStatement()) {
+            stmt.execute("CREATE TABLE metrics (id BIGINT PRIMARY KEY, "
+                    + "tm TIMESTAMP, dsname VARCHAR(64), value DOUBLE)");
+        }
+        insert(1, 10);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        try (Statement stmt = m_con.createStatement()) {
+            stmt.execute("DROP TABLE metrics");
+        }
+        m_con.close();
+    }
+
+    @Test
+    public void testIncremental() throws SQLException, IOException {
+
+        SqlQuery query = new SqlQuery(
+                "metrics",
+                "SELECT * FROM metrics WHERE id > :hwm AND id > :hwm - 1 ORDER BY id",
+                3,
+                "id");
+        Assert.assertTrue(query.isIncremental());
+        Assert.assertEquals("SELECT * FROM metrics WHERE id > ? AND id > ? - 1 ORDER BY id",
+                query.getSql());
+
+        SqlHighWaterMarks marks = new SqlHighWaterMarks(HWM_FILE);
+        marks.load();
+        Assert.assertNull(marks.get("metrics"));
+
+        // First round
+        List<Long> ids = new ArrayList();
+        Object mark = query.execute(m_con, 0L, new IdCollector(ids));
+        Assert.assertEquals(10, ids.size());
+        Assert.assertEquals(10L, ((Number) mark).longValue());
+        marks.update("metrics", mark);
+
+        // Only new rows on next round
+        insert(11, 15);
+        ids.clear();
+        marks = new SqlHighWaterMarks(HWM_FILE);
+        marks.load();
+        mark = query.execute(m_con, marks.get("metrics"), new IdCollector(ids));
+        Assert.assertEquals(5, ids.size());
+        Assert.assertEquals(11L, ids.get(0).longValue());
+        Assert.assertEquals(15L, ((Number) mark).longValue());
+
+        // No new rows - mark is kept
+        ids.clear();
+        Assert.assertEquals(mark, query.execute(m_con, mark, new IdCollector(ids)));
+        Assert.assertEquals(0, ids.size());
+        Assert.assertTrue(m_con.getAutoCommit());
+    }
+
+    @Test
+    public void testTimestampMark() throws SQLException, IOException {
+
+        SqlQuery query = new SqlQuery(
+                "by-time",
+                "SELECT * FROM metrics WHERE tm > :hwm ORDER BY tm",
+                0,
+                "tm");
+
+        List<Long> ids = new ArrayList();
+        Object mark = query.execute(m_con,
+                Timestamp.valueOf("1970-01-01 00:00:00"), new IdCollector(ids));
+        Assert.assertEquals(10, ids.size());
+        Assert.assertEquals(Timestamp.valueOf("1970-01-01 00:00:10"), mark);
+
+        SqlHighWaterMarks marks = new SqlHighWaterMarks(HWM_FILE);
+        marks.update("by-time", mark);
+        marks.update("plain", 42L);
+        Timestamp precise = Timestamp.valueOf("1970-01-01 00:00:10.123456789");
+        marks.update("precise", precise);
+        marks = new SqlHighWaterMarks(HWM_FILE);
+        marks.load();
+        Assert.assertEquals(mark, marks.get("by-time"));
+        Assert.assertEquals(42L, marks.get("plain"));
+        Assert.assertEquals(precise, marks.get("precise"));
+    }
+
+    private void insert(
+            final int from,
+            final int to) throws SQLException {
+
+        try (Statement stmt = m_con.createStatement()) {
+            for (int i = from; i <= to; i++) {
+                stmt.execute("INSERT INTO metrics VALUES (" + i + ", "
+                        + "DATEADD('MILLISECOND', " + (i * 1000L) + ", TIMESTAMP '1970-01-01 00:00:00'), "
+                        + "'cpu.load', " + i + ".5)");
+            }
+        }
+    }
+
+    private static final class IdCollector implements Handler<ResultSet> {
+
+        private final List<Long> m_ids;
+
+        private IdCollector(final List<Long> ids) {
+            m_ids = ids;
+        }
+
+        @Override
+        public void handle(final ResultSet rs) {
+            try {
+                m_ids.add(rs.getLong("id"));
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.unit;
+
+import io.spikex.filter.internal.FileIdentity;
+import io.spikex.filter.internal.TailFileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.Handler;
+
+/**
+ * Tail file reader tester.
+ *
+ * @author cli
+ */
+public class TailFileReaderTest {
+
+    private static final Path TAIL_PATH = Paths.get("build", "tail-reader-test");
+
+    @Before
+    public void cleanup() throws IOException {
+        if (Files.exists(TAIL_PATH)) {
+            for (Path file : Files.newDirectoryStream(TAIL_PATH)) {
+                Files.delete(file);
+            }
+        }
+        Files.createDirectories(TAIL_PATH);
+    }
+
+    @Test
+    public void testPartialLines() throws IOException {
+
+        Path log = TAIL_PATH.resolve("utf8.log");
+        Files.write(log, "Hyvää päivää\nγειά σου\nlast".getBytes(StandardCharsets.UTF_8));
+
+        TailFileReader reader = new TailFileReader(log, FileIdentity.of(log),
+                StandardCharsets.UTF_8, "\n", 0L);
+        ByteBuffer buf = ByteBuffer.allocateDirect(1024);
+        LineCollector lines = new LineCollector();
+
+        reader.read(buf, reader.size(), false, lines);
+        Assert.assertEquals(2, lines.size());
+        Assert.assertEquals("Hyvää päivää", lines.get(0));
+        Assert.assertEquals("γειά σου", lines.get(1));
+
+        // Complete the partial line
+        Files.write(log, " line\n".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        reader.read(buf, reader.size(), false, lines);
+        Assert.assertEquals(3, lines.size());
+        Assert.assertEquals("last line", lines.get(2));
+        Assert.assertEquals(reader.size(), reader.getPosition());
+        reader.close();
+    }
+
+    @Test
+    public void testMultiByteCharset() throws IOException {
+
+        Charset utf16 = Charset.forName("UTF-16LE");
+        Path log = TAIL_PATH.resolve("utf16.log");
+        Files.write(log, "Ċ\r\nsecond\r\n".getBytes(utf16));
+
+        TailFileReader reader = new TailFileReader(log, FileIdentity.of(log),
+                utf16, "\r\n", 0L);
+        LineCollector lines = new LineCollector();
+        reader.read(ByteBuffer.allocateDirect(1024), reader.size(), false, lines);
+
+        // 0x0A byte of the first character is not a delimiter
+        Assert.assertEquals(2, lines.size());
+        Assert.assertEquals("Ċ", lines.get(0));
+        Assert.assertEquals("second", lines.get(1));
+        reader.close();
+    }
+
+    @Test
+    public void testLongLine() throws IOException {
+
+        Path log = TAIL_PATH.resolve("long.log");
+        Files.write(log, "0123456789abcdef\nshort\n".getBytes(StandardCharsets.UTF_8));
+
+        TailFileReader reader = new TailFileReader(log, FileIdentity.of(log),
+                StandardCharsets.UTF_8, "\n", 0L);
+        ByteBuffer buf = ByteBuffer.allocateDirect(8);
+        LineCollector lines = new LineCollector();
+        while (reader.read(buf, reader.size(), false, lines) > 0) {
+            // Read all
+        }
+        Assert.assertEquals("01234567", lines.get(0));
+        Assert.assertEquals("89abcdef", lines.get(1));
+        Assert.assertEquals("short", lines.get(2));
+        reader.close();
+    }
+
+    private static final class LineCollector implements Handler<String> {
+
+        private final List<String> m_lines = new ArrayList();
+
+        @Override
+        public void handle(final String line) {
+            m_lines.add(line);
+        }
+
+        private int size() {
+            return m_lines.size();
+        }
+
+        private String get(final int index) {
+            return m_lines.get(index);
+        }
+    }
+}
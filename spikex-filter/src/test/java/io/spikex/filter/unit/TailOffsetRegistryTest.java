@@ -0,0 +1,149 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.filter.unit;
+
+import io.spikex.filter.internal.FileIdentity;
+import io.spikex.filter.internal.TailOffsetRegistry;
+import io.spikex.filter.internal.TailOffsetRegistry.TailOffset;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tail offset registry tester.
+ *
+ * @author cli
+ */
+public class TailOffsetRegistryTest {
+
+    private static final Path TAIL_PATH = Paths.get("build", "tail-test");
+    private static final long DAY = 24L * 60L * 60L * 1000L;
+
+    @Before
+    public void cleanup() throws IOException {
+        if (Files.exists(TAIL_PATH)) {
+            for (Path file : Files.newDirectoryStream(TAIL_PATH)) {
+                Files.delete(file);
+            }
+        }
+        Files.createDirectories(TAIL_PATH);
+    }
+
+    @Test
+    public void testPersistAndResume() throws IOException {
+
+        Path log = TAIL_PATH.resolve("app.log");
+        Files.write(log, "first line\nsecond line\n".getBytes(StandardCharsets.UTF_8));
+        FileIdentity identity = FileIdentity.of(log);
+
+        Path registryFile = TAIL_PATH.resolve("test.offsets");
+        TailOffsetRegistry registry = new TailOffsetRegistry(registryFile, 60000L, DAY);
+        registry.load();
+        registry.update(log.toString(), identity, 11L);
+
+        // Sync interval has not passed since start
+        registry.flush(System.currentTimeMillis());
+        Assert.assertTrue(Files.exists(registryFile));
+        registry.update(log.toString(), identity, 23L);
+        registry.flush(System.currentTimeMillis());
+        registry.close();
+
+        // Restart
+        registry = new TailOffsetRegistry(registryFile, 60000L, DAY);
+        registry.load();
+        TailOffset offset = registry.get(log.toString());
+        Assert.assertNotNull(offset);
+        Assert.assertEquals(23L, offset.getOffset());
+        Assert.assertTrue(offset.getIdentity().matches(log));
+
+        // Growing file still matches its shorter fingerprint
+        Files.write(log, "third line\n".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        Assert.assertTrue(offset.getIdentity().matches(log));
+    }
+
+    @Test
+    public void testRotation() throws IOException {
+
+        Path log = TAIL_PATH.resolve("app.log");
+        Path rotated = TAIL_PATH.resolve("app.log.1");
+        Files.write(log, "old file\n".getBytes(StandardCharsets.UTF_8));
+        FileIdentity oldIdentity = FileIdentity.of(log);
+
+        TailOffsetRegistry registry = new TailOffsetRegistry(
+                TAIL_PATH.resolve("test.offsets"), 0L, DAY);
+        registry.update(log.toString(), oldIdentity, 4L);
+
+        // Rotate
+        Files.move(log, rotated);
+        Files.write(log, "new file\n".getBytes(StandardCharsets.UTF_8));
+        FileIdentity newIdentity = FileIdentity.of(log);
+
+        Assert.assertFalse(oldIdentity.matches(log));
+        Assert.assertTrue(oldIdentity.matches(rotated));
+        Assert.assertNotNull(registry.find(FileIdentity.of(rotated)));
+        Assert.assertEquals(4L, registry.find(oldIdentity).getOffset());
+
+        // Rest of rotated file is recorded by its rotated path
+        registry.update(rotated.toString(), oldIdentity, 9L);
+        Assert.assertNull(registry.get(log.toString()));
+        registry.update(log.toString(), newIdentity, 0L);
+        registry.update(rotated.toString(), oldIdentity, 9L);
+        Assert.assertEquals(0L, registry.get(log.toString()).getOffset());
+        Assert.assertEquals(9L, registry.get(rotated.toString()).getOffset());
+        Assert.assertEquals(2, registry.getOffsets().size());
+
+        // Finish rotated file and continue with the new one
+        registry.remove(oldIdentity);
+        registry.update(log.toString(), newIdentity, 0L);
+        Assert.assertEquals(1, registry.size());
+        Assert.assertEquals(0L, registry.get(log.toString()).getOffset());
+    }
+
+    @Test
+    public void testRetention() throws IOException {
+
+        Path quiet = TAIL_PATH.resolve("quiet.log");
+        Path gone = TAIL_PATH.resolve("gone.log");
+        Files.write(quiet, "quiet\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(gone, "gone\n".getBytes(StandardCharsets.UTF_8));
+
+        TailOffsetRegistry registry = new TailOffsetRegistry(
+                TAIL_PATH.resolve("test.offsets"), 0L, DAY);
+        registry.update(quiet.toString(), FileIdentity.of(quiet), 6L);
+        registry.update(gone.toString(), FileIdentity.of(gone), 5L);
+
+        // Quiet file is still tailed, the other one is not
+        long later = System.currentTimeMillis() + 2L * DAY;
+        registry.refresh(Arrays.asList(quiet.toString()), later);
+        registry.refresh(Collections.<String>emptyList(), later);
+        registry.flush(later);
+
+        Assert.assertEquals(1, registry.size());
+        Assert.assertNotNull(registry.get(quiet.toString()));
+        Assert.assertNull(registry.get(gone.toString()));
+    }
+}
@@ -31,11 +31,15 @@ import com.hazelcast.core.Hazelcast;
 import com.hazelcast.core.HazelcastInstance;
 import com.hazelcast.core.IMap;
 import com.hazelcast.core.IQueue;
+import com.hazelcast.map.listener.MapListener;
 import io.spikex.core.AbstractActivator;
 import io.spikex.core.helper.Commands;
+import static io.spikex.core.helper.Events.DSTYPE_COUNTER;
+import static io.spikex.core.helper.Events.DSTYPE_GAUGE;
 import io.spikex.core.util.NioDirWatcher;
 import static io.spikex.notifier.NotifierConfig.CONF_KEY_QUEUE_BULK_LOAD;
 import static io.spikex.notifier.NotifierConfig.CONF_KEY_QUEUE_MEMORY_LIMIT;
+import io.spikex.notifier.internal.DedupStore;
 import io.spikex.notifier.internal.HzEventListener;
 import io.spikex.notifier.internal.SimpleQueueStore;
 import java.io.IOException;
@@ -68,18 +72,30 @@ public final class Activator extends AbstractActivator {
     // Distributed notification queue (persisted to disk)
     private IQueue<JsonObject> m_queueNotifs;
 
-    // Distributed map to prevent duplicate handling (in-memory only)
-    private IMap<String, JsonObject> m_handledNotifs;
+    // Distributed map of notification hashes to prevent duplicate handling (in-memory only)
+    private IMap<String, Long> m_handledNotifs;
+    private DedupStore m_dedupStore;
 
-    // Dispatching timer
+    // Dispatching and metrics timers
     private long m_timerId;
+    private long m_metricsTimerId;
 
     // Dispatcher address
     private static final String DISPATCHER_LOCAL_ADDRESS = Dispatcher.class.getName();
 
+    private static final String MAP_NAME = "notifier";
+    private static final long METRICS_INTERVAL_MS = 10000L;
+
+    private static final String METRIC_DEDUP_SIZE = "notifier.dedup.size";
+    private static final String METRIC_DEDUP_CHECKS = "notifier.dedup.checks";
+    private static final String METRIC_DEDUP_FAST_PATH = "notifier.dedup.fast-path";
+    private static final String METRIC_DEDUP_DUPLICATES = "notifier.dedup.duplicates";
+    private static final String METRIC_DEDUP_EVICTIONS = "notifier.dedup.evictions";
+
     public Activator() {
         m_deploymentId = "";
         m_timerId = -1;
+        m_metricsTimerId = -1;
     }
 
     @Override
@@ -103,7 +119,7 @@ public final class Activator extends AbstractActivator {
             hzConfig = hzInstance.getConfig(); // Grab config template
         }
 
-        MapConfig mapConfig = new MapConfig("notifier");
+        MapConfig mapConfig = new MapConfig(MAP_NAME);
         mapConfig.setInMemoryFormat(InMemoryFormat.BINARY);
         mapConfig.setBackupCount(1);
         mapConfig.setEvictionPolicy(EvictionPolicy.LRU);
@@ -131,8 +147,25 @@ public final class Activator extends AbstractActivator {
         hzInstance = Hazelcast.newHazelcastInstance(hzConfig);
         hzInstance.getCluster().addMembershipListener(listener);
 
-        m_handledNotifs = hzInstance.getMap("notifier");
-        m_handledNotifs.addEntryListener(listener, false); // Listen to entry events
+        m_handledNotifs = hzInstance.getMap(MAP_NAME);
+        MapListener mapListener = listener;
+        m_handledNotifs.addEntryListener(mapListener, false); // Listen to entry events
+
+        // Entries expire after the dedup window (entry TTL)
+        m_dedupStore = new DedupStore(
+                m_handledNotifs,
+                m_config.getEntryTimeToLive() * 1000L,
+                m_config.getMaxMapSize());
+        m_dedupStore.start();
+        m_metricsTimerId = vertx.setPeriodic(
+                METRICS_INTERVAL_MS,
+                new Handler<Long>() {
+
+                    @Override
+                    public void handle(final Long timerId) {
+                        publishDedupMetrics();
+                    }
+                });
 
         m_queueNotifs = hzInstance.getQueue("notifier");
         m_queueNotifs.addItemListener(listener, true); // Listen to item events
@@ -241,6 +274,25 @@ public final class Activator extends AbstractActivator {
         }
     }
 
+    @Override
+    protected void stopVerticle() {
+        if (m_metricsTimerId != -1) {
+            vertx.cancelTimer(m_metricsTimerId);
+        }
+        if (m_dedupStore != null) {
+            m_dedupStore.stop();
+        }
+    }
+
+    private void publishDedupMetrics() {
+        DedupStore store = m_dedupStore;
+        publishMetric(METRIC_DEDUP_SIZE, MAP_NAME, store.getLocalSize(), DSTYPE_GAUGE);
+        publishMetric(METRIC_DEDUP_CHECKS, MAP_NAME, store.getCheckCount(), DSTYPE_COUNTER);
+        publishMetric(METRIC_DEDUP_FAST_PATH, MAP_NAME, store.getFastPathCount(), DSTYPE_COUNTER);
+        publishMetric(METRIC_DEDUP_DUPLICATES, MAP_NAME, store.getDuplicateCount(), DSTYPE_COUNTER);
+        publishMetric(METRIC_DEDUP_EVICTIONS, MAP_NAME, store.getEvictionCount(), DSTYPE_COUNTER);
+    }
+
     private void dispatchEvents() {
         //
         // Read next batch of events from map (if any)
@@ -309,7 +361,7 @@ public final class Activator extends AbstractActivator {
         //
         m_notifier = new Notifier(
                 m_queueNotifs,
-                m_handledNotifs,
+                m_dedupStore,
                 m_config,
                 variables(),
                 confPath(),
@@ -29,10 +29,11 @@ import io.spikex.core.helper.Variables;
 import io.spikex.core.util.CronEntry;
 import static io.spikex.core.util.Files.Permission.OWNER_FULL_GROUP_EXEC;
 import io.spikex.core.util.Version;
-import io.spikex.core.util.XXHash32;
 import io.spikex.core.util.resource.TextResource;
 import io.spikex.notifier.NotifierConfig.DestinationDef;
 import io.spikex.notifier.NotifierConfig.TemplateDef;
+import io.spikex.notifier.internal.DedupStore;
+import io.spikex.notifier.internal.JsonScope;
 import io.spikex.notifier.internal.Rule;
 import java.io.IOException;
 import java.io.StringReader;
@@ -47,7 +48,6 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ConcurrentMap;
 import java.util.function.Function;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -76,9 +76,9 @@ public final class Notifier implements Handler<Message<JsonObject>> {
     private final Path m_confPath;
     private final String m_user;
 
-    // Notification queue and map
+    // Notification queue and dedup store
     private final Queue<JsonObject> m_queue;
-    private final ConcurrentMap<String, JsonObject> m_map;
+    private final DedupStore m_dedupStore;
 
     // Mustache templates
     private final Map<String, Mustache> m_templates;
@@ -91,20 +91,19 @@ public final class Notifier implements Handler<Message<JsonObject>> {
     private static final String EVENT_FIELD_NOTIF_DANGER = "@danger";
 
     private static final String TEMPLATE_DIR = "template";
-    private static final int HASH_SALT = 0x23881;
 
     private final Logger m_logger = LoggerFactory.getLogger(Notifier.class);
 
     public Notifier(
             final Queue<JsonObject> queue,
-            final ConcurrentMap<String, JsonObject> map,
+            final DedupStore dedupStore,
             final NotifierConfig config,
             final Variables variables,
             final Path confPath,
             final String user) {
 
         m_queue = queue;
-        m_map = map;
+        m_dedupStore = dedupStore;
         m_config = config;
         m_variables = variables;
         m_confPath = confPath;
@@ -213,29 +212,32 @@ public final class Notifier implements Handler<Message<JsonObject>> {
         //
         // Find matching rule
         //
-        m_logger.debug("Received: {}", message.body());
+        JsonObject body = message.body();
+        m_logger.debug("Received: {}", body);
         DateTime now = DateTime.now();
         String timezone = now.getZone().getID();
         Map<String, CronEntry> schedules = m_config.getSchedules();
         List<Rule> rules = m_config.getRules();
+        String dedupKey = null; // Same for all rules
         for (Rule rule : rules) {
             //
-            // Matching schedule and tags?
+            // Matching schedule and tags? (rules only read the event)
             //
             CronEntry entry = schedules.get(rule.getSchedule());
             if (!timezone.equals(entry.getTimezone())) {
                 timezone = entry.getTimezone();
                 now = DateTime.now(DateTimeZone.forID(timezone));
             }
-            // We must make a copy (we want to replace @message with the translated template contents)
-            JsonObject event = new JsonObject().mergeIn(message.body());
             if (entry.isDefined(now)
-                    && rule.match(event)) {
+                    && rule.match(body)) {
 
                 List<String> destinations = rule.getDestinations();
                 m_logger.debug("Rule \"{}\" matched - template: {} notifying: {}",
                         rule.getName(), rule.getTemplate(), destinations);
 
+                // We must make a copy (we want to replace @message with the translated template contents)
+                JsonObject event = new JsonObject().mergeIn(body);
+
                 //
                 // Add optional fields (if missing) - so that templates work correctly
                 //
@@ -255,9 +257,7 @@ public final class Notifier implements Handler<Message<JsonObject>> {
                 String subject = m_variables.translate(event, rule.getSubject());
                 Mustache template = m_templates.get(rule.getTemplate());
                 StringWriter writer = new StringWriter();
-                Map scopes = new HashMap(event.toMap());
-                scopes.putAll(m_functions); // Functions
-                template.execute(writer, scopes);
+                template.execute(writer, new JsonScope(event, m_functions));
                 List<String> resolvedDestinations = resolveDestinations(destinations);
 
                 //
@@ -267,11 +267,14 @@ public final class Notifier implements Handler<Message<JsonObject>> {
                 event.putString(EVENT_FIELD_MESSAGE, writer.toString());
                 event.putArray(EVENT_FIELD_DESTINATIONS, new JsonArray(resolvedDestinations));
 
-                if (m_map != null
+                if (m_dedupStore != null
                         && m_queue != null) {
 
-                    // Calculate event hash
-                    String hash = XXHash32.hashAsHex(event.toString(), HASH_SALT);
+                    // Calculate event hash (notification content depends only on event and rule)
+                    if (dedupKey == null) {
+                        dedupKey = DedupStore.dedupKey(body, m_config.getDedupFields());
+                    }
+                    String hash = DedupStore.hash(dedupKey, rule.getName());
 
                     m_logger.info("Storing notification: {} priority: {} destinations: {} subject: {} hash: {}",
                             event.getString(EVENT_FIELD_ID, ""),
@@ -280,7 +283,7 @@ public final class Notifier implements Handler<Message<JsonObject>> {
                             subject,
                             hash);
 
-                    if (m_map.putIfAbsent(hash, event) == null) {
+                    if (m_dedupStore.putIfNew(hash, System.currentTimeMillis())) {
                         m_queue.add(event);
                     } else {
                         m_logger.info("Ignoring duplicate event: {}", hash);
@@ -28,6 +28,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
 
 /**
  *
@@ -39,6 +40,7 @@ public final class NotifierConfig extends AbstractConfig {
     private final Map<String, TemplateDef> m_templates;
     private final Map<String, DestinationDef> m_destinations;
     private final Map<String, CronEntry> m_schedules;
+    private final List<String> m_dedupFields;
 
     private String m_localAddress;
     private long m_dispatcherInterval;
@@ -73,6 +75,7 @@ public final class NotifierConfig extends AbstractConfig {
     private static final String CONF_KEY_RULES = "rules";
     private static final String CONF_KEY_ENTRY_TIME_TO_LIVE = "entry-ttl";
     private static final String CONF_KEY_MAX_MAP_SIZE = "max-map-size";
+    private static final String CONF_KEY_DEDUP_FIELDS = "dedup-fields";
     private static final String CONF_KEY_MAX_QUEUE_SIZE = "max-queue-size";
     private static final String CONF_KEY_QUEUE_BACKUP_COUNT = "queue-backup-count";
     private static final String CONF_KEY_EMAIL = "email";
@@ -127,6 +130,7 @@ public final class NotifierConfig extends AbstractConfig {
         m_templates = new HashMap();
         m_destinations = new HashMap();
         m_schedules = new HashMap();
+        m_dedupFields = new ArrayList();
         m_dispatcherInterval = -1L;
         m_dispatcherBatchSize = -1;
         m_entryTimeToLive = -1;
@@ -187,6 +191,16 @@ public final class NotifierConfig extends AbstractConfig {
         return m_queueBackupCount;
     }
 
+    /**
+     * Returns the event fields that identify a duplicate notification. An
+     * empty list means all fields of the event.
+     *
+     * @return the dedup fields (sorted)
+     */
+    public List<String> getDedupFields() {
+        return m_dedupFields;
+    }
+
     public List<Rule> getRules() {
         return m_rules;
     }
@@ -253,6 +267,12 @@ public final class NotifierConfig extends AbstractConfig {
             m_fileHtmlUnescape = conf.getValue(CONF_KEY_DISPATCHER_FILE_HTML_UNESCAPE,
                     DEF_DISPATCHER_FILE_HTML_UNESCAPE);
 
+            m_dedupFields.clear();
+            List<String> dedupFields = conf.getList(CONF_KEY_DEDUP_FIELDS, new ArrayList());
+            for (String field : new TreeSet<String>(dedupFields)) {
+                m_dedupFields.add(field);
+            }
+
             buildTemplates(resource);
             buildDestinations(resource);
             buildSchedules(resource);
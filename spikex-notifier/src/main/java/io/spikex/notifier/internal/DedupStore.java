@@ -0,0 +1,252 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.notifier.internal;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.hazelcast.core.EntryEvent;
+import com.hazelcast.core.IMap;
+import com.hazelcast.map.listener.EntryAddedListener;
+import com.hazelcast.map.listener.EntryEvictedListener;
+import com.hazelcast.map.listener.MapListener;
+import io.spikex.core.util.XXHash32;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Cluster-wide store of notification hashes that have been seen within the
+ * dedup window. Only the hash and the time it was first seen are stored in the
+ * distributed map and every entry expires after the window.
+ * <p>
+ * A local bloom filter holds the hashes added on any member (via map entry
+ * events). If the filter does not contain a hash, the hash is definitely new
+ * and it is stored asynchronously without waiting for the cluster. Otherwise
+ * the map decides with an atomic put-if-absent. The filter is rotated every
+ * window, so that it only remembers the last one or two windows.
+ * <p>
+ * A notification produced concurrently on two members may pass twice if the
+ * entry event of the first member has not arrived yet.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author cli
+ */
+public final class DedupStore implements EntryAddedListener<String, Long>, EntryEvictedListener<String, Long> {
+
+    private final IMap<String, Long> m_map;
+    private final long m_window; // ms
+    private final int m_expectedKeys;
+
+    // Bloom filters of current and previous window (guarded by this)
+    private BloomFilter<CharSequence> m_current;
+    private BloomFilter<CharSequence> m_previous;
+    private long m_rotated; // ms
+
+    private final AtomicLong m_checks;
+    private final AtomicLong m_fastPath; // Definitely new (no cluster round-trip)
+    private final AtomicLong m_duplicates;
+    private final AtomicLong m_evictions; // Expired or evicted entries
+    private String m_listenerId;
+
+    private static final double BLOOM_FPP = 0.01d;
+    private static final int HASH_SALT = 0x23881;
+
+    private final Logger m_logger = LoggerFactory.getLogger(DedupStore.class);
+
+    public DedupStore(
+            final IMap<String, Long> map,
+            final long window,
+            final int expectedKeys) {
+
+        Preconditions.checkNotNull(map, "map is null");
+        Preconditions.checkArgument(window > 0L, "window must be positive");
+        Preconditions.checkArgument(expectedKeys > 0, "expectedKeys must be positive");
+
+        m_map = map;
+        m_window = window;
+        m_expectedKeys = expectedKeys;
+        m_current = createFilter(expectedKeys);
+        m_previous = createFilter(expectedKeys);
+        m_rotated = System.currentTimeMillis();
+        m_checks = new AtomicLong();
+        m_fastPath = new AtomicLong();
+        m_duplicates = new AtomicLong();
+        m_evictions = new AtomicLong();
+    }
+
+    /**
+     * Starts listening for entries added on any member and adds the hashes
+     * that are already stored in the map to the bloom filter.
+     */
+    public void start() {
+        MapListener listener = this;
+        m_listenerId = m_map.addEntryListener(listener, false);
+        synchronized (this) {
+            for (String hash : m_map.keySet()) {
+                m_current.put(hash);
+            }
+        }
+    }
+
+    public void stop() {
+        String listenerId = m_listenerId;
+        if (listenerId != null) {
+            m_map.removeEntryListener(listenerId);
+            m_listenerId = null;
+        }
+    }
+
+    /**
+     * Stores the hash if it has not been seen within the dedup window.
+     *
+     * @param hash the notification hash
+     * @param now the current time in milliseconds
+     * @return true if the hash is new, false if it is a duplicate
+     */
+    public boolean putIfNew(
+            final String hash,
+            final long now) {
+
+        m_checks.incrementAndGet();
+
+        boolean known;
+        synchronized (this) {
+            rotate(now);
+            known = m_current.mightContain(hash) || m_previous.mightContain(hash);
+            m_current.put(hash);
+        }
+
+        boolean added;
+        if (!known) {
+            m_fastPath.incrementAndGet();
+            m_map.putAsync(hash, now, m_window, TimeUnit.MILLISECONDS);
+            added = true;
+        } else {
+            added = (m_map.putIfAbsent(hash, now, m_window, TimeUnit.MILLISECONDS) == null);
+        }
+
+        if (!added) {
+            m_duplicates.incrementAndGet();
+        }
+        return added;
+    }
+
+    public long getCheckCount() {
+        return m_checks.get();
+    }
+
+    public long getFastPathCount() {
+        return m_fastPath.get();
+    }
+
+    public long getDuplicateCount() {
+        return m_duplicates.get();
+    }
+
+    public long getEvictionCount() {
+        return m_evictions.get();
+    }
+
+    /**
+     * Returns the number of entries owned by this member.
+     *
+     * @return the local entry count
+     */
+    public long getLocalSize() {
+        return m_map.getLocalMapStats().getOwnedEntryCount();
+    }
+
+    @Override
+    public void entryAdded(final EntryEvent<String, Long> event) {
+        synchronized (this) {
+            m_current.put(event.getKey());
+        }
+    }
+
+    @Override
+    public void entryEvicted(final EntryEvent<String, Long> event) {
+        m_evictions.incrementAndGet();
+        m_logger.trace("Notification hash expired: {}", event.getKey());
+    }
+
+    /**
+     * Returns the canonical form of the dedup fields of the event: field names
+     * in sorted order followed by their values. All fields of the event are
+     * used if no dedup fields have been defined.
+     *
+     * @param event the event
+     * @param dedupFields the sorted dedup fields (or an empty list)
+     * @return the dedup key of the event
+     */
+    public static String dedupKey(
+            final JsonObject event,
+            final List<String> dedupFields) {
+
+        List<String> fields = dedupFields;
+        if (fields.isEmpty()) {
+            fields = new ArrayList(event.getFieldNames());
+            Collections.sort(fields);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String field : fields) {
+            Object value = event.getValue(field);
+            sb.append(field);
+            sb.append('=');
+            sb.append(value);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the notification hash of the given dedup key and rule.
+     *
+     * @param dedupKey the dedup key of the event
+     * @param ruleName the name of the matching rule
+     * @return the hash as a hex string
+     */
+    public static String hash(
+            final String dedupKey,
+            final String ruleName) {
+
+        return XXHash32.hashAsHex(dedupKey + ruleName, HASH_SALT);
+    }
+
+    private void rotate(final long now) {
+        if (now - m_rotated >= m_window) {
+            m_previous = m_current;
+            m_current = createFilter(m_expectedKeys);
+            m_rotated = now;
+        }
+    }
+
+    private static BloomFilter<CharSequence> createFilter(final int expectedKeys) {
+        return BloomFilter.create(
+                Funnels.stringFunnel(Charsets.UTF_8),
+                expectedKeys,
+                BLOOM_FPP);
+    }
+}
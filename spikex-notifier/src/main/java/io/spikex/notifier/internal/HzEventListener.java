@@ -34,12 +34,12 @@ import org.vertx.java.core.json.JsonObject;
  *
  * @author cli
  */
-public final class HzEventListener implements MembershipListener, EntryListener<String, JsonObject>, ItemListener<JsonObject> {
+public final class HzEventListener implements MembershipListener, EntryListener<String, Long>, ItemListener<JsonObject> {
 
     private final Logger m_logger = LoggerFactory.getLogger(HzEventListener.class);
 
     @Override
-    public void entryAdded(final EntryEvent<String, JsonObject> event) {
+    public void entryAdded(final EntryEvent<String, Long> event) {
         m_logger.debug("Member: {} {} - entry added: {}",
                 event.getMember().getSocketAddress(),
                 event.getMember().getUuid(),
@@ -47,7 +47,7 @@ public final class HzEventListener implements MembershipListener, EntryListener<
     }
 
     @Override
-    public void entryUpdated(final EntryEvent<String, JsonObject> event) {
+    public void entryUpdated(final EntryEvent<String, Long> event) {
         m_logger.debug("Member: {} {} - entry updated: {}",
                 event.getMember().getSocketAddress(),
                 event.getMember().getUuid(),
@@ -55,7 +55,7 @@ public final class HzEventListener implements MembershipListener, EntryListener<
     }
 
     @Override
-    public void entryRemoved(final EntryEvent<String, JsonObject> event) {
+    public void entryRemoved(final EntryEvent<String, Long> event) {
         m_logger.debug("Member: {} {} - entries removed: {}",
                 event.getMember().getSocketAddress(),
                 event.getMember().getUuid(),
@@ -63,7 +63,7 @@ public final class HzEventListener implements MembershipListener, EntryListener<
     }
 
     @Override
-    public void entryEvicted(final EntryEvent<String, JsonObject> event) {
+    public void entryEvicted(final EntryEvent<String, Long> event) {
         m_logger.debug("Member: {} {} - entries evicted: {}",
                 event.getMember().getSocketAddress(),
                 event.getMember().getUuid(),
@@ -0,0 +1,114 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.notifier.internal;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Read-only Mustache scope over a JSON object. Values are looked up from the
+ * object when the template asks for them, so the object is never copied.
+ * Nested objects and arrays are wrapped on access. Functions take precedence
+ * over event fields of the same name.
+ * <p>
+ * Not thread-safe.
+ *
+ * @author cli
+ */
+public final class JsonScope extends AbstractMap<String, Object> {
+
+    private final JsonObject m_json;
+    private final Map<String, Object> m_functions;
+    private Set<Entry<String, Object>> m_entries; // Built only if iterated
+
+    public JsonScope(
+            final JsonObject json,
+            final Map<String, Object> functions) {
+
+        m_json = json;
+        m_functions = functions;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return m_functions.containsKey(key)
+                || (key instanceof String && m_json.containsField((String) key));
+    }
+
+    @Override
+    public Object get(final Object key) {
+        Object value = m_functions.get(key);
+        if (value == null && key instanceof String) {
+            value = wrap(m_json.getValue((String) key));
+        }
+        return value;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        Set<Entry<String, Object>> entries = m_entries;
+        if (entries == null) {
+            entries = new LinkedHashSet();
+            for (String name : m_json.getFieldNames()) {
+                if (!m_functions.containsKey(name)) {
+                    entries.add(new SimpleImmutableEntry(name, get(name)));
+                }
+            }
+            entries.addAll(m_functions.entrySet());
+            entries = Collections.unmodifiableSet(entries);
+            m_entries = entries;
+        }
+        return entries;
+    }
+
+    private static Object wrap(final Object value) {
+        Object scope = value;
+        if (value instanceof JsonObject) {
+            scope = new JsonScope((JsonObject) value,
+                    Collections.<String, Object>emptyMap());
+        } else if (value instanceof JsonArray) {
+            scope = new ArrayScope((JsonArray) value);
+        }
+        return scope;
+    }
+
+    private static final class ArrayScope extends AbstractList<Object> {
+
+        private final JsonArray m_array;
+
+        private ArrayScope(final JsonArray array) {
+            m_array = array;
+        }
+
+        @Override
+        public Object get(final int index) {
+            return wrap(m_array.get(index));
+        }
+
+        @Override
+        public int size() {
+            return m_array.size();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.notifier.unit;
+
+import io.spikex.notifier.internal.DedupStore;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.Assert;
+import org.junit.Test;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Dedup key and hash tester.
+ *
+ * @author cli
+ */
+public class DedupKeyTest {
+
+    @Test
+    public void testAllFields() {
+
+        List<String> none = Collections.emptyList();
+
+        // Field order does not matter
+        JsonObject event1 = new JsonObject();
+        event1.putString("@host", "node1");
+        event1.putNumber("@priority", 3);
+        event1.putString("@id", "e1");
+
+        JsonObject event2 = new JsonObject();
+        event2.putString("@id", "e1");
+        event2.putString("@host", "node1");
+        event2.putNumber("@priority", 3);
+
+        String key1 = DedupStore.dedupKey(event1, none);
+        Assert.assertEquals("@host=node1\n@id=e1\n@priority=3\n", key1);
+        Assert.assertEquals(key1, DedupStore.dedupKey(event2, none));
+
+        event2.putString("@id", "e2");
+        Assert.assertFalse(key1.equals(DedupStore.dedupKey(event2, none)));
+    }
+
+    @Test
+    public void testDedupFields() {
+
+        List<String> fields = Arrays.asList("@host", "@title");
+
+        JsonObject event1 = new JsonObject();
+        event1.putString("@id", "e1");
+        event1.putString("@host", "node1");
+        event1.putString("@title", "Disk full");
+
+        JsonObject event2 = new JsonObject();
+        event2.putString("@id", "e2");
+        event2.putString("@host", "node1");
+        event2.putString("@title", "Disk full");
+
+        // Other fields are ignored, missing fields are null
+        String key1 = DedupStore.dedupKey(event1, fields);
+        Assert.assertEquals("@host=node1\n@title=Disk full\n", key1);
+        Assert.assertEquals(key1, DedupStore.dedupKey(event2, fields));
+        Assert.assertEquals("@host=null\n@title=null\n",
+                DedupStore.dedupKey(new JsonObject(), fields));
+    }
+
+    @Test
+    public void testHash() {
+
+        String key = "@host=node1\n@title=Disk full\n";
+        String hash = DedupStore.hash(key, "disk-rule");
+        Assert.assertEquals(8, hash.length());
+        Assert.assertEquals(hash, DedupStore.hash(key, "disk-rule"));
+
+        // Same event, different rule
+        Assert.assertFalse(hash.equals(DedupStore.hash(key, "any-rule")));
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.notifier.unit;
+
+import com.eaio.uuid.UUID;
+import com.hazelcast.config.Config;
+import com.hazelcast.config.JoinConfig;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import io.spikex.notifier.internal.DedupStore;
+import junit.framework.Assert;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * DedupStore tester (two in-process Hazelcast members).
+ *
+ * @author cli
+ */
+public class DedupStoreTest {
+
+    private static HazelcastInstance m_member1;
+    private static HazelcastInstance m_member2;
+
+    private static final String GROUP_NAME = "dedup-test-" + new UUID().toString();
+
+    @BeforeClass
+    public static void startMembers() {
+        m_member1 = Hazelcast.newHazelcastInstance(createConfig());
+        m_member2 = Hazelcast.newHazelcastInstance(createConfig());
+    }
+
+    @AfterClass
+    public static void stopMembers() {
+        m_member1.shutdown();
+        m_member2.shutdown();
+    }
+
+    @Test
+    public void testDuplicates() {
+
+        IMap<String, Long> map = m_member1.getMap("dedup-duplicates");
+        DedupStore store = new DedupStore(map, 60000L, 1000);
+        store.start();
+
+        long now = System.currentTimeMillis();
+        Assert.assertTrue(store.putIfNew("a1b2c3d4", now));
+        Assert.assertTrue(store.putIfNew("e5f6a7b8", now));
+        Assert.assertFalse(store.putIfNew("a1b2c3d4", now));
+        Assert.assertFalse(store.putIfNew("e5f6a7b8", now));
+
+        Assert.assertEquals(4L, store.getCheckCount());
+        Assert.assertEquals(2L, store.getFastPathCount());
+        Assert.assertEquals(2L, store.getDuplicateCount());
+        Assert.assertEquals(2, map.size());
+        store.stop();
+    }
+
+    @Test
+    public void testClusterDuplicates() {
+
+        IMap<String, Long> map1 = m_member1.getMap("dedup-cluster");
+        IMap<String, Long> map2 = m_member2.getMap("dedup-cluster");
+
+        DedupStore store1 = new DedupStore(map1, 60000L, 1000);
+        store1.start();
+        long now = System.currentTimeMillis();
+        Assert.assertTrue(store1.putIfNew("0badcafe", now));
+        map1.put("deadbeef", now); // Wait until stored
+
+        // Existing hashes are added to the bloom filter of a new member
+        DedupStore store2 = new DedupStore(map2, 60000L, 1000);
+        store2.start();
+        Assert.assertFalse(store2.putIfNew("0badcafe", now));
+        Assert.assertFalse(store2.putIfNew("deadbeef", now));
+        Assert.assertTrue(store2.putIfNew("00c0ffee", now));
+        Assert.assertEquals(2L, store2.getDuplicateCount());
+
+        store1.stop();
+        store2.stop();
+    }
+
+    @Test
+    public void testWindow() throws InterruptedException {
+
+        IMap<String, Long> map = m_member2.getMap("dedup-window");
+        DedupStore store = new DedupStore(map, 1000L, 1000);
+        store.start();
+
+        Assert.assertTrue(store.putIfNew("1234abcd", System.currentTimeMillis()));
+        Assert.assertFalse(store.putIfNew("1234abcd", System.currentTimeMillis()));
+
+        // Wait for entry to expire
+        for (int i = 0; i < 100 && store.getEvictionCount() == 0L; i++) {
+            Thread.sleep(100L);
+        }
+        Assert.assertEquals(1L, store.getEvictionCount());
+        Assert.assertEquals(0L, store.getLocalSize());
+        Assert.assertTrue(store.putIfNew("1234abcd", System.currentTimeMillis()));
+        store.stop();
+    }
+
+    private static Config createConfig() {
+        Config config = new Config();
+        config.getGroupConfig().setName(GROUP_NAME);
+        config.setProperty("hazelcast.logging.type", "slf4j");
+        JoinConfig join = config.getNetworkConfig().getJoin();
+        join.getMulticastConfig().setEnabled(false);
+        join.getTcpIpConfig().setEnabled(true).addMember("127.0.0.1");
+        return config;
+    }
+}
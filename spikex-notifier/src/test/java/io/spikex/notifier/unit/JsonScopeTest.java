@@ -0,0 +1,103 @@
+/**
+ *
+ * Copyright (c) 2015 NG Modular Oy.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.spikex.notifier.unit;
+
+import com.github.mustachejava.DefaultMustacheFactory;
+import com.github.mustachejava.Mustache;
+import io.spikex.notifier.internal.JsonScope;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import junit.framework.Assert;
+import org.junit.Test;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * JsonScope tester.
+ *
+ * @author cli
+ */
+public class JsonScopeTest {
+
+    private static final String EVENT = "{\"@host\":\"node1\","
+            + "\"@danger\":false,"
+            + "\"@success\":true,"
+            + "\"disk\":{\"mount\":\"/var\"},"
+            + "\"items\":[{\"n\":1},{\"n\":2}],"
+            + "\"@message\":\"<b>\"}";
+
+    @Test
+    public void testLookup() {
+
+        JsonObject event = new JsonObject(EVENT);
+        Map<String, Object> functions = new HashMap();
+        functions.put("@host", "function wins");
+
+        JsonScope scope = new JsonScope(event, functions);
+        Assert.assertTrue(scope.containsKey("@danger"));
+        Assert.assertFalse(scope.containsKey("missing"));
+        Assert.assertNull(scope.get("missing"));
+        Assert.assertEquals("function wins", scope.get("@host"));
+        Assert.assertEquals(Boolean.TRUE, scope.get("@success"));
+        Assert.assertEquals("/var", ((Map) scope.get("disk")).get("mount"));
+        Assert.assertEquals(2, ((List) scope.get("items")).size());
+        Assert.assertEquals(6, scope.size());
+
+        // Read-only
+        try {
+            scope.put("@host", "node2");
+            Assert.fail("Scope is not read-only");
+        } catch (UnsupportedOperationException e) {
+            // OK
+        }
+        Assert.assertEquals("node1", event.getString("@host"));
+    }
+
+    @Test
+    public void testTemplate() {
+
+        Map<String, Object> functions = new HashMap();
+        functions.put("upper", new Function<String, String>() {
+
+            @Override
+            public String apply(String text) {
+                return text.toUpperCase();
+            }
+        });
+
+        Mustache template = new DefaultMustacheFactory().compile(
+                new StringReader("{{@host}} {{disk.mount}} "
+                        + "{{#items}}[{{n}}]{{/items}}"
+                        + "{{#@danger}}D{{/@danger}}"
+                        + "{{#@success}}S:{{@host}}{{/@success}} "
+                        + "{{#upper}}{{@host}}{{/upper}}{{missing}}"), "test");
+
+        StringWriter writer = new StringWriter();
+        template.execute(writer, new JsonScope(new JsonObject(EVENT), functions));
+        Assert.assertEquals("node1 /var [1][2]S:node1 NODE1", writer.toString());
+
+        writer = new StringWriter();
+        template.execute(writer, new JsonScope(new JsonObject(),
+                Collections.<String, Object>emptyMap()));
+        Assert.assertEquals("   ", writer.toString());
+    }
+}